@@ -0,0 +1,13 @@
+#!/bin/sh
+# Runs every Lox benchmark script once and prints what each reports:
+# its name, a result to check, the elapsed seconds and operations per second.
+#
+# Build the interpreter first with `mvn compile` in the repository root.
+# Any extra arguments are passed to the interpreter before the script path.
+
+cd "$(dirname "$0")" || exit 1
+
+for script in src/main/resources/scripts/*.lox; do
+    java -cp ../target/classes com.craftinginterpreters.lox.Lox "$@" "$script" || exit $?
+    echo
+done
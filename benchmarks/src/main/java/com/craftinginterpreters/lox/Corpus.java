@@ -0,0 +1,222 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic, deterministic Lox sources for the benchmarks.
+ *
+ * Each kind stresses a different path through the Scanner. Every generated program is
+ * lexically valid so that no benchmark measures error reporting by accident.
+ */
+public final class Corpus {
+    public enum Kind {
+        IDENTIFIERS,
+        NUMBERS,
+        STRINGS,
+        COMMENTS,
+        BLOCK_COMMENTS,
+        MIXED
+    }
+
+    private static final String[] KEYWORDS = {
+            "and", "class", "else", "false", "for", "fun", "if", "nil", "or",
+            "print", "return", "super", "this", "true", "var", "while"
+    };
+
+    private static final String[] OPERATORS = {
+            "+", "-", "*", "/", "<", "<=", ">", ">=", "==", "!=", "!", "="
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Generates roughly targetBytes characters of source of the given kind.
+     */
+    static String generate(Kind kind, int targetBytes, long seed) {
+        Random random = new Random(seed);
+        StringBuilder out = new StringBuilder(targetBytes + 128);
+        while (out.length() < targetBytes) {
+            switch (kind) {
+                case IDENTIFIERS:
+                    identifierLine(out, random);
+                    break;
+                case NUMBERS:
+                    numberLine(out, random);
+                    break;
+                case STRINGS:
+                    stringLine(out, random);
+                    break;
+                case COMMENTS:
+                    commentLine(out, random);
+                    break;
+                case BLOCK_COMMENTS:
+                    commentBlock(out, random);
+                    break;
+                case MIXED:
+                    mixedBlock(out, random, 0);
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Generates roughly targetBytes characters of a runnable program: many small functions,
+     * each called once from the top level. Unlike generate(), the result parses, resolves
+     * and runs without errors.
+     */
+    static String program(int targetBytes, long seed) {
+        Random random = new Random(seed);
+        StringBuilder out = new StringBuilder(targetBytes + 256);
+        for (int i = 0; out.length() < targetBytes; i++) {
+            out.append("fun f").append(i).append("(a, b) {\n");
+            out.append("  var x = a * ").append(1 + random.nextInt(9)).append(" + b;\n");
+            out.append("  if (x > ").append(random.nextInt(100)).append(") { x = x - 1; } else { x = x + 1; }\n");
+            out.append("  var i = 0;\n");
+            out.append("  while (i < ").append(1 + random.nextInt(5)).append(") { x = x + i; i = i + 1; }\n");
+            out.append("  return x;\n");
+            out.append("}\n");
+            out.append("var r").append(i).append(" = f").append(i).append("(")
+                    .append(random.nextInt(50)).append(", ").append(random.nextInt(50)).append(");\n");
+        }
+        return out.toString();
+    }
+
+    private static void identifierLine(StringBuilder out, Random random) {
+        for (int i = 0; i < 8; i++) {
+            if (random.nextInt(4) == 0) {
+                out.append(KEYWORDS[random.nextInt(KEYWORDS.length)]);
+            } else {
+                identifier(out, random);
+            }
+            out.append(' ');
+        }
+        out.append('\n');
+    }
+
+    private static void numberLine(StringBuilder out, Random random) {
+        for (int i = 0; i < 8; i++) {
+            number(out, random);
+            out.append(i == 7 ? ";\n" : ", ");
+        }
+    }
+
+    private static void stringLine(StringBuilder out, Random random) {
+        out.append("print \"");
+        int words = 3 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) out.append(' ');
+            identifier(out, random);
+        }
+        // Roughly one string in eight spans two lines.
+        if (random.nextInt(8) == 0) out.append("\ncontinued");
+        out.append("\";\n");
+    }
+
+    private static void commentLine(StringBuilder out, Random random) {
+        out.append("// ");
+        int words = 5 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            identifier(out, random);
+            out.append(' ');
+        }
+        out.append('\n');
+        if (random.nextInt(4) == 0) {
+            out.append("var ");
+            identifier(out, random);
+            out.append(" = nil;\n");
+        }
+    }
+
+    /**
+     * A doc-comment block like the ones generated code carries, sometimes with a nested
+     * comment inside, followed by a declaration.
+     */
+    private static void commentBlock(StringBuilder out, Random random) {
+        out.append("/*\n");
+        int lines = 3 + random.nextInt(12);
+        for (int i = 0; i < lines; i++) {
+            out.append(" * ");
+            if (random.nextInt(6) == 0) out.append("/* nested */ ");
+            int words = 5 + random.nextInt(10);
+            for (int j = 0; j < words; j++) {
+                identifier(out, random);
+                out.append(' ');
+            }
+            out.append('\n');
+        }
+        out.append(" */\nvar ");
+        identifier(out, random);
+        out.append(" = nil;\n");
+    }
+
+    private static void mixedBlock(StringBuilder out, Random random, int depth) {
+        indent(out, depth);
+        out.append("fun ");
+        identifier(out, random);
+        out.append("(a, b) {\n");
+        for (int i = 0; i < 4; i++) {
+            indent(out, depth + 1);
+            switch (random.nextInt(5)) {
+                case 0:
+                    out.append("var ");
+                    identifier(out, random);
+                    out.append(" = ");
+                    number(out, random);
+                    out.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(" a;\n");
+                    break;
+                case 1:
+                    out.append("print \"");
+                    identifier(out, random);
+                    out.append(" value\";\n");
+                    break;
+                case 2:
+                    out.append("// ");
+                    identifier(out, random);
+                    out.append(" is a comment\n");
+                    break;
+                case 3:
+                    out.append("if (a != b and !(a >= b)) return a.field;\n");
+                    break;
+                default:
+                    if (depth < 6) {
+                        out.append('\n');
+                        mixedBlock(out, random, depth + 1);
+                    } else {
+                        out.append("while (a < b) a = a + 1;\n");
+                    }
+            }
+        }
+        indent(out, depth + 1);
+        out.append("return b;\n");
+        indent(out, depth);
+        out.append("}\n");
+    }
+
+    private static void identifier(StringBuilder out, Random random) {
+        int length = 1 + random.nextInt(12);
+        out.append((char) ('a' + random.nextInt(26)));
+        for (int i = 1; i < length; i++) {
+            int pick = random.nextInt(38);
+            if (pick < 26) {
+                out.append((char) ('a' + pick));
+            } else if (pick < 36) {
+                out.append((char) ('0' + pick - 26));
+            } else {
+                out.append(pick == 36 ? '_' : 'Z');
+            }
+        }
+    }
+
+    private static void number(StringBuilder out, Random random) {
+        out.append(random.nextInt(100000));
+        if (random.nextBoolean()) {
+            out.append('.').append(random.nextInt(1000));
+        }
+    }
+
+    private static void indent(StringBuilder out, int depth) {
+        for (int i = 0; i < depth; i++) out.append("  ");
+    }
+}
@@ -0,0 +1,92 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Keyword recognition for every identifier of an identifier-heavy corpus: the original
+ * substring + HashMap lookup against the allocation-free Keywords table.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeywordBenchmark {
+    private static final Map<String, TokenType> keywords = new HashMap<>();
+
+    static {
+        keywords.put("and", AND);
+        keywords.put("class", CLASS);
+        keywords.put("else", ELSE);
+        keywords.put("false", FALSE);
+        keywords.put("for", FOR);
+        keywords.put("fun", FUN);
+        keywords.put("if", IF);
+        keywords.put("nil", NIL);
+        keywords.put("or", OR);
+        keywords.put("print", PRINT);
+        keywords.put("return", RETURN);
+        keywords.put("super", SUPER);
+        keywords.put("this", THIS);
+        keywords.put("true", TRUE);
+        keywords.put("var", VAR);
+        keywords.put("while", WHILE);
+    }
+
+    private String source;
+    private int[] starts;
+    private int[] ends;
+
+    @Setup
+    public void setUp() {
+        source = Corpus.generate(Corpus.Kind.IDENTIFIERS, 256 * 1024, 42);
+        TokenBuffer tokens = new Scanner(source).scanTokenBuffer();
+        int count = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.type(i) != EOF) count++;
+        }
+        starts = new int[count];
+        ends = new int[count];
+        for (int i = 0, j = 0; i < tokens.size(); i++) {
+            if (tokens.type(i) == EOF) continue;
+            starts[j] = tokens.start(i);
+            ends[j] = tokens.start(i) + tokens.length(i);
+            j++;
+        }
+    }
+
+    @Benchmark
+    public int hashMapLookup() {
+        int keywordCount = 0;
+        for (int i = 0; i < starts.length; i++) {
+            TokenType type = keywords.get(source.substring(starts[i], ends[i]));
+            if (type != null) keywordCount++;
+        }
+        return keywordCount;
+    }
+
+    @Benchmark
+    public int tableLookup() {
+        int keywordCount = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (Keywords.lookup(source, starts[i], ends[i]) != IDENTIFIER) keywordCount++;
+        }
+        return keywordCount;
+    }
+}
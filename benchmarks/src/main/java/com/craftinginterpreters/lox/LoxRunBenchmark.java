@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of the Lox entry points on generated files: reading, decoding, scanning and
+ * everything after. runFile executes a generated program; runTokensFile streams the tokens
+ * of a scanner corpus. Standard output is discarded so the numbers do not depend on the
+ * terminal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoxRunBenchmark {
+    @Param({"MIXED"})
+    public Corpus.Kind kind;
+
+    @Param({"1048576"})
+    public int size;
+
+    private Path program;
+    private Path corpus;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setUp() throws IOException {
+        program = Files.createTempFile("lox-bench-program", ".lox");
+        Files.writeString(program, Corpus.program(size, 42), StandardCharsets.UTF_8);
+        corpus = Files.createTempFile("lox-bench-corpus", ".lox");
+        Files.writeString(corpus, Corpus.generate(kind, size, 42), StandardCharsets.UTF_8);
+
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        Files.deleteIfExists(program);
+        Files.deleteIfExists(corpus);
+    }
+
+    @Benchmark
+    public void runFile() throws IOException {
+        Lox.runFile(program.toString());
+    }
+
+    @Benchmark
+    public void runTokensFile() throws IOException {
+        Lox.runTokensFile(corpus.toString());
+    }
+}
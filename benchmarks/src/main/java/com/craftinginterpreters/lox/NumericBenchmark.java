@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Numeric loops on the VM, interpreting only or with its Jit, without the scanning and
+ * compiling that ScriptBenchmark also measures. Each function is defined once; an operation
+ * runs a precompiled one-line script that calls it.
+ *
+ * Run with -prof gc: gc.alloc.rate.norm is the bytes allocated per call. Numbers, booleans
+ * and nil are not boxed on the VM stack, so that is only the closure interpret() makes for
+ * the calling script, whatever the loop count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NumericBenchmark {
+    // Arithmetic and comparisons on locals: 10000 iterations.
+    private static final String LOOPS = "fun run() { var sum = 0;\n"
+            + "  for (var i = 0; i < 10000; i = i + 1) sum = sum + i * 2 - i / 4;\n"
+            + "  return sum; }";
+    // Calls with numeric arguments and results: 21891 calls.
+    private static final String FIB = "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\n"
+            + "fun run() { return fib(20); }";
+    // Booleans and nil in locals, equality and negation: 10000 iterations.
+    private static final String FLAGS = "fun run() { var count = 0; var last = nil;\n"
+            + "  for (var i = 0; i < 10000; i = i + 1) {\n"
+            + "    var high = i > 5000; if (high != last and !(i == 7)) count = count + 1; last = high;\n"
+            + "  }\n"
+            + "  return count; }";
+
+    @Param({"loops", "fib", "flags"})
+    public String program;
+
+    @Param({"vm", "jit"})
+    public String backend;
+
+    private VM vm;
+    private Obj.Function call;
+
+    @Setup
+    public void setUp() {
+        ErrorSink errors = new ErrorSink(batch -> {
+            throw new IllegalStateException(batch);
+        });
+        vm = new VM(errors, line -> {}, backend.equals("jit"));
+        String source = program.equals("loops") ? LOOPS : program.equals("fib") ? FIB : FLAGS;
+        vm.interpret(compile(source, errors));
+        call = compile("run();", errors);
+    }
+
+    private static Obj.Function compile(String source, ErrorSink errors) {
+        return new Compiler(new Scanner(source, errors).scanTokenBuffer(), errors).compile();
+    }
+
+    @Benchmark
+    public boolean run() {
+        return vm.interpret(call);
+    }
+}
@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential Scanner against ParallelScanner on a large generated bundle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelScannerBenchmark {
+    @Param({"MIXED", "STRINGS", "BLOCK_COMMENTS"})
+    public Corpus.Kind kind;
+
+    @Param({"16777216"})
+    public int size;
+
+    private String source;
+    private ForkJoinPool pool;
+    private ParallelScanner parallel;
+
+    @Setup
+    public void setUp() {
+        source = Corpus.generate(kind, size, 42);
+        pool = new ForkJoinPool();
+        parallel = new ParallelScanner(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public TokenBuffer sequential() {
+        return new Scanner(source).scanTokenBuffer();
+    }
+
+    @Benchmark
+    public TokenBuffer parallel() {
+        return parallel.scan(source);
+    }
+}
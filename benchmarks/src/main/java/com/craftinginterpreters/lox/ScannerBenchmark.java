@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenization throughput of the Scanner on synthetic corpora.
+ *
+ * Besides ops/s, the auxiliary counters report bytes/s and tokens/s, so results stay
+ * comparable between corpus kinds of very different token density. Run with -prof gc to
+ * see the allocation rate (gc.alloc.rate.norm is bytes per scan).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+    @Param({"IDENTIFIERS", "NUMBERS", "STRINGS", "COMMENTS", "BLOCK_COMMENTS", "MIXED"})
+    public Corpus.Kind kind;
+
+    @Param({"1048576"})
+    public int size;
+
+    private String source;
+    private int tokenCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        source = Corpus.generate(kind, size, 42);
+        tokenCount = new Scanner(source).scanTokenBuffer().size();
+    }
+
+    @Benchmark
+    public TokenBuffer scanTokenBuffer(Throughput throughput) {
+        TokenBuffer tokens = new Scanner(source).scanTokenBuffer();
+        throughput.bytes += source.length();
+        throughput.tokens += tokenCount;
+        return tokens;
+    }
+
+    @Benchmark
+    public int scanTokenList(Throughput throughput) {
+        // Materializes every Token, which is what the old List<Token> callers paid for.
+        List<Token> tokens = new Scanner(source).scanTokens();
+        int hash = 0;
+        for (Token token : tokens) {
+            hash += token.lexeme.length();
+        }
+        throughput.bytes += source.length();
+        throughput.tokens += tokenCount;
+        return hash;
+    }
+
+    @Benchmark
+    public int pullTokens(Throughput throughput) {
+        // One Token at a time with nothing retained, as a Parser pulling in lockstep sees it.
+        Scanner scanner = new Scanner(source);
+        int hash = 0;
+        for (Token token = scanner.nextToken(); token.type != TokenType.EOF; token = scanner.nextToken()) {
+            hash += token.lexeme.length();
+        }
+        throughput.bytes += source.length();
+        throughput.tokens += tokenCount;
+        return hash;
+    }
+}
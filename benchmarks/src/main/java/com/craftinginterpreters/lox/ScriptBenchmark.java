@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the Lox scripts in resources/scripts through Lox.run, one script per operation, on
+ * the tree-walking interpreter, the bytecode VM interpreting only, and the bytecode VM with
+ * hot functions compiled by its Jit.
+ *
+ * The scripts also report their own ops/sec when run directly with run-scripts.sh; under JMH
+ * their output is discarded and the time per script run is measured instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScriptBenchmark {
+    @Param({"fib", "loops", "strings", "methods", "fields", "dispatch", "builder"})
+    public String script;
+
+    @Param({"tree", "vm", "jit"})
+    public String backend;
+
+    private String source;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = ScriptBenchmark.class.getResourceAsStream("/scripts/" + script + ".lox")) {
+            if (in == null) throw new IOException("No benchmark script named " + script + ".");
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        Lox.useVm = !backend.equals("tree");
+        Lox.useJit = backend.equals("jit");
+
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(originalOut);
+        Lox.useVm = false;
+        Lox.useJit = true;
+    }
+
+    @Benchmark
+    public void run() {
+        Lox.run(source);
+    }
+}
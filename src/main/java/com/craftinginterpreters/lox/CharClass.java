@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * The tables behind the Scanner's eager lexer core.
+ *
+ * CLASSES maps each of the 128 ASCII chars to the class that decides what a lexeme starting
+ * with it is; one more entry, reached through of(), is the class of every other char. The
+ * classes that continue an identifier come last, so "is an identifier char" is a single
+ * comparison.
+ *
+ * The operators form a two-state DFA: a char of class SINGLE or OPERATOR moves to its one-char
+ * token, and an OPERATOR followed by '=' moves on to the two-char token in WITH_EQUAL. '/' has
+ * a class of its own, since '//' and a following '*' start comments instead of a token.
+ *
+ * Example:
+ *   CharClass.of('x');           // ALPHA
+ *   CharClass.SINGLE_TOKENS['(']; // LEFT_PAREN
+ *   CharClass.WITH_EQUAL['<'];   // LESS_EQUAL
+ */
+final class CharClass {
+    // Unexpected, beyond ASCII, or the '\0' that ends the scanner's copy of the source.
+    static final int OTHER = 0;
+    // ' ', '\t' and '\r'
+    static final int BLANK = 1;
+    static final int NEWLINE = 2;
+    // A token of its own whatever follows: ( ) { } , . - + ; *
+    static final int SINGLE = 3;
+    // ! = < >, which take a following '='
+    static final int OPERATOR = 4;
+    static final int SLASH = 5;
+    static final int QUOTE = 6;
+    static final int DIGIT = 7;
+    // A letter or '_'.
+    static final int ALPHA = 8;
+
+    private static final byte[] CLASSES = new byte[129];
+    static final TokenType[] SINGLE_TOKENS = new TokenType[128];
+    static final TokenType[] WITH_EQUAL = new TokenType[128];
+
+    static {
+        CLASSES[' '] = BLANK;
+        CLASSES['\t'] = BLANK;
+        CLASSES['\r'] = BLANK;
+        CLASSES['\n'] = NEWLINE;
+        CLASSES['/'] = SLASH;
+        CLASSES['"'] = QUOTE;
+        for (char c = '0'; c <= '9'; c++) CLASSES[c] = DIGIT;
+        for (char c = 'a'; c <= 'z'; c++) CLASSES[c] = ALPHA;
+        for (char c = 'A'; c <= 'Z'; c++) CLASSES[c] = ALPHA;
+        CLASSES['_'] = ALPHA;
+
+        single('(', LEFT_PAREN);
+        single(')', RIGHT_PAREN);
+        single('{', LEFT_BRACE);
+        single('}', RIGHT_BRACE);
+        single(',', COMMA);
+        single('.', DOT);
+        single('-', MINUS);
+        single('+', PLUS);
+        single(';', SEMICOLON);
+        single('*', STAR);
+
+        operator('!', BANG, BANG_EQUAL);
+        operator('=', EQUAL, EQUAL_EQUAL);
+        operator('<', LESS, LESS_EQUAL);
+        operator('>', GREATER, GREATER_EQUAL);
+    }
+
+    private CharClass() {
+    }
+
+    /**
+     * Returns the class of any char. Every char past ASCII shares the last table entry, which
+     * is OTHER, so there is no branch.
+     */
+    static int of(char c) {
+        return CLASSES[Math.min(c, 128)];
+    }
+
+    /**
+     * Returns whether the char continues an identifier: a letter, a digit or '_'.
+     */
+    static boolean isIdentifierPart(char c) {
+        return CLASSES[Math.min(c, 128)] >= DIGIT;
+    }
+
+    private static void single(char c, TokenType type) {
+        CLASSES[c] = SINGLE;
+        SINGLE_TOKENS[c] = type;
+    }
+
+    private static void operator(char c, TokenType type, TokenType withEqual) {
+        CLASSES[c] = OPERATOR;
+        SINGLE_TOKENS[c] = type;
+        WITH_EQUAL[c] = withEqual;
+    }
+}
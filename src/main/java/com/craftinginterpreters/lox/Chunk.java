@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled sequence of bytecode with its constant pool and line table.
+ *
+ * Code is a compact byte[]; lines[i] is the source line of code[i] for error reporting, and
+ * caches[i] the inline cache of code[i] if it gets or sets a property or calls a method.
+ * Equal numbers and strings share one constant slot, which keeps chunks under the 256
+ * constant limit of the one-byte operand for longer.
+ */
+final class Chunk {
+    byte[] code = new byte[16];
+    int[] lines = new int[16];
+    int count = 0;
+
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+
+    // The inline caches of the property access and method call instructions, at the offsets
+    // of those instructions; null everywhere else.
+    InlineCache[] caches = null;
+
+    // Only used while compiling, to find existing constants and the cached instructions.
+    private Map<Object, Integer> constantIndex = new HashMap<>();
+    private List<Integer> cacheSites = new ArrayList<>();
+
+    void write(byte value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Adds a value to the constant pool, reusing the slot of an equal number or string.
+     *
+     * @return the index of the constant
+     */
+    int addConstant(Object value) {
+        boolean shareable = value instanceof Double || value instanceof String;
+        if (shareable) {
+            Integer existing = constantIndex.get(value);
+            if (existing != null) return existing;
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        if (shareable) constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+
+    /**
+     * Gives the instruction about to be written an inline cache.
+     */
+    void addCacheSite() {
+        cacheSites.add(count);
+    }
+
+    /**
+     * Trims the arrays to size and drops compile-time bookkeeping once the chunk is complete.
+     */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = Arrays.copyOf(constants, constantCount);
+        constantIndex = null;
+
+        caches = new InlineCache[count];
+        for (int site : cacheSites) caches[site] = new InlineCache();
+        cacheSites = null;
+    }
+}
@@ -0,0 +1,379 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class file writer for the Jit: a constant pool, methods, and a Code
+ * attribute with forward and backward branches and lookupswitch.
+ *
+ * Classes are written as version 49 (Java 5). That is the last version whose methods are
+ * verified by type inference rather than by StackMapTable frames, so branch targets need no
+ * frames and the writer never has to compute one. Code must keep within maxStack, which the
+ * caller picks.
+ *
+ * Example:
+ *   ClassFile file = new ClassFile("com/craftinginterpreters/lox/Answer", "java/lang/Object");
+ *   ClassFile.Code code = file.method(ClassFile.ACC_STATIC, "get", "()I", 2, 0);
+ *   code.pushInt(42);
+ *   code.op(ClassFile.IRETURN);
+ *   byte[] bytes = file.toBytes();
+ */
+final class ClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // The opcodes the Jit emits.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int DALOAD = 0x31;
+    static final int AALOAD = 0x32;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int DASTORE = 0x52;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ACMPEQ = 0xa5;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int LOOKUPSWITCH = 0xab;
+    static final int IRETURN = 0xac;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+    }
+
+    /**
+     * Starts a method. Its code goes into the returned Code, which is written out with the
+     * class.
+     */
+    Code method(int access, String name, String descriptor, int maxStack, int maxLocals) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), maxStack, maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int codeName = utf8("Code");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                method.resolve();
+                out.writeShort(method.access);
+                out.writeShort(method.name);
+                out.writeShort(method.descriptor);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + method.length);
+                out.writeShort(method.maxStack);
+                out.writeShort(method.maxLocals);
+                out.writeInt(method.length);
+                out.write(method.code, 0, method.length);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            }
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 7, out -> out.writeShort(name));
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return constant("S" + value, 8, out -> out.writeShort(utf8));
+    }
+
+    int integer(int value) {
+        return constant("I" + value, 3, out -> out.writeInt(value));
+    }
+
+    int number(double value) {
+        // Keyed by the bits, so 0.0 and -0.0 stay apart and NaN finds itself.
+        return constant("D" + Double.doubleToRawLongBits(value), 6, out -> out.writeDouble(value));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        int nameAndType = constant("T" + name + ' ' + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(typeIndex);
+        });
+        return constant(tag + owner + '.' + name + descriptor, tag, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, Entry entry) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) return existing;
+
+        try {
+            poolOut.writeByte(tag);
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int index = poolCount;
+        // Doubles take two slots of the pool.
+        poolCount += tag == 6 ? 2 : 1;
+        if (poolCount > 0xFFFF) throw new IllegalStateException("Constant pool overflow.");
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    /**
+     * A position in the code that branches can target before it is bound.
+     */
+    static final class Label {
+        private int position = -1;
+    }
+
+    /**
+     * The code of one method. Branch offsets are patched in once every label is bound.
+     */
+    final class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final int maxStack;
+        private final int maxLocals;
+
+        private byte[] code = new byte[256];
+        private int length = 0;
+
+        // Each pending branch: where its offset goes, the instruction it is relative to, its
+        // width in bytes and its label.
+        private final List<int[]> fixups = new ArrayList<>();
+        private final List<Label> fixupLabels = new ArrayList<>();
+
+        private Code(int access, int name, int descriptor, int maxStack, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integer(value));
+            }
+        }
+
+        void pushNumber(double value) {
+            u1(LDC2_W);
+            u2(number(value));
+        }
+
+        void pushString(String value) {
+            u1(LDC_W);
+            u2(string(value));
+        }
+
+        /**
+         * Emits a load or store of a local variable, widened when its index needs two bytes.
+         */
+        void local(int opcode, int local) {
+            if (local > 0xFF) {
+                u1(0xc4); // wide
+                u1(opcode);
+                u2(local);
+            } else {
+                u1(opcode);
+                u1(local);
+            }
+        }
+
+        void type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(fieldRef(owner, name, descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(methodRef(owner, name, descriptor));
+        }
+
+        void jump(int opcode, Label target) {
+            int at = length;
+            u1(opcode);
+            branch(target, at, 2);
+        }
+
+        void bind(Label label) {
+            label.position = length;
+        }
+
+        /**
+         * Jumps to the label of the first matching key, or to fallback. Keys must be sorted.
+         */
+        void lookupSwitch(int[] keys, Label[] targets, Label fallback) {
+            int at = length;
+            u1(LOOKUPSWITCH);
+            while (length % 4 != 0) u1(0);
+            branch(fallback, at, 4);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                branch(targets[i], at, 4);
+            }
+        }
+
+        private void branch(Label target, int instruction, int width) {
+            fixups.add(new int[] {length, instruction, width});
+            fixupLabels.add(target);
+            if (width == 2) u2(0); else u4(0);
+        }
+
+        private void resolve() {
+            for (int i = 0; i < fixups.size(); i++) {
+                int[] fixup = fixups.get(i);
+                Label label = fixupLabels.get(i);
+                if (label.position < 0) throw new IllegalStateException("Unbound label.");
+                int offset = label.position - fixup[1];
+                if (fixup[2] == 2) {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Branch out of range.");
+                    }
+                    code[fixup[0]] = (byte) (offset >> 8);
+                    code[fixup[0] + 1] = (byte) offset;
+                } else {
+                    for (int b = 0; b < 4; b++) code[fixup[0] + b] = (byte) (offset >> (24 - 8 * b));
+                }
+            }
+            fixups.clear();
+            fixupLabels.clear();
+        }
+
+        private void u1(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+    }
+}
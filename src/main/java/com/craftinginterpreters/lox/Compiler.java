@@ -0,0 +1,983 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * A single-pass compiler from the Scanner's TokenBuffer straight to bytecode for the VM.
+ *
+ * There is no syntax tree: statements are parsed by recursive descent and expressions by
+ * precedence climbing (a Pratt parser), and each construct emits its instructions as soon as
+ * it is recognized. Tokens are read from the buffer's columns by index, so compiling does not
+ * materialize Token objects except to report an error.
+ *
+ * Local variables live in stack slots of their function's call frame. The compiler tracks them
+ * in the same order the VM will push them, so a local access compiles to its slot number.
+ * Names are compared by their symbol ID from the token buffer's SymbolTable, never by text.
+ * Variables of enclosing functions are reached through upvalues, and everything not found in
+ * any scope is a global looked up by name.
+ *
+ * Errors are reported to the compiler's ErrorSink with the same messages as the Parser and Resolver.
+ * After an error the compiler skips to the next statement boundary and keeps going, but the
+ * result is discarded.
+ */
+class Compiler {
+    private enum Precedence {
+        NONE,
+        ASSIGNMENT, // =
+        OR,         // or
+        AND,        // and
+        EQUALITY,   // == !=
+        COMPARISON, // < > <= >=
+        TERM,       // + -
+        FACTOR,     // * /
+        UNARY,      // ! -
+        CALL,       // . ()
+        PRIMARY
+    }
+
+    private enum FunctionType {
+        FUNCTION,
+        INITIALIZER,
+        METHOD,
+        SCRIPT
+    }
+
+    private static final Precedence[] LEVELS = Precedence.values();
+
+    // The infix precedence of each token type, indexed by ordinal.
+    private static final Precedence[] PRECEDENCES = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(PRECEDENCES, Precedence.NONE);
+        PRECEDENCES[LEFT_PAREN.ordinal()] = Precedence.CALL;
+        PRECEDENCES[DOT.ordinal()] = Precedence.CALL;
+        PRECEDENCES[MINUS.ordinal()] = Precedence.TERM;
+        PRECEDENCES[PLUS.ordinal()] = Precedence.TERM;
+        PRECEDENCES[SLASH.ordinal()] = Precedence.FACTOR;
+        PRECEDENCES[STAR.ordinal()] = Precedence.FACTOR;
+        PRECEDENCES[BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+        PRECEDENCES[EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+        PRECEDENCES[GREATER.ordinal()] = Precedence.COMPARISON;
+        PRECEDENCES[GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        PRECEDENCES[LESS.ordinal()] = Precedence.COMPARISON;
+        PRECEDENCES[LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+        PRECEDENCES[AND.ordinal()] = Precedence.AND;
+        PRECEDENCES[OR.ordinal()] = Precedence.OR;
+    }
+
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    /**
+     * A local variable. Its depth is -1 between declaration and the end of its initializer.
+     */
+    private static final class Local {
+        // The symbol ID of the name, or SymbolTable.NONE for a slot no name can refer to.
+        final int name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(int name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * How a closure finds one captured variable when it is created: a local slot of the
+     * immediately enclosing function, or one of that function's own upvalues.
+     */
+    private static final class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    /**
+     * The state of one function being compiled. Functions nest as their declarations do.
+     */
+    private static final class FunctionState {
+        final FunctionState enclosing;
+        final Obj.Function function;
+        final FunctionType type;
+
+        final Local[] locals = new Local[MAX_LOCALS];
+        int localCount = 0;
+        final Upvalue[] upvalues = new Upvalue[MAX_UPVALUES];
+        int scopeDepth = 0;
+
+        // Code offsets just past the last SET_LOCAL and the last forward jump target, so
+        // emitPop() can tell whether it may fuse the two instructions.
+        int localSetEnd = -1;
+        int jumpTarget = -1;
+
+        FunctionState(FunctionState enclosing, FunctionType type, String name, int thisSymbol) {
+            this.enclosing = enclosing;
+            this.type = type;
+            this.function = new Obj.Function(name);
+
+            // Slot 0 holds the function being called, or the receiver inside methods.
+            locals[localCount++] = new Local(type == FunctionType.FUNCTION
+                    || type == FunctionType.SCRIPT ? SymbolTable.NONE : thisSymbol, 0);
+        }
+    }
+
+    private static final class ClassState {
+        final ClassState enclosing;
+        boolean hasSuperclass = false;
+
+        ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private final TokenBuffer tokens;
+    private final ErrorSink errors;
+    private final SymbolTable symbols;
+
+    // Symbols of the names the compiler itself refers to.
+    private final int thisSymbol;
+    private final int superSymbol;
+    private final int initSymbol;
+
+    // Indexes of the token being looked at and the one just consumed.
+    private int current = 0;
+    private int previous = 0;
+
+    private boolean hadError = false;
+    private boolean panicMode = false;
+
+    private FunctionState function = null;
+    private ClassState currentClass = null;
+
+    Compiler(TokenBuffer tokens) {
+        this(tokens, Lox.errorSink());
+    }
+
+    Compiler(TokenBuffer tokens, ErrorSink errors) {
+        this.tokens = tokens;
+        this.errors = errors;
+        this.symbols = tokens.symbolTable();
+        this.thisSymbol = symbols.intern("this");
+        this.superSymbol = symbols.intern("super");
+        this.initSymbol = symbols.intern("init");
+    }
+
+    /**
+     * Compiles the whole token stream as the top-level script.
+     *
+     * @return the script function, or null if there was a compile error
+     */
+    Obj.Function compile() {
+        function = new FunctionState(null, FunctionType.SCRIPT, null, thisSymbol);
+
+        while (!match(EOF)) {
+            declaration();
+        }
+
+        Obj.Function script = endFunction();
+        errors.flush();
+        return hadError ? null : script;
+    }
+
+    private void declaration() {
+        if (match(CLASS)) {
+            classDeclaration();
+        } else if (match(FUN)) {
+            funDeclaration();
+        } else if (match(VAR)) {
+            varDeclaration();
+        } else {
+            statement();
+        }
+
+        if (panicMode) synchronize();
+    }
+
+    private void classDeclaration() {
+        consume(IDENTIFIER, "Expect class name.");
+        int className = previous;
+        int nameConstant = identifierConstant(className);
+        declareVariable();
+
+        emitBytes(OpCode.CLASS, nameConstant);
+        defineVariable(nameConstant);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (match(LESS)) {
+            consume(IDENTIFIER, "Expect superclass name.");
+            namedVariable(tokens.symbol(previous), false);
+
+            if (tokens.symbol(className) == tokens.symbol(previous)) {
+                error("A class can't inherit from itself.");
+            }
+
+            // The superclass stays on the stack as a local named `super` for the methods.
+            beginScope();
+            addLocal(superSymbol);
+            defineVariable(0);
+
+            namedVariable(tokens.symbol(className), false);
+            emitByte(OpCode.INHERIT);
+            classState.hasSuperclass = true;
+        }
+
+        // Load the class so each method can be attached to it.
+        namedVariable(tokens.symbol(className), false);
+        consume(LEFT_BRACE, "Expect '{' before class body.");
+        while (!check(RIGHT_BRACE) && !check(EOF)) {
+            method();
+        }
+        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        emitByte(OpCode.POP);
+
+        if (classState.hasSuperclass) endScope();
+
+        currentClass = currentClass.enclosing;
+    }
+
+    private void method() {
+        consume(IDENTIFIER, "Expect method name.");
+        int constant = identifierConstant(previous);
+
+        FunctionType type = FunctionType.METHOD;
+        if (tokens.symbol(previous) == initSymbol) {
+            type = FunctionType.INITIALIZER;
+        }
+
+        function(type, "method");
+        emitBytes(OpCode.METHOD, constant);
+    }
+
+    private void funDeclaration() {
+        int global = parseVariable("Expect function name.");
+        // Initialized right away so the body can refer to the function recursively.
+        markInitialized();
+        function(FunctionType.FUNCTION, "function");
+        defineVariable(global);
+    }
+
+    private void varDeclaration() {
+        int global = parseVariable("Expect variable name.");
+
+        if (match(EQUAL)) {
+            expression();
+        } else {
+            emitByte(OpCode.NIL);
+        }
+        consume(SEMICOLON, "Expect ';' after variable declaration.");
+
+        defineVariable(global);
+    }
+
+    /**
+     * Compiles a function body into its own Obj.Function and emits the instruction that
+     * creates a closure of it at runtime.
+     */
+    private void function(FunctionType type, String kind) {
+        FunctionState state = new FunctionState(function, type, tokens.lexeme(previous),
+                thisSymbol);
+        function = state;
+        beginScope();
+
+        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        if (!check(RIGHT_PAREN)) {
+            do {
+                state.function.arity++;
+                if (state.function.arity > 255) {
+                    errorAtCurrent("Can't have more than 255 parameters.");
+                }
+                int constant = parseVariable("Expect parameter name.");
+                defineVariable(constant);
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        block();
+
+        // No endScope(): the whole frame is discarded when the function returns.
+        Obj.Function compiled = endFunction();
+        emitBytes(OpCode.CLOSURE, makeConstant(compiled));
+
+        for (int i = 0; i < compiled.upvalueCount; i++) {
+            emitByte(state.upvalues[i].isLocal ? (byte) 1 : (byte) 0);
+            emitByte((byte) state.upvalues[i].index);
+        }
+    }
+
+    private void statement() {
+        if (match(PRINT)) {
+            printStatement();
+        } else if (match(FOR)) {
+            forStatement();
+        } else if (match(IF)) {
+            ifStatement();
+        } else if (match(RETURN)) {
+            returnStatement();
+        } else if (match(WHILE)) {
+            whileStatement();
+        } else if (match(LEFT_BRACE)) {
+            beginScope();
+            block();
+            endScope();
+        } else {
+            expressionStatement();
+        }
+    }
+
+    private void printStatement() {
+        expression();
+        consume(SEMICOLON, "Expect ';' after value.");
+        emitByte(OpCode.PRINT);
+    }
+
+    private void forStatement() {
+        // The initializer's variable is scoped to the loop.
+        beginScope();
+        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        if (match(SEMICOLON)) {
+            // No initializer.
+        } else if (match(VAR)) {
+            varDeclaration();
+        } else {
+            expressionStatement();
+        }
+
+        int loopStart = currentChunk().count;
+        int exitJump = -1;
+        if (!match(SEMICOLON)) {
+            expression();
+            consume(SEMICOLON, "Expect ';' after loop condition.");
+
+            exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        }
+
+        // The increment comes before the body in the source but runs after it, so jump over
+        // it into the body, and loop back to it from the end of the body.
+        if (!match(RIGHT_PAREN)) {
+            int bodyJump = emitJump(OpCode.JUMP);
+            int incrementStart = currentChunk().count;
+            expression();
+            emitPop();
+            consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+
+            emitLoop(loopStart);
+            loopStart = incrementStart;
+            patchJump(bodyJump);
+        }
+
+        statement();
+        emitLoop(loopStart);
+
+        if (exitJump != -1) patchJump(exitJump);
+
+        endScope();
+    }
+
+    private void ifStatement() {
+        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        expression();
+        consume(RIGHT_PAREN, "Expect ')' after if condition.");
+
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        statement();
+
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+
+        if (match(ELSE)) statement();
+        patchJump(elseJump);
+    }
+
+    private void returnStatement() {
+        if (function.type == FunctionType.SCRIPT) {
+            error("Can't return from top-level code.");
+        }
+
+        if (match(SEMICOLON)) {
+            emitReturn();
+        } else {
+            if (function.type == FunctionType.INITIALIZER) {
+                error("Can't return a value from an initializer.");
+            }
+
+            expression();
+            consume(SEMICOLON, "Expect ';' after return value.");
+            emitByte(OpCode.RETURN);
+        }
+    }
+
+    private void whileStatement() {
+        int loopStart = currentChunk().count;
+        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        expression();
+        consume(RIGHT_PAREN, "Expect ')' after condition.");
+
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        statement();
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+    }
+
+    private void block() {
+        while (!check(RIGHT_BRACE) && !check(EOF)) {
+            declaration();
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+    }
+
+    private void expressionStatement() {
+        expression();
+        consume(SEMICOLON, "Expect ';' after expression.");
+        emitPop();
+    }
+
+    private void expression() {
+        parsePrecedence(Precedence.ASSIGNMENT);
+    }
+
+    /**
+     * Parses any expression at the given precedence level or higher: one prefix expression,
+     * then as many infix operators as bind at least as tightly.
+     */
+    private void parsePrecedence(Precedence precedence) {
+        advance();
+
+        // Only a low-precedence context may treat a following '=' as assignment, so that
+        // `a + b = c` is rejected instead of compiled as `a + (b = c)`.
+        boolean canAssign = precedence.compareTo(Precedence.ASSIGNMENT) <= 0;
+        if (!prefix(tokens.type(previous), canAssign)) {
+            error("Expect expression.");
+            return;
+        }
+
+        while (precedence.compareTo(PRECEDENCES[tokens.type(current).ordinal()]) <= 0) {
+            advance();
+            infix(tokens.type(previous), canAssign);
+        }
+
+        if (canAssign && match(EQUAL)) {
+            error("Invalid assignment target.");
+        }
+    }
+
+    /**
+     * Compiles the prefix expression starting with the given token.
+     *
+     * @return false if no expression starts with that token
+     */
+    private boolean prefix(TokenType type, boolean canAssign) {
+        switch (type) {
+            case LEFT_PAREN:
+                expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                return true;
+            case MINUS:
+            case BANG:
+                parsePrecedence(Precedence.UNARY);
+                emitByte(type == MINUS ? OpCode.NEGATE : OpCode.NOT);
+                return true;
+            case NUMBER:
+                emitConstant(tokens.number(previous));
+                return true;
+            case STRING:
+                emitConstant(tokens.literal(previous));
+                return true;
+            case NIL:
+                emitByte(OpCode.NIL);
+                return true;
+            case TRUE:
+                emitByte(OpCode.TRUE);
+                return true;
+            case FALSE:
+                emitByte(OpCode.FALSE);
+                return true;
+            case IDENTIFIER:
+                namedVariable(tokens.symbol(previous), canAssign);
+                return true;
+            case THIS:
+                this_();
+                return true;
+            case SUPER:
+                super_();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void infix(TokenType type, boolean canAssign) {
+        switch (type) {
+            case LEFT_PAREN:
+                emitBytes(OpCode.CALL, argumentList());
+                break;
+            case DOT:
+                dot(canAssign);
+                break;
+            case AND:
+                and_();
+                break;
+            case OR:
+                or_();
+                break;
+            default:
+                binary(type);
+                break;
+        }
+    }
+
+    private void binary(TokenType operator) {
+        // Operators are left-associative: the right operand binds one level tighter.
+        Precedence precedence = PRECEDENCES[operator.ordinal()];
+        parsePrecedence(LEVELS[precedence.ordinal() + 1]);
+
+        switch (operator) {
+            case BANG_EQUAL:    emitByte(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL:   emitByte(OpCode.EQUAL); break;
+            case GREATER:       emitByte(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitByte(OpCode.GREATER_EQUAL); break;
+            case LESS:          emitByte(OpCode.LESS); break;
+            case LESS_EQUAL:    emitByte(OpCode.LESS_EQUAL); break;
+            case PLUS:          emitByte(OpCode.ADD); break;
+            case MINUS:         emitByte(OpCode.SUBTRACT); break;
+            case STAR:          emitByte(OpCode.MULTIPLY); break;
+            case SLASH:         emitByte(OpCode.DIVIDE); break;
+            default:
+                // Unreachable: only the operators above have a binary precedence.
+                break;
+        }
+    }
+
+    private void and_() {
+        int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+        emitByte(OpCode.POP);
+        parsePrecedence(Precedence.AND);
+
+        patchJump(endJump);
+    }
+
+    private void or_() {
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        int endJump = emitJump(OpCode.JUMP);
+
+        patchJump(elseJump);
+        emitByte(OpCode.POP);
+
+        parsePrecedence(Precedence.OR);
+        patchJump(endJump);
+    }
+
+    private void dot(boolean canAssign) {
+        consume(IDENTIFIER, "Expect property name after '.'.");
+        int name = identifierConstant(previous);
+
+        if (canAssign && match(EQUAL)) {
+            expression();
+            currentChunk().addCacheSite();
+            emitBytes(OpCode.SET_PROPERTY, name);
+        } else if (match(LEFT_PAREN)) {
+            // A method call compiles to one instruction instead of a bound method plus a call.
+            int argCount = argumentList();
+            currentChunk().addCacheSite();
+            emitBytes(OpCode.INVOKE, name);
+            emitByte((byte) argCount);
+        } else {
+            currentChunk().addCacheSite();
+            emitBytes(OpCode.GET_PROPERTY, name);
+        }
+    }
+
+    private void this_() {
+        if (currentClass == null) {
+            error("Can't use 'this' outside of a class.");
+            return;
+        }
+
+        namedVariable(thisSymbol, false);
+    }
+
+    private void super_() {
+        if (currentClass == null) {
+            error("Can't use 'super' outside of a class.");
+        } else if (!currentClass.hasSuperclass) {
+            error("Can't use 'super' in a class with no superclass.");
+        }
+
+        consume(DOT, "Expect '.' after 'super'.");
+        consume(IDENTIFIER, "Expect superclass method name.");
+        int name = identifierConstant(previous);
+
+        namedVariable(thisSymbol, false);
+        if (match(LEFT_PAREN)) {
+            int argCount = argumentList();
+            namedVariable(superSymbol, false);
+            emitBytes(OpCode.SUPER_INVOKE, name);
+            emitByte((byte) argCount);
+        } else {
+            namedVariable(superSymbol, false);
+            emitBytes(OpCode.GET_SUPER, name);
+        }
+    }
+
+    private int argumentList() {
+        int argCount = 0;
+        if (!check(RIGHT_PAREN)) {
+            do {
+                expression();
+                if (argCount == 255) {
+                    error("Can't have more than 255 arguments.");
+                }
+                argCount++;
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return argCount;
+    }
+
+    /**
+     * Emits a read of the named variable, or a write if it is followed by '=' where an
+     * assignment is allowed.
+     */
+    private void namedVariable(int name, boolean canAssign) {
+        byte getOp;
+        byte setOp;
+        int arg = resolveLocal(function, name);
+        if (arg != -1) {
+            getOp = OpCode.GET_LOCAL;
+            setOp = OpCode.SET_LOCAL;
+        } else if ((arg = resolveUpvalue(function, name)) != -1) {
+            getOp = OpCode.GET_UPVALUE;
+            setOp = OpCode.SET_UPVALUE;
+        } else {
+            arg = makeConstant(symbolName(name));
+            getOp = OpCode.GET_GLOBAL;
+            setOp = OpCode.SET_GLOBAL;
+        }
+
+        if (canAssign && match(EQUAL)) {
+            expression();
+            emitBytes(setOp, arg);
+            if (setOp == OpCode.SET_LOCAL) function.localSetEnd = currentChunk().count;
+        } else {
+            emitBytes(getOp, arg);
+        }
+    }
+
+    private int resolveLocal(FunctionState state, int name) {
+        for (int i = state.localCount - 1; i >= 0; i--) {
+            Local local = state.locals[i];
+            if (local.name == name) {
+                if (local.depth == -1) {
+                    error("Can't read local variable in its own initializer.");
+                }
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the name in an enclosing function and threads an upvalue for it through every
+     * function in between.
+     *
+     * @return the upvalue index in the given function, or -1 if the name is global
+     */
+    private int resolveUpvalue(FunctionState state, int name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        int upvalueCount = state.function.upvalueCount;
+
+        for (int i = 0; i < upvalueCount; i++) {
+            Upvalue upvalue = state.upvalues[i];
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        if (upvalueCount == MAX_UPVALUES) {
+            error("Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues[upvalueCount] = new Upvalue(index, isLocal);
+        return state.function.upvalueCount++;
+    }
+
+    /**
+     * Consumes a variable name and declares it.
+     *
+     * @return the constant holding the name if the variable is global, otherwise 0
+     */
+    private int parseVariable(String errorMessage) {
+        consume(IDENTIFIER, errorMessage);
+
+        declareVariable();
+        if (function.scopeDepth > 0) return 0;
+
+        return identifierConstant(previous);
+    }
+
+    private void declareVariable() {
+        if (function.scopeDepth == 0) return;
+
+        int name = tokens.symbol(previous);
+        for (int i = function.localCount - 1; i >= 0; i--) {
+            Local local = function.locals[i];
+            if (local.depth != -1 && local.depth < function.scopeDepth) break;
+
+            if (local.name == name) {
+                error("Already a variable with this name in this scope.");
+            }
+        }
+
+        addLocal(name);
+    }
+
+    private void addLocal(int name) {
+        if (function.localCount == MAX_LOCALS) {
+            error("Too many local variables in function.");
+            return;
+        }
+
+        function.locals[function.localCount++] = new Local(name, -1);
+    }
+
+    private void defineVariable(int global) {
+        if (function.scopeDepth > 0) {
+            // A local is just the value left on the stack.
+            markInitialized();
+            return;
+        }
+
+        emitBytes(OpCode.DEFINE_GLOBAL, global);
+    }
+
+    private void markInitialized() {
+        if (function.scopeDepth == 0) return;
+        function.locals[function.localCount - 1].depth = function.scopeDepth;
+    }
+
+    private int identifierConstant(int token) {
+        return makeConstant(symbolName(tokens.symbol(token)));
+    }
+
+    private String symbolName(int symbol) {
+        // After a syntax error the "name" may be some other token; any constant will do then.
+        return symbol == SymbolTable.NONE ? "" : symbols.name(symbol);
+    }
+
+    private void beginScope() {
+        function.scopeDepth++;
+    }
+
+    private void endScope() {
+        function.scopeDepth--;
+
+        while (function.localCount > 0
+                && function.locals[function.localCount - 1].depth > function.scopeDepth) {
+            // Captured variables move off the stack into their upvalue instead.
+            if (function.locals[function.localCount - 1].isCaptured) {
+                emitByte(OpCode.CLOSE_UPVALUE);
+            } else {
+                emitByte(OpCode.POP);
+            }
+            function.localCount--;
+        }
+    }
+
+    private Obj.Function endFunction() {
+        emitReturn();
+        Obj.Function compiled = function.function;
+        compiled.chunk.finish();
+
+        function = function.enclosing;
+        return compiled;
+    }
+
+    private Chunk currentChunk() {
+        return function.function.chunk;
+    }
+
+    private void emitByte(byte value) {
+        currentChunk().write(value, tokens.line(previous));
+    }
+
+    private void emitBytes(byte op, int operand) {
+        emitByte(op);
+        emitByte((byte) operand);
+    }
+
+    /**
+     * Emits a POP, fused into the preceding instruction when that is a SET_LOCAL that no
+     * jump lands after, as in `i = i + 1;`.
+     */
+    private void emitPop() {
+        int end = currentChunk().count;
+        if (function.localSetEnd == end && function.jumpTarget != end) {
+            currentChunk().code[end - 2] = OpCode.SET_LOCAL_POP;
+            return;
+        }
+
+        emitByte(OpCode.POP);
+    }
+
+    private void emitReturn() {
+        // An initializer always returns the instance, even from a bare `return;`.
+        if (function.type == FunctionType.INITIALIZER) {
+            emitBytes(OpCode.GET_LOCAL, 0);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+
+        emitByte(OpCode.RETURN);
+    }
+
+    private void emitConstant(Object value) {
+        emitBytes(OpCode.CONSTANT, makeConstant(value));
+    }
+
+    private int makeConstant(Object value) {
+        int constant = currentChunk().addConstant(value);
+        if (constant > 255) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+
+        return constant;
+    }
+
+    /**
+     * Emits a jump with a placeholder offset.
+     *
+     * @return the position of the offset, for patchJump
+     */
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitByte((byte) 0xff);
+        emitByte((byte) 0xff);
+        return currentChunk().count - 2;
+    }
+
+    /**
+     * Points a jump emitted by emitJump at the current end of the chunk.
+     */
+    private void patchJump(int offset) {
+        // -2 to adjust for the jump offset itself.
+        int jump = currentChunk().count - offset - 2;
+
+        if (jump > 0xffff) {
+            error("Too much code to jump over.");
+        }
+
+        function.jumpTarget = currentChunk().count;
+        currentChunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        currentChunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OpCode.LOOP);
+
+        // +2 to step over the LOOP instruction's own operands.
+        int offset = currentChunk().count - loopStart + 2;
+        if (offset > 0xffff) error("Loop body too large.");
+
+        emitByte((byte) ((offset >> 8) & 0xff));
+        emitByte((byte) (offset & 0xff));
+    }
+
+    private void advance() {
+        previous = current;
+        if (tokens.type(current) != EOF) current++;
+    }
+
+    private boolean check(TokenType type) {
+        return tokens.type(current) == type;
+    }
+
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
+    }
+
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
+
+        errorAtCurrent(message);
+    }
+
+    private void error(String message) {
+        errorAt(previous, message);
+    }
+
+    private void errorAtCurrent(String message) {
+        errorAt(current, message);
+    }
+
+    private void errorAt(int token, String message) {
+        // Suppress the cascade of errors that usually follows the first one in a statement.
+        if (panicMode) return;
+        panicMode = true;
+
+        errors.error(tokens.token(token), message);
+        hadError = true;
+    }
+
+    /**
+     * Discards tokens until the start of the next statement.
+     */
+    private void synchronize() {
+        panicMode = false;
+
+        while (tokens.type(current) != EOF) {
+            if (tokens.type(previous) == SEMICOLON) return;
+
+            switch (tokens.type(current)) {
+                case CLASS:
+                case FUN:
+                case VAR:
+                case FOR:
+                case IF:
+                case WHILE:
+                case PRINT:
+                case RETURN:
+                    return;
+                default:
+                    break;
+            }
+
+            advance();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Links every identifier in a token stream to the token that declares it, for go-to-definition
+ * and semantic highlighting in the LanguageServer.
+ *
+ * This works on tokens rather than on the syntax tree, in one pass, so it needs no parse, is
+ * linear in the number of tokens, and still gives answers while the file has syntax errors.
+ * Scopes follow the braces, plus the two places where Lox declares names outside them:
+ * function parameters, which belong to the body that follows, and a for loop's initializer,
+ * which lasts until the end of the loop's body. Names that no enclosing scope declares refer
+ * to the first top-level declaration of that name anywhere in the file, since functions can
+ * use globals that are declared after them.
+ *
+ * A property after a dot is linked to the first method of that name in any class, which is
+ * the best a file without types allows.
+ *
+ * Example:
+ *   // Suppose tokens are "var a = 1; { var a; print a; }"
+ *   Definitions definitions = new Definitions(tokens);
+ *   definitions.declaration(10);  // 7, the inner "a"
+ *   definitions.kind(1);          // Kind.VARIABLE
+ */
+final class Definitions {
+    enum Kind {
+        NONE, VARIABLE, PARAMETER, FUNCTION, METHOD, CLASS, PROPERTY
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // The kinds of scope on the stack. A function's scope opens at the '(' of its parameters
+    // and becomes the body's block at the '{'. A for loop's opens at its '(' and closes with
+    // the body, which is a block or runs to the next ';'.
+    private static final byte BLOCK = 0;
+    private static final byte CLASS_BODY = 1;
+    private static final byte FUNCTION_HEADER = 2;
+    private static final byte FOR_HEADER = 3;
+    private static final byte FOR_BODY = 4;
+
+    private final TokenBuffer tokens;
+    // declarations[i] is the index of the token that declares identifier i, or -1.
+    private final int[] declarations;
+    private final byte[] kinds;
+
+    // Per symbol: the innermost local declaration in scope, and the first global one.
+    private int[] bindings = new int[64];
+    private int[] globals = new int[64];
+    private int[] methods = new int[64];
+
+    // Undo log of (symbol, previous binding) pairs, unwound when a scope closes.
+    private int[] undo = new int[64];
+    private int undoSize = 0;
+
+    private byte[] scopeKinds = new byte[16];
+    private int[] scopeMarks = new int[16];
+    private int[] scopeParens = new int[16];
+    private int scopeCount = 0;
+
+    // Identifiers that no local scope declares, and properties. They are linked at the end,
+    // once every global and method in the file has been seen.
+    private int[] deferred = new int[64];
+    private int deferredCount = 0;
+
+    Definitions(TokenBuffer tokens) {
+        this.tokens = tokens;
+        this.declarations = new int[tokens.size()];
+        this.kinds = new byte[tokens.size()];
+        Arrays.fill(bindings, -1);
+        Arrays.fill(globals, -1);
+        Arrays.fill(methods, -1);
+        resolve();
+    }
+
+    /**
+     * Returns the index of the token that declares the identifier at the given index: itself
+     * for a declaration, or -1 if it is not an identifier or nothing declares it.
+     */
+    int declaration(int index) {
+        return declarations[index];
+    }
+
+    /**
+     * Returns what the identifier at the given index names, or Kind.NONE.
+     */
+    Kind kind(int index) {
+        return KINDS[kinds[index]];
+    }
+
+    boolean isDeclaration(int index) {
+        return declarations[index] == index;
+    }
+
+    private void resolve() {
+        Arrays.fill(declarations, -1);
+        int parens = 0;
+        boolean classBodyNext = false;
+        // Set between a function's name and its '(', so the '(' opens the function's scope.
+        boolean functionNext = false;
+        boolean parameters = false;
+
+        int count = tokens.size();
+        for (int i = 0; i < count; i++) {
+            TokenType type = tokens.type(i);
+            TokenType previous = i > 0 ? tokens.type(i - 1) : EOF;
+            switch (type) {
+                case LEFT_PAREN:
+                    if (functionNext) {
+                        pushScope(FUNCTION_HEADER, parens);
+                        parameters = true;
+                        functionNext = false;
+                    } else if (previous == FOR) {
+                        pushScope(FOR_HEADER, parens);
+                    }
+                    parens++;
+                    break;
+                case RIGHT_PAREN:
+                    if (parens > 0) parens--;
+                    parameters = false;
+                    if (scopeCount > 0 && scopeKinds[scopeCount - 1] == FOR_HEADER
+                            && scopeParens[scopeCount - 1] == parens) {
+                        scopeKinds[scopeCount - 1] = FOR_BODY;
+                    }
+                    break;
+                case LEFT_BRACE:
+                    if (classBodyNext) {
+                        pushScope(CLASS_BODY, parens);
+                        classBodyNext = false;
+                    } else if (scopeCount > 0 && previous == RIGHT_PAREN
+                            && (scopeKinds[scopeCount - 1] == FUNCTION_HEADER
+                                || scopeKinds[scopeCount - 1] == FOR_BODY)) {
+                        // The body block shares the scope of the parameters or loop variable.
+                        scopeKinds[scopeCount - 1] = BLOCK;
+                    } else {
+                        pushScope(BLOCK, parens);
+                    }
+                    break;
+                case RIGHT_BRACE:
+                    popForBodies();
+                    if (scopeCount > 0) popScope();
+                    popForBodies();
+                    break;
+                case SEMICOLON:
+                    if (scopeCount > 0 && scopeKinds[scopeCount - 1] == FOR_BODY) popForBodies();
+                    break;
+                case IDENTIFIER:
+                    identifier(i, previous, parameters);
+                    if (previous == FUN || (previous != DOT && inClassBody() && i + 1 < count
+                            && tokens.type(i + 1) == LEFT_PAREN)) {
+                        functionNext = true;
+                    }
+                    if (previous == CLASS) classBodyNext = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (int d = 0; d < deferredCount; d++) {
+            int use = deferred[d];
+            int symbol = tokens.symbol(use);
+            if (use > 0 && tokens.type(use - 1) == DOT) {
+                int method = methods[symbol];
+                declarations[use] = method;
+                kinds[use] = (byte) (method >= 0 ? Kind.METHOD : Kind.PROPERTY).ordinal();
+            } else {
+                int global = globals[symbol];
+                declarations[use] = global;
+                kinds[use] = global >= 0 ? kinds[global] : (byte) Kind.NONE.ordinal();
+            }
+        }
+    }
+
+    /**
+     * Declares the identifier at index i, links it to a local declaration, or defers it.
+     */
+    private void identifier(int i, TokenType previous, boolean parameters) {
+        int symbol = tokens.symbol(i);
+        ensureSymbol(symbol);
+
+        if (previous == VAR) {
+            declare(i, symbol, Kind.VARIABLE);
+        } else if (previous == FUN) {
+            declare(i, symbol, Kind.FUNCTION);
+        } else if (previous == CLASS) {
+            declare(i, symbol, Kind.CLASS);
+        } else if (parameters && scopeKinds[scopeCount - 1] == FUNCTION_HEADER) {
+            declare(i, symbol, Kind.PARAMETER);
+        } else if (inClassBody() && i + 1 < tokens.size() && tokens.type(i + 1) == LEFT_PAREN) {
+            // A method: reachable through a property, never as a bare name.
+            declarations[i] = i;
+            kinds[i] = (byte) Kind.METHOD.ordinal();
+            if (methods[symbol] < 0) methods[symbol] = i;
+        } else if (previous != DOT && bindings[symbol] >= 0) {
+            declarations[i] = bindings[symbol];
+            kinds[i] = kinds[bindings[symbol]];
+        } else {
+            if (deferredCount == deferred.length) deferred = Arrays.copyOf(deferred, deferredCount * 2);
+            deferred[deferredCount++] = i;
+        }
+    }
+
+    private void declare(int index, int symbol, Kind kind) {
+        declarations[index] = index;
+        kinds[index] = (byte) kind.ordinal();
+        if (scopeCount == 0) {
+            if (globals[symbol] < 0) globals[symbol] = index;
+            return;
+        }
+        if (undoSize + 2 > undo.length) undo = Arrays.copyOf(undo, undo.length * 2);
+        undo[undoSize++] = symbol;
+        undo[undoSize++] = bindings[symbol];
+        bindings[symbol] = index;
+    }
+
+    private boolean inClassBody() {
+        return scopeCount > 0 && scopeKinds[scopeCount - 1] == CLASS_BODY;
+    }
+
+    private void pushScope(byte kind, int parens) {
+        if (scopeCount == scopeKinds.length) {
+            scopeKinds = Arrays.copyOf(scopeKinds, scopeCount * 2);
+            scopeMarks = Arrays.copyOf(scopeMarks, scopeCount * 2);
+            scopeParens = Arrays.copyOf(scopeParens, scopeCount * 2);
+        }
+        scopeKinds[scopeCount] = kind;
+        scopeMarks[scopeCount] = undoSize;
+        scopeParens[scopeCount] = parens;
+        scopeCount++;
+    }
+
+    private void popScope() {
+        int mark = scopeMarks[--scopeCount];
+        while (undoSize > mark) {
+            int previous = undo[--undoSize];
+            int symbol = undo[--undoSize];
+            bindings[symbol] = previous;
+        }
+    }
+
+    private void popForBodies() {
+        while (scopeCount > 0 && scopeKinds[scopeCount - 1] == FOR_BODY) popScope();
+    }
+
+    private void ensureSymbol(int symbol) {
+        if (symbol < bindings.length) return;
+        int capacity = Math.max(bindings.length * 2, symbol + 1);
+        int old = bindings.length;
+        bindings = Arrays.copyOf(bindings, capacity);
+        globals = Arrays.copyOf(globals, capacity);
+        methods = Arrays.copyOf(methods, capacity);
+        Arrays.fill(bindings, old, capacity, -1);
+        Arrays.fill(globals, old, capacity, -1);
+        Arrays.fill(methods, old, capacity, -1);
+    }
+}
@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The storage for the local variables of one scope at runtime.
+ *
+ * Variables are not looked up by name: the Resolver already numbered them, so an environment
+ * is just an array of slots plus a link to the enclosing scope. Globals live in the
+ * Interpreter instead, since they can be declared after the code that uses them is resolved.
+ *
+ * Example:
+ *   // { var a = 1; { var b = 2; print a; } }
+ *   // The inner block reads `a` at depth 1, slot 0:
+ *   environment.get(1, 0); // 1.0
+ */
+class Environment {
+    final Environment enclosing;
+    final Object[] slots;
+
+    Environment(Environment enclosing, int size) {
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
+    }
+
+    Object get(int depth, int slot) {
+        return ancestor(depth).slots[slot];
+    }
+
+    void assign(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    /**
+     * Walks out the given number of enclosing environments.
+     */
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+
+        return environment;
+    }
+}
@@ -0,0 +1,584 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Collects the diagnostics of one compilation or run and renders them in batches.
+ *
+ * Every stage that can fail (Scanner, Parser, Resolver, Compiler, Interpreter and VM) reports
+ * to the sink it was created with. A report is stored as a structured record in parallel
+ * columns (code, line, source offset and length, repeat count, message) instead of being
+ * formatted and printed on the spot:
+ *
+ * - A report identical to the previous one and adjacent to it in the source is merged into it,
+ *   so a run of junk characters becomes one record with a count.
+ * - Only the first maxErrors records between two flushes, which is one stage of one program,
+ *   are kept. Later ones are counted, and the count is reported as a summary line by the
+ *   flush. The window keeps a long-lived shared sink from going silent.
+ * - Records are rendered, as text or JSON Lines, on a shared background thread, a batch at a
+ *   time. A full batch is handed off without waiting; flush(), which each stage calls when it
+ *   finishes, hands off the rest and waits, so output stays in order with the program's own.
+ *
+ * The text format is the one the book uses, with " (xN)" appended to merged records. Columns
+ * need the source; a sink that was given one with setSource() includes them in JSON.
+ *
+ * A collecting sink renders nothing. It keeps every record until it is reset, for callers that
+ * want them as data, through records(), or want to hold them back and pass them on later in
+ * an order of their choosing, through replayInto().
+ *
+ * A LoxEngine run owns its sink, so runs on different threads never share error state. Lox's
+ * command-line entry points use one default sink that prints to System.err. Reports are
+ * synchronized, so threads can share a sink.
+ *
+ * Example:
+ *   StringBuilder text = new StringBuilder();
+ *   ErrorSink errors = new ErrorSink(batch -> text.append(batch).append('\n'));
+ *   new Scanner("@@@", errors).scanTokenBuffer();
+ *   errors.hadError(); // true, text is "[line 1] Error: Unexpected character: '@'. (x3)\n"
+ */
+class ErrorSink {
+    enum Format {
+        TEXT, JSON
+    }
+
+    /**
+     * What kind of problem a diagnostic is. The id is stable for tools that read JSON.
+     */
+    enum Code {
+        UNEXPECTED_CHARACTER("L001"),
+        UNTERMINATED_STRING("L002"),
+        UNTERMINATED_COMMENT("L003"),
+        INVALID_UTF8("L004"),
+        SYNTAX("P001"),
+        RESOLUTION("R001"),
+        RUNTIME("X001");
+
+        final String id;
+
+        Code(String id) {
+            this.id = id;
+        }
+    }
+
+    static final int DEFAULT_MAX_ERRORS = 1000;
+
+    // Records handed to the renderer at a time while a stage is still reporting.
+    private static final int BATCH_SIZE = 64;
+    private static final Code[] CODES = Code.values();
+
+    // One daemon thread renders the batches of every sink, in the order they were handed off.
+    private static final ExecutorService renderer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lox-diagnostics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Consumer<String> out;
+    private Format format;
+    private int maxErrors;
+    private String source = null;
+
+    // The pending records, not yet handed to the renderer.
+    private int[] codes = new int[16];
+    private int[] lines = new int[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] counts = new int[16];
+    private String[] messages = new String[16];
+    // The lexeme of a token error or the call trace of a runtime error, otherwise null.
+    private String[] details = new String[16];
+    private int size = 0;
+
+    // Records kept and dropped since the last flush.
+    private int recorded = 0;
+    private int suppressed = 0;
+    private int errorCount = 0;
+    // One bit per Code ordinal that was reported since the last reset.
+    private int codesSeen = 0;
+    private boolean hadRuntimeError = false;
+    private Future<?> lastRender = null;
+
+    /**
+     * Creates a text sink that passes each rendered batch, without a trailing newline, to out.
+     */
+    ErrorSink(Consumer<String> out) {
+        this(out, Format.TEXT, DEFAULT_MAX_ERRORS);
+    }
+
+    ErrorSink(Consumer<String> out, Format format, int maxErrors) {
+        this.out = out;
+        this.format = format;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Returns a sink that prints to whatever System.err is when each batch is flushed.
+     */
+    static ErrorSink toStandardError(Format format, int maxErrors) {
+        return new ErrorSink(batch -> System.err.println(batch), format, maxErrors);
+    }
+
+    static ErrorSink toStandardError() {
+        return toStandardError(Format.TEXT, DEFAULT_MAX_ERRORS);
+    }
+
+    /**
+     * Returns a sink that keeps all of its records instead of rendering them.
+     */
+    static ErrorSink collecting() {
+        return new ErrorSink(null, Format.TEXT, Integer.MAX_VALUE);
+    }
+
+    /**
+     * One diagnostic as the sink stores it. offset is -1 when there is no source span, and
+     * length is -1 for an error at the end of the input. detail is the lexeme of a token error
+     * or the trace of a runtime error, or null.
+     */
+    static final class Record {
+        final Code code;
+        final int line;
+        final int offset;
+        final int length;
+        final int count;
+        final String message;
+        final String detail;
+
+        Record(Code code, int line, int offset, int length, int count, String message, String detail) {
+            this.code = code;
+            this.line = line;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.message = message;
+            this.detail = detail;
+        }
+    }
+
+    /**
+     * Changes how later records are rendered and how many are kept.
+     */
+    synchronized void configure(Format format, int maxErrors) {
+        this.format = format;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Sets the source that offsets refer to, so rendered diagnostics can include columns.
+     */
+    synchronized void setSource(String source) {
+        this.source = source;
+    }
+
+    void unexpectedCharacter(int line, int offset, char c) {
+        // Only a few characters are unexpected in practice, so the message is built once each.
+        add(Code.UNEXPECTED_CHARACTER, line, offset, 1, UnexpectedCharacters.message(c));
+    }
+
+    /**
+     * Reports a character that takes length units of the source, such as a multi-byte UTF-8
+     * sequence in wrapped bytes.
+     */
+    void unexpectedCharacter(int line, int offset, int length, char c) {
+        add(Code.UNEXPECTED_CHARACTER, line, offset, length, UnexpectedCharacters.message(c));
+    }
+
+    /**
+     * Reports bytes that are not well-formed UTF-8, described as hex, e.g. "0xC3 0x28".
+     */
+    void invalidUtf8(int line, int offset, int length, String bytes) {
+        add(Code.INVALID_UTF8, line, offset, length, "Invalid UTF-8 sequence " + bytes + ".");
+    }
+
+    void unterminatedString(int line, int offset, int length) {
+        add(Code.UNTERMINATED_STRING, line, offset, length, "Unterminated string.");
+    }
+
+    void unterminatedComment(int line, int offset, int length) {
+        add(Code.UNTERMINATED_COMMENT, line, offset, length, "Unterminated comment.");
+    }
+
+    /**
+     * Reports a syntax error at a token. Legacy callers without a code use this one.
+     */
+    void error(Token token, String message) {
+        error(Code.SYNTAX, token, message);
+    }
+
+    void error(Code code, Token token, String message) {
+        // A negative length marks an error at the end of the input.
+        int length = token.type == TokenType.EOF ? -1 : token.lexeme.length();
+        add(code, token.line, token.offset, length, message, token.lexeme);
+    }
+
+    void error(int line, String message) {
+        add(Code.SYNTAX, line, -1, 0, message);
+    }
+
+    void runtimeError(RuntimeError error) {
+        runtimeError(error.token.line, error.getMessage(), "[line " + error.token.line + "]");
+    }
+
+    /**
+     * Reports a runtime error and flushes, since the run stops here. The trace is rendered on
+     * the lines after the message in the text format.
+     */
+    void runtimeError(int line, String message, String trace) {
+        synchronized (this) {
+            hadRuntimeError = true;
+            record(Code.RUNTIME, line, -1, 0, 1, message, trace);
+        }
+        Stats.runtimeError();
+        flush();
+    }
+
+    synchronized boolean hadError() {
+        return errorCount > 0;
+    }
+
+    /**
+     * Returns whether an error with the given code was reported since the last reset.
+     */
+    synchronized boolean hadError(Code code) {
+        return (codesSeen & (1 << code.ordinal())) != 0;
+    }
+
+    synchronized boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    synchronized int errorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the records not handed to the renderer yet. For a collecting sink, that is every
+     * record since the last reset, in the order they were reported.
+     */
+    synchronized List<Record> records() {
+        List<Record> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(new Record(CODES[codes[i]], lines[i], offsets[i], lengths[i], counts[i],
+                    messages[i], details[i]));
+        }
+        return records;
+    }
+
+    /**
+     * Reports this sink's records() to another sink, as if they were reported there: they merge
+     * with its adjacent repeats, count toward its cap and set its error flags. The target is not
+     * flushed.
+     */
+    void replayInto(ErrorSink target) {
+        for (Record record : records()) target.report(record);
+    }
+
+    private synchronized void report(Record record) {
+        if (record.code == Code.RUNTIME) {
+            hadRuntimeError = true;
+        } else {
+            errorCount += record.count;
+            codesSeen |= 1 << record.code.ordinal();
+        }
+        record(record.code, record.line, record.offset, record.length, record.count,
+                record.message, record.detail);
+    }
+
+    /**
+     * Forgets earlier errors so the sink can be used for the next program. A collecting sink
+     * also drops its records.
+     */
+    void reset() {
+        flush();
+        synchronized (this) {
+            errorCount = 0;
+            codesSeen = 0;
+            hadRuntimeError = false;
+            if (out == null) {
+                Arrays.fill(messages, 0, size, null);
+                Arrays.fill(details, 0, size, null);
+                size = 0;
+                recorded = 0;
+            }
+        }
+    }
+
+    /**
+     * Hands every pending record to the renderer and waits until all of this sink's output
+     * has been written.
+     */
+    void flush() {
+        Future<?> render;
+        synchronized (this) {
+            handOff(true);
+            render = lastRender;
+        }
+        if (render == null) return;
+
+        try {
+            render.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rendering diagnostics failed.", e.getCause());
+        }
+    }
+
+    private void add(Code code, int line, int offset, int length, String message) {
+        add(code, line, offset, length, message, null);
+    }
+
+    private void add(Code code, int line, int offset, int length, String message, String lexeme) {
+        synchronized (this) {
+            errorCount++;
+            codesSeen |= 1 << code.ordinal();
+            record(code, line, offset, length, 1, message, lexeme);
+        }
+        Stats.error();
+    }
+
+    /**
+     * Appends a record of count repeats, or merges it into the previous one if it repeats it
+     * right after it.
+     */
+    private void record(Code code, int line, int offset, int length, int count, String message,
+                        String detail) {
+        if (size > 0 && offset >= 0) {
+            int last = size - 1;
+            if (codes[last] == code.ordinal() && lines[last] == line
+                    && offsets[last] + lengths[last] == offset && messages[last].equals(message)) {
+                lengths[last] += length;
+                counts[last] += count;
+                return;
+            }
+        }
+
+        if (recorded >= maxErrors) {
+            suppressed += count;
+            return;
+        }
+        recorded++;
+
+        if (size == codes.length) grow();
+        codes[size] = code.ordinal();
+        lines[size] = line;
+        offsets[size] = offset;
+        lengths[size] = length;
+        counts[size] = count;
+        messages[size] = message;
+        details[size] = detail;
+        size++;
+
+        if (size >= BATCH_SIZE) handOff(false);
+    }
+
+    private void grow() {
+        int capacity = codes.length * 2;
+        codes = Arrays.copyOf(codes, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+        details = Arrays.copyOf(details, capacity);
+    }
+
+    /**
+     * Submits the pending records for rendering, but for the last one unless flushing. A flush
+     * also submits the count of dropped records and starts a new window for the cap. The
+     * columns are swapped for fresh ones, so the renderer owns what it was given.
+     */
+    private void handOff(boolean flushing) {
+        // A collecting sink keeps its records for records() and replayInto().
+        if (out == null) return;
+
+        int dropped = flushing ? suppressed : 0;
+        if (flushing) {
+            recorded = 0;
+            suppressed = 0;
+        }
+        if (size == 0 && dropped == 0) return;
+
+        // Until the flush, the last record stays pending, so a repeat of it still merges no
+        // matter where the batches are cut.
+        int kept = flushing ? 0 : 1;
+        int handed = size - kept;
+        int[] handedCodes = codes;
+        int[] handedLines = lines;
+        int[] handedOffsets = offsets;
+        int[] handedLengths = lengths;
+        int[] handedCounts = counts;
+        String[] handedMessages = messages;
+        String[] handedDetails = details;
+        Batch batch = new Batch(handedCodes, handedLines, handedOffsets, handedLengths, handedCounts,
+                handedMessages, handedDetails, handed, dropped, source);
+        int capacity = Math.min(codes.length, BATCH_SIZE);
+        codes = new int[capacity];
+        lines = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        counts = new int[capacity];
+        messages = new String[capacity];
+        details = new String[capacity];
+        size = kept;
+        if (kept > 0) {
+            codes[0] = handedCodes[handed];
+            lines[0] = handedLines[handed];
+            offsets[0] = handedOffsets[handed];
+            lengths[0] = handedLengths[handed];
+            counts[0] = handedCounts[handed];
+            messages[0] = handedMessages[handed];
+            details[0] = handedDetails[handed];
+        }
+
+        Format format = this.format;
+        int maxErrors = this.maxErrors;
+        lastRender = renderer.submit(() -> out.accept(batch.render(format, maxErrors)));
+    }
+
+    /**
+     * A handed-off slice of records and the code that turns it into text or JSON.
+     */
+    private static final class Batch {
+        private final int[] codes;
+        private final int[] lines;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] counts;
+        private final String[] messages;
+        private final String[] details;
+        private final int size;
+        private final int suppressed;
+        private final String source;
+
+        Batch(int[] codes, int[] lines, int[] offsets, int[] lengths, int[] counts,
+              String[] messages, String[] details, int size, int suppressed, String source) {
+            this.codes = codes;
+            this.lines = lines;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.counts = counts;
+            this.messages = messages;
+            this.details = details;
+            this.size = size;
+            this.suppressed = suppressed;
+            this.source = source;
+        }
+
+        String render(Format format, int maxErrors) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                if (i > 0) text.append('\n');
+                if (format == Format.JSON) {
+                    json(text, i);
+                } else {
+                    text(text, i);
+                }
+            }
+
+            if (suppressed > 0) {
+                if (text.length() > 0) text.append('\n');
+                if (format == Format.JSON) {
+                    text.append("{\"suppressed\":").append(suppressed)
+                            .append(",\"limit\":").append(maxErrors).append('}');
+                } else {
+                    text.append("... ").append(suppressed).append(" more errors not shown (limit ")
+                            .append(maxErrors).append(").");
+                }
+            }
+            return text.toString();
+        }
+
+        private void text(StringBuilder text, int i) {
+            String detail = details[i];
+            Code code = CODES[codes[i]];
+            if (code == Code.RUNTIME) {
+                text.append(messages[i]);
+                if (detail != null) text.append('\n').append(detail);
+                return;
+            }
+
+            text.append("[line ").append(lines[i]).append("] Error");
+            if (lengths[i] < 0) {
+                text.append(" at end");
+            } else if (detail != null) {
+                text.append(" at '").append(detail).append('\'');
+            }
+            text.append(": ").append(messages[i]);
+            if (counts[i] > 1) text.append(" (x").append(counts[i]).append(')');
+        }
+
+        private void json(StringBuilder text, int i) {
+            String detail = details[i];
+            Code code = CODES[codes[i]];
+            text.append("{\"severity\":\"error\",\"code\":\"").append(code.id)
+                    .append("\",\"kind\":\"").append(code.name().toLowerCase(Locale.ROOT))
+                    .append("\",\"line\":").append(lines[i]);
+            if (offsets[i] >= 0) {
+                text.append(",\"column\":");
+                if (source != null) {
+                    text.append(offsets[i] - source.lastIndexOf('\n', offsets[i] - 1));
+                } else {
+                    text.append("null");
+                }
+                text.append(",\"offset\":").append(offsets[i])
+                        .append(",\"length\":").append(Math.max(lengths[i], 0));
+            }
+            text.append(",\"count\":").append(counts[i]).append(",\"message\":");
+            quote(text, messages[i]);
+            if (detail != null) {
+                text.append(code == Code.RUNTIME ? ",\"trace\":" : ",\"lexeme\":");
+                quote(text, detail);
+            } else if (lengths[i] < 0) {
+                text.append(",\"atEnd\":true");
+            }
+            text.append('}');
+        }
+
+        private static void quote(StringBuilder text, String value) {
+            text.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': text.append("\\\""); break;
+                    case '\\': text.append("\\\\"); break;
+                    case '\n': text.append("\\n"); break;
+                    case '\r': text.append("\\r"); break;
+                    case '\t': text.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            text.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            text.append(c);
+                        }
+                }
+            }
+            text.append('"');
+        }
+    }
+
+    /**
+     * Interned "Unexpected character" messages, so repeated junk does not build a String each.
+     */
+    private static final class UnexpectedCharacters {
+        private static final String[] ASCII = new String[128];
+
+        static String message(char c) {
+            if (c >= ASCII.length) return "Unexpected character: '" + c + "'.";
+            String message = ASCII[c];
+            if (message == null) {
+                // Racing threads may both build it; either String is fine.
+                message = "Unexpected character: '" + c + "'.";
+                ASCII[c] = message;
+            }
+            return message;
+        }
+    }
+}
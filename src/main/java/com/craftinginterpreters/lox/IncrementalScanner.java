@@ -0,0 +1,190 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Keeps a token stream up to date as its source is edited, for editors and the REPL.
+ *
+ * An edit replaces `removedLength` chars at `offset` with the inserted text. Instead of
+ * rescanning the whole file, only the affected region is re-lexed:
+ *
+ *   1. Re-lexing starts one token before the first token the edit touches. Lox needs at most
+ *      two chars of lookahead (e.g. "1." followed by a digit), and backing up one whole token
+ *      covers that.
+ *   2. The Scanner runs forward over the new source one token at a time.
+ *   3. As soon as it produces a token that starts exactly where an old token after the edit
+ *      starts (shifted by the size change), the two streams agree from there on: both are at
+ *      a token boundary with the same text ahead. The old tokens are resumed as they are.
+ *
+ * Strings spanning lines and unterminated strings need no special casing. An edit that opens
+ * a string simply keeps the scanner going until the string closes again, or to the end of the
+ * file if it never does.
+ *
+ * Line numbers of the resumed tokens are not rewritten. The TokenBuffer records a pending
+ * line and offset shift and applies it when tokens are read.
+ *
+ * Example:
+ *   IncrementalScanner scanner = new IncrementalScanner("var a = 1;");
+ *   scanner.edit(4, 1, "abc"); // source is now "var abc = 1;"
+ *   scanner.tokens().lexeme(1); // "abc"
+ */
+class IncrementalScanner {
+    private final TokenBuffer tokens;
+    private String source;
+    private final ErrorSink errors;
+    private int lastRelexed = 0;
+    private int lastRelexStart = 0;
+    private int lastRelexEnd = 0;
+
+    IncrementalScanner(String source) {
+        this(source, Lox.errorSink());
+    }
+
+    /**
+     * Creates a scanner that reports the lexical errors of every re-lexed region to the sink.
+     */
+    IncrementalScanner(String source, ErrorSink errors) {
+        this.source = source;
+        this.errors = errors;
+        this.tokens = new Scanner(source, errors).scanTokenBuffer();
+        this.lastRelexed = tokens.size();
+        this.lastRelexEnd = source.length();
+    }
+
+    String source() {
+        return source;
+    }
+
+    /**
+     * Returns the current token stream. It is updated in place by edit().
+     */
+    TokenBuffer tokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns how many tokens the last edit (or the initial scan) had to lex.
+     */
+    int lastRelexedCount() {
+        return lastRelexed;
+    }
+
+    /**
+     * Returns where the region the last edit re-lexed starts in the current source. Errors
+     * the sink got for that edit all lie in [lastRelexStart(), lastRelexEnd()); outside it,
+     * the tokens, and so the lexical errors, are the same as before the edit.
+     */
+    int lastRelexStart() {
+        return lastRelexStart;
+    }
+
+    int lastRelexEnd() {
+        return lastRelexEnd;
+    }
+
+    /**
+     * Applies an edit to the source and re-lexes just the part of the token stream it affects.
+     *
+     * @param offset        where the edit starts in the current source
+     * @param removedLength how many chars are removed at the offset
+     * @param inserted      the text inserted at the offset
+     * @return the updated token stream
+     */
+    TokenBuffer edit(int offset, int removedLength, String inserted) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > source.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removedLength)
+                    + ") is outside the source of length " + source.length() + ".");
+        }
+
+        String oldSource = source;
+        String newSource = oldSource.substring(0, offset) + inserted
+                + oldSource.substring(offset + removedLength);
+        int offsetDelta = inserted.length() - removedLength;
+        int lineDelta = countLines(inserted, 0, inserted.length())
+                - countLines(oldSource, offset, offset + removedLength);
+        int editEnd = offset + removedLength;
+
+        // Find where to restart: one token before the first token the edit touches.
+        int first = firstTokenEndingAtOrAfter(offset);
+        int restart = Math.max(first - 1, 0);
+        int restartOffset = 0;
+        int restartLine = 1;
+        if (first > 0) {
+            restartOffset = tokens.start(restart);
+            // A multi-line string records the line it ends on, so step back to its first line.
+            restartLine = tokens.line(restart)
+                    - countLines(oldSource, restartOffset, restartOffset + tokens.length(restart));
+        }
+
+        Scanner scanner = new Scanner(newSource, restartOffset, restartLine, errors);
+        TokenBuffer relexed = scanner.tokens();
+
+        // Old tokens that start after the edit are the resync candidates; the final EOF is
+        // excluded since the scanner never adds one.
+        int candidate = restart;
+        int lastOld = tokens.size() - 1;
+        int resumeAt = lastOld;
+        boolean resynced = false;
+        while (scanner.scanNextToken()) {
+            int newStart = relexed.start(relexed.size() - 1);
+            while (candidate < lastOld && oldStartInNewSource(candidate, offsetDelta) < newStart) {
+                candidate++;
+            }
+            if (candidate < lastOld && tokens.start(candidate) >= editEnd
+                    && oldStartInNewSource(candidate, offsetDelta) == newStart) {
+                resumeAt = candidate;
+                resynced = true;
+                break;
+            }
+        }
+
+        int replacementCount = relexed.size();
+        if (resynced) {
+            // The token that matched is identical to the old one, which is kept instead.
+            relexed.truncate(replacementCount - 1);
+        } else {
+            // Ran off the end: the old EOF is replaced with one at the new end.
+            relexed.add(EOF, newSource.length(), 0, scanner.line());
+            resumeAt = tokens.size();
+        }
+
+        lastRelexStart = restartOffset;
+        lastRelexEnd = resynced ? oldStartInNewSource(resumeAt, offsetDelta) : newSource.length();
+        tokens.splice(restart, resumeAt, relexed, newSource, offsetDelta, lineDelta);
+        tokens.editLineIndex(offset, removedLength, inserted);
+        source = newSource;
+        lastRelexed = replacementCount;
+        errors.flush();
+        return tokens;
+    }
+
+    private int oldStartInNewSource(int index, int offsetDelta) {
+        return tokens.start(index) + offsetDelta;
+    }
+
+    /**
+     * Binary search for the first token whose lexeme ends at or after the offset. Token ends
+     * increase along the stream, and the EOF token ends at the end of the source.
+     */
+    private int firstTokenEndingAtOrAfter(int offset) {
+        int low = 0;
+        int high = tokens.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.start(mid) + tokens.length(mid) >= offset) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
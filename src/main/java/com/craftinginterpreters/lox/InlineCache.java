@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What one property access or method call site has learned about the shapes of the instances
+ * it has seen.
+ *
+ * Each entry maps a Shape to a field slot, plus a target: for a get or a call whose name is
+ * not a field, the method, and for a set, the shape the instance has after it, which is a
+ * different one when the set adds the field. A site that only ever sees one shape is
+ * monomorphic and matches on its first comparison; up to MAX_SHAPES shapes are kept, and a
+ * site that sees more is megamorphic and does the full lookup for the shapes it missed.
+ *
+ * Hits and misses are counted by the runtime, per program, in a Counters.
+ *
+ * Example:
+ *   int entry = cache.find(instance.shape);
+ *   if (entry >= 0 && cache.slot(entry) >= 0) return instance.fields[cache.slot(entry)];
+ */
+final class InlineCache {
+    static final int MAX_SHAPES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_SHAPES];
+    private final int[] slots = new int[MAX_SHAPES];
+    private final Object[] targets = new Object[MAX_SHAPES];
+    private int size = 0;
+
+    /**
+     * Returns the entry for the shape, or -1 on a miss.
+     */
+    int find(Shape shape) {
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The field's slot, or -1 if the name is a method of the shape's class.
+     */
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    Object target(int entry) {
+        return targets[entry];
+    }
+
+    /**
+     * Remembers a shape the site missed, unless the site is already full.
+     */
+    void add(Shape shape, int slot, Object target) {
+        if (size == MAX_SHAPES) return;
+        shapes[size] = shape;
+        slots[size] = slot;
+        targets[size] = target;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Hits and misses of all the caches a runtime has consulted.
+     */
+    static final class Counters {
+        long hits = 0;
+        long misses = 0;
+
+        double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+}
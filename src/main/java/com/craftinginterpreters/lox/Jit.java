@@ -0,0 +1,883 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.ClassFile.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The VM's second tier: compiles hot functions to JVM bytecode, so HotSpot compiles them on to
+ * machine code instead of running them through the dispatch loop.
+ *
+ * The VM counts calls of each function and back-edges of its loops in Obj.Function.hotness.
+ * When that reaches HOT, the function's chunk is translated into the run() method of a hidden
+ * class, defined with Lookup.defineHiddenClass. Later calls go straight to it, and a frame
+ * that is still looping in the interpreter enters it at the loop's header, which is on-stack
+ * replacement. The classes are cached by their bytes, so the same function compiled again, by
+ * another VM or in another run, gets the class HotSpot has already compiled; a hidden class
+ * is unloaded once it has left the cache and no function refers to it.
+ *
+ * The translation keeps the VM's frame layout: stack slot k of the frame is the Object local
+ * SLOTS + k and the double local at numbers(k), holding the slot's halves of the VM stack, so
+ * the state of the frame at any instruction is the instruction's offset plus the first depth
+ * slots, and numbers stay unboxed here too. Arithmetic and comparisons are compiled for
+ * numbers behind a guard that the slot holds VM.NUMBER; '+' is compiled for numbers only,
+ * until one of its guards has failed, and after that for numbers or strings. When a guard
+ * fails, the code writes its slots back to the frame's stack slots and calls
+ * VM.deoptimize(), which goes on running the frame in the interpreter from the failed
+ * instruction. Deoptimizing also drops the function's code and
+ * records the failed instruction, so the function is compiled again, with that instruction
+ * generic, once it is hot again. A runtime error always happens in the interpreter or in a VM
+ * helper, so its message and trace are the interpreter's.
+ *
+ * Functions whose own locals are captured by a closure are not compiled, since an open
+ * upvalue must find the variable on the VM stack; neither are functions whose code would be
+ * too large for HotSpot to compile.
+ *
+ * Example:
+ *   VM vm = new VM(errors, out, true);
+ *   vm.interpret(new Compiler(tokens, errors).compile()); // fib(25)
+ *   vm.jit.compilations;                                 // 1, fib
+ */
+final class Jit {
+    // Calls plus back-edges after which a function is compiled.
+    static final int HOT = 1000;
+    // After this many deoptimizations a function is left to the interpreter.
+    static final int MAX_DEOPTS = 8;
+    // HotSpot does not compile methods with more bytecode than this.
+    private static final int MAX_CODE = 8000;
+    // How many compiled classes are kept for reuse.
+    private static final int CACHE_SIZE = 256;
+
+    // run()'s parameters, two locals for the deoptimization stub, then the frame's slots.
+    private static final int VM_LOCAL = 1;
+    private static final int STACK = 2;
+    private static final int NUMBERS = 3;
+    private static final int BASE = 4;
+    private static final int ENTRY = 5;
+    private static final int DEOPT_IP = 6;
+    private static final int DEOPT_DEPTH = 7;
+    private static final int SLOTS = 8;
+
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+    private static final String CODE = PACKAGE + "Jit$Code";
+    private static final String VM_CLASS = PACKAGE + "VM";
+    private static final String JIT = PACKAGE + "Jit";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String STRING = "java/lang/String";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String RUN = "(L" + VM_CLASS + ";[L" + OBJECT + ";[DII)L" + OBJECT + ";";
+
+    /**
+     * The compiled code of one function, run on the VM's stack arrays. entry is 0 for a call,
+     * or the offset of the loop header at which a looping frame enters it. A number result
+     * is returned as VM.NUMBER with its value in numbers[base], as the interpreter leaves it.
+     */
+    abstract static class Code {
+        abstract Object run(VM vm, Object[] stack, double[] numbers, int base, int entry);
+    }
+
+    /**
+     * Thrown through compiled code once a runtime error has been reported and the VM reset.
+     */
+    static final class Abort extends RuntimeException {
+        private Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Abort ABORT = new Abort();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Compiled code by its class file, shared by every VM. The same function compiled again,
+    // as when a script is run again by the REPL, a batch or a benchmark, reuses the class
+    // HotSpot has already compiled to machine code instead of starting over cold.
+    private static final Map<ByteBuffer, Code> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<ByteBuffer, Code>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Code> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    int compilations = 0;
+    int deoptimizations = 0;
+    int osrEntries = 0;
+    // Functions found hot but not compilable.
+    int rejected = 0;
+
+    /**
+     * Compiles the function, if it can be, and sets its compiled code.
+     *
+     * @return whether it was compiled
+     */
+    boolean compile(Obj.Function function) {
+        Code code = new Translation(function).translate();
+        if (code == null) {
+            rejected++;
+            return false;
+        }
+        function.compiled = code;
+        compilations++;
+        return true;
+    }
+
+    /**
+     * Drops the function's code after a guard failed at ip, and marks that instruction so the
+     * next compilation handles any operand types there.
+     */
+    void deoptimized(Obj.Function function, int ip) {
+        deoptimizations++;
+        function.compiled = null;
+        if (function.genericSites == null) function.genericSites = new BitSet();
+        function.genericSites.set(ip);
+        // Counted again from zero; a function that keeps failing stays interpreted.
+        if (++function.deopts < MAX_DEOPTS) function.hotness = 0;
+    }
+
+    /**
+     * '+' of two strings, or null when the values are not both strings. Two numbers are
+     * added by the compiled code itself.
+     */
+    static Object add(Object a, Object b) {
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return Rope.plus((CharSequence) a, (CharSequence) b);
+        }
+        return null;
+    }
+
+    /**
+     * The translation of one function's chunk into a hidden class.
+     */
+    private static final class Translation {
+        private final Obj.Function function;
+        private final byte[] code;
+        private final Object[] constants;
+
+        // The stack depth before each reachable instruction, or -1.
+        private final int[] depth;
+        private final BitSet jumpTargets = new BitSet();
+        private final BitSet loopHeaders = new BitSet();
+        private int maxDepth = 0;
+        // Instructions whose depth is known but whose successors are not yet visited.
+        private final int[] work;
+        private int pending = 0;
+
+        private ClassFile.Code out;
+        private ClassFile.Label[] labels;
+        private final List<int[]> stubs = new ArrayList<>();
+        private final List<ClassFile.Label> stubLabels = new ArrayList<>();
+
+        Translation(Obj.Function function) {
+            this.function = function;
+            this.code = function.chunk.code;
+            this.constants = function.chunk.constants;
+            this.depth = new int[code.length];
+            this.work = new int[code.length];
+        }
+
+        Code translate() {
+            if (!analyze()) return null;
+
+            String name = PACKAGE + "Jit$" + (function.name == null ? "script" : function.name);
+            ClassFile file = new ClassFile(name, CODE);
+            ClassFile.Code init = file.method(0, "<init>", "()V", 1, 1);
+            init.local(ALOAD, 0);
+            init.invoke(INVOKESPECIAL, CODE, "<init>", "()V");
+            init.op(RETURN);
+
+            // The scratch local after the Object slots holds the result of a generic '+' or
+            // a value being stored; the double slots come after it.
+            out = file.method(0, "run", RUN, 16, numbers(maxDepth));
+            labels = new ClassFile.Label[code.length];
+            for (int ip = 0; ip < code.length; ip++) {
+                if (depth[ip] >= 0) labels[ip] = new ClassFile.Label();
+            }
+
+            prologue();
+            for (int ip = 0; ip < code.length; ) {
+                if (depth[ip] < 0) {
+                    ip += length(ip);
+                    continue;
+                }
+                out.bind(labels[ip]);
+                ip = instruction(ip);
+                if (ip < 0) return null;
+            }
+            deoptimization();
+            if (out.length() > MAX_CODE) return null;
+
+            byte[] bytes = file.toBytes();
+            ByteBuffer key = ByteBuffer.wrap(bytes);
+            Code cached = CACHE.get(key);
+            if (cached != null) return cached;
+            try {
+                MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+                Code code = (Code) hidden.findConstructor(hidden.lookupClass(),
+                        MethodType.methodType(void.class)).invoke();
+                CACHE.put(key, code);
+                return code;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not load the code compiled for " + function + ".", e);
+            }
+        }
+
+        /**
+         * Finds the stack depth before every reachable instruction, and the jump targets and
+         * loop headers.
+         *
+         * @return false if the function uses an instruction that is not compiled
+         */
+        private boolean analyze() {
+            Arrays.fill(depth, -1);
+            depth[0] = function.arity + 1;
+            work[pending++] = 0;
+
+            while (pending > 0) {
+                int ip = work[--pending];
+                byte op = code[ip];
+                if (op == OpCode.CLOSE_UPVALUE) return false;
+                if (op == OpCode.CLOSURE && capturesLocal(ip)) return false;
+
+                int before = depth[ip];
+                int after = before + effect(ip);
+                if (after < 0) return false;
+                maxDepth = Math.max(maxDepth, Math.max(before, after));
+
+                int next = ip + length(ip);
+                if (op == OpCode.JUMP || op == OpCode.JUMP_IF_FALSE || op == OpCode.POP_JUMP_IF_FALSE) {
+                    if (!flow(next + offset(ip), after)) return false;
+                    jumpTargets.set(next + offset(ip));
+                } else if (op == OpCode.LOOP) {
+                    if (!flow(next - offset(ip), after)) return false;
+                    jumpTargets.set(next - offset(ip));
+                    loopHeaders.set(next - offset(ip));
+                }
+                if (op != OpCode.RETURN && op != OpCode.JUMP && op != OpCode.LOOP) {
+                    if (!flow(next, after)) return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Records the depth at a successor, queuing it the first time it is reached. Every
+         * path into an instruction must agree on its depth.
+         */
+        private boolean flow(int ip, int d) {
+            if (ip < 0 || ip >= code.length) return false;
+            if (depth[ip] < 0) {
+                depth[ip] = d;
+                work[pending++] = ip;
+                return true;
+            }
+            return depth[ip] == d;
+        }
+
+        private boolean capturesLocal(int ip) {
+            Obj.Function inner = (Obj.Function) constants[code[ip + 1] & 0xff];
+            for (int i = 0; i < inner.upvalueCount; i++) {
+                if (code[ip + 2 + 2 * i] == 1) return true;
+            }
+            return false;
+        }
+
+        private int offset(int ip) {
+            return (code[ip + 1] & 0xff) << 8 | (code[ip + 2] & 0xff);
+        }
+
+        private int length(int ip) {
+            switch (code[ip]) {
+                case OpCode.CONSTANT: case OpCode.GET_LOCAL: case OpCode.SET_LOCAL:
+                case OpCode.SET_LOCAL_POP: case OpCode.GET_GLOBAL: case OpCode.DEFINE_GLOBAL:
+                case OpCode.SET_GLOBAL: case OpCode.GET_UPVALUE: case OpCode.SET_UPVALUE:
+                case OpCode.GET_PROPERTY: case OpCode.SET_PROPERTY: case OpCode.GET_SUPER:
+                case OpCode.CALL: case OpCode.CLASS: case OpCode.METHOD:
+                    return 2;
+                case OpCode.JUMP: case OpCode.JUMP_IF_FALSE: case OpCode.POP_JUMP_IF_FALSE:
+                case OpCode.LOOP: case OpCode.INVOKE: case OpCode.SUPER_INVOKE:
+                    return 3;
+                case OpCode.CLOSURE: {
+                    Obj.Function inner = (Obj.Function) constants[code[ip + 1] & 0xff];
+                    return 2 + 2 * inner.upvalueCount;
+                }
+                default:
+                    return 1;
+            }
+        }
+
+        /**
+         * The change in stack depth made by the instruction at ip.
+         */
+        private int effect(int ip) {
+            switch (code[ip]) {
+                case OpCode.CONSTANT: case OpCode.NIL: case OpCode.TRUE: case OpCode.FALSE:
+                case OpCode.GET_LOCAL: case OpCode.GET_GLOBAL: case OpCode.GET_UPVALUE:
+                case OpCode.CLOSURE: case OpCode.CLASS:
+                    return 1;
+                case OpCode.SET_LOCAL: case OpCode.SET_GLOBAL: case OpCode.SET_UPVALUE:
+                case OpCode.GET_PROPERTY: case OpCode.NOT: case OpCode.NEGATE:
+                case OpCode.JUMP: case OpCode.JUMP_IF_FALSE: case OpCode.LOOP: case OpCode.RETURN:
+                    return 0;
+                case OpCode.CALL:
+                    return -(code[ip + 1] & 0xff);
+                case OpCode.INVOKE:
+                    return -(code[ip + 2] & 0xff);
+                case OpCode.SUPER_INVOKE:
+                    return -(code[ip + 2] & 0xff) - 1;
+                default:
+                    // POP, SET_LOCAL_POP, DEFINE_GLOBAL, SET_PROPERTY, GET_SUPER, the binary
+                    // operators, PRINT, POP_JUMP_IF_FALSE, INHERIT and METHOD.
+                    return -1;
+            }
+        }
+
+        /**
+         * Loads every slot from the VM stack, then goes to the entry: the start, or a loop
+         * header for a frame that was looping in the interpreter.
+         */
+        private void prologue() {
+            for (int k = 0; k < maxDepth; k++) {
+                stackElement(STACK, k);
+                out.op(AALOAD);
+                out.local(ASTORE, SLOTS + k);
+                stackElement(NUMBERS, k);
+                out.op(DALOAD);
+                out.local(DSTORE, numbers(k));
+            }
+
+            int[] keys = loopHeaders.stream().toArray();
+            if (keys.length == 0) return;
+            ClassFile.Label[] targets = new ClassFile.Label[keys.length];
+            for (int i = 0; i < keys.length; i++) targets[i] = labels[keys[i]];
+            out.local(ILOAD, ENTRY);
+            out.lookupSwitch(keys, targets, labels[0]);
+        }
+
+        /**
+         * Pushes one of the stack arrays and the index of slot k of the frame.
+         */
+        private void stackElement(int array, int k) {
+            out.local(ALOAD, array);
+            out.local(ILOAD, BASE);
+            if (k != 0) {
+                out.pushInt(k);
+                out.op(IADD);
+            }
+        }
+
+        /**
+         * Translates the instruction at ip.
+         *
+         * @return the offset of the next instruction to translate, or -1 to give up
+         */
+        private int instruction(int ip) {
+            int d = depth[ip];
+            int next = ip + length(ip);
+            switch (code[ip]) {
+                case OpCode.CONSTANT: {
+                    Object value = constants[code[ip + 1] & 0xff];
+                    if (value instanceof Double) {
+                        out.pushNumber((double) value);
+                        storeNumber(d);
+                    } else if (value instanceof String) {
+                        out.pushString((String) value);
+                        store(d);
+                    } else {
+                        return -1;
+                    }
+                    break;
+                }
+                case OpCode.NIL:
+                    out.op(ACONST_NULL);
+                    store(d);
+                    break;
+                case OpCode.TRUE:
+                case OpCode.FALSE:
+                    out.field(GETSTATIC, BOOLEAN, code[ip] == OpCode.TRUE ? "TRUE" : "FALSE",
+                            "L" + BOOLEAN + ";");
+                    store(d);
+                    break;
+                case OpCode.POP:
+                    break;
+                case OpCode.GET_LOCAL:
+                    copy(code[ip + 1] & 0xff, d);
+                    break;
+                case OpCode.SET_LOCAL:
+                case OpCode.SET_LOCAL_POP:
+                    copy(d - 1, code[ip + 1] & 0xff);
+                    break;
+                case OpCode.GET_GLOBAL:
+                    vm();
+                    name(ip);
+                    out.pushInt(next);
+                    helper("jitGetGlobal", "(L" + STRING + ";I)L" + OBJECT + ";");
+                    storeValue(d);
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    vm();
+                    name(ip);
+                    loadValue(d - 1);
+                    helper("jitDefineGlobal", "(L" + STRING + ";L" + OBJECT + ";)V");
+                    break;
+                case OpCode.SET_GLOBAL:
+                    vm();
+                    name(ip);
+                    loadValue(d - 1);
+                    out.pushInt(next);
+                    helper("jitSetGlobal", "(L" + STRING + ";L" + OBJECT + ";I)V");
+                    break;
+                case OpCode.GET_UPVALUE:
+                    vm();
+                    out.pushInt(code[ip + 1] & 0xff);
+                    helper("jitGetUpvalue", "(I)L" + OBJECT + ";");
+                    storeValue(d);
+                    break;
+                case OpCode.SET_UPVALUE:
+                    vm();
+                    out.pushInt(code[ip + 1] & 0xff);
+                    loadValue(d - 1);
+                    helper("jitSetUpvalue", "(IL" + OBJECT + ";)V");
+                    break;
+                case OpCode.GET_PROPERTY:
+                    vm();
+                    load(d - 1);
+                    name(ip);
+                    out.pushInt(next);
+                    helper("jitGetProperty", "(L" + OBJECT + ";L" + STRING + ";I)L" + OBJECT + ";");
+                    storeValue(d - 1);
+                    break;
+                case OpCode.SET_PROPERTY:
+                    vm();
+                    load(d - 2);
+                    name(ip);
+                    loadValue(d - 1);
+                    out.pushInt(next);
+                    helper("jitSetProperty", "(L" + OBJECT + ";L" + STRING + ";L" + OBJECT + ";I)V");
+                    copy(d - 1, d - 2);
+                    break;
+                case OpCode.GET_SUPER:
+                    vm();
+                    load(d - 1);
+                    load(d - 2);
+                    name(ip);
+                    out.pushInt(next);
+                    helper("jitGetSuper",
+                            "(L" + OBJECT + ";L" + OBJECT + ";L" + STRING + ";I)L" + OBJECT + ";");
+                    store(d - 2);
+                    break;
+                case OpCode.EQUAL:
+                case OpCode.NOT_EQUAL:
+                    load(d - 2);
+                    loadNumber(d - 2);
+                    load(d - 1);
+                    loadNumber(d - 1);
+                    out.invoke(INVOKESTATIC, VM_CLASS, "isEqual",
+                            "(L" + OBJECT + ";DL" + OBJECT + ";D)Z");
+                    if (code[ip] == OpCode.NOT_EQUAL) {
+                        out.pushInt(1);
+                        out.op(IXOR);
+                    }
+                    boxBoolean();
+                    store(d - 2);
+                    break;
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL:
+                    return comparison(ip, d, next);
+                case OpCode.ADD:
+                    if (function.genericSites != null && function.genericSites.get(ip)) {
+                        // Two numbers are added here, anything else by Jit.add.
+                        ClassFile.Label generic = new ClassFile.Label();
+                        ClassFile.Label done = new ClassFile.Label();
+                        isNumber(d - 2, generic);
+                        isNumber(d - 1, generic);
+                        loadNumber(d - 2);
+                        loadNumber(d - 1);
+                        out.op(DADD);
+                        storeNumber(d - 2);
+                        out.jump(GOTO, done);
+
+                        out.bind(generic);
+                        load(d - 2);
+                        load(d - 1);
+                        out.invoke(INVOKESTATIC, JIT, "add",
+                                "(L" + OBJECT + ";L" + OBJECT + ";)L" + OBJECT + ";");
+                        out.local(ASTORE, scratch());
+                        out.local(ALOAD, scratch());
+                        out.jump(IFNULL, stub(ip, d));
+                        out.local(ALOAD, scratch());
+                        store(d - 2);
+                        out.bind(done);
+                        break;
+                    }
+                    arithmetic(ip, d, DADD);
+                    break;
+                case OpCode.SUBTRACT:
+                    arithmetic(ip, d, DSUB);
+                    break;
+                case OpCode.MULTIPLY:
+                    arithmetic(ip, d, DMUL);
+                    break;
+                case OpCode.DIVIDE:
+                    arithmetic(ip, d, DDIV);
+                    break;
+                case OpCode.NOT:
+                    load(d - 1);
+                    falsey();
+                    boxBoolean();
+                    store(d - 1);
+                    break;
+                case OpCode.NEGATE:
+                    guardNumber(ip, d, d - 1);
+                    loadNumber(d - 1);
+                    out.op(DNEG);
+                    storeNumber(d - 1);
+                    break;
+                case OpCode.PRINT:
+                    vm();
+                    loadValue(d - 1);
+                    helper("jitPrint", "(L" + OBJECT + ";)V");
+                    break;
+                case OpCode.JUMP:
+                    out.jump(GOTO, labels[next + offset(ip)]);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                case OpCode.POP_JUMP_IF_FALSE:
+                    load(d - 1);
+                    falsey();
+                    out.jump(IFNE, labels[next + offset(ip)]);
+                    break;
+                case OpCode.LOOP:
+                    out.jump(GOTO, labels[next - offset(ip)]);
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip + 1] & 0xff;
+                    int callee = d - 1 - argCount;
+                    spill(callee, d);
+                    vm();
+                    slotIndex(callee);
+                    out.pushInt(argCount);
+                    out.pushInt(next);
+                    helper("jitCall", "(III)L" + OBJECT + ";");
+                    storeResult(callee);
+                    break;
+                }
+                case OpCode.INVOKE: {
+                    int argCount = code[ip + 2] & 0xff;
+                    int receiver = d - 1 - argCount;
+                    spill(receiver, d);
+                    vm();
+                    name(ip);
+                    slotIndex(receiver);
+                    out.pushInt(argCount);
+                    out.pushInt(next);
+                    helper("jitInvoke", "(L" + STRING + ";III)L" + OBJECT + ";");
+                    storeResult(receiver);
+                    break;
+                }
+                case OpCode.SUPER_INVOKE: {
+                    int argCount = code[ip + 2] & 0xff;
+                    int receiver = d - 2 - argCount;
+                    spill(receiver, d - 1);
+                    vm();
+                    load(d - 1);
+                    name(ip);
+                    slotIndex(receiver);
+                    out.pushInt(argCount);
+                    out.pushInt(next);
+                    helper("jitSuperInvoke", "(L" + OBJECT + ";L" + STRING + ";III)L" + OBJECT + ";");
+                    storeResult(receiver);
+                    break;
+                }
+                case OpCode.CLOSURE:
+                    vm();
+                    out.pushInt(ip);
+                    helper("jitClosure", "(I)L" + OBJECT + ";");
+                    store(d);
+                    break;
+                case OpCode.RETURN: {
+                    // A number goes where the caller finds a frame's result: numbers[base].
+                    ClassFile.Label notNumber = new ClassFile.Label();
+                    isNumber(d - 1, notNumber);
+                    out.local(ALOAD, NUMBERS);
+                    out.local(ILOAD, BASE);
+                    loadNumber(d - 1);
+                    out.op(DASTORE);
+                    out.bind(notNumber);
+                    load(d - 1);
+                    out.op(ARETURN);
+                    break;
+                }
+                case OpCode.CLASS:
+                    vm();
+                    name(ip);
+                    helper("jitClass", "(L" + STRING + ";)L" + OBJECT + ";");
+                    store(d);
+                    break;
+                case OpCode.INHERIT:
+                    vm();
+                    load(d - 2);
+                    load(d - 1);
+                    out.pushInt(next);
+                    helper("jitInherit", "(L" + OBJECT + ";L" + OBJECT + ";I)V");
+                    break;
+                case OpCode.METHOD:
+                    vm();
+                    load(d - 2);
+                    name(ip);
+                    load(d - 1);
+                    helper("jitMethod", "(L" + OBJECT + ";L" + STRING + ";L" + OBJECT + ";)V");
+                    break;
+                default:
+                    return -1;
+            }
+            return next;
+        }
+
+        /**
+         * Compares two numbers. When the comparison only feeds the POP_JUMP_IF_FALSE right
+         * after it, as in a loop condition, it branches directly instead of making a Boolean.
+         */
+        private int comparison(int ip, int d, int next) {
+            guardNumber(ip, d, d - 2);
+            guardNumber(ip, d, d - 1);
+            loadNumber(d - 2);
+            loadNumber(d - 1);
+
+            // The branch is taken when the comparison is false; NaN makes every one false.
+            int compare;
+            int whenFalse;
+            switch (code[ip]) {
+                case OpCode.GREATER: compare = DCMPL; whenFalse = IFLE; break;
+                case OpCode.GREATER_EQUAL: compare = DCMPL; whenFalse = IFLT; break;
+                case OpCode.LESS: compare = DCMPG; whenFalse = IFGE; break;
+                default: compare = DCMPG; whenFalse = IFGT; break;
+            }
+            out.op(compare);
+
+            if (next < code.length && code[next] == OpCode.POP_JUMP_IF_FALSE && !jumpTargets.get(next)) {
+                int after = next + 3;
+                out.jump(whenFalse, labels[after + offset(next)]);
+                return after;
+            }
+
+            ClassFile.Label isFalse = new ClassFile.Label();
+            ClassFile.Label done = new ClassFile.Label();
+            out.jump(whenFalse, isFalse);
+            out.field(GETSTATIC, BOOLEAN, "TRUE", "L" + BOOLEAN + ";");
+            out.jump(GOTO, done);
+            out.bind(isFalse);
+            out.field(GETSTATIC, BOOLEAN, "FALSE", "L" + BOOLEAN + ";");
+            out.bind(done);
+            store(d - 2);
+            return next;
+        }
+
+        private void arithmetic(int ip, int d, int operation) {
+            guardNumber(ip, d, d - 2);
+            guardNumber(ip, d, d - 1);
+            loadNumber(d - 2);
+            loadNumber(d - 1);
+            out.op(operation);
+            storeNumber(d - 2);
+        }
+
+        private void guardNumber(int ip, int d, int slot) {
+            isNumber(slot, stub(ip, d));
+        }
+
+        /**
+         * Goes on if the slot holds a number, and jumps to otherwise if not.
+         */
+        private void isNumber(int slot, ClassFile.Label otherwise) {
+            load(slot);
+            number();
+            out.jump(IF_ACMPNE, otherwise);
+        }
+
+        /**
+         * Returns the label of a stub that deoptimizes at ip with depth d. Stubs are emitted
+         * after the code, out of the way of the straight-line path.
+         */
+        private ClassFile.Label stub(int ip, int d) {
+            ClassFile.Label label = new ClassFile.Label();
+            stubs.add(new int[] {ip, d});
+            stubLabels.add(label);
+            return label;
+        }
+
+        /**
+         * Emits the stubs, each of which records where it failed and goes to one shared tail
+         * that writes the slots back to the stack and resumes in the interpreter.
+         */
+        private void deoptimization() {
+            if (stubs.isEmpty()) return;
+            ClassFile.Label tail = new ClassFile.Label();
+            for (int i = 0; i < stubs.size(); i++) {
+                out.bind(stubLabels.get(i));
+                out.pushInt(stubs.get(i)[0]);
+                out.local(ISTORE, DEOPT_IP);
+                out.pushInt(stubs.get(i)[1]);
+                out.local(ISTORE, DEOPT_DEPTH);
+                out.jump(GOTO, tail);
+            }
+
+            out.bind(tail);
+            spill(0, maxDepth);
+            vm();
+            out.local(ILOAD, DEOPT_IP);
+            out.local(ILOAD, BASE);
+            out.local(ILOAD, DEOPT_DEPTH);
+            out.op(IADD);
+            helper("deoptimize", "(II)L" + OBJECT + ";");
+            out.op(ARETURN);
+        }
+
+        /**
+         * Writes slots [from, to) to the VM stack, for a callee or the interpreter to read.
+         */
+        private void spill(int from, int to) {
+            for (int k = from; k < to; k++) {
+                stackElement(STACK, k);
+                load(k);
+                out.op(AASTORE);
+                stackElement(NUMBERS, k);
+                loadNumber(k);
+                out.op(DASTORE);
+            }
+        }
+
+        private void slotIndex(int k) {
+            out.local(ILOAD, BASE);
+            if (k != 0) {
+                out.pushInt(k);
+                out.op(IADD);
+            }
+        }
+
+        /**
+         * The JVM local of the double half of slot k, after the Object slots and the scratch
+         * local. Each takes two locals.
+         */
+        private int numbers(int k) {
+            return SLOTS + maxDepth + 1 + 2 * k;
+        }
+
+        private int scratch() {
+            return SLOTS + maxDepth;
+        }
+
+        /**
+         * Pushes the Object half of a slot: its value, or VM.NUMBER for a number.
+         */
+        private void load(int slot) {
+            out.local(ALOAD, SLOTS + slot);
+        }
+
+        /**
+         * Stores a value that is not a number in a slot.
+         */
+        private void store(int slot) {
+            out.local(ASTORE, SLOTS + slot);
+        }
+
+        private void loadNumber(int slot) {
+            out.local(DLOAD, numbers(slot));
+        }
+
+        private void storeNumber(int slot) {
+            out.local(DSTORE, numbers(slot));
+            number();
+            store(slot);
+        }
+
+        private void copy(int from, int to) {
+            load(from);
+            store(to);
+            loadNumber(from);
+            out.local(DSTORE, numbers(to));
+        }
+
+        /**
+         * Pushes the value of a slot, boxed if it is a number, to pass it to the VM.
+         */
+        private void loadValue(int slot) {
+            ClassFile.Label notNumber = new ClassFile.Label();
+            ClassFile.Label done = new ClassFile.Label();
+            isNumber(slot, notNumber);
+            loadNumber(slot);
+            out.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)L" + DOUBLE + ";");
+            out.jump(GOTO, done);
+            out.bind(notNumber);
+            load(slot);
+            out.bind(done);
+        }
+
+        /**
+         * Stores a value from the VM, which may be a boxed number, in a slot.
+         */
+        private void storeValue(int slot) {
+            ClassFile.Label done = new ClassFile.Label();
+            out.local(ASTORE, scratch());
+            out.local(ALOAD, scratch());
+            store(slot);
+            out.local(ALOAD, scratch());
+            out.type(INSTANCEOF, DOUBLE);
+            out.jump(IFEQ, done);
+            out.local(ALOAD, scratch());
+            out.type(CHECKCAST, DOUBLE);
+            out.invoke(INVOKEVIRTUAL, DOUBLE, "doubleValue", "()D");
+            storeNumber(slot);
+            out.bind(done);
+        }
+
+        /**
+         * Stores the result of a call, which the VM has left in the slot, number and all.
+         */
+        private void storeResult(int slot) {
+            ClassFile.Label done = new ClassFile.Label();
+            store(slot);
+            isNumber(slot, done);
+            stackElement(NUMBERS, slot);
+            out.op(DALOAD);
+            out.local(DSTORE, numbers(slot));
+            out.bind(done);
+        }
+
+        private void number() {
+            out.field(GETSTATIC, VM_CLASS, "NUMBER", "L" + OBJECT + ";");
+        }
+
+        private void boxBoolean() {
+            out.invoke(INVOKESTATIC, BOOLEAN, "valueOf", "(Z)L" + BOOLEAN + ";");
+        }
+
+        private void falsey() {
+            out.invoke(INVOKESTATIC, VM_CLASS, "isFalsey", "(L" + OBJECT + ";)Z");
+        }
+
+        private void vm() {
+            out.local(ALOAD, VM_LOCAL);
+        }
+
+        private void name(int ip) {
+            out.pushString((String) constants[code[ip + 1] & 0xff]);
+        }
+
+        private void helper(String name, String descriptor) {
+            out.invoke(INVOKEVIRTUAL, VM_CLASS, name, descriptor);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the LanguageServer's JSON-RPC messages, so the build needs no library.
+ *
+ * Objects parse to a LinkedHashMap, arrays to an ArrayList, integers to Long, other numbers
+ * to Double, and true, false and null to Boolean and null. write() takes the same types plus
+ * Integer and int[], which is how semantic tokens are sent without boxing each one.
+ *
+ * Example:
+ *   Map<?, ?> message = (Map<?, ?>) Json.parse("{\"id\":1,\"params\":[true]}");
+ *   message.get("id");              // 1L
+ *   Json.write(Map.of("ok", 2.0));  // {"ok":2}
+ */
+final class Json {
+    private final String text;
+    private int current = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses one JSON value, which must make up the whole text apart from whitespace.
+     */
+    static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.current != text.length()) throw parser.error("Expect end of input.");
+        return value;
+    }
+
+    static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(value, out);
+        return out.toString();
+    }
+
+    static void write(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            quote((String) value, out);
+        } else if (value instanceof Boolean || value instanceof Long || value instanceof Integer) {
+            out.append(value);
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                out.append((long) number);
+            } else {
+                out.append(number);
+            }
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) out.append(',');
+                first = false;
+                quote(entry.getKey().toString(), out);
+                out.append(':');
+                write(entry.getValue(), out);
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) out.append(',');
+                first = false;
+                write(element, out);
+            }
+            out.append(']');
+        } else if (value instanceof int[]) {
+            int[] numbers = (int[]) value;
+            out.append('[');
+            for (int i = 0; i < numbers.length; i++) {
+                if (i > 0) out.append(',');
+                out.append(numbers[i]);
+            }
+            out.append(']');
+        } else {
+            throw new IllegalArgumentException("Cannot write " + value.getClass().getName() + " as JSON.");
+        }
+    }
+
+    private static void quote(String value, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (current >= text.length()) throw error("Expect a value.");
+        char c = text.charAt(current);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("Unexpected character '" + c + "'.");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        current++;
+        skipWhitespace();
+        if (match('}')) return object;
+        do {
+            skipWhitespace();
+            if (current >= text.length() || text.charAt(current) != '"') throw error("Expect a key.");
+            String key = string();
+            skipWhitespace();
+            if (!match(':')) throw error("Expect ':' after a key.");
+            object.put(key, value());
+            skipWhitespace();
+        } while (match(','));
+        if (!match('}')) throw error("Expect ',' or '}' in an object.");
+        return object;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        current++;
+        skipWhitespace();
+        if (match(']')) return array;
+        do {
+            array.add(value());
+            skipWhitespace();
+        } while (match(','));
+        if (!match(']')) throw error("Expect ',' or ']' in an array.");
+        return array;
+    }
+
+    private String string() {
+        current++;
+        StringBuilder value = null;
+        int start = current;
+        while (true) {
+            if (current >= text.length()) throw error("Unterminated string.");
+            char c = text.charAt(current);
+            if (c == '"') break;
+            if (c != '\\') {
+                current++;
+                continue;
+            }
+
+            // Most strings have no escapes and are returned as one substring.
+            if (value == null) value = new StringBuilder();
+            value.append(text, start, current);
+            if (current + 1 >= text.length()) throw error("Unterminated string.");
+            char escaped = text.charAt(current + 1);
+            current += 2;
+            switch (escaped) {
+                case '"': case '\\': case '/': value.append(escaped); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (current + 4 > text.length()) throw error("Incomplete unicode escape.");
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(current, current + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape.");
+                    }
+                    current += 4;
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + escaped + "'.");
+            }
+            start = current;
+        }
+        String result = value == null
+                ? text.substring(start, current)
+                : value.append(text, start, current).toString();
+        current++;
+        return result;
+    }
+
+    private Object number() {
+        int start = current;
+        boolean integral = true;
+        if (text.charAt(current) == '-') current++;
+        while (current < text.length()) {
+            char c = text.charAt(current);
+            if (c >= '0' && c <= '9') {
+                current++;
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integral = false;
+                current++;
+            } else {
+                break;
+            }
+        }
+        String number = text.substring(start, current);
+        try {
+            if (integral && number.length() < 19) return Long.parseLong(number);
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + number + "'.");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, current)) throw error("Unexpected character '" + text.charAt(current) + "'.");
+        current += word.length();
+        return value;
+    }
+
+    private boolean match(char expected) {
+        if (current < text.length() && text.charAt(current) == expected) {
+            current++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (current < text.length()) {
+            char c = text.charAt(current);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+            current++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at offset " + current + ": " + message);
+    }
+}
@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Recognizes reserved words straight from the scanner's buffer without allocating.
+ *
+ * The table is derived from TokenType: every constant in the keyword range (AND through WHILE)
+ * is a reserved word spelled as its lowercase name. Adding a keyword to that section of the
+ * enum is the only change needed to make the scanners recognize it.
+ *
+ * Candidates are bucketed by first character and length, so a lookup is two array loads and
+ * a char-by-char compare against (almost always) a single candidate. Most identifiers are
+ * rejected by the bucket alone.
+ *
+ * Example:
+ *   // Suppose source = "var fun1"
+ *   Keywords.lookup(source, 0, 3); // VAR
+ *   Keywords.lookup(source, 4, 8); // IDENTIFIER
+ */
+final class Keywords {
+    private static final int MAX_LENGTH;
+
+    // BUCKETS[first - 'a'][length] holds the keywords with that first letter and length.
+    private static final TokenType[][][] BUCKETS = new TokenType[26][][];
+    private static final char[][] SPELLINGS = new char[TokenType.values().length][];
+
+    static {
+        int maxLength = 0;
+        for (TokenType type : EnumSet.range(AND, WHILE)) {
+            char[] spelling = type.name().toLowerCase(Locale.ROOT).toCharArray();
+            SPELLINGS[type.ordinal()] = spelling;
+            maxLength = Math.max(maxLength, spelling.length);
+        }
+        MAX_LENGTH = maxLength;
+
+        for (TokenType type : EnumSet.range(AND, WHILE)) {
+            char[] spelling = SPELLINGS[type.ordinal()];
+            int first = spelling[0] - 'a';
+            if (BUCKETS[first] == null) {
+                BUCKETS[first] = new TokenType[MAX_LENGTH + 1][];
+            }
+            TokenType[] bucket = BUCKETS[first][spelling.length];
+            if (bucket == null) {
+                bucket = new TokenType[] {type};
+            } else {
+                TokenType[] grown = new TokenType[bucket.length + 1];
+                System.arraycopy(bucket, 0, grown, 0, bucket.length);
+                grown[bucket.length] = type;
+                bucket = grown;
+            }
+            BUCKETS[first][spelling.length] = bucket;
+        }
+    }
+
+    private Keywords() {
+    }
+
+    /**
+     * Returns the keyword type of the identifier spanning [start, end) of the source, or
+     * IDENTIFIER if it is not a reserved word.
+     */
+    static TokenType lookup(String source, int start, int end) {
+        TokenType[] bucket = bucket(source.charAt(start), end - start);
+        if (bucket == null) return IDENTIFIER;
+
+        for (TokenType candidate : bucket) {
+            char[] spelling = SPELLINGS[candidate.ordinal()];
+            int i = 1;
+            while (i < spelling.length && source.charAt(start + i) == spelling[i]) i++;
+            if (i == spelling.length) return candidate;
+        }
+        return IDENTIFIER;
+    }
+
+    /**
+     * Same as lookup(String, int, int) for scanners that work on a char array.
+     */
+    static TokenType lookup(char[] source, int start, int end) {
+        TokenType[] bucket = bucket(source[start], end - start);
+        if (bucket == null) return IDENTIFIER;
+
+        for (TokenType candidate : bucket) {
+            char[] spelling = SPELLINGS[candidate.ordinal()];
+            int i = 1;
+            while (i < spelling.length && source[start + i] == spelling[i]) i++;
+            if (i == spelling.length) return candidate;
+        }
+        return IDENTIFIER;
+    }
+
+    private static TokenType[] bucket(char first, int length) {
+        if (first < 'a' || first > 'z' || length > MAX_LENGTH) return null;
+
+        TokenType[][] byLength = BUCKETS[first - 'a'];
+        return byLength == null ? null : byLength[length];
+    }
+}
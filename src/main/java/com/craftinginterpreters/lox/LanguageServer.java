@@ -0,0 +1,475 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A language server for Lox: JSON-RPC over a pair of streams, stdin and stdout for `--lsp`.
+ *
+ * It offers semantic highlighting (full and range), diagnostics and go-to-definition, with
+ * incremental text sync. Each open file is a LoxDocument, which keeps its text in a Rope and
+ * its tokens in an IncrementalScanner, so an edit costs a re-lex around the change rather
+ * than a rescan of the file.
+ *
+ * Messages are read on the thread that calls run(). Everything that touches documents runs
+ * in arrival order on a single worker thread, so documents need no locks, and a request
+ * always sees the edits sent before it. Two things are handled as messages arrive instead:
+ *
+ *   - $/cancelRequest answers a request that has not started yet with RequestCancelled.
+ *   - A change to a document, or a newer request of the same kind for it, answers the
+ *     queued requests it makes stale with ContentModified, so the worker never computes
+ *     highlighting for a version the editor has already moved past.
+ *
+ * Diagnostics parse and resolve the whole file, so they are debounced: they are published
+ * once a document has gone debounceMillis without a change. They are cached per version,
+ * like the semantic tokens, so nothing is rescanned or reparsed for a document that has
+ * not changed.
+ *
+ * Example:
+ *   int status = new LanguageServer(System.in, System.out).run();  // until "exit"
+ */
+final class LanguageServer {
+    static final long DEFAULT_DEBOUNCE_MILLIS = 150;
+
+    // JSON-RPC and protocol error codes.
+    static final int PARSE_ERROR = -32700;
+    static final int INVALID_REQUEST = -32600;
+    static final int METHOD_NOT_FOUND = -32601;
+    static final int INVALID_PARAMS = -32602;
+    static final int INTERNAL_ERROR = -32603;
+    static final int SERVER_NOT_INITIALIZED = -32002;
+    static final int REQUEST_CANCELLED = -32800;
+    static final int CONTENT_MODIFIED = -32801;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final long debounceMillis;
+    private final ScheduledExecutorService worker;
+
+    // Only touched on the worker thread.
+    private final Map<String, LoxDocument> documents = new HashMap<>();
+    private final Map<String, ScheduledFuture<?>> diagnosticsDue = new HashMap<>();
+
+    // Requests that have been read but not started, by ID. Whoever removes a request from
+    // here, the worker starting it or a cancellation, is the one who answers it.
+    private final Map<Object, Pending> pending = new ConcurrentHashMap<>();
+
+    private volatile boolean initialized = false;
+    private volatile boolean shuttingDown = false;
+
+    private static final class Pending {
+        final String method;
+        final String uri;
+        volatile Future<?> future;
+
+        Pending(String method, String uri) {
+            this.method = method;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * An error to answer a request with instead of a result.
+     */
+    private static final class ResponseError extends RuntimeException {
+        final int code;
+
+        ResponseError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    LanguageServer(InputStream in, OutputStream out) {
+        this(in, out, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    LanguageServer(InputStream in, OutputStream out, long debounceMillis) {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+        this.debounceMillis = debounceMillis;
+        this.worker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "lox-language-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Serves messages until the client sends "exit" or closes the input. Returns the exit
+     * status the protocol asks for: 0 if "shutdown" came first, 1 otherwise.
+     */
+    int run() throws IOException {
+        try {
+            String message;
+            while ((message = read()) != null) {
+                if (!dispatch(message)) return shuttingDown ? 0 : 1;
+            }
+            return 1;
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a task on the worker thread after everything queued before it. Tests use this to
+     * hold the queue while they send messages.
+     */
+    void execute(Runnable task) {
+        worker.execute(task);
+    }
+
+    /**
+     * Handles one message. Returns false on "exit".
+     */
+    private boolean dispatch(String text) {
+        Map<?, ?> message;
+        try {
+            message = (Map<?, ?>) Json.parse(text);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            sendError(null, PARSE_ERROR, e.getMessage());
+            return true;
+        }
+
+        Object method = message.get("method");
+        Object id = message.get("id");
+        // A response to a request from the server; this server sends none.
+        if (!(method instanceof String)) return true;
+        Map<?, ?> params = message.get("params") instanceof Map
+                ? (Map<?, ?>) message.get("params")
+                : Collections.emptyMap();
+
+        switch ((String) method) {
+            case "exit":
+                return false;
+            case "$/cancelRequest":
+                cancel(params.get("id"), REQUEST_CANCELLED, "Request cancelled.");
+                return true;
+            case "textDocument/didChange":
+                cancelStale(uri(params), null);
+                break;
+            default:
+                break;
+        }
+
+        if (id == null) {
+            worker.execute(() -> guard(() -> notification((String) method, params)));
+        } else {
+            request(id, (String) method, params);
+        }
+        return true;
+    }
+
+    private void request(Object id, String method, Map<?, ?> params) {
+        if (!initialized && !method.equals("initialize")) {
+            sendError(id, SERVER_NOT_INITIALIZED, "The server has not been initialized.");
+            return;
+        }
+        if (shuttingDown) {
+            sendError(id, INVALID_REQUEST, "The server is shutting down.");
+            return;
+        }
+        if (method.equals("initialize")) initialized = true;
+        if (method.equals("shutdown")) shuttingDown = true;
+
+        String uri = uri(params);
+        if (uri != null) cancelStale(uri, method);
+
+        Pending request = new Pending(method, uri);
+        pending.put(id, request);
+        request.future = worker.submit(() -> {
+            if (pending.remove(id) == null) return;
+            try {
+                send(response(id, handle(method, params)));
+            } catch (ResponseError e) {
+                sendError(id, e.code, e.getMessage());
+            } catch (RuntimeException e) {
+                sendError(id, INTERNAL_ERROR, e.toString());
+            }
+        });
+    }
+
+    private Object handle(String method, Map<?, ?> params) {
+        switch (method) {
+            case "initialize":
+                return capabilities();
+            case "shutdown":
+                return null;
+            case "textDocument/semanticTokens/full": {
+                LoxDocument document = documents.get(uri(params));
+                if (document == null) return null;
+                return object("resultId", Integer.toString(document.version()),
+                        "data", document.semanticTokens());
+            }
+            case "textDocument/semanticTokens/range": {
+                LoxDocument document = documents.get(uri(params));
+                if (document == null) return null;
+                Map<?, ?> range = map(params.get("range"));
+                Map<?, ?> start = map(range.get("start"));
+                Map<?, ?> end = map(range.get("end"));
+                return object("data", document.semanticTokens(integer(start, "line"),
+                        integer(start, "character"), integer(end, "line"), integer(end, "character")));
+            }
+            case "textDocument/definition": {
+                LoxDocument document = documents.get(uri(params));
+                if (document == null) return null;
+                Map<?, ?> position = map(params.get("position"));
+                int declaration = document.declarationAt(integer(position, "line"),
+                        integer(position, "character"));
+                if (declaration < 0) return null;
+                TokenBuffer tokens = document.tokens();
+                int start = tokens.start(declaration);
+                return object("uri", document.uri(),
+                        "range", range(document, start, start + tokens.length(declaration)));
+            }
+            default:
+                throw new ResponseError(METHOD_NOT_FOUND, "Unknown method " + method + ".");
+        }
+    }
+
+    private void notification(String method, Map<?, ?> params) {
+        switch (method) {
+            case "textDocument/didOpen": {
+                Map<?, ?> item = map(params.get("textDocument"));
+                LoxDocument document = new LoxDocument((String) item.get("uri"),
+                        integer(item, "version"), (String) item.get("text"));
+                documents.put(document.uri(), document);
+                publishDiagnostics(document);
+                break;
+            }
+            case "textDocument/didChange": {
+                Map<?, ?> item = map(params.get("textDocument"));
+                LoxDocument document = documents.get((String) item.get("uri"));
+                if (document == null) return;
+                int version = integer(item, "version");
+                for (Object change : (List<?>) params.get("contentChanges")) {
+                    Map<?, ?> edit = map(change);
+                    String text = (String) edit.get("text");
+                    if (edit.get("range") == null) {
+                        document.replaceAll(version, text);
+                        continue;
+                    }
+                    Map<?, ?> range = map(edit.get("range"));
+                    Map<?, ?> start = map(range.get("start"));
+                    Map<?, ?> end = map(range.get("end"));
+                    document.edit(version, integer(start, "line"), integer(start, "character"),
+                            integer(end, "line"), integer(end, "character"), text);
+                }
+                scheduleDiagnostics(document);
+                break;
+            }
+            case "textDocument/didClose": {
+                String uri = uri(params);
+                documents.remove(uri);
+                ScheduledFuture<?> due = diagnosticsDue.remove(uri);
+                if (due != null) due.cancel(false);
+                send(notificationMessage("textDocument/publishDiagnostics",
+                        object("uri", uri, "diagnostics", List.of())));
+                break;
+            }
+            default:
+                // "initialized", "didSave" and the like need nothing from this server.
+                break;
+        }
+    }
+
+    /**
+     * Publishes the document's diagnostics once it has gone debounceMillis without a change.
+     */
+    private void scheduleDiagnostics(LoxDocument document) {
+        ScheduledFuture<?> previous = diagnosticsDue.remove(document.uri());
+        if (previous != null) previous.cancel(false);
+        diagnosticsDue.put(document.uri(), worker.schedule(() -> guard(() -> {
+            diagnosticsDue.remove(document.uri());
+            publishDiagnostics(document);
+        }), debounceMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private void publishDiagnostics(LoxDocument document) {
+        // The document may have been closed, or closed and opened again, in the meantime.
+        if (documents.get(document.uri()) != document) return;
+
+        List<Object> diagnostics = new ArrayList<>();
+        for (LoxDocument.Diagnostic diagnostic : document.diagnostics()) {
+            Map<String, Object> range;
+            if (diagnostic.offset >= 0) {
+                range = range(document, diagnostic.offset, diagnostic.offset + diagnostic.length);
+            } else {
+                Map<String, Object> start = object("line", diagnostic.line - 1, "character", 0);
+                range = object("start", start, "end", start);
+            }
+            String message = diagnostic.count > 1
+                    ? diagnostic.message + " (x" + diagnostic.count + ")"
+                    : diagnostic.message;
+            diagnostics.add(object("range", range, "severity", 1, "code", diagnostic.code,
+                    "source", "lox", "message", message));
+        }
+        send(notificationMessage("textDocument/publishDiagnostics", object("uri", document.uri(),
+                "version", document.version(), "diagnostics", diagnostics)));
+    }
+
+    /**
+     * Answers a request that has not started yet with an error instead of running it.
+     */
+    private void cancel(Object id, int code, String message) {
+        if (id == null) return;
+        Pending request = pending.remove(id);
+        if (request == null) return;
+        Future<?> future = request.future;
+        if (future != null) future.cancel(false);
+        sendError(id, code, message);
+    }
+
+    /**
+     * Cancels the queued requests about the document that a change, or a newer request of
+     * the given method, makes stale.
+     */
+    private void cancelStale(String uri, String method) {
+        if (uri == null) return;
+        for (Map.Entry<Object, Pending> entry : pending.entrySet()) {
+            Pending request = entry.getValue();
+            if (uri.equals(request.uri) && (method == null || method.equals(request.method))
+                    && request.method.startsWith("textDocument/semanticTokens")) {
+                cancel(entry.getKey(), CONTENT_MODIFIED, "The document has changed.");
+            }
+        }
+    }
+
+    private Map<String, Object> capabilities() {
+        Map<String, Object> legend = object("tokenTypes", LoxDocument.TOKEN_TYPES,
+                "tokenModifiers", LoxDocument.TOKEN_MODIFIERS);
+        Map<String, Object> capabilities = object(
+                "positionEncoding", "utf-16",
+                // 2 is incremental sync: changes come as ranges.
+                "textDocumentSync", object("openClose", true, "change", 2),
+                "semanticTokensProvider", object("legend", legend, "full", true, "range", true),
+                "definitionProvider", true);
+        return object("capabilities", capabilities, "serverInfo", object("name", "jlox"));
+    }
+
+    private static Map<String, Object> range(LoxDocument document, int start, int end) {
+        return object("start", position(document, start), "end", position(document, end));
+    }
+
+    private static Map<String, Object> position(LoxDocument document, int offset) {
+        return object("line", document.lineOf(offset), "character", document.characterOf(offset));
+    }
+
+    private static Map<String, Object> response(Object id, Object result) {
+        return object("jsonrpc", "2.0", "id", id, "result", result);
+    }
+
+    private static Map<String, Object> notificationMessage(String method, Object params) {
+        return object("jsonrpc", "2.0", "method", method, "params", params);
+    }
+
+    private void sendError(Object id, int code, String message) {
+        send(object("jsonrpc", "2.0", "id", id, "error", object("code", code, "message", message)));
+    }
+
+    private void send(Map<String, Object> message) {
+        byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (out) {
+            try {
+                out.write(header);
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the body of the next message, or returns null at the end of the input.
+     */
+    private String read() throws IOException {
+        int length = -1;
+        while (true) {
+            String header = readHeaderLine();
+            if (header == null) return null;
+            if (header.isEmpty()) break;
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                length = Integer.parseInt(header.substring(colon + 1).trim());
+            }
+        }
+        if (length < 0) throw new IOException("Message without a Content-Length header.");
+
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) return null;
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private String readHeaderLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int c = in.read();
+            if (c < 0) return null;
+            if (c == '\n') break;
+            if (c != '\r') line.write(c);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Runs a task on the worker, reporting failures on stderr instead of losing them in a
+     * Future nobody reads.
+     */
+    private static void guard(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Language server task failed: " + e);
+        }
+    }
+
+    private static String uri(Map<?, ?> params) {
+        Object item = params.get("textDocument");
+        if (!(item instanceof Map)) return null;
+        Object uri = ((Map<?, ?>) item).get("uri");
+        return uri instanceof String ? (String) uri : null;
+    }
+
+    private static Map<?, ?> map(Object value) {
+        if (!(value instanceof Map)) throw new ResponseError(INVALID_PARAMS, "Expect an object.");
+        return (Map<?, ?>) value;
+    }
+
+    private static int integer(Map<?, ?> object, String key) {
+        Object value = object.get(key);
+        if (!(value instanceof Number)) {
+            throw new ResponseError(INVALID_PARAMS, "Expect a number for \"" + key + "\".");
+        }
+        return ((Number) value).intValue();
+    }
+
+    /**
+     * Builds an object from alternating keys and values, keeping their order.
+     */
+    private static Map<String, Object> object(Object... keysAndValues) {
+        Map<String, Object> object = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            object.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return object;
+    }
+}
@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * The offset at which each line of a source starts, for turning offsets into lines and columns.
+ *
+ * Tokens only store their start offset, length and line. A column is the distance from the
+ * start of the token's line, which is found here when somebody asks for it, so scanning never
+ * computes one. The Scanner records line starts as it passes newlines, which it has to look
+ * at anyway to count lines; LineIndex.of() builds an index for sources that were not scanned
+ * in one piece, with a bulk indexOf() per line.
+ *
+ * Lines and columns are 1-based, offsets 0-based, as in the rest of the interpreter. A column
+ * counts chars, so a tab or a surrogate pair is wider than one column on screen.
+ *
+ * Example:
+ *   LineIndex lines = LineIndex.of("var a;\n  print a;");
+ *   lines.lineOf(9);      // 2
+ *   lines.column(9);      // 3
+ *   lines.lineStart(2);   // 7
+ */
+final class LineIndex {
+    // starts[i] is where line i + 1 starts; starts[0] is always 0.
+    private final int[] starts;
+    private final int count;
+
+    /**
+     * Takes ownership of the first count line starts, which must begin with 0 and increase.
+     */
+    LineIndex(int[] starts, int count) {
+        if (count < 1 || starts[0] != 0) {
+            throw new IllegalArgumentException("The first line must start at offset 0.");
+        }
+        this.starts = starts;
+        this.count = count;
+    }
+
+    static LineIndex of(String source) {
+        int[] starts = new int[16];
+        int count = 1;
+        for (int newline = source.indexOf('\n'); newline >= 0; newline = source.indexOf('\n', newline + 1)) {
+            if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+            starts[count++] = newline + 1;
+        }
+        return new LineIndex(starts, count);
+    }
+
+    int lineCount() {
+        return count;
+    }
+
+    /**
+     * Returns the offset of the first char of the given line.
+     */
+    int lineStart(int line) {
+        if (line < 1 || line > count) {
+            throw new IndexOutOfBoundsException("Line " + line + " out of range 1 to " + count + ".");
+        }
+        return starts[line - 1];
+    }
+
+    /**
+     * Returns the line the offset is on. An offset at a newline is on the line the newline ends.
+     */
+    int lineOf(int offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low + 1;
+    }
+
+    int column(int offset) {
+        return offset - starts[lineOf(offset) - 1] + 1;
+    }
+
+    /**
+     * Returns the column of an offset that is probably on the given line, which is the usual
+     * case for a token's start and its recorded line, without a search.
+     */
+    int column(int offset, int line) {
+        if (line >= 1 && line <= count && starts[line - 1] <= offset
+                && (line == count || starts[line] > offset)) {
+            return offset - starts[line - 1] + 1;
+        }
+        return column(offset);
+    }
+
+    /**
+     * Returns the index of the source after removedLength chars at offset were replaced with
+     * the inserted text. Line starts before the edit are kept and those after it are shifted,
+     * so only the inserted text is searched for newlines.
+     */
+    LineIndex edit(int offset, int removedLength, String inserted) {
+        int editEnd = offset + removedLength;
+        // Lines starting at or before the edit are untouched; those inside it are removed.
+        int keep = lineOf(offset);
+        int resume = keep;
+        while (resume < count && starts[resume] <= editEnd) resume++;
+
+        int added = 0;
+        for (int i = inserted.indexOf('\n'); i >= 0; i = inserted.indexOf('\n', i + 1)) added++;
+
+        int[] edited = new int[keep + added + (count - resume)];
+        System.arraycopy(starts, 0, edited, 0, keep);
+        int next = keep;
+        for (int i = inserted.indexOf('\n'); i >= 0; i = inserted.indexOf('\n', i + 1)) {
+            edited[next++] = offset + i + 1;
+        }
+        int delta = inserted.length() - removedLength;
+        for (int i = resume; i < count; i++) edited[next++] = starts[i] + delta;
+        return new LineIndex(edited, edited.length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof LineIndex)) return false;
+        LineIndex that = (LineIndex) other;
+        return count == that.count
+                && Arrays.equals(starts, 0, count, that.starts, 0, that.count);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = count;
+        for (int i = 0; i < count; i++) hash = 31 * hash + starts[i];
+        return hash;
+    }
+}
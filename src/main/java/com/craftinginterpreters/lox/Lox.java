@@ -1,65 +1,229 @@
 package com.craftinginterpreters.lox;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
-    private static boolean hadError = false;
-
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+    // Declared first: the interpreter below reports to it.
+    private static final ErrorSink errors = ErrorSink.toStandardError();
+    private static final Interpreter interpreter = new Interpreter();
+    private static VM vm = null;
+
+    // When set, input is only tokenized and the tokens are printed instead of run.
+    private static boolean tokensOnly = false;
+
+    // When set, programs are compiled to bytecode and run on the VM instead of tree-walked.
+    static boolean useVm = false;
+
+    // When cleared, the VM only interprets and never compiles hot functions to JVM bytecode.
+    static boolean useJit = true;
+
+    // When set, runFile keeps scanned tokens in an on-disk cache keyed by the file's contents.
+    private static TokenCache tokenCache = null;
+
+    // When set, every script argument is run concurrently by a LoxEngine instead.
+    private static boolean batch = false;
+    private static int jobs = Runtime.getRuntime().availableProcessors();
+
+    // When set, a LanguageServer speaks the language server protocol on stdin and stdout.
+    private static boolean languageServer = false;
+
+    private static ErrorSink.Format errorFormat = ErrorSink.Format.TEXT;
+    private static int maxErrors = ErrorSink.DEFAULT_MAX_ERRORS;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--tokens")) {
+                tokensOnly = true;
+            } else if (arg.equals("--vm")) {
+                useVm = true;
+            } else if (arg.equals("--no-jit")) {
+                useJit = false;
+            } else if (arg.equals("--batch")) {
+                batch = true;
+            } else if (arg.startsWith("--jobs=")) {
+                jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+            } else if (arg.equals("--errors=text")) {
+                errorFormat = ErrorSink.Format.TEXT;
+            } else if (arg.equals("--errors=json")) {
+                errorFormat = ErrorSink.Format.JSON;
+            } else if (arg.startsWith("--max-errors=")) {
+                maxErrors = Integer.parseInt(arg.substring("--max-errors=".length()));
+            } else if (arg.equals("--lsp")) {
+                languageServer = true;
+            } else if (arg.equals("--stats")) {
+                Stats.enable();
+            } else if (arg.equals("--cache")) {
+                tokenCache = new TokenCache(TokenCache.defaultDirectory(), TokenCache.DEFAULT_MAX_BYTES);
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        errors.configure(errorFormat, maxErrors);
+
+        if (languageServer) {
+            System.exit(new LanguageServer(System.in, System.out).run());
+        } else if (batch) {
+            runBatch(scripts);
+        } else if (scripts.size() > 1) {
+            usage();
+        } else if (!scripts.isEmpty()) {
+            if (tokensOnly) {
+                runTokensFile(scripts.get(0));
+            } else {
+                runFile(scripts.get(0));
+            }
         } else {
             runPrompt();
+            printStats();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--tokens] [--vm [--no-jit]] [--cache] [--stats] [--errors=text|json]"
+                + " [--max-errors=N] [script]");
+        System.out.println("       jlox --batch [--jobs=N] [--vm] [--stats] [--errors=text|json]"
+                + " [--max-errors=N] file-or-directory...");
+        System.out.println("       jlox --lsp");
+        System.exit(64);
+    }
+
+    /**
+     * Runs a Repl on stdin. It only prompts and flushes line by line when stdin is a terminal.
+     */
     private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+        Repl.Mode mode = tokensOnly ? Repl.Mode.TOKENS : useVm ? Repl.Mode.VM : Repl.Mode.INTERPRET;
+        Repl repl = new Repl(new InputStreamReader(System.in), new OutputStreamWriter(System.out),
+                errors, mode, System.console() != null);
+        repl.run();
+    }
 
-        for (;;) {
-            System.out.print("> ");
-            String line = reader.readLine();
-            if (line == null)
-                break;
-            run(line);
+    static void runFile(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        if (tokenCache == null) {
+            // Scanned as bytes, without decoding the file first.
+            String source = Utf8.wrap(bytes);
+            Stats.Timer timer = Stats.start(Stats.Phase.SCAN);
+            errors.setSource(source);
+            TokenBuffer tokens = Scanner.utf8(source, errors).scanTokenBuffer();
+            timer.stop(tokens);
+            run(tokens);
+        } else {
+            String source = new String(bytes, StandardCharsets.UTF_8);
+            errors.setSource(source);
+            Stats.Timer timer = Stats.start(Stats.Phase.SCAN);
+            TokenBuffer tokens = scanCached(bytes, source);
+            timer.stop(tokens);
+            run(tokens);
+        }
+        printStats();
 
-            hadError = false;
+        if (errors.hadError())
+            System.exit(65);
+        if (errors.hadRuntimeError())
+            System.exit(70);
+    }
+
+    /**
+     * Runs many scripts concurrently, printing each one's output and errors in argument order
+     * followed by a throughput report.
+     */
+    static void runBatch(List<String> scripts) throws IOException, InterruptedException {
+        List<Path> paths = new ArrayList<>();
+        for (String script : scripts) paths.add(Paths.get(script));
+
+        LoxEngine.Batch result = new LoxEngine(useVm, errorFormat, maxErrors).runBatch(paths, jobs);
+        for (LoxEngine.Result script : result.results) {
+            System.out.println("==> " + script.name + " <==");
+            System.out.print(script.output);
+            System.err.print(script.errors);
         }
+        System.err.println(result.summary());
+        printStats();
+
+        if (result.failures() > 0)
+            System.exit(65);
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+    /**
+     * Prints the tokens of a file. The file is streamed instead of read into a String, so
+     * memory stays constant no matter how large it is.
+     */
+    static void runTokensFile(String path) throws IOException {
+        StreamingScanner.scanFile(Paths.get(path), errors, System.out::println);
+        errors.flush();
 
-        if (hadError)
+        if (errors.hadError())
             System.exit(65);
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    /**
+     * Returns the tokens of a file from the token cache, scanning and storing them on a miss.
+     */
+    private static TokenBuffer scanCached(byte[] bytes, String source) {
+        String key = TokenCache.key(bytes);
+        TokenBuffer tokens = tokenCache.load(key, source);
+        if (tokens != null) return tokens;
+
+        tokens = new Scanner(source).scanTokenBuffer();
+        // Sources with lexical errors are not cached, so the errors are reported on every run.
+        if (!errors.hadError()) tokenCache.store(key, tokens);
+        return tokens;
+    }
 
-        for (Token token : tokens) {
-            System.out.println(token);
+    static void run(String source) {
+        Stats.Timer timer = Stats.start(Stats.Phase.SCAN);
+        errors.setSource(source);
+        TokenBuffer tokens = new Scanner(source, errors).scanTokenBuffer();
+        timer.stop(tokens);
+        run(tokens);
+    }
+
+    private static void run(TokenBuffer tokens) {
+        if (useVm) {
+            if (vm == null) vm = new VM(errors, line -> System.out.println(line), useJit);
+            LoxEngine.execute(tokens, errors, vm);
+        } else {
+            LoxEngine.execute(tokens, errors, interpreter);
         }
+        errors.flush();
+    }
+
+    private static void printStats() {
+        if (Stats.isEnabled()) Stats.print(System.err);
+    }
+
+    /**
+     * Returns the sink the command-line entry points report to. Scanners, parsers and the other
+     * stages use it when they are not given one of their own.
+     */
+    static ErrorSink errorSink() {
+        return errors;
+    }
+
+    /**
+     * Clears the error flags so the next program runs even if the previous one failed.
+     */
+    static void resetErrors() {
+        errors.reset();
     }
 
     static void error(int line, String message) {
-        report(line, "", message);
+        errors.error(line, message);
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    static void error(Token token, String message) {
+        errors.error(token, message);
     }
 }
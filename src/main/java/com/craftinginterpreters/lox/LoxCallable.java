@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Anything that can be called with `()`: functions, bound methods, classes and natives.
+ */
+interface LoxCallable {
+    int arity();
+
+    Object call(Interpreter interpreter, List<Object> arguments);
+}
@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class at runtime. Calling it creates an instance and runs `init`, if there is one.
+ */
+class LoxClass implements LoxCallable {
+    final String name;
+    final LoxClass superclass;
+    private final Map<String, LoxFunction> methods;
+    // The shape of a new instance, with no fields yet.
+    final Shape shape = new Shape();
+
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+    }
+
+    LoxFunction findMethod(String name) {
+        if (methods.containsKey(name)) {
+            return methods.get(name);
+        }
+
+        if (superclass != null) {
+            return superclass.findMethod(name);
+        }
+
+        return null;
+    }
+
+    @Override
+    public int arity() {
+        LoxFunction initializer = findMethod("init");
+        if (initializer == null) return 0;
+        return initializer.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call(interpreter, arguments);
+        }
+
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,371 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * One open file in the LanguageServer: its text, its tokens and everything derived from them.
+ *
+ * Editor changes are applied to a Rope right away, which is cheap at any file size, and only
+ * widen a dirty region. The tokens catch up when somebody needs them: the whole dirty region
+ * becomes one IncrementalScanner edit, so a burst of keystrokes is re-lexed once and only
+ * around where it happened. Lexical errors outside the re-lexed region are kept and shifted
+ * instead of being found again.
+ *
+ * Definitions, semantic tokens and diagnostics are cached per version. Diagnostics parse and
+ * resolve the whole file, which is the expensive part, so the server only asks for them after
+ * the edits have settled, and asking again for an unchanged version costs nothing.
+ *
+ * Lines and characters are 0-based and characters count UTF-16 chars, as in the protocol.
+ * A document is not thread-safe; the server only touches it from its worker thread.
+ *
+ * Example:
+ *   LoxDocument document = new LoxDocument("file:///a.lox", 1, "var a = 1;\nprint a;");
+ *   document.edit(2, 1, 6, 1, 7, "b");   // "var a = 1;\nprint b;"
+ *   document.diagnostics();              // [], the Resolver does not know b is undefined
+ */
+final class LoxDocument {
+    /**
+     * The semantic token types and modifiers, in the order their indexes refer to.
+     */
+    static final List<String> TOKEN_TYPES = List.of("keyword", "variable", "parameter", "function",
+            "method", "class", "property", "string", "number", "operator");
+    static final List<String> TOKEN_MODIFIERS = List.of("declaration");
+
+    private static final int KEYWORD = 0;
+    private static final int STRING_TYPE = 7;
+    private static final int NUMBER_TYPE = 8;
+    private static final int OPERATOR = 9;
+    private static final int DECLARATION = 1;
+
+    /**
+     * One error, located by its source range, or by its line alone when the offset is -1.
+     */
+    static final class Diagnostic {
+        final String code;
+        final int line;
+        final int offset;
+        final int length;
+        final int count;
+        final String message;
+
+        Diagnostic(String code, int line, int offset, int length, int count, String message) {
+            this.code = code;
+            this.line = line;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.message = message;
+        }
+
+        Diagnostic shift(int delta) {
+            return new Diagnostic(code, line, offset + delta, length, count, message);
+        }
+    }
+
+    private final String uri;
+    private int version;
+    private Rope text;
+
+    // Collects the errors of each re-lexed region until they are taken.
+    private final ErrorSink scanErrors = ErrorSink.collecting();
+    private final IncrementalScanner scanner;
+    // The lexical errors of the scanned text, in source order.
+    private List<Diagnostic> lexicalErrors;
+
+    // Changes since the tokens were last brought up to date replaced [dirtyStart, scanned
+    // length - dirtyTail) of the scanned text with [dirtyStart, length - dirtyTail) of text.
+    private boolean dirty = false;
+    private int dirtyStart;
+    private int dirtyTail;
+
+    private Definitions definitions = null;
+    private int definitionsVersion;
+    private int[] semanticTokens = null;
+    private int semanticTokensVersion;
+    private List<Diagnostic> diagnostics = null;
+    private int diagnosticsVersion;
+    private int analyses = 0;
+
+    LoxDocument(String uri, int version, String text) {
+        this.uri = uri;
+        this.version = version;
+        this.text = Rope.of(text);
+        this.scanner = new IncrementalScanner(text, scanErrors);
+        this.lexicalErrors = takeScanErrors();
+    }
+
+    String uri() {
+        return uri;
+    }
+
+    int version() {
+        return version;
+    }
+
+    String text() {
+        return text.toString();
+    }
+
+    /**
+     * Replaces the text between two positions and moves to the given version.
+     */
+    void edit(int version, int startLine, int startCharacter, int endLine, int endCharacter,
+              String inserted) {
+        int start = text.offsetOf(startLine, startCharacter);
+        int end = Math.max(text.offsetOf(endLine, endCharacter), start);
+        int tail = text.length() - end;
+        if (dirty) {
+            dirtyStart = Math.min(dirtyStart, start);
+            dirtyTail = Math.min(dirtyTail, tail);
+        } else {
+            dirtyStart = start;
+            dirtyTail = tail;
+            dirty = true;
+        }
+        text = text.replace(start, end, inserted);
+        this.version = version;
+    }
+
+    void replaceAll(int version, String newText) {
+        edit(version, 0, 0, Integer.MAX_VALUE, 0, newText);
+    }
+
+    /**
+     * Returns the tokens of the current text, re-lexing the region edited since the last call.
+     */
+    TokenBuffer tokens() {
+        if (!dirty) return scanner.tokens();
+        dirty = false;
+
+        int scannedLength = scanner.source().length();
+        int removed = scannedLength - dirtyTail - dirtyStart;
+        String inserted = text.subSequence(dirtyStart, text.length() - dirtyTail).toString();
+        scanner.edit(dirtyStart, removed, inserted);
+
+        // Errors before the re-lexed region are unchanged, and those after it only moved.
+        int delta = inserted.length() - removed;
+        int relexStart = scanner.lastRelexStart();
+        int oldRelexEnd = scanner.lastRelexEnd() - delta;
+        List<Diagnostic> errors = new ArrayList<>();
+        int next = 0;
+        while (next < lexicalErrors.size() && lexicalErrors.get(next).offset < relexStart) {
+            errors.add(lexicalErrors.get(next++));
+        }
+        errors.addAll(takeScanErrors());
+        for (; next < lexicalErrors.size(); next++) {
+            Diagnostic error = lexicalErrors.get(next);
+            if (error.offset >= oldRelexEnd) errors.add(error.shift(delta));
+        }
+        lexicalErrors = errors;
+        return scanner.tokens();
+    }
+
+    /**
+     * Returns how many tokens the last catch-up had to lex.
+     */
+    int lastRelexedCount() {
+        tokens();
+        return scanner.lastRelexedCount();
+    }
+
+    Definitions definitions() {
+        TokenBuffer tokens = tokens();
+        if (definitions == null || definitionsVersion != version) {
+            definitions = new Definitions(tokens);
+            definitionsVersion = version;
+        }
+        return definitions;
+    }
+
+    /**
+     * Returns the lexical, syntax and resolution errors of the current version.
+     */
+    List<Diagnostic> diagnostics() {
+        TokenBuffer tokens = tokens();
+        if (diagnostics != null && diagnosticsVersion == version) return diagnostics;
+        analyses++;
+
+        ErrorSink errors = ErrorSink.collecting();
+        try {
+            List<Stmt> statements = new Parser(tokens.asList().iterator(), errors).parse();
+            if (!errors.hadError()) new Resolver(errors).resolve(statements);
+        } catch (StackOverflowError e) {
+            errors.error(1, "Too deeply nested to analyze.");
+        }
+
+        List<Diagnostic> all = new ArrayList<>(lexicalErrors);
+        all.addAll(diagnostics(errors));
+        diagnostics = all;
+        diagnosticsVersion = version;
+        return all;
+    }
+
+    /**
+     * Returns how many times diagnostics() had to parse the document.
+     */
+    int analyses() {
+        return analyses;
+    }
+
+    /**
+     * Returns the semantic tokens of the whole document, in the protocol's relative encoding.
+     */
+    int[] semanticTokens() {
+        if (semanticTokens == null || semanticTokensVersion != version) {
+            semanticTokens = encode(0, tokens().size());
+            semanticTokensVersion = version;
+        }
+        return semanticTokens;
+    }
+
+    /**
+     * Returns the semantic tokens that overlap the given range.
+     */
+    int[] semanticTokens(int startLine, int startCharacter, int endLine, int endCharacter) {
+        TokenBuffer tokens = tokens();
+        int from = firstTokenEndingAfter(tokens, text.offsetOf(startLine, startCharacter));
+        int end = text.offsetOf(endLine, endCharacter);
+        int to = from;
+        while (to < tokens.size() && tokens.start(to) < end) to++;
+        return encode(from, to);
+    }
+
+    /**
+     * Returns the index of the token declaring the identifier at the given position, or -1.
+     * A position just after an identifier counts as on it, as editors place the caret there.
+     */
+    int declarationAt(int line, int character) {
+        TokenBuffer tokens = tokens();
+        int offset = text.offsetOf(line, character);
+        int index = firstTokenEndingAfter(tokens, offset - 1);
+        if (index + 1 < tokens.size() && tokens.start(index + 1) == offset
+                && tokens.type(index + 1) == IDENTIFIER) {
+            index++;
+        }
+        if (index >= tokens.size() || tokens.type(index) != IDENTIFIER || tokens.start(index) > offset) {
+            return -1;
+        }
+        return definitions().declaration(index);
+    }
+
+    /**
+     * Returns the 0-based line of an offset in the current text.
+     */
+    int lineOf(int offset) {
+        return tokens().lineIndex().lineOf(offset) - 1;
+    }
+
+    int characterOf(int offset) {
+        return tokens().lineIndex().column(offset) - 1;
+    }
+
+    private int[] encode(int from, int to) {
+        TokenBuffer tokens = tokens();
+        Definitions definitions = definitions();
+        LineIndex lines = tokens.lineIndex();
+        int lineCount = lines.lineCount();
+
+        int[] data = new int[Math.max(to - from, 0) * 5];
+        int size = 0;
+        int line = from < tokens.size() ? lines.lineOf(tokens.start(from)) : 1;
+        int previousLine = 0;
+        int previousCharacter = 0;
+        for (int i = from; i < to; i++) {
+            int type = semanticType(tokens, definitions, i);
+            if (type < 0) continue;
+            int modifiers = tokens.type(i) == IDENTIFIER && definitions.isDeclaration(i) ? DECLARATION : 0;
+
+            int start = tokens.start(i);
+            int end = start + tokens.length(i);
+            while (line < lineCount && lines.lineStart(line + 1) <= start) line++;
+
+            // The protocol's tokens cannot span lines, so a multi-line string is sent per line.
+            int pieceStart = start;
+            while (true) {
+                int lineEnd = line < lineCount ? lines.lineStart(line + 1) - 1 : Integer.MAX_VALUE;
+                int pieceEnd = Math.min(end, lineEnd);
+                if (pieceEnd > pieceStart) {
+                    if (size + 5 > data.length) data = Arrays.copyOf(data, data.length * 2 + 5);
+                    int character = pieceStart - lines.lineStart(line);
+                    data[size++] = line - 1 - previousLine;
+                    data[size++] = line - 1 == previousLine ? character - previousCharacter : character;
+                    data[size++] = pieceEnd - pieceStart;
+                    data[size++] = type;
+                    data[size++] = modifiers;
+                    previousLine = line - 1;
+                    previousCharacter = character;
+                }
+                if (end <= lineEnd) break;
+                line++;
+                pieceStart = lines.lineStart(line);
+            }
+        }
+        return size == data.length ? data : Arrays.copyOf(data, size);
+    }
+
+    private static int semanticType(TokenBuffer tokens, Definitions definitions, int index) {
+        TokenType type = tokens.type(index);
+        switch (type) {
+            case IDENTIFIER:
+                switch (definitions.kind(index)) {
+                    case PARAMETER: return 2;
+                    case FUNCTION: return 3;
+                    case METHOD: return 4;
+                    case CLASS: return 5;
+                    case PROPERTY: return 6;
+                    default: return 1;
+                }
+            case STRING: return STRING_TYPE;
+            case NUMBER: return NUMBER_TYPE;
+            case MINUS: case PLUS: case SLASH: case STAR:
+            case BANG: case BANG_EQUAL: case EQUAL: case EQUAL_EQUAL:
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                return OPERATOR;
+            default:
+                return type.compareTo(AND) >= 0 && type.compareTo(WHILE) <= 0 ? KEYWORD : -1;
+        }
+    }
+
+    /**
+     * Binary search for the first token that ends after the offset.
+     */
+    private static int firstTokenEndingAfter(TokenBuffer tokens, int offset) {
+        int low = 0;
+        int high = tokens.size() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens.start(middle) + tokens.length(middle) > offset) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private List<Diagnostic> takeScanErrors() {
+        List<Diagnostic> errors = diagnostics(scanErrors);
+        scanErrors.reset();
+        return errors;
+    }
+
+    /**
+     * Converts the records of a collecting sink, at most as many as a rendering sink would
+     * show. An error at the end of the input has no length.
+     */
+    private static List<Diagnostic> diagnostics(ErrorSink errors) {
+        List<ErrorSink.Record> records = errors.records();
+        int count = Math.min(records.size(), ErrorSink.DEFAULT_MAX_ERRORS);
+        List<Diagnostic> diagnostics = new ArrayList<>(count);
+        for (ErrorSink.Record record : records.subList(0, count)) {
+            int length = record.offset < 0 ? 0 : Math.max(record.length, 0);
+            diagnostics.add(new Diagnostic(record.code.id, record.line, record.offset, length,
+                    record.count, record.message));
+        }
+        return diagnostics;
+    }
+}
@@ -0,0 +1,299 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An embeddable Lox engine that many threads can use at once.
+ *
+ * Each run gets its own ErrorSink, output buffer and Interpreter or VM, so runs share no
+ * mutable state: globals defined by one script are invisible to the next, and errors are
+ * reported in the run's Result instead of on System.err. The only shared state is the Stats
+ * counters, which are atomic.
+ *
+ * runBatch() runs many files concurrently and returns their results in input order. It uses
+ * one virtual thread per file when the JVM has them (Java 21 and later) and a fixed pool of
+ * platform threads otherwise, with at most `concurrency` files in flight either way.
+ *
+ * Example:
+ *   LoxEngine engine = new LoxEngine(false);
+ *   LoxEngine.Result result = engine.run("hello.lox", "print \"hi\";");
+ *   result.output;   // "hi\n"
+ *   result.success(); // true
+ */
+public final class LoxEngine {
+    private final boolean useVm;
+    private final ErrorSink.Format format;
+    private final int maxErrors;
+
+    /**
+     * Creates an engine that runs programs on the bytecode VM if useVm is set and on the
+     * tree-walking Interpreter otherwise.
+     */
+    public LoxEngine(boolean useVm) {
+        this(useVm, ErrorSink.Format.TEXT, ErrorSink.DEFAULT_MAX_ERRORS);
+    }
+
+    /**
+     * Creates an engine whose results render errors in the given format, at most maxErrors
+     * of them per run.
+     */
+    LoxEngine(boolean useVm, ErrorSink.Format format, int maxErrors) {
+        this.useVm = useVm;
+        this.format = format;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * The outcome of running one program.
+     */
+    public static final class Result {
+        public final String name;
+        public final String output;
+        public final String errors;
+        public final boolean hadError;
+        public final boolean hadRuntimeError;
+        public final int sourceChars;
+        public final int tokens;
+        public final long nanos;
+
+        Result(String name, String output, String errors, boolean hadError,
+               boolean hadRuntimeError, int sourceChars, int tokens, long nanos) {
+            this.name = name;
+            this.output = output;
+            this.errors = errors;
+            this.hadError = hadError;
+            this.hadRuntimeError = hadRuntimeError;
+            this.sourceChars = sourceChars;
+            this.tokens = tokens;
+            this.nanos = nanos;
+        }
+
+        public boolean success() {
+            return !hadError && !hadRuntimeError;
+        }
+    }
+
+    /**
+     * The results of a batch, in input order, and its aggregate throughput.
+     */
+    public static final class Batch {
+        public final List<Result> results;
+        public final long wallNanos;
+        public final int concurrency;
+        public final boolean virtualThreads;
+
+        Batch(List<Result> results, long wallNanos, int concurrency, boolean virtualThreads) {
+            this.results = results;
+            this.wallNanos = wallNanos;
+            this.concurrency = concurrency;
+            this.virtualThreads = virtualThreads;
+        }
+
+        public int failures() {
+            int failures = 0;
+            for (Result result : results) {
+                if (!result.success()) failures++;
+            }
+            return failures;
+        }
+
+        /**
+         * Returns a one-line report: files, failures, size and throughput.
+         */
+        public String summary() {
+            long chars = 0;
+            long tokens = 0;
+            for (Result result : results) {
+                chars += result.sourceChars;
+                tokens += result.tokens;
+            }
+            double seconds = wallNanos / 1e9;
+            return String.format(Locale.ROOT,
+                    "%d files (%d failed), %d bytes, %d tokens in %.3f s: %.1f files/s, %.2f MB/s"
+                            + " on %d %s threads",
+                    results.size(), failures(), chars, tokens, seconds, results.size() / seconds,
+                    chars / 1e6 / seconds, concurrency, virtualThreads ? "virtual" : "platform");
+        }
+    }
+
+    /**
+     * Scans, compiles and runs one program.
+     */
+    public Result run(String name, String source) {
+        long start = System.nanoTime();
+        StringBuilder output = new StringBuilder();
+        StringBuilder errorText = new StringBuilder();
+        ErrorSink errors = new ErrorSink(batch -> errorText.append(batch).append('\n'), format, maxErrors);
+        errors.setSource(source);
+
+        Stats.Timer timer = Stats.start(Stats.Phase.SCAN);
+        TokenBuffer tokens = new Scanner(source, errors).scanTokenBuffer();
+        timer.stop(tokens);
+
+        try {
+            if (useVm) {
+                execute(tokens, errors, new VM(errors, line -> output.append(line).append('\n'), Lox.useJit));
+            } else {
+                execute(tokens, errors, new Interpreter(errors, line -> output.append(line).append('\n')));
+            }
+        } catch (StackOverflowError e) {
+            // The tree-walker recurses on the Java stack, which is smaller on pool threads.
+            errors.runtimeError(0, "Stack overflow.", null);
+        }
+        errors.flush();
+
+        return new Result(name, output.toString(), errorText.toString(), errors.hadError(),
+                errors.hadRuntimeError(), source.length(), tokens.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Reads and runs one file as UTF-8. A file that cannot be read is a failed result.
+     */
+    public Result runFile(Path path) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new Result(path.toString(), "", "Could not read " + path + ": " + e.getMessage() + "\n",
+                    true, false, 0, 0, 0);
+        }
+        return run(path.toString(), source);
+    }
+
+    /**
+     * Runs every file concurrently, with at most concurrency files in flight. Directories are
+     * expanded to the .lox files beneath them, in path order.
+     */
+    public Batch runBatch(List<Path> paths, int concurrency) throws IOException, InterruptedException {
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be at least 1.");
+        List<Path> files = expand(paths);
+
+        long start = System.nanoTime();
+        ExecutorService virtualThreads = newVirtualThreadExecutor();
+        ExecutorService executor = virtualThreads != null
+                ? virtualThreads
+                : Executors.newFixedThreadPool(Math.min(concurrency, Math.max(files.size(), 1)));
+
+        // A virtual thread per file is cheap, but running all of them at once is not.
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<Result>> futures = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return runFile(file);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<>(files.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Batch task failed.", e.getCause());
+                }
+            }
+            return new Batch(results, System.nanoTime() - start, concurrency, virtualThreads != null);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses, resolves and interprets a scanned program, stopping at the first failing phase.
+     */
+    static void execute(TokenBuffer tokenBuffer, ErrorSink errors, Interpreter interpreter) {
+        // The parser pulls each Token once from the buffer's view, as it reaches it.
+        Stats.Timer timer = Stats.start(Stats.Phase.PARSE);
+        Parser parser = new Parser(tokenBuffer.asList().iterator(), errors);
+        List<Stmt> statements = parser.parse();
+        timer.stop();
+
+        // Stop if there was a syntax error.
+        if (errors.hadError()) return;
+
+        timer = Stats.start(Stats.Phase.RESOLVE);
+        Resolver resolver = new Resolver(errors);
+        resolver.resolve(statements);
+        errors.flush();
+        timer.stop();
+
+        // Stop if there was a resolution error.
+        if (errors.hadError()) return;
+
+        timer = Stats.start(Stats.Phase.EXECUTE);
+        long hits = interpreter.caches.hits;
+        long misses = interpreter.caches.misses;
+        interpreter.interpret(statements);
+        timer.stop();
+        Stats.inlineCaches(interpreter.caches.hits - hits, interpreter.caches.misses - misses);
+    }
+
+    /**
+     * Compiles a scanned program straight from its token buffer and runs it on the VM.
+     */
+    static void execute(TokenBuffer tokens, ErrorSink errors, VM vm) {
+        Stats.Timer timer = Stats.start(Stats.Phase.COMPILE);
+        Obj.Function script = new Compiler(tokens, errors).compile();
+        timer.stop();
+
+        // Stop if there was a lexical or compile error.
+        if (errors.hadError()) return;
+
+        timer = Stats.start(Stats.Phase.EXECUTE);
+        long hits = vm.caches.hits;
+        long misses = vm.caches.misses;
+        vm.interpret(script);
+        timer.stop();
+        // A REPL's runtime lives on between entries, so only this entry's counts are added.
+        Stats.inlineCaches(vm.caches.hits - hits, vm.caches.misses - misses);
+    }
+
+    private static List<Path> expand(List<Path> paths) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    files.addAll(walk
+                            .filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".lox"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor() on JVMs that have it, or null. It is
+     * looked up reflectively so the project still builds and runs on Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * A function or method declaration together with the environment it closes over.
+ */
+class LoxFunction implements LoxCallable {
+    private final Stmt.Function declaration;
+    private final Environment closure;
+    private final boolean isInitializer;
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+        this.declaration = declaration;
+        this.closure = closure;
+        this.isInitializer = isInitializer;
+    }
+
+    /**
+     * Returns this method with `this` bound to the instance, in a one-slot environment
+     * matching the scope the Resolver opened for `this`.
+     */
+    LoxFunction bind(LoxInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.slots[0] = instance;
+        return new LoxFunction(declaration, environment, isInitializer);
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        // Parameters occupy the first slots, the body's own locals the rest.
+        Environment environment = new Environment(closure, declaration.slotCount);
+        for (int i = 0; i < arguments.size(); i++) {
+            environment.slots[i] = arguments.get(i);
+        }
+
+        try {
+            interpreter.executeBlock(declaration.body, environment);
+        } catch (Return returnValue) {
+            if (isInitializer) return closure.slots[0];
+
+            return returnValue.value;
+        }
+
+        if (isInitializer) return closure.slots[0];
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * An instance of a Lox class. Fields are created on first assignment, in the slots their
+ * Shape gives them.
+ */
+class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final LoxClass klass;
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
+
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+        this.shape = klass.shape;
+    }
+
+    /**
+     * Fields shadow methods; a method is returned bound to this instance. The cache is the
+     * one of the expression doing the get.
+     */
+    Object get(Token name, InlineCache cache, InlineCache.Counters counters) {
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            counters.hits++;
+            int slot = cache.slot(entry);
+            if (slot >= 0) return fields[slot];
+            return ((LoxFunction) cache.target(entry)).bind(this);
+        }
+
+        counters.misses++;
+        int slot = shape.slot(name.lexeme);
+        if (slot >= 0) {
+            cache.add(shape, slot, null);
+            return fields[slot];
+        }
+
+        LoxFunction method = klass.findMethod(name.lexeme);
+        if (method != null) {
+            cache.add(shape, -1, method);
+            return method.bind(this);
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    void set(Token name, Object value, InlineCache cache, InlineCache.Counters counters) {
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            counters.hits++;
+            store(cache.slot(entry), (Shape) cache.target(entry), value);
+            return;
+        }
+
+        counters.misses++;
+        int slot = shape.slot(name.lexeme);
+        Shape next = shape;
+        if (slot < 0) {
+            slot = shape.size();
+            next = shape.with(name.lexeme);
+        }
+        cache.add(shape, slot, next);
+        store(slot, next, value);
+    }
+
+    private void store(int slot, Shape shape, Object value) {
+        if (slot >= fields.length) fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        fields[slot] = value;
+        this.shape = shape;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
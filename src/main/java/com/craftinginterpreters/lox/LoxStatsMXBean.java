@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+/**
+ * The JMX view of Stats, registered as com.craftinginterpreters.lox:type=Stats when --stats
+ * is on. Maps are keyed by phase or TokenType name. JMX requires this interface to be public.
+ */
+public interface LoxStatsMXBean {
+    Map<String, Long> getPhaseNanos();
+
+    Map<String, Long> getPhaseRuns();
+
+    Map<String, Long> getPhaseAllocatedBytes();
+
+    Map<String, Long> getTokenCounts();
+
+    long getTokenCount();
+
+    long getSourceBytes();
+
+    long getErrorCount();
+
+    long getRuntimeErrorCount();
+
+    long getInlineCacheHits();
+
+    long getInlineCacheMisses();
+
+    void reset();
+}
@@ -0,0 +1,92 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Converts NUMBER lexemes to doubles straight from the scanner's buffer.
+ *
+ * A Lox number is digits with an optional fractional part: no sign, no exponent. The digits
+ * are accumulated into a long mantissa, ignoring the '.', and the common cases are exact:
+ *
+ * - An integer of up to 18 digits fits the long, and the long-to-double conversion rounds
+ *   to nearest-even, just as Double.parseDouble does.
+ * - A decimal whose mantissa is at most 2^53 and that has at most 22 fractional digits is
+ *   mantissa / 10^fraction. Both operands are exact doubles, so the one rounding step of the
+ *   IEEE division gives the correctly rounded result (Clinger's fast path).
+ *
+ * Anything longer falls back to Double.parseDouble on a copy of the text, so the result is
+ * always bit-for-bit what parseDouble returns for the lexeme.
+ *
+ * Example:
+ *   NumberParser.parse("x = 12.5;", 4, 8); // 12.5, no String allocated
+ */
+final class NumberParser {
+    // Every 18-digit decimal is below 2^63, so it cannot overflow the long mantissa.
+    private static final int MAX_DIGITS = 18;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // 10^0 through 10^22, the powers of ten that are exactly representable as doubles.
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private NumberParser() {}
+
+    /**
+     * Returns the value of the NUMBER lexeme in [start, end) of the source.
+     */
+    static double parse(String source, int start, int end) {
+        long mantissa = 0;
+        int digits = 0;
+        int point = -1;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '.') {
+                point = i;
+            } else {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            }
+        }
+
+        if (digits <= MAX_DIGITS) {
+            double value = fastPath(mantissa, point < 0 ? 0 : end - point - 1);
+            if (!Double.isNaN(value)) return value;
+        }
+        return Double.parseDouble(source.substring(start, end));
+    }
+
+    /**
+     * Returns the value of the NUMBER lexeme in [start, end) of the char array.
+     */
+    static double parse(char[] chars, int start, int end) {
+        long mantissa = 0;
+        int digits = 0;
+        int point = -1;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c == '.') {
+                point = i;
+            } else {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            }
+        }
+
+        if (digits <= MAX_DIGITS) {
+            double value = fastPath(mantissa, point < 0 ? 0 : end - point - 1);
+            if (!Double.isNaN(value)) return value;
+        }
+        return Double.parseDouble(new String(chars, start, end - start));
+    }
+
+    /**
+     * Returns mantissa / 10^fractionDigits if that is exact, or NaN if it needs the slow path.
+     */
+    private static double fastPath(long mantissa, int fractionDigits) {
+        if (fractionDigits == 0) return (double) mantissa;
+        if (mantissa <= MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length) {
+            return (double) mantissa / POWERS_OF_TEN[fractionDigits];
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,156 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap values of the bytecode VM. Numbers, booleans, nil and strings are plain Java Double,
+ * Boolean, null and String, as in the tree-walking Interpreter; everything else is one of
+ * these classes.
+ */
+abstract class Obj {
+    /**
+     * A compiled function: its bytecode plus what the VM needs to call it.
+     */
+    static final class Function extends Obj {
+        final Chunk chunk = new Chunk();
+        final String name;
+        int arity = 0;
+        int upvalueCount = 0;
+
+        // Tier-up state, kept by the VM and the Jit: calls plus loop back-edges so far, the
+        // compiled code once the function is hot, and the instructions whose guards failed.
+        int hotness = 0;
+        int deopts = 0;
+        Jit.Code compiled = null;
+        BitSet genericSites = null;
+
+        Function(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name == null ? "<script>" : "<fn " + name + ">";
+        }
+    }
+
+    /**
+     * A function together with the variables it captured from enclosing functions.
+     */
+    static final class Closure extends Obj {
+        final Function function;
+        final Upvalue[] upvalues;
+
+        Closure(Function function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    /**
+     * A captured variable. While the variable is still on the stack the upvalue points at its
+     * slot; when the variable goes out of scope it is closed and holds the value itself.
+     */
+    static final class Upvalue extends Obj {
+        int slot;
+        Object closed;
+        boolean isClosed = false;
+
+        // Open upvalues form a list sorted by slot, highest first.
+        Upvalue next;
+
+        Upvalue(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    static final class Native extends Obj {
+        interface Fn {
+            Object call(List<Object> arguments);
+        }
+
+        final int arity;
+        final Fn function;
+
+        Native(int arity, Fn function) {
+            this.arity = arity;
+            this.function = function;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    static final class Class extends Obj {
+        final String name;
+        final Map<String, Closure> methods = new HashMap<>();
+        // The shape of a new instance, with no fields yet.
+        final Shape shape = new Shape();
+
+        Class(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * An instance's fields are slots of an array, laid out by its Shape.
+     */
+    static final class Instance extends Obj {
+        private static final Object[] NO_FIELDS = new Object[0];
+
+        final Class klass;
+        Shape shape;
+        Object[] fields = NO_FIELDS;
+
+        Instance(Class klass) {
+            this.klass = klass;
+            this.shape = klass.shape;
+        }
+
+        /**
+         * Stores a field in its slot and moves to the shape that has it, which is the same
+         * shape unless the field is new.
+         */
+        void store(int slot, Shape shape, Object value) {
+            if (slot >= fields.length) fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            fields[slot] = value;
+            this.shape = shape;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    static final class BoundMethod extends Obj {
+        final Object receiver;
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.function.toString();
+        }
+    }
+}
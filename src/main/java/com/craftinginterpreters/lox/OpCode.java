@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The instruction set of the bytecode VM. Each instruction is one byte, followed by its
+ * operands as noted. Constant and slot operands are one byte; jump offsets are two bytes,
+ * big-endian.
+ */
+final class OpCode {
+    static final byte CONSTANT = 0;       // constant index: push constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;      // slot
+    static final byte SET_LOCAL = 6;      // slot
+    static final byte GET_GLOBAL = 7;     // constant index of the name
+    static final byte DEFINE_GLOBAL = 8;  // constant index of the name
+    static final byte SET_GLOBAL = 9;     // constant index of the name
+    static final byte GET_UPVALUE = 10;   // upvalue index
+    static final byte SET_UPVALUE = 11;   // upvalue index
+    static final byte GET_PROPERTY = 12;  // constant index of the name
+    static final byte SET_PROPERTY = 13;  // constant index of the name
+    static final byte GET_SUPER = 14;     // constant index of the method name
+    static final byte EQUAL = 15;
+    static final byte NOT_EQUAL = 16;
+    static final byte GREATER = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS = 19;
+    static final byte LESS_EQUAL = 20;
+    static final byte ADD = 21;
+    static final byte SUBTRACT = 22;
+    static final byte MULTIPLY = 23;
+    static final byte DIVIDE = 24;
+    static final byte NOT = 25;
+    static final byte NEGATE = 26;
+    static final byte PRINT = 27;
+    static final byte JUMP = 28;          // 2-byte forward offset
+    static final byte JUMP_IF_FALSE = 29; // 2-byte forward offset; leaves the condition
+    static final byte LOOP = 30;          // 2-byte backward offset
+    static final byte CALL = 31;          // argument count
+    static final byte INVOKE = 32;        // constant index of the method name, argument count
+    static final byte SUPER_INVOKE = 33;  // constant index of the method name, argument count
+    static final byte CLOSURE = 34;       // constant index of the function, then per upvalue: isLocal, index
+    static final byte CLOSE_UPVALUE = 35;
+    static final byte RETURN = 36;
+    static final byte CLASS = 37;         // constant index of the name
+    static final byte INHERIT = 38;
+    static final byte METHOD = 39;        // constant index of the name
+
+    // Superinstructions for common pairs, to save a trip through the dispatch loop.
+    static final byte POP_JUMP_IF_FALSE = 40; // 2-byte forward offset; pops the condition
+    static final byte SET_LOCAL_POP = 41;     // slot: SET_LOCAL followed by POP
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,283 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Tokenizes a large source on several cores and produces exactly what Scanner.scanTokenBuffer
+ * would.
+ *
+ * The source is cut into chunks right after a newline. A `//` comment always ends at a
+ * newline, so at such a point the lexer is either between lexemes, inside a string or inside
+ * a block comment at some nesting depth; strings and block comments are the only constructs
+ * that span lines. Which it is depends on everything before the chunk, so it is worked out in
+ * three steps:
+ *
+ *   1. A fast pre-pass runs over every chunk in parallel, looking only at quotes, comment
+ *      delimiters and newlines. For each of three entry states (between lexemes, in a string,
+ *      in a comment of depth 1) it records the exit state, and it counts the chunk's newlines.
+ *      The rare chunk that starts deeper in nested comments gets its pre-pass in step 2.
+ *   2. Chaining the exit states from the first chunk gives every chunk's real entry state, and
+ *      summing the newline counts gives its first line. This step is sequential but only costs
+ *      one step per chunk.
+ *   3. A chunk that starts inside a string or comment is moved to just after its end, so the
+ *      previous chunk lexes the whole string or comment. The chunks are then lexed in parallel by ordinary
+ *      Scanners and their buffers concatenated.
+ *
+ * Each chunk reports its errors to a collecting sink of its own. They are replayed into the
+ * caller's sink in chunk order, so the diagnostics, including repeats merged across a chunk
+ * boundary, are the ones a sequential scan reports.
+ *
+ * Small sources, and pools with a single worker, are scanned sequentially since the pre-pass
+ * and fork/join overhead would dominate.
+ *
+ * Example:
+ *   TokenBuffer tokens = new ParallelScanner(ForkJoinPool.commonPool()).scan(hugeSource);
+ */
+class ParallelScanner {
+    static final int DEFAULT_MIN_CHUNK = 256 * 1024;
+
+    // Entry and exit states of the pre-pass. Inside a block comment of depth d the state is
+    // IN_COMMENT + d - 1.
+    private static final int NORMAL = 0;
+    private static final int IN_STRING = 1;
+    private static final int IN_COMMENT = 2;
+
+    private final ForkJoinPool pool;
+    private final int minChunk;
+
+    ParallelScanner(ForkJoinPool pool) {
+        this(pool, DEFAULT_MIN_CHUNK);
+    }
+
+    ParallelScanner(ForkJoinPool pool, int minChunk) {
+        this.pool = pool;
+        this.minChunk = Math.max(minChunk, 1);
+    }
+
+    TokenBuffer scan(String source) {
+        return scan(source, Lox.errorSink());
+    }
+
+    /**
+     * Scans the source, reporting lexical errors to the given sink.
+     */
+    TokenBuffer scan(String source, ErrorSink errors) {
+        int length = source.length();
+        int chunkCount = Math.min(pool.getParallelism() * 4, length / minChunk);
+        if (chunkCount < 2 || pool.getParallelism() < 2) {
+            return new Scanner(source, errors).scanTokenBuffer();
+        }
+
+        int[] bounds = splitAfterNewlines(source, chunkCount);
+        int chunks = bounds.length - 1;
+
+        // Step 1: the pre-pass, from both entry states.
+        List<Callable<Summary>> summaries = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            summaries.add(() -> summarize(source, from, to));
+        }
+        List<Summary> summary = invokeAll(summaries);
+
+        // Step 2: chain the states and lines.
+        int[] starts = new int[chunks + 1];
+        int[] lines = new int[chunks];
+        int state = NORMAL;
+        int line = 1;
+        for (int i = 0; i < chunks; i++) {
+            int start = bounds[i];
+            int startLine = line;
+            if (state != NORMAL) {
+                // Let the previous chunk finish the string or comment.
+                int resume;
+                if (state == IN_STRING) {
+                    int close = source.indexOf('"', start);
+                    resume = close < 0 ? length : close + 1;
+                } else {
+                    int end = skipComment(source, start, length, state - IN_COMMENT + 1);
+                    resume = end < 0 ? length : end;
+                }
+                startLine += countLines(source, start, resume);
+                start = resume;
+            }
+            // A string or comment spanning several chunks leaves the ones it covers empty.
+            starts[i] = Math.max(start, i == 0 ? 0 : starts[i - 1]);
+            lines[i] = startLine;
+
+            state = state <= IN_COMMENT
+                    ? summary.get(i).exitState[state]
+                    : exitState(source, bounds[i], bounds[i + 1], state);
+            line += summary.get(i).newlines;
+        }
+        starts[chunks] = length;
+
+        // Step 3: lex the chunks.
+        List<Callable<Scanner>> lexers = new ArrayList<>(chunks);
+        ErrorSink[] chunkErrors = new ErrorSink[chunks];
+        for (int i = 0; i < chunks; i++) {
+            int from = starts[i];
+            int to = starts[i + 1];
+            int startLine = lines[i];
+            ErrorSink sink = chunkErrors[i] = ErrorSink.collecting();
+            lexers.add(() -> {
+                Scanner scanner = new Scanner(source, from, to, startLine, sink);
+                while (scanner.scanNextToken()) {
+                    // The scanner fills its own buffer.
+                }
+                return scanner;
+            });
+        }
+        List<Scanner> parts = invokeAll(lexers);
+
+        int total = 1;
+        for (Scanner part : parts) total += part.tokens().size();
+        TokenBuffer tokens = new TokenBuffer(source, total);
+        for (Scanner part : parts) tokens.addAll(part.tokens());
+
+        // Every newline bumps the line, including those in strings and unterminated strings.
+        tokens.add(EOF, length, 0, line);
+
+        // The chunks cover the source without gaps, so their line starts are all of them.
+        int[] lineStarts = new int[line];
+        int lineCount = 1;
+        for (Scanner part : parts) lineCount += part.copyLineStarts(lineStarts, lineCount);
+        tokens.setLineIndex(new LineIndex(lineStarts, lineCount));
+
+        for (ErrorSink sink : chunkErrors) sink.replayInto(errors);
+        errors.flush();
+        return tokens;
+    }
+
+    /**
+     * Picks chunk boundaries near equal sizes, each moved to just after a newline.
+     */
+    private static int[] splitAfterNewlines(String source, int chunkCount) {
+        int length = source.length();
+        List<Integer> bounds = new ArrayList<>(chunkCount + 1);
+        bounds.add(0);
+        for (int i = 1; i < chunkCount; i++) {
+            int target = (int) ((long) length * i / chunkCount);
+            int newline = source.indexOf('\n', Math.max(target, bounds.get(bounds.size() - 1)));
+            if (newline < 0) break;
+            int bound = newline + 1;
+            if (bound > bounds.get(bounds.size() - 1) && bound < length) bounds.add(bound);
+        }
+        bounds.add(length);
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    /**
+     * The pre-pass over one chunk: the exit state for each entry state, plus its newlines.
+     */
+    private static Summary summarize(String source, int from, int to) {
+        Summary summary = new Summary();
+        summary.exitState[NORMAL] = exitState(source, from, to, NORMAL);
+        summary.exitState[IN_STRING] = exitState(source, from, to, IN_STRING);
+        summary.exitState[IN_COMMENT] = exitState(source, from, to, IN_COMMENT);
+        summary.newlines = countLines(source, from, to);
+        return summary;
+    }
+
+    private static int exitState(String source, int from, int to, int state) {
+        int i = from;
+        while (i < to) {
+            if (state == IN_STRING) {
+                int close = source.indexOf('"', i);
+                if (close < 0 || close >= to) return IN_STRING;
+                state = NORMAL;
+                i = close + 1;
+                continue;
+            }
+            if (state >= IN_COMMENT) {
+                int end = skipComment(source, i, to, state - IN_COMMENT + 1);
+                if (end < 0) return IN_COMMENT - end - 1;
+                state = NORMAL;
+                i = end;
+                continue;
+            }
+
+            char c = source.charAt(i);
+            if (c == '"') {
+                state = IN_STRING;
+                i++;
+            } else if (c == '/' && i + 1 < to && source.charAt(i + 1) == '/') {
+                int newline = source.indexOf('\n', i);
+                if (newline < 0 || newline >= to) return NORMAL;
+                i = newline + 1;
+            } else if (c == '/' && i + 1 < to && source.charAt(i + 1) == '*') {
+                state = IN_COMMENT;
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Skips the rest of a block comment of the given depth that is open at from, the way the
+     * Scanner does.
+     *
+     * @return the index just after the comment's end, or, if it does not end before to, the
+     *         negated depth it is left at
+     */
+    private static int skipComment(String source, int from, int to, int depth) {
+        int i = from;
+        int open = -1;
+        int close = -1;
+        while (true) {
+            // A search that ran past the delimiter it was made for is reused.
+            if (open < i) open = found(source.indexOf("/*", i));
+            if (close < i) close = found(source.indexOf("*/", i));
+            int next = Math.min(open, close);
+            if (next >= to) return -depth;
+
+            i = next + 2;
+            depth += next == open ? 1 : -1;
+            if (depth == 0) return i;
+        }
+    }
+
+    private static int found(int index) {
+        return index < 0 ? Integer.MAX_VALUE : index;
+    }
+
+    private static int countLines(String source, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scanning a chunk failed.", e.getCause());
+        }
+        return results;
+    }
+
+    private static final class Summary {
+        final int[] exitState = new int[3];
+        int newlines;
+    }
+}
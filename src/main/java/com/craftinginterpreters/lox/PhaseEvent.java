@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for one phase of the Lox pipeline, so flight recordings show scanning, parsing
+ * and execution next to GC and allocation events on the same timeline.
+ *
+ * Events are emitted whether or not --stats is on. When no recording enables them, begin,
+ * end and shouldCommit are the only work, once per phase.
+ *
+ * Example:
+ *   java -XX:StartFlightRecording=filename=lox.jfr -cp target/classes com.craftinginterpreters.lox.Lox script.lox
+ *   jfr print --events lox.Phase lox.jfr
+ */
+@Name("lox.Phase")
+@Label("Lox Phase")
+@Category("Lox")
+@Description("One phase of running a Lox program: scan, parse, resolve, compile or execute.")
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Source Size")
+    @DataAmount
+    long sourceBytes;
+
+    @Label("Tokens")
+    long tokens;
+}
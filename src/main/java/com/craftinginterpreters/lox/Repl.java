@@ -0,0 +1,215 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * The read-eval-print loop behind the prompt.
+ *
+ * One Interpreter or VM lives for the whole session, so globals, functions and classes
+ * declared by one entry are there for the next. An entry is usually one line, but it goes on
+ * over the following lines while a '(' or '{' is still open or a string or block comment is
+ * unterminated. Each entry is its own program: its errors are reported with lines counted
+ * from the entry's first line, and they do not stop later entries.
+ *
+ * When stdin is a terminal, the loop prompts and flushes every printed line. Otherwise it is
+ * fed from a pipe, and it neither prompts nor flushes: output, including the tokens of
+ * --tokens, is formatted into one reusable StringBuilder and written in large chunks when it
+ * fills and at the end of the input.
+ *
+ * Either way an entry's errors are held back until it has run. If there are any, the buffered
+ * output is written and flushed first, so what comes out on stdout and stderr together is in
+ * the order the program produced it.
+ *
+ * Example:
+ *   Writer out = new StringWriter();
+ *   new Repl(new StringReader("fun f() {\n  return 1;\n}\nprint f();"), out, errors,
+ *       Repl.Mode.INTERPRET, false).run();
+ *   out.toString(); // "1\n"
+ */
+class Repl {
+    enum Mode {
+        INTERPRET, VM, TOKENS
+    }
+
+    // Output is written out once this much is buffered.
+    private static final int CHUNK = 1 << 13;
+
+    private final BufferedReader in;
+    private final Writer out;
+    private final ErrorSink errors;
+    private final Mode mode;
+    private final boolean interactive;
+
+    private final Interpreter interpreter;
+    private final VM vm;
+
+    // Collects the errors of the running entry, to be passed on to errors after its output.
+    private final ErrorSink entryErrors = ErrorSink.collecting();
+
+    private final StringBuilder text = new StringBuilder(CHUNK + 256);
+    private final char[] chunk = new char[CHUNK + 256];
+
+    // The entry being read, and how far into it the lines have been checked for completeness.
+    // Up to checkedTo, nothing is left open but the counted parentheses and braces.
+    private final StringBuilder entry = new StringBuilder();
+    private int checkedTo = 0;
+    private int openParens = 0;
+    private int openBraces = 0;
+    private TokenBuffer scanned = null;
+    // Reports nothing; it only tells whether a string or comment ran past the end.
+    private final ErrorSink probe = new ErrorSink(batch -> {});
+
+    Repl(Reader in, Writer out, ErrorSink errors, Mode mode, boolean interactive) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+        this.out = out;
+        this.errors = errors;
+        this.mode = mode;
+        this.interactive = interactive;
+        this.interpreter = mode == Mode.INTERPRET ? new Interpreter(entryErrors, this::print) : null;
+        this.vm = mode == Mode.VM ? new VM(entryErrors, this::print, Lox.useJit) : null;
+    }
+
+    /**
+     * Reads and runs entries until the input ends, then runs whatever entry is left unfinished
+     * so its errors are reported.
+     */
+    void run() throws IOException {
+        for (;;) {
+            if (interactive) prompt(entry.length() == 0 ? "> " : "... ");
+            String line = in.readLine();
+            if (line == null) break;
+
+            if (entry.length() > 0) entry.append('\n');
+            entry.append(line);
+            if (!check()) continue;
+
+            runEntry();
+        }
+
+        if (entry.length() > 0) {
+            scanned = null;
+            runEntry();
+        }
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Scans the lines of the entry that are not checked yet, and returns whether the entry is
+     * complete. If that scan covered the whole entry and found no errors, which is the usual
+     * case of a one-line entry, its tokens are kept in scanned to be run as they are.
+     */
+    private boolean check() {
+        String unchecked = entry.substring(checkedTo);
+        Stats.Timer timer = Stats.start(Stats.Phase.SCAN);
+        TokenBuffer tokens = new Scanner(unchecked, probe).scanTokenBuffer();
+        timer.stop(tokens);
+        boolean runsOn = probe.hadError(ErrorSink.Code.UNTERMINATED_STRING)
+                || probe.hadError(ErrorSink.Code.UNTERMINATED_COMMENT);
+        boolean clean = !probe.hadError();
+        probe.reset();
+        // The lines from checkedTo on are scanned again, together with the next one.
+        if (runsOn) return false;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            switch (tokens.type(i)) {
+                case LEFT_PAREN: openParens++; break;
+                case RIGHT_PAREN: openParens--; break;
+                case LEFT_BRACE: openBraces++; break;
+                case RIGHT_BRACE: openBraces--; break;
+                default: break;
+            }
+        }
+        scanned = clean && checkedTo == 0 ? tokens : null;
+        checkedTo = entry.length();
+        return openParens <= 0 && openBraces <= 0;
+    }
+
+    /**
+     * Runs the entry and starts a new one. The entry is scanned again, so its errors are
+     * reported, unless check() kept its tokens.
+     */
+    private void runEntry() {
+        String source = entry.toString();
+        entry.setLength(0);
+        checkedTo = 0;
+        openParens = 0;
+        openBraces = 0;
+
+        errors.setSource(source);
+        TokenBuffer tokens = scanned;
+        scanned = null;
+        if (tokens == null) {
+            Stats.Timer timer = Stats.start(Stats.Phase.SCAN);
+            tokens = new Scanner(source, entryErrors).scanTokenBuffer();
+            timer.stop(tokens);
+        }
+
+        if (mode == Mode.TOKENS) {
+            for (int i = 0; i < tokens.size(); i++) {
+                tokens.format(i, text);
+                text.append('\n');
+                if (text.length() >= CHUNK) drain();
+            }
+        } else if (mode == Mode.VM) {
+            LoxEngine.execute(tokens, entryErrors, vm);
+        } else {
+            LoxEngine.execute(tokens, entryErrors, interpreter);
+        }
+
+        if (entryErrors.hadError() || entryErrors.hadRuntimeError()) {
+            // The output of this and earlier entries goes out ahead of the errors.
+            drain();
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entryErrors.replayInto(errors);
+        }
+        entryErrors.reset();
+        errors.reset();
+    }
+
+    private void print(String line) {
+        text.append(line).append('\n');
+        if (interactive) {
+            // Shown at once, ahead of any runtime error that follows on stderr.
+            drain();
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (text.length() >= CHUNK) {
+            drain();
+        }
+    }
+
+    private void prompt(String prompt) throws IOException {
+        text.append(prompt);
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Writes the buffered text to the output through one reusable char array.
+     */
+    private void drain() {
+        try {
+            int length = text.length();
+            for (int from = 0; from < length; from += chunk.length) {
+                int count = Math.min(chunk.length, length - from);
+                text.getChars(from, from + count, chunk, 0);
+                out.write(chunk, 0, count);
+            }
+            text.setLength(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A static pass between parsing and interpreting that binds every local variable use to its
+ * declaration.
+ *
+ * Each scope numbers its variables in declaration order. A use is resolved to the pair
+ * (depth, slot): how many scopes out the declaration is, and its number in that scope. The
+ * Interpreter stores each scope's variables in an array, so a local variable access is a
+ * short walk up the environment chain plus an array index, with no name lookups at runtime.
+ * Variables not found in any scope are globals and keep depth -1.
+ *
+ * The resolver also reports the static errors of the language, such as returning from
+ * top-level code or reading a local variable in its own initializer.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType {
+        NONE,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private enum ClassType {
+        NONE,
+        CLASS,
+        SUBCLASS
+    }
+
+    /**
+     * The variables of one scope, mapped to their slot. A variable is declared before its
+     * initializer is resolved but only defined after, which is how reading it in its own
+     * initializer is caught.
+     */
+    private static final class Scope {
+        final Map<String, Integer> slots = new HashMap<>();
+        final Map<String, Boolean> defined = new HashMap<>();
+    }
+
+    private final ErrorSink errors;
+    private final List<Scope> scopes = new ArrayList<>();
+    private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+
+    Resolver() {
+        this(Lox.errorSink());
+    }
+
+    Resolver(ErrorSink errors) {
+        this.errors = errors;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        resolve(stmt.statements);
+        stmt.slotCount = endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+
+        stmt.slot = declare(stmt.name);
+        define(stmt.name);
+
+        if (stmt.superclass != null) {
+            if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
+                error(stmt.superclass.name, "A class can't inherit from itself.");
+            }
+
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+
+            // `super` gets a scope of its own around the methods, with one slot.
+            beginScope();
+            declareSynthetic("super");
+        }
+
+        // So does `this`, one scope further in.
+        beginScope();
+        declareSynthetic("this");
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType declaration = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                declaration = FunctionType.INITIALIZER;
+            }
+
+            resolveFunction(method, declaration);
+        }
+
+        endScope();
+
+        if (stmt.superclass != null) endScope();
+
+        currentClass = enclosingClass;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Defined before the body is resolved so the function can refer to itself.
+        stmt.slot = declare(stmt.name);
+        define(stmt.name);
+
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            error(stmt.keyword, "Can't return from top-level code.");
+        }
+
+        if (stmt.value != null) {
+            if (currentFunction == FunctionType.INITIALIZER) {
+                error(stmt.keyword, "Can't return a value from an initializer.");
+            }
+
+            resolve(stmt.value);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        stmt.slot = declare(stmt.name);
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        int depth = depthOf(expr.name.lexeme);
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(depth, expr.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        // Properties are looked up dynamically; only the object expression is resolved.
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (currentClass == ClassType.NONE) {
+            error(expr.keyword, "Can't use 'super' outside of a class.");
+        } else if (currentClass != ClassType.SUBCLASS) {
+            error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+        }
+
+        int depth = depthOf("super");
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(depth, "super");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (currentClass == ClassType.NONE) {
+            error(expr.keyword, "Can't use 'this' outside of a class.");
+            return null;
+        }
+
+        int depth = depthOf("this");
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(depth, "this");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (!scopes.isEmpty()) {
+            Scope scope = scopes.get(scopes.size() - 1);
+            if (scope.defined.get(expr.name.lexeme) == Boolean.FALSE) {
+                error(expr.name, "Can't read local variable in its own initializer.");
+            }
+        }
+
+        int depth = depthOf(expr.name.lexeme);
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(depth, expr.name.lexeme);
+        }
+        return null;
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    /**
+     * Resolves a function body in a new scope. Parameters are declared first so they take
+     * slots 0 through arity - 1, which is where LoxFunction.call stores the arguments.
+     */
+    private void resolveFunction(Stmt.Function function, FunctionType type) {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = type;
+
+        beginScope();
+        for (Token param : function.params) {
+            declare(param);
+            define(param);
+        }
+        resolve(function.body);
+        function.slotCount = endScope();
+
+        currentFunction = enclosingFunction;
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope());
+    }
+
+    /**
+     * Closes the innermost scope.
+     *
+     * @return the number of slots the scope needs
+     */
+    private int endScope() {
+        return scopes.remove(scopes.size() - 1).slots.size();
+    }
+
+    /**
+     * Adds a variable to the innermost scope and assigns it the next free slot.
+     *
+     * @return the slot, or -1 if the variable is global
+     */
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
+
+        Scope scope = scopes.get(scopes.size() - 1);
+        if (scope.slots.containsKey(name.lexeme)) {
+            error(name, "Already a variable with this name in this scope.");
+            return scope.slots.get(name.lexeme);
+        }
+
+        int slot = scope.slots.size();
+        scope.slots.put(name.lexeme, slot);
+        scope.defined.put(name.lexeme, false);
+        return slot;
+    }
+
+    private void declareSynthetic(String name) {
+        Scope scope = scopes.get(scopes.size() - 1);
+        scope.slots.put(name, scope.slots.size());
+        scope.defined.put(name, true);
+    }
+
+    private void define(Token name) {
+        if (scopes.isEmpty()) return;
+        scopes.get(scopes.size() - 1).defined.put(name.lexeme, true);
+    }
+
+    /**
+     * Returns how many scopes out from the innermost the name is declared, or -1 if it is
+     * not declared in any scope and therefore global.
+     */
+    private int depthOf(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).slots.containsKey(name)) {
+                return scopes.size() - 1 - i;
+            }
+        }
+        return -1;
+    }
+
+    private int slotOf(int depth, String name) {
+        return scopes.get(scopes.size() - 1 - depth).slots.get(name);
+    }
+
+    private void error(Token token, String message) {
+        errors.error(ErrorSink.Code.RESOLUTION, token, message);
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Unwinds the interpreter out of a function body when a `return` statement executes.
+ */
+class Return extends RuntimeException {
+    final Object value;
+
+    Return(Object value) {
+        // This is control flow, not an error; skip the cost of capturing a stack trace.
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,291 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable string stored as a balanced tree of chunks, for text that is edited or
+ * concatenated many times.
+ *
+ * Leaves hold Strings of up to LEAF_SIZE chars; inner nodes hold the total length and the
+ * number of newlines below them. Replacing a range copies only the O(log n) nodes on the
+ * paths to its ends and shares everything else, so editing a large document does not copy
+ * it. The newline counts turn a (line, character) position into an offset in O(log n),
+ * which is how the LanguageServer applies editor changes before the text is scanned again.
+ *
+ * Appending or prepending a short string descends the shallower side of the tree instead of
+ * adding a level on top, so ropes built one piece at a time stay O(log n) deep. A tree that
+ * still gets deeper than MAX_DEPTH, from other mixes of edits, is rebuilt balanced.
+ * toString() flattens the rope once and keeps the result.
+ *
+ * Lox strings that '+' makes longer than FLAT_LIMIT chars are Ropes too, so a loop that
+ * builds a string one piece at a time copies each char a bounded number of times instead of
+ * once per iteration. Shorter strings stay Strings. Ropes are equal to Ropes with the same
+ * text and hash as their text does.
+ *
+ * Lines are 0-based here, as they are in the language server protocol.
+ *
+ * Example:
+ *   Rope text = Rope.of("var a;\nprint a;");
+ *   text = text.replace(4, 5, "abc");   // "var abc;\nprint a;"
+ *   text.offsetOf(1, 6);                // 15, the "a" on the second line
+ *   text.lineCount();                   // 2
+ */
+final class Rope implements CharSequence {
+    static final int LEAF_SIZE = 1024;
+    static final int FLAT_LIMIT = 256;
+    private static final int MAX_DEPTH = 48;
+
+    static final Rope EMPTY = new Rope("");
+
+    // Exactly one of leaf and (left, right) is set.
+    private final String leaf;
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int newlines;
+    private final int depth;
+
+    // The flattened text, built on the first toString(). Racing threads build equal Strings.
+    private String flat;
+
+    private Rope(String leaf) {
+        this.leaf = leaf;
+        this.left = null;
+        this.right = null;
+        this.length = leaf.length();
+        int newlines = 0;
+        for (int i = leaf.indexOf('\n'); i >= 0; i = leaf.indexOf('\n', i + 1)) newlines++;
+        this.newlines = newlines;
+        this.depth = 0;
+        this.flat = leaf;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.leaf = null;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.newlines = left.newlines + right.newlines;
+        this.depth = Math.max(left.depth, right.depth) + 1;
+    }
+
+    /**
+     * Lox's '+' on two strings, each a String or a Rope.
+     */
+    static CharSequence plus(CharSequence a, CharSequence b) {
+        if (a.length() + b.length() <= FLAT_LIMIT) return a.toString().concat(b.toString());
+        return of(a).concat(of(b));
+    }
+
+    /**
+     * Lox's '==' when either side may be a Rope. A long string can be a String or a Rope, and
+     * either way is compared by its text.
+     */
+    static boolean textEquals(Object a, Object b) {
+        if (!(a instanceof CharSequence) || !(b instanceof CharSequence)) return false;
+        CharSequence x = (CharSequence) a;
+        CharSequence y = (CharSequence) b;
+        return x.length() == y.length() && x.toString().equals(y.toString());
+    }
+
+    private static Rope of(CharSequence text) {
+        return text instanceof Rope ? (Rope) text : of(text.toString());
+    }
+
+    static Rope of(String text) {
+        if (text.isEmpty()) return EMPTY;
+        return build(text, 0, text.length());
+    }
+
+    private static Rope build(String text, int from, int to) {
+        if (to - from <= LEAF_SIZE) return new Rope(text.substring(from, to));
+        // Split on a leaf boundary so all leaves but the last are full.
+        int leaves = (to - from + LEAF_SIZE - 1) / LEAF_SIZE;
+        int middle = from + (leaves / 2) * LEAF_SIZE;
+        return new Rope(build(text, from, middle), build(text, middle, to));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range 0 to " + length + ".");
+        }
+        Rope node = this;
+        while (node.leaf == null) {
+            if (index < node.left.length) {
+                node = node.left;
+            } else {
+                index -= node.left.length;
+                node = node.right;
+            }
+        }
+        return node.leaf.charAt(index);
+    }
+
+    @Override
+    public Rope subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of range 0 to "
+                    + length + ".");
+        }
+        if (start == 0 && end == length) return this;
+        if (start == end) return EMPTY;
+        if (leaf != null) return new Rope(leaf.substring(start, end));
+
+        int split = left.length;
+        if (end <= split) return left.subSequence(start, end);
+        if (start >= split) return right.subSequence(start - split, end - split);
+        return left.subSequence(start, split).concat(right.subSequence(0, end - split));
+    }
+
+    /**
+     * Returns this rope followed by the other one. Small leaves at the seam are merged, so
+     * typing one char at a time does not leave a leaf per char behind.
+     */
+    Rope concat(Rope other) {
+        if (other.length == 0) return this;
+        if (length == 0) return other;
+
+        if (other.leaf != null && other.length < LEAF_SIZE / 2) {
+            if (leaf != null && length + other.length <= LEAF_SIZE) {
+                return new Rope(leaf + other.leaf);
+            }
+            if (leaf == null && right.depth < left.depth) {
+                return new Rope(left, right.concat(other));
+            }
+            if (leaf == null && right.leaf != null && right.length + other.length <= LEAF_SIZE) {
+                return balance(new Rope(left, new Rope(right.leaf + other.leaf)));
+            }
+        }
+        if (leaf != null && length < LEAF_SIZE / 2) {
+            if (other.leaf == null && other.left.depth < other.right.depth) {
+                return new Rope(concat(other.left), other.right);
+            }
+            if (other.leaf == null && other.left.leaf != null && length + other.left.length <= LEAF_SIZE) {
+                return balance(new Rope(new Rope(leaf + other.left.leaf), other.right));
+            }
+        }
+        return balance(new Rope(this, other));
+    }
+
+    Rope concat(String text) {
+        return concat(of(text));
+    }
+
+    /**
+     * Returns a rope with the chars in [start, end) replaced by the given text.
+     */
+    Rope replace(int start, int end, String text) {
+        return subSequence(0, start).concat(of(text)).concat(subSequence(end, length));
+    }
+
+    int lineCount() {
+        return newlines + 1;
+    }
+
+    /**
+     * Returns the offset where the given 0-based line starts, or the length for lines past
+     * the end.
+     */
+    int lineStart(int line) {
+        if (line <= 0) return 0;
+        if (line > newlines) return length;
+
+        Rope node = this;
+        int offset = 0;
+        while (node.leaf == null) {
+            if (line <= node.left.newlines) {
+                node = node.left;
+            } else {
+                line -= node.left.newlines;
+                offset += node.left.length;
+                node = node.right;
+            }
+        }
+        // The line starts after the line-th newline of this leaf.
+        int newline = -1;
+        for (int i = 0; i < line; i++) newline = node.leaf.indexOf('\n', newline + 1);
+        return offset + newline + 1;
+    }
+
+    /**
+     * Returns the offset of a 0-based line and char position. A character past the end of its
+     * line means the end of the line, as the protocol asks.
+     */
+    int offsetOf(int line, int character) {
+        if (line > newlines) return length;
+        int start = lineStart(line);
+        int lineEnd = line < newlines ? lineStart(line + 1) - 1 : length;
+        return Math.min(start + Math.max(character, 0), lineEnd);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            StringBuilder out = new StringBuilder(length);
+            appendTo(out);
+            text = out.toString();
+            flat = text;
+        }
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof Rope) || ((Rope) other).length != length) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private void appendTo(StringBuilder out) {
+        if (flat != null) {
+            out.append(flat);
+        } else {
+            left.appendTo(out);
+            right.appendTo(out);
+        }
+    }
+
+    private static Rope balance(Rope rope) {
+        if (rope.depth <= MAX_DEPTH) return rope;
+        List<Rope> leaves = new ArrayList<>();
+        rope.collectLeaves(leaves);
+        return join(leaves, 0, leaves.size());
+    }
+
+    /**
+     * Collects the leaves in order, merging neighbours that fit in one leaf so that edits
+     * splitting leaves again and again do not leave the tree full of tiny ones.
+     */
+    private void collectLeaves(List<Rope> leaves) {
+        if (leaf != null) {
+            int last = leaves.size() - 1;
+            if (last >= 0 && leaves.get(last).length + length <= LEAF_SIZE) {
+                leaves.set(last, new Rope(leaves.get(last).leaf + leaf));
+            } else {
+                leaves.add(this);
+            }
+        } else {
+            left.collectLeaves(leaves);
+            right.collectLeaves(leaves);
+        }
+    }
+
+    private static Rope join(List<Rope> leaves, int from, int to) {
+        if (to - from == 1) return leaves.get(from);
+        int middle = (from + to) >>> 1;
+        return new Rope(join(leaves, from, middle), join(leaves, middle, to));
+    }
+}
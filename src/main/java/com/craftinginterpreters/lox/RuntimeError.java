@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * An error raised while running a Lox program, carrying the token to report its line.
+ */
+class RuntimeError extends RuntimeException {
+    final Token token;
+
+    RuntimeError(Token token, String message) {
+        super(message);
+        this.token = token;
+    }
+}
@@ -1,15 +1,63 @@
 package com.craftinginterpreters.lox;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-class Scanner {
+/**
+ * Turns Lox source into tokens, in one of two modes. A Scanner is used in one mode only.
+ *
+ * Eager: scanTokenBuffer() lexes the whole source into a columnar TokenBuffer, which is the
+ * fast path for running a file. The buffer and the line index grow with the source.
+ *
+ * Pull: nextToken(), iterating the Scanner, or stream() produce one Token at a time, only when
+ * the consumer asks for it, so the first token is available at once. The scanner keeps a
+ * buffer of a single slot and records no line starts, so its memory stays the same however
+ * long the source is; only the consumer decides what to keep. The Parser pulls tokens this
+ * way, a small lookahead window at a time. scanTokens() is the eager List built on top.
+ *
+ * A scanner from utf8() reads UTF-8 bytes wrapped by Utf8 instead of decoded chars, so a file
+ * is scanned without decoding it first. It produces the same tokens and errors as a scanner
+ * over the decoded text, except that offsets count bytes and malformed UTF-8 in code or in a
+ * string literal is reported as such. Bytes of 0x80 and above are only looked at in string
+ * literals and where a character is unexpected; comments are skipped without checking them.
+ *
+ * Example:
+ *   Scanner scanner = new Scanner("print 1;");
+ *   scanner.nextToken();  // PRINT print null
+ *   for (Token token : scanner) System.out.println(token);  // NUMBER, SEMICOLON, EOF
+ */
+class Scanner implements Iterable<Token> {
+    // The chars the eager core holds at a time; the window only grows for a longer lexeme.
+    private static final int WINDOW_CHARS = 8192;
+
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final ErrorSink errors;
+    // Whether source holds wrapped UTF-8 bytes rather than chars.
+    private final boolean utf8;
+
+    // Created by whichever mode runs first: sized for the whole source when scanning eagerly,
+    // and one slot that is emptied after every token when pulling.
+    private TokenBuffer tokens = null;
+    private final int capacity;
+    private boolean pulling = false;
+    private boolean pulledEof = false;
+    // Whether pulled STRING tokens share their text through the SymbolTable, as eager ones do.
+    private boolean internStrings = false;
+
+    // scanning starts and stops here; the whole source unless the scanner was given a range
+    private final int offset;
+    private final int end;
 
     // points to the first character of the current lexeme being scanned
     private int start = 0;
@@ -20,43 +68,363 @@ class Scanner {
     // tracks what source line we're on
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-    }
+    // Slot 0 is line 1's start, 0, so a whole-source scan hands the array to its LineIndex
+    // as is. From slot 1 on: the offsets where the lines after the first scanned one start.
+    // Allocated at the first newline, and never when pulling.
+    private int[] lineStarts = null;
+    private int lineStartCount = 1;
+
+    // The next '\n', comment opening and comment closing at or after some earlier position,
+    // or Integer.MAX_VALUE if there is none. See nextNewline().
+    private int nextNewline = -1;
+    private int nextCommentOpen = -1;
+    private int nextCommentClose = -1;
 
     Scanner(String source) {
+        this(source, Lox.errorSink());
+    }
+
+    /**
+     * Creates a scanner that reports lexical errors to the given sink.
+     */
+    Scanner(String source, ErrorSink errors) {
+        // A rough guess of one token every few characters keeps regrowth rare.
+        this(source, 0, source.length(), 1, source.length() / 4 + 16, errors);
+    }
+
+    /**
+     * Creates a scanner that starts in the middle of the source, at an offset where a lexeme
+     * begins and the given line is current. Used to re-lex part of a file.
+     */
+    Scanner(String source, int offset, int line) {
+        this(source, offset, line, Lox.errorSink());
+    }
+
+    Scanner(String source, int offset, int line, ErrorSink errors) {
+        // Re-lexing usually stops after a few tokens, so start with a small buffer.
+        this(source, offset, source.length(), line, 16, errors);
+    }
+
+    /**
+     * Creates a scanner for the range [offset, end) of the source only. The range must start
+     * and end between lexemes; the ParallelScanner uses this to lex chunks independently.
+     */
+    Scanner(String source, int offset, int end, int line) {
+        this(source, offset, end, line, Lox.errorSink());
+    }
+
+    Scanner(String source, int offset, int end, int line, ErrorSink errors) {
+        this(source, offset, end, line, (end - offset) / 4 + 16, errors);
+    }
+
+    private Scanner(String source, int offset, int end, int line, int capacity, ErrorSink errors) {
+        this(source, offset, end, line, capacity, errors, false);
+    }
+
+    private Scanner(String source, int offset, int end, int line, int capacity, ErrorSink errors,
+                    boolean utf8) {
         this.source = source;
+        this.errors = errors;
+        this.utf8 = utf8;
+        this.capacity = capacity;
+        this.offset = offset;
+        this.start = offset;
+        this.current = offset;
+        this.end = end;
+        this.line = line;
+    }
+
+    /**
+     * Creates a scanner over UTF-8 source bytes that were wrapped by Utf8.wrap(). The caller
+     * keeps the wrapped String, for instance to give it to the ErrorSink.
+     */
+    static Scanner utf8(String bytes, ErrorSink errors) {
+        return new Scanner(bytes, 0, bytes.length(), 1, bytes.length() / 4 + 16, errors, true);
     }
 
+    static Scanner utf8(byte[] bytes, ErrorSink errors) {
+        return utf8(Utf8.wrap(bytes), errors);
+    }
+
+    static Scanner utf8(ByteBuffer bytes, ErrorSink errors) {
+        return utf8(Utf8.wrap(bytes), errors);
+    }
+
+    /**
+     * Scans the whole source and returns the tokens as a List, by draining the pull mode.
+     * Every Token is materialized; scanTokenBuffer() is cheaper when the caller can use it.
+     */
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
-            // We are at the beginning of the next lexeme.
+        // The list grows with the source anyway, so equal string literals may share their text.
+        internStrings = true;
+        List<Token> tokens = new ArrayList<>();
+        for (Token token : this) tokens.add(token);
+        return tokens;
+    }
+
+    /**
+     * Scans the whole source into a columnar TokenBuffer without allocating per-token objects.
+     */
+    TokenBuffer scanTokenBuffer() {
+        TokenBuffer tokens = tokens();
+        scanAll();
+
+        tokens.add(EOF, current, 0, line);
+        // Only a scan of the whole source from line 1 saw every line start.
+        if (offset == 0 && end == source.length() && line == lineStartCount) {
+            tokens.setLineIndex(new LineIndex(lineStarts == null ? new int[1] : lineStarts, lineStartCount));
+        }
+        errors.flush();
+        return tokens;
+    }
+
+    /**
+     * The eager lexer core: scans the rest of the range with the tables of CharClass.
+     *
+     * It reads the source through a window, a small char array reused for the whole scan with
+     * one extra '\0' after the chars it holds, which is of class OTHER. Identifiers, numbers,
+     * blanks and the char after an operator are read until a char of another class, and the
+     * sentinel is one, so those loops never compare against the end. The end of the window is
+     * only checked once per lexeme: before it, to keep the next two chars in the window, and
+     * after an identifier or number, which is read again from a new window if the sentinel
+     * cut it short. Strings and comments are skipped on the source as in scanToken(), so the
+     * window skips them too.
+     *
+     * Pull mode and re-lexing use scanToken() instead, one token at a time.
+     */
+    private void scanAll() {
+        char[] text = new char[WINDOW_CHARS + 1];
+        int base = current;
+        int limit = fill(text, base);
+        int i = 0;
+        for (;;) {
+            if (i + 1 >= limit && base + limit < end) {
+                base += i;
+                limit = fill(text, base);
+                i = 0;
+            }
+
+            char c = text[i];
+            switch (CharClass.of(c)) {
+                case CharClass.BLANK:
+                    do i++; while (CharClass.of(text[i]) == CharClass.BLANK);
+                    break;
+                case CharClass.NEWLINE:
+                    i++;
+                    newline(base + i);
+                    break;
+                case CharClass.ALPHA: {
+                    int from = i;
+                    do i++; while (CharClass.isIdentifierPart(text[i]));
+                    if (i == limit && base + limit < end) {
+                        // Cut short by the window: read it again from its start.
+                        if (from == 0) text = new char[text.length * 2];
+                        base += from;
+                        limit = fill(text, base);
+                        i = 0;
+                        continue;
+                    }
+                    tokens.add(Keywords.lookup(text, from, i), base + from, i - from, line);
+                    break;
+                }
+                case CharClass.DIGIT: {
+                    int from = i;
+                    do i++; while (CharClass.of(text[i]) == CharClass.DIGIT);
+                    if (text[i] == '.' && CharClass.of(text[i + 1]) == CharClass.DIGIT) {
+                        do i++; while (CharClass.of(text[i]) == CharClass.DIGIT);
+                    }
+                    // The char after the digits decides on a fraction, so it must be real.
+                    if (i + 1 >= limit && base + limit < end) {
+                        if (from == 0) text = new char[text.length * 2];
+                        base += from;
+                        limit = fill(text, base);
+                        i = 0;
+                        continue;
+                    }
+                    tokens.addNumber(base + from, i - from, line, NumberParser.parse(text, from, i));
+                    break;
+                }
+                case CharClass.SINGLE:
+                    tokens.add(CharClass.SINGLE_TOKENS[c], base + i, 1, line);
+                    i++;
+                    break;
+                case CharClass.OPERATOR:
+                    if (text[i + 1] == '=') {
+                        tokens.add(CharClass.WITH_EQUAL[c], base + i, 2, line);
+                        i += 2;
+                    } else {
+                        tokens.add(CharClass.SINGLE_TOKENS[c], base + i, 1, line);
+                        i++;
+                    }
+                    break;
+                case CharClass.SLASH:
+                    start = base + i;
+                    current = start + 2;
+                    if (text[i + 1] == '/') {
+                        // A comment goes until the end of the line, which is left for NEWLINE.
+                        current = Math.min(nextNewline(current), end);
+                    } else if (text[i + 1] == '*') {
+                        blockComment();
+                    } else {
+                        tokens.add(SLASH, start, 1, line);
+                        current = start + 1;
+                    }
+                    i = current - base;
+                    break;
+                case CharClass.QUOTE:
+                    start = base + i;
+                    current = start + 1;
+                    string();
+                    i = current - base;
+                    break;
+                default:
+                    start = base + i;
+                    if (start == end) {
+                        current = end;
+                        return;
+                    }
+                    current = start + 1;
+                    if (utf8 && c >= 0x80) {
+                        nonAscii();
+                    } else {
+                        errors.unexpectedCharacter(line, start, c);
+                    }
+                    i = current - base;
+            }
+        }
+    }
+
+    /**
+     * Copies as much of the source from the given offset as fits into the window, ends it with
+     * the sentinel, and returns how many chars it holds.
+     */
+    private int fill(char[] window, int from) {
+        int count = Math.min(window.length - 1, end - from);
+        source.getChars(from, from + count, window, 0);
+        window[count] = '\0';
+        return count;
+    }
+
+    /**
+     * Scans and returns the next token. At the end of the source that is the EOF token, on
+     * this call and every later one.
+     */
+    Token nextToken() {
+        if (tokens == null) {
+            pulling = true;
+            tokens = new TokenBuffer(source, 1, new SymbolTable(), utf8);
+        }
+        if (!scanNextToken()) {
+            tokens.add(EOF, current, 0, line);
+            if (!pulledEof) {
+                pulledEof = true;
+                errors.flush();
+            }
+        }
+        Token token;
+        if (tokens.type(0) == STRING && !internStrings) {
+            // Names repeat, so interning them is bounded by the vocabulary. String literals
+            // mostly do not, and interning them would grow with the source.
+            int start = tokens.start(0);
+            int length = tokens.length(0);
+            token = new Token(STRING, tokens.text(start, start + length),
+                    tokens.text(start + 1, start + length - 1), tokens.line(0), SymbolTable.NONE, start);
+        } else {
+            token = tokens.token(0);
+        }
+        tokens.truncate(0);
+        return token;
+    }
+
+    /**
+     * Returns an iterator that pulls tokens on demand, up to and including the EOF token.
+     */
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+            private boolean ended = false;
+
+            @Override
+            public boolean hasNext() {
+                return !ended;
+            }
+
+            @Override
+            public Token next() {
+                if (ended) throw new NoSuchElementException();
+                Token token = nextToken();
+                if (token.type == EOF) ended = true;
+                return token;
+            }
+        };
+    }
 
+    @Override
+    public Spliterator<Token> spliterator() {
+        return new Spliterators.AbstractSpliterator<Token>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+            private boolean ended = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Token> action) {
+                if (ended) return false;
+                Token token = nextToken();
+                if (token.type == EOF) ended = true;
+                action.accept(token);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a sequential stream of the tokens, pulled as the stream is consumed.
+     */
+    Stream<Token> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Scans lexemes until one more token has been added to the buffer.
+     * Whitespace and comments in between are skipped; no EOF token is ever added.
+     *
+     * @return true if a token was added, false if the end of the source was reached first
+     */
+    boolean scanNextToken() {
+        int before = tokens().size();
+        while (!isAtEnd()) {
             start = current;
             scanToken();
+            if (tokens.size() > before) return true;
         }
+        return false;
+    }
 
-        tokens.add(new Token(EOF, "", null, line));
+    /**
+     * Returns the buffer this scanner adds tokens to.
+     */
+    TokenBuffer tokens() {
+        if (tokens == null) tokens = new TokenBuffer(source, capacity, new SymbolTable(), utf8);
         return tokens;
     }
+
+    /**
+     * Appends the starts of the lines this scanner entered to the array at the given position.
+     * The ParallelScanner concatenates its chunks' line starts this way.
+     *
+     * @return the number of line starts copied
+     */
+    int copyLineStarts(int[] destination, int position) {
+        if (lineStartCount == 1) return 0;
+        System.arraycopy(lineStarts, 1, destination, position, lineStartCount - 1);
+        return lineStartCount - 1;
+    }
+
+    /**
+     * Returns the line the scanner is currently on.
+     */
+    int line() {
+        return line;
+    }
     /**
      * Checks if the current position is at the end of the source code.
      *
@@ -65,7 +433,7 @@ class Scanner {
      * @return true if the current position is at the end of the source code, false otherwise
      */
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     /**
@@ -119,19 +487,22 @@ class Scanner {
                 addToken(match('=') ? GREATER_EQUAL : GREATER);
                 break;
 
-            // Ignore whitespace
+            // Ignore whitespace, a whole run of it at once.
             case ' ':
             case '\r':
             case '\t':
+                skipBlanks();
                 break;
 
             case '\n':
-                line++;
+                newline(current);
                 break;
             case '/':
                 if (match('/')) {
-                    // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    // A comment goes until the end of the line, which is left for the '\n' case.
+                    current = Math.min(nextNewline(current), end);
+                } else if (match('*')) {
+                    blockComment();
                 } else {
                     addToken(SLASH);
                 }
@@ -146,14 +517,65 @@ class Scanner {
                     number();
                 } else if (isAlpha(c)) {
                     identifier();
+                } else if (utf8 && c >= 0x80) {
+                    nonAscii();
                 } else {
                     // If we reach here, it means we encountered an unexpected character.
                     // We report an error and continue scanning.
-                    Lox.error(line, "Unexpected character: '" + c + "'.");
+                    errors.unexpectedCharacter(line, start, c);
                 }
         }
     }
 
+    /**
+     * Reports the UTF-8 sequence that starts at a byte of 0x80 or above outside of a string,
+     * the same way the scanner reports its chars in decoded text: each UTF-16 unit is an
+     * unexpected character. A malformed sequence is reported as invalid UTF-8 instead.
+     */
+    private void nonAscii() {
+        int length = Utf8.sequence(source, start, end);
+        if (length < 0) {
+            current = start - length;
+            errors.invalidUtf8(line, start, -length, Utf8.describe(source, start, current));
+            return;
+        }
+
+        current = start + length;
+        int codePoint = Utf8.codePoint(source, start, length);
+        if (Character.isBmpCodePoint(codePoint)) {
+            errors.unexpectedCharacter(line, start, length, (char) codePoint);
+        } else {
+            // Four bytes decode to a surrogate pair; each half gets two of them.
+            errors.unexpectedCharacter(line, start, 2, Character.highSurrogate(codePoint));
+            errors.unexpectedCharacter(line, start + 2, 2, Character.lowSurrogate(codePoint));
+        }
+    }
+
+    /**
+     * Reports every malformed UTF-8 sequence in [from, to) of a string literal. Well-formed ones
+     * are left to be decoded with the literal.
+     */
+    private void checkUtf8(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) < 0x80) continue;
+            int length = Utf8.sequence(source, i, to);
+            if (length < 0) {
+                errors.invalidUtf8(lineAt(i), i, -length, Utf8.describe(source, i, i - length));
+                length = -length;
+            }
+            i += length - 1;
+        }
+    }
+
+    /**
+     * Returns the line of an offset in the string being scanned, which starts on line.
+     */
+    private int lineAt(int offset) {
+        int at = line;
+        for (int i = source.indexOf('\n', start); i >= 0 && i < offset; i = source.indexOf('\n', i + 1)) at++;
+        return at;
+    }
+
     /**
      * Scans the next character in the source code that follows the criteria for an identifier.
      * An identifier starts with an alphabetic character (a-z, A-Z) or an underscore ('_'),
@@ -161,13 +583,9 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) {
-            type = IDENTIFIER;
-        }
-
-        addToken(type);
+        // Keywords are recognized in place, so plain identifiers cost no allocation here. The
+        // TokenBuffer interns the name when a later stage first asks for it.
+        addToken(Keywords.lookup(source, start, current));
     }
     /**
      * Checks if the given character is an alphabetic character (a-z, A-Z) or an underscore ('_').
@@ -211,7 +629,8 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        // NumberParser reads the digits in place and matches Double.parseDouble exactly.
+        tokens.addNumber(start, current - start, line, NumberParser.parse(source, start, current));
     }
 
     /**
@@ -267,7 +686,7 @@ class Scanner {
      * @return the character at the next position, or '\0' if at the end of the source
      */
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -299,35 +718,104 @@ class Scanner {
     }
 
     /**
-     * Grabs the text of the current lexeme and creates a token of the given type.
+     * Skips a block comment whose opening has been consumed. Block comments nest, so the
+     * comment ends at the closing that matches its opening, not at the first one.
      */
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    private void blockComment() {
+        int depth = 1;
+        while (depth > 0) {
+            int open = nextCommentOpen(current);
+            int close = nextCommentClose(current);
+            int next = Math.min(open, close);
+            if (next >= end) {
+                skipTo(end);
+                errors.unterminatedComment(line, start, current - start);
+                return;
+            }
+
+            skipTo(next + 2);
+            depth += next == open ? 1 : -1;
+        }
+    }
+
+    private void skipBlanks() {
+        while (current < end) {
+            char c = source.charAt(current);
+            if (c != ' ' && c != '\t' && c != '\r') break;
+            current++;
+        }
     }
 
     /**
-     * Grabs the text of the current lexeme and creates a token of the given type.
-     * Also takes a literal value to associate with the token.
+     * Moves current forward to target, counting the lines in between.
      */
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void skipTo(int target) {
+        for (int at = nextNewline(current); at < target; at = nextNewline(at + 1)) {
+            newline(at + 1);
+        }
+        current = target;
     }
 
-    private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            advance();
+    // Comments and string bodies are skipped with String.indexOf, which the JIT compiles to
+    // a vectorized search. A search can run far past the comment or string it was made for,
+    // so each result is kept and reused until the scanner passes it; every char is searched
+    // at most once per pattern, even for a long line full of short comments.
+
+    private int nextNewline(int from) {
+        if (nextNewline < from) nextNewline = find(source.indexOf('\n', from));
+        return nextNewline;
+    }
+
+    private int nextCommentOpen(int from) {
+        if (nextCommentOpen < from) nextCommentOpen = find(source.indexOf("/*", from));
+        return nextCommentOpen;
+    }
+
+    private int nextCommentClose(int from) {
+        if (nextCommentClose < from) nextCommentClose = find(source.indexOf("*/", from));
+        return nextCommentClose;
+    }
+
+    private static int find(int index) {
+        return index < 0 ? Integer.MAX_VALUE : index;
+    }
+
+    /**
+     * Moves to the next line, which starts at the given offset.
+     */
+    private void newline(int lineStart) {
+        line++;
+        if (pulling) return;
+        if (lineStarts == null) {
+            // A guess of one line per 32 chars; the array is handed over, so it is not trimmed.
+            lineStarts = new int[(end - offset) / 32 + 16];
+        } else if (lineStartCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStartCount * 2);
         }
+        lineStarts[lineStartCount++] = lineStart;
+    }
 
-        if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+    /**
+     * Records the current lexeme as a token of the given type.
+     * The lexeme text is not copied; the TokenBuffer materializes it on demand.
+     */
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current - start, line);
+    }
+
+    private void string() {
+        int close = source.indexOf('"', current);
+        if (close < 0 || close >= end) {
+            skipTo(end);
+            errors.unterminatedString(line, start, current - start);
             return;
         }
 
-        advance();
+        if (utf8) checkUtf8(current, close);
+        skipTo(close + 1);
 
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        // The literal value is the text between the quotes, which the TokenBuffer derives
+        // from the lexeme span and interns when it is needed.
+        addToken(STRING);
     }
 }
\ No newline at end of file
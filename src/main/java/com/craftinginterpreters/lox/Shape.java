@@ -0,0 +1,81 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of an instance's fields: which slot of its Object[] holds each field.
+ *
+ * Every class has a root shape with no fields. Adding a field moves an instance to the shape
+ * with that field appended, and each shape keeps those transitions, so instances of a class
+ * that get their fields in the same order, as instances set up by the same init do, share
+ * one shape. Shapes never change once made, and since the root belongs to one class a shape
+ * also tells which class its instances are of. That makes a shape a key that inline caches
+ * can compare by identity to know both where a field is and which method a name means.
+ *
+ * Example:
+ *   Shape root = new Shape();
+ *   Shape point = root.with("x").with("y");
+ *   point.slot("y");                       // 1
+ *   root.with("x").with("y") == point;     // true
+ */
+final class Shape {
+    // Past this many fields, slot() uses a map instead of scanning the names.
+    private static final int SCAN_LIMIT = 8;
+
+    private final String[] names;
+    private final Map<String, Integer> index;
+    private Map<String, Shape> transitions = null;
+
+    Shape() {
+        this(new String[0]);
+    }
+
+    private Shape(String[] names) {
+        this.names = names;
+        if (names.length > SCAN_LIMIT) {
+            index = new HashMap<>();
+            for (int i = 0; i < names.length; i++) index.put(names[i], i);
+        } else {
+            index = null;
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Returns the slot of the field, or -1 if instances of this shape do not have it.
+     */
+    int slot(String name) {
+        if (index != null) {
+            Integer slot = index.get(name);
+            return slot == null ? -1 : slot;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the shape with the new field added in the next slot.
+     */
+    Shape with(String name) {
+        if (transitions == null) transitions = new HashMap<>();
+        Shape next = transitions.get(name);
+        if (next == null) {
+            String[] grown = Arrays.copyOf(names, names.length + 1);
+            grown[names.length] = name;
+            next = new Shape(grown);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,284 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Built-in instrumentation of the Lox pipeline: time, runs and allocated bytes per phase,
+ * token counts by TokenType, source bytes scanned, error counts, and the hits and misses of
+ * the inline caches of property accesses and method calls.
+ *
+ * Collection is off until enable() is called, which --stats does. Instrumentation points are
+ * per phase, never per token, so the disabled cost is a field check plus a PhaseEvent, once
+ * per phase of each run. Token counts are taken from the finished TokenBuffer, and only when
+ * enabled, so the scanner's loop is untouched.
+ *
+ * Counters are atomic so the JMX thread can read them while a program runs. Allocation is
+ * measured with the HotSpot per-thread allocation counter when the JVM has one. Source size
+ * is counted in chars, which is the byte count for ASCII scripts.
+ *
+ * Example:
+ *   Stats.Timer timer = Stats.start(Stats.Phase.PARSE);
+ *   List<Stmt> statements = parser.parse();
+ *   timer.stop();
+ */
+final class Stats {
+    enum Phase {
+        SCAN, PARSE, RESOLVE, COMPILE, EXECUTE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private static volatile boolean enabled = false;
+    private static com.sun.management.ThreadMXBean allocation = null;
+
+    private static final AtomicLongArray phaseNanos = new AtomicLongArray(PHASES.length);
+    private static final AtomicLongArray phaseRuns = new AtomicLongArray(PHASES.length);
+    private static final AtomicLongArray phaseAllocated = new AtomicLongArray(PHASES.length);
+    private static final AtomicLongArray tokenCounts = new AtomicLongArray(TYPES.length);
+    private static final AtomicLong sourceBytes = new AtomicLong();
+    private static final AtomicLong errors = new AtomicLong();
+    private static final AtomicLong runtimeErrors = new AtomicLong();
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+
+    private Stats() {}
+
+    /**
+     * Turns collection on and registers the MBean.
+     */
+    static synchronized void enable() {
+        if (enabled) return;
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported()) {
+                hotspot.setThreadAllocatedMemoryEnabled(true);
+                allocation = hotspot;
+            }
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(),
+                    new ObjectName("com.craftinginterpreters.lox:type=Stats"));
+        } catch (JMException e) {
+            // Already registered, e.g. by an earlier class loader; the counters still work.
+        }
+        enabled = true;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a phase. The returned timer must be stopped once, on the same thread.
+     */
+    static Timer start(Phase phase) {
+        return new Timer(phase);
+    }
+
+    static void error() {
+        if (enabled) errors.incrementAndGet();
+    }
+
+    static void runtimeError() {
+        if (enabled) runtimeErrors.incrementAndGet();
+    }
+
+    /**
+     * Adds the inline cache hits and misses of one run, which the runtime counts itself.
+     */
+    static void inlineCaches(long hits, long misses) {
+        if (!enabled) return;
+        cacheHits.addAndGet(hits);
+        cacheMisses.addAndGet(misses);
+    }
+
+    static void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos.set(i, 0);
+            phaseRuns.set(i, 0);
+            phaseAllocated.set(i, 0);
+        }
+        for (int i = 0; i < TYPES.length; i++) tokenCounts.set(i, 0);
+        sourceBytes.set(0);
+        errors.set(0);
+        runtimeErrors.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+    }
+
+    /**
+     * Prints a summary table of everything collected so far.
+     */
+    static void print(PrintStream out) {
+        out.println("phase        runs     time ms   alloc KB");
+        for (Phase phase : PHASES) {
+            int i = phase.ordinal();
+            if (phaseRuns.get(i) == 0) continue;
+            out.printf(Locale.ROOT, "%-10s %6d %11.3f %10s%n", phase.name().toLowerCase(Locale.ROOT),
+                    phaseRuns.get(i), phaseNanos.get(i) / 1e6,
+                    allocation == null ? "n/a" : Long.toString(phaseAllocated.get(i) / 1024));
+        }
+
+        long scanNanos = phaseNanos.get(Phase.SCAN.ordinal());
+        out.printf(Locale.ROOT, "scanned %d bytes into %d tokens (%.2f MB/s)%n", sourceBytes.get(),
+                tokenCount(), scanNanos == 0 ? 0.0 : sourceBytes.get() * 1e3 / scanNanos);
+
+        StringBuilder types = new StringBuilder("tokens:");
+        for (TokenType type : TYPES) {
+            long count = tokenCounts.get(type.ordinal());
+            if (count != 0) types.append(' ').append(type).append('=').append(count);
+        }
+        out.println(types);
+        long hits = cacheHits.get();
+        long lookups = hits + cacheMisses.get();
+        out.printf(Locale.ROOT, "inline caches: %d hits, %d misses (%.1f%% hit rate)%n", hits,
+                cacheMisses.get(), lookups == 0 ? 0.0 : hits * 100.0 / lookups);
+        out.println("errors: " + errors.get() + " compile, " + runtimeErrors.get() + " runtime");
+    }
+
+    private static long tokenCount() {
+        long total = 0;
+        for (int i = 0; i < TYPES.length; i++) total += tokenCounts.get(i);
+        return total;
+    }
+
+    private static long allocatedBytes() {
+        return allocation == null ? 0 : allocation.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Times one run of a phase, both for the counters and as a JFR PhaseEvent.
+     */
+    static final class Timer {
+        private final Phase phase;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long startNanos;
+        private final long startAllocated;
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            event.begin();
+            if (enabled) {
+                startNanos = System.nanoTime();
+                startAllocated = allocatedBytes();
+            } else {
+                startNanos = 0;
+                startAllocated = 0;
+            }
+        }
+
+        void stop() {
+            record(0, 0);
+        }
+
+        /**
+         * Stops a SCAN timer, also counting the scanned source and its tokens by type.
+         */
+        void stop(TokenBuffer tokens) {
+            record(tokens.source().length(), tokens.size());
+            if (!enabled) return;
+
+            sourceBytes.addAndGet(tokens.source().length());
+            int[] counts = new int[TYPES.length];
+            for (int i = 0; i < tokens.size(); i++) counts[tokens.type(i).ordinal()]++;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) tokenCounts.addAndGet(i, counts[i]);
+            }
+        }
+
+        private void record(long bytes, long tokenCount) {
+            if (enabled) {
+                int i = phase.ordinal();
+                phaseNanos.addAndGet(i, System.nanoTime() - startNanos);
+                phaseAllocated.addAndGet(i, allocatedBytes() - startAllocated);
+                phaseRuns.incrementAndGet(i);
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.name().toLowerCase(Locale.ROOT);
+                event.sourceBytes = bytes;
+                event.tokens = tokenCount;
+                event.commit();
+            }
+        }
+    }
+
+    private static final class MXBean implements LoxStatsMXBean {
+        @Override
+        public Map<String, Long> getPhaseNanos() {
+            return byPhase(phaseNanos);
+        }
+
+        @Override
+        public Map<String, Long> getPhaseRuns() {
+            return byPhase(phaseRuns);
+        }
+
+        @Override
+        public Map<String, Long> getPhaseAllocatedBytes() {
+            return byPhase(phaseAllocated);
+        }
+
+        @Override
+        public Map<String, Long> getTokenCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (TokenType type : TYPES) counts.put(type.name(), tokenCounts.get(type.ordinal()));
+            return counts;
+        }
+
+        @Override
+        public long getTokenCount() {
+            return tokenCount();
+        }
+
+        @Override
+        public long getSourceBytes() {
+            return sourceBytes.get();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        @Override
+        public long getRuntimeErrorCount() {
+            return runtimeErrors.get();
+        }
+
+        @Override
+        public long getInlineCacheHits() {
+            return cacheHits.get();
+        }
+
+        @Override
+        public long getInlineCacheMisses() {
+            return cacheMisses.get();
+        }
+
+        @Override
+        public void reset() {
+            Stats.reset();
+        }
+
+        private static Map<String, Long> byPhase(AtomicLongArray values) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Phase phase : PHASES) map.put(phase.name().toLowerCase(Locale.ROOT), values.get(phase.ordinal()));
+            return map;
+        }
+    }
+}
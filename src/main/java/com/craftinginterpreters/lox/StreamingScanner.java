@@ -0,0 +1,517 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * A Scanner that works over a byte stream instead of a String, so files much larger than the
+ * heap can be tokenized in constant memory.
+ *
+ * Bytes come either from memory-mapped windows of a FileChannel or from a chunked read of any
+ * other channel. They are decoded as UTF-8 incrementally into a small sliding char window.
+ * Only the lexeme currently being scanned is kept in the window: when the cursor reaches the
+ * end of the decoded chars, everything before the lexeme start is discarded and more input is
+ * decoded. A token, string or comment that crosses a chunk boundary is therefore handled the
+ * same as one that does not; the window only grows if a single lexeme is larger than it.
+ *
+ * Tokens are handed to a consumer as soon as they are complete rather than collected. Names
+ * and string literals are interned, so consumers that keep tokens hold one String per distinct
+ * name; the symbol table grows with the number of distinct names, not with the input.
+ *
+ * Errors go to the ErrorSink the scan is given, or to Lox's default sink. Their offsets are
+ * absolute char offsets into the decoded input, counted from the window's base, so they match
+ * what the Scanner reports for the same text in a String; past 2^31 chars they are -1.
+ *
+ * Example:
+ *   StreamingScanner.scanFile(Paths.get("big.lox"), token -> System.out.println(token));
+ */
+class StreamingScanner {
+    static final int DEFAULT_WINDOW_CHARS = 64 * 1024;
+    static final int DEFAULT_CHUNK_BYTES = 16 * 1024 * 1024;
+
+    private final ChunkSource input;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final Consumer<Token> sink;
+    private final ErrorSink errors;
+    private final SymbolTable symbols = new SymbolTable();
+
+    // The decoded chars; only [0, limit) is valid. window[0] is char `base` of the input.
+    private char[] window;
+    private int limit = 0;
+    private long base = 0;
+
+    // Both cursors index into the window, not into the whole input.
+    private int start = 0;
+    private int current = 0;
+
+    private int line = 1;
+
+    // The current chunk of undecoded bytes, or null before the first read.
+    private ByteBuffer bytes;
+    private boolean needInput = true;
+    private boolean inputExhausted = false;
+    private boolean decoderFlushed = false;
+
+    private StreamingScanner(ChunkSource input, int windowChars, ErrorSink errors, Consumer<Token> sink) {
+        this.input = input;
+        this.window = new char[Math.max(windowChars, 16)];
+        this.errors = errors;
+        this.sink = sink;
+    }
+
+    /**
+     * Tokenizes a file by memory-mapping it one chunk at a time.
+     */
+    static void scanFile(Path path, Consumer<Token> sink) throws IOException {
+        scanFile(path, DEFAULT_CHUNK_BYTES, DEFAULT_WINDOW_CHARS, Lox.errorSink(), sink);
+    }
+
+    static void scanFile(Path path, ErrorSink errors, Consumer<Token> sink) throws IOException {
+        scanFile(path, DEFAULT_CHUNK_BYTES, DEFAULT_WINDOW_CHARS, errors, sink);
+    }
+
+    static void scanFile(Path path, int chunkBytes, int windowChars,
+                         Consumer<Token> sink) throws IOException {
+        scanFile(path, chunkBytes, windowChars, Lox.errorSink(), sink);
+    }
+
+    static void scanFile(Path path, int chunkBytes, int windowChars, ErrorSink errors,
+                         Consumer<Token> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            new StreamingScanner(new MappedChunks(channel, chunkBytes), windowChars, errors, sink).scan();
+        }
+    }
+
+    /**
+     * Tokenizes everything readable from the channel, reading chunkBytes at a time.
+     * The channel is not closed.
+     */
+    static void scanChannel(ReadableByteChannel channel, int chunkBytes, int windowChars,
+                            Consumer<Token> sink) throws IOException {
+        scanChannel(channel, chunkBytes, windowChars, Lox.errorSink(), sink);
+    }
+
+    static void scanChannel(ReadableByteChannel channel, int chunkBytes, int windowChars,
+                            ErrorSink errors, Consumer<Token> sink) throws IOException {
+        new StreamingScanner(new ReadChunks(channel, chunkBytes), windowChars, errors, sink).scan();
+    }
+
+    private void scan() throws IOException {
+        while (!isAtEnd()) {
+            // We are at the beginning of the next lexeme.
+
+            start = current;
+            scanToken();
+        }
+
+        sink.accept(new Token(EOF, "", null, line));
+        errors.flush();
+    }
+
+    private void scanToken() throws IOException {
+        char c = advance();
+        switch (c) {
+            case '(':
+                addToken(LEFT_PAREN);
+                break;
+            case ')':
+                addToken(RIGHT_PAREN);
+                break;
+            case '{':
+                addToken(LEFT_BRACE);
+                break;
+            case '}':
+                addToken(RIGHT_BRACE);
+                break;
+            case ',':
+                addToken(COMMA);
+                break;
+            case '.':
+                addToken(DOT);
+                break;
+            case '-':
+                addToken(MINUS);
+                break;
+            case '+':
+                addToken(PLUS);
+                break;
+            case ';':
+                addToken(SEMICOLON);
+                break;
+            case '*':
+                addToken(STAR);
+                break;
+            case '!':
+                addToken(match('=') ? BANG_EQUAL : BANG);
+                break;
+            case '=':
+                addToken(match('=') ? EQUAL_EQUAL : EQUAL);
+                break;
+            case '<':
+                addToken(match('=') ? LESS_EQUAL : LESS);
+                break;
+            case '>':
+                addToken(match('=') ? GREATER_EQUAL : GREATER);
+                break;
+
+            // Ignore whitespace
+            case ' ':
+            case '\r':
+            case '\t':
+                break;
+
+            case '\n':
+                line++;
+                break;
+            case '/':
+                if (match('/')) {
+                    lineComment();
+                } else if (match('*')) {
+                    blockComment();
+                } else {
+                    addToken(SLASH);
+                }
+                break;
+            case '"':
+                string();
+                break;
+
+            default:
+                if (isDigit(c)) {
+                    number();
+                } else if (isAlpha(c)) {
+                    identifier();
+                } else {
+                    errors.unexpectedCharacter(line, offset(base + start), c);
+                }
+        }
+    }
+
+    private void identifier() throws IOException {
+        while (isAlphaNumeric(peek())) advance();
+
+        TokenType type = Keywords.lookup(window, start, current);
+        if (type == IDENTIFIER) {
+            int symbol = symbols.intern(window, start, current);
+            sink.accept(new Token(IDENTIFIER, symbols.name(symbol), null, line, symbol));
+        } else {
+            addToken(type);
+        }
+    }
+
+    private void number() throws IOException {
+        while (isDigit(peek())) advance();
+
+        // Look for a fractional part.
+        if (peek() == '.' && isDigit(peekNext())) {
+            // Consume the '.'
+            advance();
+            while (isDigit(peek())) advance();
+        }
+
+        sink.accept(new Token(NUMBER, lexeme(), NumberParser.parse(window, start, current), line));
+    }
+
+    // Comments and string bodies are skipped with tight loops over the decoded window, which
+    // is only refilled when a loop runs off its end.
+
+    /**
+     * Skips a comment up to the end of the line. Nothing of it needs to be kept, so the
+     * window drops it as we go.
+     */
+    private void lineComment() throws IOException {
+        do {
+            int i = current;
+            while (i < limit && window[i] != '\n') i++;
+            current = i;
+            start = current;
+        } while (current == limit && fill());
+    }
+
+    /**
+     * Skips a block comment whose opening has been consumed, up to the closing that matches
+     * it; block comments nest.
+     */
+    private void blockComment() throws IOException {
+        // The comment leaves the window as it is skipped, so its start is kept as an offset.
+        long opened = base + start;
+        int depth = 1;
+        while (true) {
+            // Both chars of a delimiter must be in the window, so stop one short of its end.
+            int i = current;
+            while (i + 1 < limit) {
+                char c = window[i];
+                if (c == '\n') {
+                    line++;
+                    i++;
+                } else if (c == '/' && window[i + 1] == '*') {
+                    depth++;
+                    i += 2;
+                } else if (c == '*' && window[i + 1] == '/') {
+                    i += 2;
+                    if (--depth == 0) break;
+                } else {
+                    i++;
+                }
+            }
+            current = i;
+            start = current;
+            if (depth == 0) return;
+
+            if (!fill()) {
+                if (current < limit && window[current] == '\n') line++;
+                current = limit;
+                start = current;
+                errors.unterminatedComment(line, offset(opened), length(opened));
+                return;
+            }
+        }
+    }
+
+    private void string() throws IOException {
+        do {
+            int i = current;
+            while (i < limit && window[i] != '"') {
+                if (window[i] == '\n') line++;
+                i++;
+            }
+            current = i;
+        } while (current == limit && fill());
+
+        if (isAtEnd()) {
+            errors.unterminatedString(line, offset(base + start), length(base + start));
+            return;
+        }
+
+        advance();
+
+        int symbol = symbols.intern(window, start + 1, current - 1);
+        sink.accept(new Token(STRING, lexeme(), symbols.name(symbol), line, symbol));
+    }
+
+    /**
+     * Returns an absolute char offset as the int ErrorSink takes, or -1 if it does not fit.
+     */
+    private static int offset(long absolute) {
+        return absolute <= Integer.MAX_VALUE ? (int) absolute : -1;
+    }
+
+    /**
+     * Returns the length from an absolute offset to the cursor, capped to fit an int.
+     */
+    private int length(long from) {
+        return (int) Math.min(base + current - from, Integer.MAX_VALUE);
+    }
+
+    private void addToken(TokenType type) {
+        sink.accept(new Token(type, lexeme(), null, line));
+    }
+
+    private String lexeme() {
+        return new String(window, start, current - start);
+    }
+
+    private boolean isAtEnd() throws IOException {
+        return current >= limit && !fill();
+    }
+
+    private boolean match(char expected) throws IOException {
+        if (isAtEnd()) return false;
+        if (window[current] != expected) return false;
+
+        current++;
+        return true;
+    }
+
+    private char peek() throws IOException {
+        if (isAtEnd()) return '\0';
+        return window[current];
+    }
+
+    private char peekNext() throws IOException {
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return window[current + 1];
+    }
+
+    private char advance() throws IOException {
+        if (current >= limit) fill();
+        return window[current++];
+    }
+
+    private boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private boolean isAlphaNumeric(char c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Decodes more chars into the window, keeping the current lexeme.
+     *
+     * Chars before `start` are discarded by sliding the lexeme to the front of the window, and
+     * the window doubles only when the lexeme alone fills it.
+     *
+     * @return true if at least one more char is available, false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if (decoderFlushed) return false;
+
+        if (start > 0) {
+            System.arraycopy(window, start, window, 0, limit - start);
+            base += start;
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+        if (limit == window.length) {
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+
+        int before = limit;
+        while (limit == before && !decoderFlushed) {
+            CharBuffer out = CharBuffer.wrap(window, limit, window.length - limit);
+            if (needInput && !inputExhausted) {
+                // Any bytes left in the previous chunk are the start of a multi-byte sequence
+                // that was split across chunks; the source carries them over.
+                ByteBuffer next = input.next(bytes);
+                if (next == null) {
+                    inputExhausted = true;
+                } else {
+                    bytes = next;
+                }
+            }
+
+            CoderResult result;
+            if (inputExhausted) {
+                ByteBuffer rest = bytes == null ? ByteBuffer.allocate(0) : bytes;
+                result = decoder.decode(rest, out, true);
+                if (result.isUnderflow()) {
+                    result = decoder.flush(out);
+                    if (result.isUnderflow()) decoderFlushed = true;
+                }
+            } else {
+                result = decoder.decode(bytes, out, false);
+                needInput = result.isUnderflow();
+            }
+            if (result.isError()) {
+                try {
+                    result.throwException();
+                } catch (CharacterCodingException e) {
+                    throw new IOException("Could not decode input as UTF-8.", e);
+                }
+            }
+            limit = out.position();
+            if (result.isOverflow() && limit == before) {
+                // Not even one more char fits, e.g. half of a surrogate pair.
+                window = Arrays.copyOf(window, window.length * 2);
+            }
+        }
+        return limit > before;
+    }
+
+    /**
+     * Supplies the input bytes one chunk at a time.
+     */
+    interface ChunkSource {
+        /**
+         * Returns the next chunk of bytes. Any bytes still remaining in the previous chunk were
+         * not decoded yet and must be the first bytes of the returned chunk.
+         *
+         * @return the next chunk, or null if there are no more bytes
+         */
+        ByteBuffer next(ByteBuffer previous) throws IOException;
+    }
+
+    /**
+     * Maps a file one window at a time, so only the pages being decoded are resident.
+     */
+    static final class MappedChunks implements ChunkSource {
+        private final FileChannel channel;
+        private final long size;
+        private final int chunkBytes;
+        private long mappedStart = 0;
+
+        MappedChunks(FileChannel channel, int chunkBytes) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.chunkBytes = chunkBytes;
+        }
+
+        @Override
+        public ByteBuffer next(ByteBuffer previous) throws IOException {
+            long position = previous == null ? 0 : mappedStart + previous.position();
+            if (position >= size) return null;
+            if (previous != null && previous.hasRemaining() && position + previous.remaining() >= size) {
+                // The leftover bytes are the end of the file; there is nothing to add to them.
+                return null;
+            }
+
+            // Always map past the carried-over bytes, or a chunk smaller than one multi-byte
+            // sequence would never make progress.
+            int leftover = previous == null ? 0 : previous.remaining();
+            long length = Math.min((long) leftover + chunkBytes, size - position);
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            mappedStart = position;
+            return chunk;
+        }
+    }
+
+    /**
+     * Reads a channel into a single reusable buffer.
+     */
+    static final class ReadChunks implements ChunkSource {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        ReadChunks(ReadableByteChannel channel, int chunkBytes) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(Math.max(chunkBytes, 4));
+        }
+
+        @Override
+        public ByteBuffer next(ByteBuffer previous) throws IOException {
+            if (previous == null) {
+                buffer.clear();
+            } else {
+                buffer.compact();
+            }
+            int leftover = buffer.position();
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
+            }
+            buffer.flip();
+
+            if (buffer.remaining() == leftover) {
+                // No new bytes arrived. The leftover stays in the buffer so the caller can
+                // decode it as the end of the input.
+                return null;
+            }
+            return buffer;
+        }
+    }
+}
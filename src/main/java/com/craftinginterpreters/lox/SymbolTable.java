@@ -0,0 +1,142 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifier names and string literal contents for one compilation.
+ *
+ * Each distinct text gets a small int ID, numbered in order of first appearance, and one
+ * canonical String. Lookups hash and compare the characters in place, in the source String or
+ * char window, so a repeated name or literal costs no allocation; its String is created only
+ * the first time the text is seen. Later stages can compare symbols by ID, and every Token for
+ * the same name shares one lexeme instance.
+ *
+ * The table is not thread-safe. Scanners that run in parallel each fill their own, and
+ * TokenBuffer translates IDs when their tokens are merged.
+ *
+ * Example:
+ *   SymbolTable symbols = new SymbolTable();
+ *   symbols.intern("a = a", 0, 1); // 0
+ *   symbols.intern("a = a", 4, 5); // 0 again, no allocation
+ *   symbols.name(0);               // "a", the same instance every time
+ */
+final class SymbolTable {
+    // The symbol ID of tokens that are not names or string literals.
+    static final int NONE = -1;
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    // Open addressing with linear probing. A slot holds ID + 1, or 0 if it is empty.
+    private int[] slots = new int[128];
+
+    /**
+     * Returns the ID of the text in [start, end) of the source, adding it if it is new.
+     */
+    int intern(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = slots.length - 1;
+        for (int index = mix(hash) & mask; ; index = (index + 1) & mask) {
+            int entry = slots[index];
+            if (entry == 0) return add(source.substring(start, end), hash, index);
+
+            int id = entry - 1;
+            if (hashes[id] == hash && names[id].length() == end - start
+                    && source.regionMatches(start, names[id], 0, end - start)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the ID of the text in [start, end) of the char array, adding it if it is new.
+     */
+    int intern(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = slots.length - 1;
+        for (int index = mix(hash) & mask; ; index = (index + 1) & mask) {
+            int entry = slots[index];
+            if (entry == 0) return add(new String(chars, start, end - start), hash, index);
+
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(names[id], chars, start, end)) return id;
+        }
+    }
+
+    /**
+     * Returns the ID of the whole string, adding it if it is new.
+     */
+    int intern(String name) {
+        // substring() of the full range returns the string itself, so this adds no copy.
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the canonical String of a symbol.
+     */
+    String name(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No symbol " + id + " in a table of " + size + ".");
+        }
+        return names[id];
+    }
+
+    /**
+     * Returns how many distinct symbols have been interned. IDs are 0 through size() - 1.
+     */
+    int size() {
+        return size;
+    }
+
+    private int add(String name, int hash, int index) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[index] = id + 1;
+
+        // Keep the load factor at or under one half.
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int index = mix(hashes[id]) & mask;
+            while (slots[index] != 0) index = (index + 1) & mask;
+            slots[index] = id + 1;
+        }
+    }
+
+    private static boolean matches(String name, char[] chars, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the hash's high bits into the low ones used for the slot index, since short
+     * names that differ only in their last character have nearby String-style hashes.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -6,11 +6,30 @@ class Token {
     final Object literal;
     final int line;
 
+    // The interned ID of an IDENTIFIER's name or a STRING's text in the SymbolTable of the
+    // compilation the token came from, or SymbolTable.NONE. Two names from the same
+    // compilation are equal exactly when their symbols are.
+    final int symbol;
+
+    // Where the lexeme starts in the source, or -1 if that is unknown.
+    // The lexeme's length is the span's length; a LineIndex of the source gives the column.
+    final int offset;
+
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, SymbolTable.NONE);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
+        this(type, lexeme, literal, line, symbol, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
+        this.offset = offset;
     }
 
     public String toString() {
@@ -0,0 +1,591 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * A columnar token stream produced by the Scanner.
+ *
+ * Instead of one Token object (plus a lexeme String and a boxed literal) per token, the
+ * buffer keeps parallel primitive arrays: the TokenType ordinal, the start offset and length
+ * of the lexeme in the source, and the line. NUMBER literals live in a packed double[] side
+ * table with one entry per NUMBER token; a NUMBER token's slot in the symbol column holds its
+ * index there. Lexemes and Token objects are only materialized when somebody asks for them.
+ *
+ * Columns are not stored. column(), startLine() and endLine() derive them from the token's
+ * start offset and a LineIndex of the source, which the Scanner hands over when it has seen
+ * every line and which is built on first use otherwise.
+ *
+ * IDENTIFIER and STRING tokens also have a symbol ID in the buffer's SymbolTable: the interned
+ * name, or the interned text between the quotes. It is assigned the first time a token's
+ * symbol, lexeme or literal is read, so scanning itself never hashes; after that, every
+ * occurrence of a name shares one String.
+ *
+ * A buffer over UTF-8 bytes wrapped by Utf8 has byte offsets. Names are ASCII, so only the text
+ * of a STRING token can need decoding, and it is decoded only if it has a non-ASCII byte.
+ *
+ * Example:
+ *   // Suppose source = "var x = 1;"
+ *   buffer.type(0);    // VAR
+ *   buffer.start(1);   // 4
+ *   buffer.lexeme(1);  // "x", allocated on demand
+ *   buffer.number(3);  // 1.0, no boxing
+ *   buffer.column(1);  // 5, from the LineIndex
+ */
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String source;
+
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+
+    // The values of NUMBER tokens, indexed by their slot in symbols. Values of tokens that were
+    // spliced out or truncated stay behind until there are enough of them to compact.
+    private double[] numbers;
+    private int numberCount = 0;
+    private int liveNumbers = 0;
+
+    // Symbol IDs in symbolTable, SymbolTable.NONE for tokens that are not symbols, or
+    // UNRESOLVED for symbols that have not been interned yet. NUMBER tokens keep the index of
+    // their value in numbers here instead.
+    private static final int UNRESOLVED = -2;
+    private int[] symbols;
+    private final SymbolTable symbolTable;
+
+    // Whether source holds wrapped UTF-8 bytes rather than chars.
+    private final boolean utf8;
+
+    private int size = 0;
+
+    // The line starts of source, or null until somebody asks for a column.
+    private LineIndex lineIndex = null;
+
+    // Tokens from shiftFrom on are stored relative to an older version of the source. Their
+    // real start and line are the stored values plus these shifts. Re-lexing an edit only
+    // moves the shift instead of rewriting every token after the edit.
+    private int shiftFrom = Integer.MAX_VALUE;
+    private int offsetShift = 0;
+    private int lineShift = 0;
+
+    TokenBuffer(String source) {
+        this(source, INITIAL_CAPACITY);
+    }
+
+    TokenBuffer(String source, int capacity) {
+        this(source, capacity, new SymbolTable());
+    }
+
+    TokenBuffer(String source, int capacity, SymbolTable symbolTable) {
+        this(source, capacity, symbolTable, false);
+    }
+
+    TokenBuffer(String source, int capacity, SymbolTable symbolTable, boolean utf8) {
+        this.source = source;
+        this.symbolTable = symbolTable;
+        this.utf8 = utf8;
+        int initial = Math.max(capacity, 1);
+        this.types = new int[initial];
+        this.starts = new int[initial];
+        this.lengths = new int[initial];
+        this.lines = new int[initial];
+        this.numbers = new double[8];
+        this.symbols = new int[initial];
+    }
+
+    /**
+     * Creates a buffer that takes ownership of already decoded columns, all of the same length
+     * but numbers, which holds the NUMBER values packed in token order. Symbols are left
+     * unresolved, as after a scan.
+     */
+    static TokenBuffer ofColumns(String source, int[] types, int[] starts, int[] lengths,
+                                 int[] lines, double[] numbers) {
+        TokenBuffer buffer = new TokenBuffer(source, 1);
+        int size = types.length;
+        int[] symbols = new int[size];
+        int number = 0;
+        for (int i = 0; i < size; i++) {
+            int type = types[i];
+            if (type < 0 || type >= TYPES.length) {
+                throw new IllegalArgumentException("Invalid token type " + type + " at " + i + ".");
+            }
+            if (type == NUMBER.ordinal()) {
+                if (number == numbers.length) {
+                    throw new IllegalArgumentException("More NUMBER tokens than values.");
+                }
+                symbols[i] = number++;
+            } else {
+                symbols[i] = type == IDENTIFIER.ordinal() || type == STRING.ordinal()
+                        ? UNRESOLVED : SymbolTable.NONE;
+            }
+        }
+        if (number != numbers.length) {
+            throw new IllegalArgumentException("More values than NUMBER tokens.");
+        }
+
+        buffer.types = types;
+        buffer.starts = starts;
+        buffer.lengths = lengths;
+        buffer.lines = lines;
+        buffer.numbers = numbers;
+        buffer.numberCount = number;
+        buffer.liveNumbers = number;
+        buffer.symbols = symbols;
+        buffer.size = size;
+        return buffer;
+    }
+
+    /**
+     * Appends a token whose lexeme spans [start, start + length) in the source.
+     */
+    void add(TokenType type, int start, int length, int line) {
+        ensureCapacity(size + 1);
+        types[size] = type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        symbols[size] = type == IDENTIFIER || type == STRING ? UNRESOLVED : SymbolTable.NONE;
+        size++;
+    }
+
+    /**
+     * Appends a NUMBER token, storing its value unboxed in the side table.
+     */
+    void addNumber(int start, int length, int line, double value) {
+        ensureCapacity(size + 1);
+        types[size] = NUMBER.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        symbols[size] = addValue(value);
+        size++;
+    }
+
+    /**
+     * Appends a NUMBER value to the side table and returns its index.
+     */
+    private int addValue(double value) {
+        if (numberCount == numbers.length) numbers = Arrays.copyOf(numbers, Math.max(8, numberCount * 2));
+        numbers[numberCount] = value;
+        liveNumbers++;
+        return numberCount++;
+    }
+
+    /**
+     * Appends all tokens of another buffer over the same source. Symbols from another table
+     * are interned into this buffer's table.
+     */
+    void addAll(TokenBuffer other) {
+        if (shiftFrom != Integer.MAX_VALUE) {
+            throw new IllegalStateException("Cannot append to a buffer with a pending shift.");
+        }
+        int count = other.size;
+        ensureCapacity(size + count);
+        copySymbols(other, 0, size, count);
+        if (other.shiftFrom == Integer.MAX_VALUE) {
+            System.arraycopy(other.types, 0, types, size, count);
+            System.arraycopy(other.starts, 0, starts, size, count);
+            System.arraycopy(other.lengths, 0, lengths, size, count);
+            System.arraycopy(other.lines, 0, lines, size, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                types[size + i] = other.types[i];
+                starts[size + i] = other.start(i);
+                lengths[size + i] = other.lengths[i];
+                lines[size + i] = other.line(i);
+            }
+        }
+        size += count;
+    }
+
+    /**
+     * Drops every token from newSize on.
+     */
+    void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Cannot truncate " + size + " tokens to " + newSize + ".");
+        }
+        dropValues(newSize, size);
+        size = newSize;
+        compactValues();
+        if (shiftFrom >= size) {
+            shiftFrom = Integer.MAX_VALUE;
+            offsetShift = 0;
+            lineShift = 0;
+        }
+    }
+
+    /**
+     * Returns the symbol ID of the token at the given index, or SymbolTable.NONE if it is not
+     * an IDENTIFIER or STRING.
+     */
+    int symbol(int index) {
+        int symbol = symbols[checkIndex(index)];
+        if (types[index] == NUMBER.ordinal()) return SymbolTable.NONE;
+        if (symbol != UNRESOLVED) return symbol;
+
+        int start = start(index);
+        int end = start + lengths[index];
+        if (types[index] == STRING.ordinal()) {
+            symbol = isDecoded(start + 1, end - 1)
+                    ? symbolTable.intern(source, start + 1, end - 1)
+                    : symbolTable.intern(Utf8.decode(source, start + 1, end - 1));
+        } else {
+            symbol = symbolTable.intern(source, start, end);
+        }
+        symbols[index] = symbol;
+        return symbol;
+    }
+
+    SymbolTable symbolTable() {
+        return symbolTable;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String source() {
+        return source;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[checkIndex(index)]];
+    }
+
+    int start(int index) {
+        return starts[checkIndex(index)] + (index >= shiftFrom ? offsetShift : 0);
+    }
+
+    int length(int index) {
+        return lengths[checkIndex(index)];
+    }
+
+    /**
+     * Returns the line the token ends on, which is the line errors report. Only a multi-line
+     * string starts on an earlier one.
+     */
+    int line(int index) {
+        return lines[checkIndex(index)] + (index >= shiftFrom ? lineShift : 0);
+    }
+
+    int endLine(int index) {
+        return line(index);
+    }
+
+    /**
+     * Returns the line the token starts on.
+     */
+    int startLine(int index) {
+        int line = line(index);
+        if (types[index] != STRING.ordinal()) return line;
+        return lineIndex().lineOf(start(index));
+    }
+
+    /**
+     * Returns the 1-based column of the token's first char.
+     */
+    int column(int index) {
+        int start = start(index);
+        return lineIndex().column(start, types[index] == STRING.ordinal() ? 0 : line(index));
+    }
+
+    /**
+     * Returns the 1-based column just past the token's last char, on its end line.
+     */
+    int endColumn(int index) {
+        int end = start(index) + lengths[index];
+        return lineIndex().column(end, line(index));
+    }
+
+    /**
+     * Returns the line starts of the current source, building them on first use.
+     */
+    LineIndex lineIndex() {
+        if (lineIndex == null) lineIndex = LineIndex.of(source);
+        return lineIndex;
+    }
+
+    void setLineIndex(LineIndex lineIndex) {
+        this.lineIndex = lineIndex;
+    }
+
+    /**
+     * Brings the line index, if one was built, up to date with an edit that replaced
+     * removedLength chars at offset with the inserted text.
+     */
+    void editLineIndex(int offset, int removedLength, String inserted) {
+        if (lineIndex != null) lineIndex = lineIndex.edit(offset, removedLength, inserted);
+    }
+
+    /**
+     * Returns the value of the NUMBER token at the given index without boxing it.
+     */
+    double number(int index) {
+        if (type(index) != NUMBER) {
+            throw new IllegalStateException("Token " + index + " is not a NUMBER.");
+        }
+        return numbers[symbols[index]];
+    }
+
+    /**
+     * Materializes the lexeme of the token at the given index.
+     */
+    String lexeme(int index) {
+        if (type(index) == IDENTIFIER) return symbolTable.name(symbol(index));
+        int start = start(index);
+        return text(start, start + lengths[index]);
+    }
+
+    /**
+     * Returns [start, end) of the source as text, decoded if the source is wrapped UTF-8.
+     */
+    String text(int start, int end) {
+        return isDecoded(start, end) ? source.substring(start, end) : Utf8.decode(source, start, end);
+    }
+
+    /**
+     * Returns whether [start, end) of the source reads as text without decoding.
+     */
+    private boolean isDecoded(int start, int end) {
+        return !utf8 || Utf8.isAscii(source, start, end);
+    }
+
+    /**
+     * Materializes the literal value of the token at the given index, matching what the
+     * Scanner used to store in Token.literal: a Double for NUMBER, the text between the quotes
+     * for STRING, and null for everything else.
+     */
+    Object literal(int index) {
+        switch (type(index)) {
+            case NUMBER:
+                return numbers[symbols[index]];
+            case STRING: {
+                return symbolTable.name(symbol(index));
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Appends the token at the given index the way Token.toString() renders it, straight from
+     * the source and the number column, so printing a token allocates nothing.
+     */
+    void format(int index, StringBuilder out) {
+        TokenType type = type(index);
+        int start = start(index);
+        int end = start + lengths[index];
+        out.append(type.name()).append(' ');
+        if (type == STRING && !isDecoded(start, end)) {
+            String text = Utf8.decode(source, start, end);
+            out.append(text).append(' ').append(text, 1, text.length() - 1);
+            return;
+        }
+        out.append(source, start, end).append(' ');
+        switch (type) {
+            case NUMBER:
+                out.append(numbers[symbols[index]]);
+                break;
+            case STRING:
+                out.append(source, start + 1, end - 1);
+                break;
+            default:
+                out.append("null");
+        }
+    }
+
+    /**
+     * Materializes the token at the given index as a regular Token object.
+     */
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index), symbol(index),
+                start(index));
+    }
+
+    /**
+     * Returns a read-only List view over the buffer. Tokens are created on each get(),
+     * so callers that hold on to them should keep their own references.
+     */
+    List<Token> asList() {
+        return new TokenListView(this);
+    }
+
+    /**
+     * Replaces the tokens in [from, to) with the tokens of the replacement buffer and switches
+     * to the edited source. Tokens after the replaced range keep their stored values; their
+     * starts and lines are shifted by the given deltas lazily, when they are read.
+     *
+     * The cost is one bulk array move plus the distance between this edit and the previous
+     * one, not a rewrite of every following token. The caller updates the line index with
+     * editLineIndex().
+     */
+    void splice(int from, int to, TokenBuffer replacement, String newSource,
+                int offsetDelta, int lineDelta) {
+        moveShiftTo(from, to);
+        dropValues(from, to);
+
+        int count = replacement.size;
+        int tail = size - to;
+        ensureCapacity(from + count + tail);
+
+        System.arraycopy(types, to, types, from + count, tail);
+        System.arraycopy(starts, to, starts, from + count, tail);
+        System.arraycopy(lengths, to, lengths, from + count, tail);
+        System.arraycopy(lines, to, lines, from + count, tail);
+        System.arraycopy(symbols, to, symbols, from + count, tail);
+        copySymbols(replacement, 0, from, count);
+
+        for (int i = 0; i < count; i++) {
+            types[from + i] = replacement.types[i];
+            starts[from + i] = replacement.start(i);
+            lengths[from + i] = replacement.lengths[i];
+            lines[from + i] = replacement.line(i);
+        }
+
+        size = from + count + tail;
+        source = newSource;
+        shiftFrom = from + count;
+        offsetShift += offsetDelta;
+        lineShift += lineDelta;
+        if (shiftFrom >= size) {
+            shiftFrom = Integer.MAX_VALUE;
+            offsetShift = 0;
+            lineShift = 0;
+        }
+        compactValues();
+    }
+
+    /**
+     * Forgets the NUMBER values of the tokens in [from, to), which are about to be removed.
+     */
+    private void dropValues(int from, int to) {
+        int number = NUMBER.ordinal();
+        for (int i = from; i < to; i++) {
+            if (types[i] == number) liveNumbers--;
+        }
+    }
+
+    /**
+     * Repacks the NUMBER values once the ones of removed tokens outnumber an eighth of the
+     * tokens, so a long editing session neither leaks them nor repacks on every edit.
+     */
+    private void compactValues() {
+        if (numberCount - liveNumbers <= (size >> 3) + 64) return;
+
+        double[] packed = new double[Math.max(8, liveNumbers)];
+        int count = 0;
+        int number = NUMBER.ordinal();
+        for (int i = 0; i < size; i++) {
+            if (types[i] == number) {
+                packed[count] = numbers[symbols[i]];
+                symbols[i] = count++;
+            }
+        }
+        numbers = packed;
+        numberCount = count;
+    }
+
+    /**
+     * Rewrites stored values so the pending shift starts exactly at `to`, ignoring the tokens
+     * in [from, to) since they are about to be replaced.
+     */
+    private void moveShiftTo(int from, int to) {
+        if (shiftFrom == Integer.MAX_VALUE) {
+            shiftFrom = to;
+            return;
+        }
+
+        // Tokens before the edit that carried the shift get it folded in for good.
+        for (int i = shiftFrom; i < from; i++) {
+            starts[i] += offsetShift;
+            lines[i] += lineShift;
+        }
+        // Tokens after the edit that did not carry it are compensated in advance.
+        for (int i = to; i < shiftFrom && i < size; i++) {
+            starts[i] -= offsetShift;
+            lines[i] -= lineShift;
+        }
+        shiftFrom = to;
+    }
+
+    /**
+     * Copies count symbol IDs of another buffer, starting at from, to this buffer's column at
+     * to, translating them into this buffer's table if the other buffer has its own. The
+     * values of NUMBER tokens are appended to this buffer's table.
+     */
+    private void copySymbols(TokenBuffer other, int from, int to, int count) {
+        int number = NUMBER.ordinal();
+        if (other.symbolTable == symbolTable) {
+            System.arraycopy(other.symbols, from, symbols, to, count);
+        } else {
+            translateSymbols(other, from, to, count);
+        }
+        for (int i = 0; i < count; i++) {
+            if (other.types[from + i] == number) {
+                symbols[to + i] = addValue(other.numbers[other.symbols[from + i]]);
+            }
+        }
+    }
+
+    private void translateSymbols(TokenBuffer other, int from, int to, int count) {
+        // Each distinct symbol of the other table is interned here once. Symbols the other
+        // buffer never resolved stay unresolved; they are spans of the same source.
+        int[] translated = new int[other.symbolTable.size()];
+        Arrays.fill(translated, SymbolTable.NONE);
+        int number = NUMBER.ordinal();
+        for (int i = 0; i < count; i++) {
+            int symbol = other.symbols[from + i];
+            if (symbol >= 0 && other.types[from + i] != number) {
+                if (translated[symbol] == SymbolTable.NONE) {
+                    translated[symbol] = symbolTable.intern(other.symbolTable.name(symbol));
+                }
+                symbol = translated[symbol];
+            }
+            symbols[to + i] = symbol;
+        }
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= types.length) return;
+
+        int capacity = Math.max(needed, types.length + (types.length >> 1));
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    private static final class TokenListView extends AbstractList<Token> implements RandomAccess {
+        private final TokenBuffer buffer;
+
+        TokenListView(TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Token get(int index) {
+            return buffer.token(index);
+        }
+
+        @Override
+        public int size() {
+            return buffer.size();
+        }
+    }
+}
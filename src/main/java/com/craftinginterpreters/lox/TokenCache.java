@@ -0,0 +1,305 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * An on-disk cache of scanned token streams, keyed by a hash of the source bytes.
+ *
+ * Each entry is one file holding the TokenBuffer columns in a compact binary form, read back
+ * through a memory-mapped buffer. Symbols are not stored: they are spans of the source, which
+ * the caller has anyway to compute the key, and TokenBuffer interns them lazily as usual.
+ *
+ * File layout, little-endian so the int columns decode with a bulk copy on common hardware:
+ *
+ *   header   magic "LOXT", VERSION, TokenType count, source length in chars, token count,
+ *            NUMBER count, CRC32 of the payload, reserved 0 (eight ints)
+ *   payload  the start, length and line int columns, the NUMBER values as doubles in token
+ *            order, then one type ordinal byte per token
+ *
+ * A file with the wrong magic, version or TokenType count, a mismatched source length, a
+ * short payload or a bad CRC is treated as a miss and deleted. Files are written to a temp
+ * file and moved into place, so concurrent runs never see a partial entry.
+ *
+ * The directory is bounded by maxBytes. After each store the least recently used entries
+ * are deleted until the total fits; a hit refreshes the entry's modification time.
+ *
+ * The cache is best-effort: I/O errors make a load miss or a store do nothing, they never
+ * fail the run.
+ *
+ * Example:
+ *   TokenCache cache = new TokenCache(directory, 64 << 20);
+ *   String key = TokenCache.key(bytes);
+ *   TokenBuffer tokens = cache.load(key, source);
+ *   if (tokens == null) cache.store(key, tokens = new Scanner(source).scanTokenBuffer());
+ */
+final class TokenCache {
+    // Bump when the file layout or the Scanner's output for a given source changes.
+    static final int VERSION = 2;
+
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final int MAGIC = 0x4C4F5854; // "LOXT"
+    private static final int HEADER_BYTES = 8 * Integer.BYTES;
+    private static final String SUFFIX = ".tokens";
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Path directory;
+    private final long maxBytes;
+
+    TokenCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the default cache directory, $LOX_CACHE_DIR or ~/.cache/jlox.
+     */
+    static Path defaultDirectory() {
+        String override = System.getenv("LOX_CACHE_DIR");
+        if (override != null && !override.isEmpty()) return Paths.get(override);
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    /**
+     * Returns the cache key of the given source bytes: a 128-bit content hash in hex.
+     *
+     * The hash is not cryptographic. A local cache faces no adversarial inputs, and a stale
+     * hit would also need the same source length. MessageDigest was tried first, but loading
+     * its provider costs more on a cold JVM than scanning a typical script.
+     */
+    static String key(byte[] sourceBytes) {
+        ByteBuffer words = ByteBuffer.wrap(sourceBytes).order(ByteOrder.LITTLE_ENDIAN);
+        long h1 = 0x9E3779B97F4A7C15L;
+        long h2 = 0xC2B2AE3D27D4EB4FL;
+        int i = 0;
+        for (; i + Long.BYTES <= sourceBytes.length; i += Long.BYTES) {
+            long word = words.getLong(i);
+            h1 = Long.rotateLeft(h1 ^ word * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            h2 = Long.rotateLeft(h2 + word, 27) * 0x9E3779B97F4A7C15L + h1;
+        }
+        for (; i < sourceBytes.length; i++) {
+            h1 = (h1 ^ sourceBytes[i]) * 0x100000001B3L;
+            h2 = Long.rotateLeft(h2 ^ h1, 17);
+        }
+        h1 = mix(h1 ^ sourceBytes.length);
+        h2 = mix(h2 + h1);
+        h1 += h2;
+        return hex(h1) + hex(h2);
+    }
+
+    private static String hex(long value) {
+        String digits = Long.toHexString(value);
+        return "0000000000000000".substring(digits.length()) + digits;
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer, so every input bit affects every output bit.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Returns the cached tokens for the source with the given key, or null on a miss.
+     */
+    TokenBuffer load(String key, String source) {
+        Path file = directory.resolve(key + SUFFIX);
+        TokenBuffer tokens;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            tokens = read(map, source);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            tokens = null;
+        }
+
+        try {
+            if (tokens == null) {
+                Files.deleteIfExists(file);
+            } else {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            // Another run may have evicted or replaced the entry; the result stands.
+        }
+        return tokens;
+    }
+
+    /**
+     * Stores the tokens of the source with the given key, then evicts entries over the limit.
+     */
+    void store(String key, TokenBuffer tokens) {
+        ByteBuffer bytes = write(tokens);
+        if (bytes.capacity() > maxBytes) return;
+
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    while (bytes.hasRemaining()) channel.write(bytes);
+                }
+                Path file = directory.resolve(key + SUFFIX);
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            evict();
+        } catch (IOException e) {
+            // Caching is an optimization; the tokens were scanned fine.
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the directory fits in maxBytes.
+     */
+    void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    Entry entry = new Entry(file, Files.size(file),
+                            Files.getLastModifiedTime(file).toMillis());
+                    entries.add(entry);
+                    total += entry.size;
+                } catch (NoSuchFileException e) {
+                    // Evicted by a concurrent run.
+                }
+            }
+        }
+        if (total <= maxBytes) return;
+
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        for (Entry entry : entries) {
+            if (total <= maxBytes) break;
+            Files.deleteIfExists(entry.file);
+            total -= entry.size;
+        }
+    }
+
+    private static ByteBuffer write(TokenBuffer tokens) {
+        int count = tokens.size();
+        int numberCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (tokens.type(i) == NUMBER) numberCount++;
+        }
+
+        int payload = count * (3 * Integer.BYTES + 1) + numberCount * Double.BYTES;
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES + payload).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.position(HEADER_BYTES);
+        for (int i = 0; i < count; i++) bytes.putInt(tokens.start(i));
+        for (int i = 0; i < count; i++) bytes.putInt(tokens.length(i));
+        for (int i = 0; i < count; i++) bytes.putInt(tokens.line(i));
+        for (int i = 0; i < count; i++) {
+            if (tokens.type(i) == NUMBER) bytes.putDouble(tokens.number(i));
+        }
+        for (int i = 0; i < count; i++) bytes.put((byte) tokens.type(i).ordinal());
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array(), HEADER_BYTES, payload);
+
+        bytes.position(0);
+        bytes.putInt(MAGIC);
+        bytes.putInt(VERSION);
+        bytes.putInt(TYPES.length);
+        bytes.putInt(tokens.source().length());
+        bytes.putInt(count);
+        bytes.putInt(numberCount);
+        bytes.putInt((int) crc.getValue());
+        bytes.putInt(0);
+        bytes.position(0);
+        return bytes;
+    }
+
+    /**
+     * Decodes an entry, or returns null if it is stale or corrupt.
+     */
+    private static TokenBuffer read(ByteBuffer bytes, String source) {
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.remaining() < HEADER_BYTES) return null;
+        if (bytes.getInt() != MAGIC || bytes.getInt() != VERSION || bytes.getInt() != TYPES.length
+                || bytes.getInt() != source.length()) {
+            return null;
+        }
+        int count = bytes.getInt();
+        int numberCount = bytes.getInt();
+        int expectedCrc = bytes.getInt();
+        bytes.getInt();
+
+        long payload = (long) count * (3 * Integer.BYTES + 1) + (long) numberCount * Double.BYTES;
+        if (count < 0 || numberCount < 0 || bytes.remaining() != payload) return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.duplicate());
+        if ((int) crc.getValue() != expectedCrc) return null;
+
+        int[] starts = new int[count];
+        int[] lengths = new int[count];
+        int[] lines = new int[count];
+        double[] numbers = new double[numberCount];
+        bytes.asIntBuffer().get(starts);
+        bytes.position(bytes.position() + count * Integer.BYTES);
+        bytes.asIntBuffer().get(lengths);
+        bytes.position(bytes.position() + count * Integer.BYTES);
+        bytes.asIntBuffer().get(lines);
+        bytes.position(bytes.position() + count * Integer.BYTES);
+        bytes.asDoubleBuffer().get(numbers);
+        bytes.position(bytes.position() + numberCount * Double.BYTES);
+
+        int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            int type = bytes.get();
+            if (starts[i] < 0 || lengths[i] < 0 || starts[i] > source.length() - lengths[i]) return null;
+            types[i] = type;
+        }
+
+        // ofColumns rejects a NUMBER count that does not match the values.
+        try {
+            return TokenBuffer.ofColumns(source, types, starts, lengths, lines, numbers);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        final Path file;
+        final long size;
+        final long lastUsed;
+
+        Entry(Path file, long size, long lastUsed) {
+            this.file = file;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
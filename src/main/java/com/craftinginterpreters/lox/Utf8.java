@@ -0,0 +1,119 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 source bytes, held in a String with one char per byte.
+ *
+ * Wrapping bytes this way is a plain copy into a compact Latin-1 String, with no decoding, and
+ * everything that takes its text from a String (the Scanner, TokenBuffer, Keywords,
+ * NumberParser and the ErrorSink) keeps working on it. Lox's syntax is ASCII and every byte of
+ * a multi-byte UTF-8 sequence is 0x80 or above, so '"', '\n' and the comment delimiters are
+ * found in the wrapped bytes exactly where they are in the decoded text. Only the few places
+ * that see a byte of 0x80 or above need to decode: the text of a string literal and an
+ * unexpected character.
+ *
+ * Offsets into wrapped bytes are byte offsets, so columns derived from them count bytes.
+ *
+ * Example:
+ *   String bytes = Utf8.wrap("print \"héllo\";".getBytes(StandardCharsets.UTF_8));
+ *   bytes.length();                // 15, 'é' is two bytes
+ *   Utf8.sequence(bytes, 8, 15);   // 2
+ *   Utf8.decode(bytes, 7, 13);     // "héllo"
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    static String wrap(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Wraps the remaining bytes of the buffer without moving its position.
+     */
+    static String wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                    StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return wrap(bytes);
+    }
+
+    /**
+     * Checks the sequence that starts at a byte of 0x80 or above. Returns its length if it is
+     * well-formed, or minus the length of its longest invalid prefix, which a decoder would
+     * replace with one U+FFFD, if it is not.
+     */
+    static int sequence(String bytes, int at, int end) {
+        int lead = bytes.charAt(at);
+        int length;
+        // The range the second byte must fall in; it excludes overlong forms, surrogates and
+        // code points past U+10FFFF.
+        int low = 0x80;
+        int high = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            if (lead == 0xE0) low = 0xA0;
+            if (lead == 0xED) high = 0x9F;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) low = 0x90;
+            if (lead == 0xF4) high = 0x8F;
+        } else {
+            return -1;
+        }
+
+        for (int i = 1; i < length; i++) {
+            if (at + i >= end) return -i;
+            int c = bytes.charAt(at + i);
+            if (i == 1 ? c < low || c > high : c < 0x80 || c > 0xBF) return -i;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the code point of a well-formed sequence of the given length.
+     */
+    static int codePoint(String bytes, int at, int length) {
+        int lead = bytes.charAt(at);
+        int codePoint = lead & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            codePoint = (codePoint << 6) | (bytes.charAt(at + i) & 0x3F);
+        }
+        return codePoint;
+    }
+
+    static boolean isAscii(String bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes [start, end) of the wrapped bytes, replacing invalid sequences with U+FFFD.
+     */
+    static String decode(String bytes, int start, int end) {
+        byte[] raw = new byte[end - start];
+        for (int i = 0; i < raw.length; i++) raw[i] = (byte) bytes.charAt(start + i);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Describes the bytes of an invalid sequence, e.g. "0xE2 0x82".
+     */
+    static String describe(String bytes, int start, int end) {
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            if (i > start) text.append(' ');
+            text.append(String.format("0x%02X", (int) bytes.charAt(i)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,956 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A stack-based virtual machine that runs the bytecode produced by the Compiler.
+ *
+ * All values being computed, and all local variables, live in one preallocated value stack. A
+ * call pushes a CallFrame (also preallocated) whose slots start at the callee on the stack,
+ * followed by its arguments and then its locals, so calls copy nothing.
+ *
+ * The stack is two parallel arrays, so that numbers are never boxed on it. A slot holding a
+ * number has NUMBER in stack[] and its value in numbers[]; any other slot has its value in
+ * stack[], which for nil and booleans is null or one of the two shared Booleans. A boxed
+ * Double is never on the stack. Values are boxed only when they leave it, for a global, a
+ * field, a closed upvalue or a native, and unboxed when they come back, so arithmetic,
+ * comparisons, locals, arguments and results allocate nothing.
+ *
+ * The dispatch loop in run() keeps the instruction pointer, the current code array and the
+ * stack top in local variables, so HotSpot can keep them in registers. They are written back to
+ * the frame and to stackTop only around calls and errors. Everything that is not on the hot
+ * path (calls, property access, errors) lives in separate methods to keep run() well below the
+ * size at which the JIT refuses to compile it.
+ *
+ * Off the stack, values use the same Java representation as the tree-walking Interpreter,
+ * with Obj subclasses for functions, closures, classes, instances and bound methods.
+ *
+ * Unless it is created without one, the VM has a Jit: functions that get hot are compiled to
+ * JVM bytecode and called directly, and they call back into the VM through the jit* methods
+ * below for everything but arithmetic, comparisons and locals. Compiled frames still have a
+ * CallFrame, so call traces and the frame limit are the same as in the interpreter. run() can
+ * be entered again from compiled code, to run an interpreted callee or the rest of a frame
+ * whose compiled code deoptimized; it then returns when that frame does.
+ */
+class VM {
+    private static final int FRAMES_MAX = 1024;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+
+    private static final class CallFrame {
+        Obj.Closure closure;
+        int ip;
+        // Index of the frame's slot 0 in the value stack.
+        int slots;
+    }
+
+    // Marks a stack slot whose value is the number at the same index of numbers.
+    static final Object NUMBER = new Object() {
+        @Override
+        public String toString() {
+            return "<number slot>";
+        }
+    };
+
+    private final Object[] stack = new Object[STACK_MAX];
+    private final double[] numbers = new double[STACK_MAX];
+    private int stackTop = 0;
+
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+
+    final Map<String, Object> globals = new HashMap<>();
+    // The tier-up compiler, or null to only interpret.
+    final Jit jit;
+    // Hits and misses of the inline caches of property accesses and method calls.
+    final InlineCache.Counters caches = new InlineCache.Counters();
+    private final ErrorSink errors;
+    private final Consumer<String> out;
+
+    // Upvalues still pointing into the stack, sorted by slot from the top of the stack down.
+    private Obj.Upvalue openUpvalues = null;
+
+    VM() {
+        this(Lox.errorSink(), line -> System.out.println(line));
+    }
+
+    /**
+     * Creates a VM that reports runtime errors to errors and passes each line that print
+     * writes to out.
+     */
+    VM(ErrorSink errors, Consumer<String> out) {
+        this(errors, out, true);
+    }
+
+    /**
+     * Creates a VM that compiles hot functions if jit is set.
+     */
+    VM(ErrorSink errors, Consumer<String> out, boolean jit) {
+        this.errors = errors;
+        this.out = out;
+        this.jit = jit ? new Jit() : null;
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+
+        globals.put("clock", new Obj.Native(0,
+                arguments -> (double) System.currentTimeMillis() / 1000.0));
+    }
+
+    /**
+     * Runs a compiled script. Globals persist between calls, so a REPL can feed in one line
+     * at a time.
+     *
+     * @return false if the script stopped with a runtime error
+     */
+    boolean interpret(Obj.Function script) {
+        Obj.Closure closure = new Obj.Closure(script);
+        stack[stackTop++] = closure;
+
+        try {
+            // A script run again and again, as by a benchmark, can get hot and be run compiled
+            // by call() itself, leaving no frame to run.
+            call(closure, 0);
+            if (frameCount > 0 && !run(0)) return false;
+        } catch (Jit.Abort e) {
+            // Reported already, where the error happened.
+            return false;
+        } catch (StackOverflowError e) {
+            // Compiled calls recurse on the Java stack; the frames still show where.
+            return runtimeError("Stack overflow.");
+        }
+        stackTop = 0;
+        return true;
+    }
+
+    /**
+     * Runs the dispatch loop until the frame at exitDepth returns, leaving its result on top
+     * of the stack.
+     */
+    private boolean run(int exitDepth) {
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        CallFrame frame = frames[frameCount - 1];
+        Obj.Function function = frame.closure.function;
+        byte[] code = function.chunk.code;
+        Object[] constants = function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.slots;
+        int sp = stackTop;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT: {
+                    Object constant = constants[code[ip++] & 0xff];
+                    if (constant instanceof Double) {
+                        stack[sp] = NUMBER;
+                        numbers[sp++] = (double) constant;
+                    } else {
+                        stack[sp++] = constant;
+                    }
+                    break;
+                }
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = Boolean.TRUE;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = Boolean.FALSE;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+                case OpCode.GET_LOCAL: {
+                    // Both halves are copied, whichever holds the value, to avoid a branch.
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[sp] = stack[slot];
+                    numbers[sp++] = numbers[slot];
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[slot] = stack[sp - 1];
+                    numbers[slot] = numbers[sp - 1];
+                    break;
+                }
+                case OpCode.SET_LOCAL_POP: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[slot] = stack[--sp];
+                    numbers[slot] = numbers[sp];
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    String name = (String) constants[code[ip++] & 0xff];
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        frame.ip = ip;
+                        return runtimeError("Undefined variable '" + name + "'.");
+                    }
+                    put(sp++, value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL:
+                    globals.put((String) constants[code[ip++] & 0xff], value(--sp));
+                    break;
+                case OpCode.SET_GLOBAL: {
+                    String name = (String) constants[code[ip++] & 0xff];
+                    if (!globals.containsKey(name)) {
+                        frame.ip = ip;
+                        return runtimeError("Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, value(sp - 1));
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Obj.Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isClosed) {
+                        put(sp++, upvalue.closed);
+                    } else {
+                        stack[sp] = stack[upvalue.slot];
+                        numbers[sp++] = numbers[upvalue.slot];
+                    }
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Obj.Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isClosed) {
+                        upvalue.closed = value(sp - 1);
+                    } else {
+                        stack[upvalue.slot] = stack[sp - 1];
+                        numbers[upvalue.slot] = numbers[sp - 1];
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[code[ip++] & 0xff];
+                    frame.ip = ip;
+                    Object value = getProperty(stack[sp - 1], name, function.chunk.caches[ip - 2]);
+                    if (value == FAILED) return false;
+                    put(sp - 1, value);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[code[ip++] & 0xff];
+                    if (!(stack[sp - 2] instanceof Obj.Instance)) {
+                        frame.ip = ip;
+                        return runtimeError("Only instances have fields.");
+                    }
+                    setProperty((Obj.Instance) stack[sp - 2], name, value(sp - 1),
+                            function.chunk.caches[ip - 2]);
+                    // The assignment's value takes the instance's place.
+                    sp--;
+                    stack[sp - 1] = stack[sp];
+                    numbers[sp - 1] = numbers[sp];
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[code[ip++] & 0xff];
+                    Obj.Class superclass = (Obj.Class) stack[--sp];
+                    frame.ip = ip;
+                    Object method = bindMethod(superclass, stack[sp - 1], name);
+                    if (method == FAILED) return false;
+                    stack[sp - 1] = method;
+                    break;
+                }
+                case OpCode.EQUAL:
+                    sp--;
+                    stack[sp - 1] = isEqual(stack[sp - 1], numbers[sp - 1], stack[sp], numbers[sp]);
+                    break;
+                case OpCode.NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = !isEqual(stack[sp - 1], numbers[sp - 1], stack[sp], numbers[sp]);
+                    break;
+                case OpCode.GREATER:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    stack[sp - 1] = numbers[sp - 1] > numbers[sp];
+                    break;
+                case OpCode.GREATER_EQUAL:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    stack[sp - 1] = numbers[sp - 1] >= numbers[sp];
+                    break;
+                case OpCode.LESS:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    stack[sp - 1] = numbers[sp - 1] < numbers[sp];
+                    break;
+                case OpCode.LESS_EQUAL:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    stack[sp - 1] = numbers[sp - 1] <= numbers[sp];
+                    break;
+                case OpCode.SUBTRACT:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    numbers[sp - 1] -= numbers[sp];
+                    break;
+                case OpCode.MULTIPLY:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    numbers[sp - 1] *= numbers[sp];
+                    break;
+                case OpCode.DIVIDE:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be numbers.");
+                    }
+                    numbers[sp - 1] /= numbers[sp];
+                    break;
+                case OpCode.ADD: {
+                    Object b = stack[sp - 1];
+                    Object a = stack[sp - 2];
+                    if (a == NUMBER && b == NUMBER) {
+                        numbers[sp - 2] += numbers[sp - 1];
+                    } else if (a instanceof CharSequence && b instanceof CharSequence) {
+                        stack[sp - 2] = Rope.plus((CharSequence) a, (CharSequence) b);
+                    } else {
+                        frame.ip = ip;
+                        return runtimeError("Operands must be two numbers or two strings.");
+                    }
+                    sp--;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = isFalsey(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (stack[sp - 1] != NUMBER) {
+                        frame.ip = ip;
+                        return runtimeError("Operand must be a number.");
+                    }
+                    numbers[sp - 1] = -numbers[sp - 1];
+                    break;
+                case OpCode.PRINT:
+                    out.accept(stringify(value(--sp)));
+                    break;
+                case OpCode.JUMP:
+                    ip += ((code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff)) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (isFalsey(stack[sp - 1])) {
+                        ip += (code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff);
+                    }
+                    ip += 2;
+                    break;
+                case OpCode.POP_JUMP_IF_FALSE:
+                    if (isFalsey(stack[--sp])) {
+                        ip += (code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff);
+                    }
+                    ip += 2;
+                    break;
+                case OpCode.LOOP: {
+                    ip -= ((code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff)) - 2;
+                    if (jit == null || (function.compiled == null
+                            && (++function.hotness != Jit.HOT || !jit.compile(function)))) {
+                        break;
+                    }
+
+                    // On-stack replacement: the rest of the frame runs as compiled code,
+                    // entered at the loop header, and then returns as RETURN would.
+                    frame.ip = ip;
+                    stackTop = sp;
+                    jit.osrEntries++;
+                    int self = frameCount - 1;
+                    // A number result is already in numbers[base].
+                    Object result = function.compiled.run(this, stack, numbers, base, ip);
+                    frameCount = self;
+                    sp = base;
+                    stack[sp++] = result;
+                    if (frameCount == exitDepth) {
+                        stackTop = sp;
+                        return true;
+                    }
+
+                    frame = frames[frameCount - 1];
+                    function = frame.closure.function;
+                    code = function.chunk.code;
+                    constants = function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.slots;
+                    break;
+                }
+                case OpCode.CALL:
+                case OpCode.INVOKE:
+                case OpCode.SUPER_INVOKE: {
+                    byte instruction = code[ip - 1];
+                    String name = null;
+                    if (instruction != OpCode.CALL) {
+                        name = (String) constants[code[ip++] & 0xff];
+                    }
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    stackTop = sp;
+
+                    boolean ok;
+                    if (instruction == OpCode.CALL) {
+                        ok = callValue(stack[sp - 1 - argCount], argCount);
+                    } else if (instruction == OpCode.INVOKE) {
+                        ok = invoke(name, argCount, function.chunk.caches[ip - 3]);
+                    } else {
+                        Obj.Class superclass = (Obj.Class) stack[--stackTop];
+                        ok = invokeFromClass(superclass, name, argCount);
+                    }
+                    if (!ok) return false;
+
+                    // Continue in the callee's frame, or in this one if the callee was native or
+                    // compiled.
+                    frame = frames[frameCount - 1];
+                    function = frame.closure.function;
+                    code = function.chunk.code;
+                    constants = function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.slots;
+                    sp = stackTop;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Obj.Closure closure = new Obj.Closure((Obj.Function) constants[code[ip++] & 0xff]);
+                    stack[sp++] = closure;
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal
+                                ? captureUpvalue(base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    double number = numbers[sp];
+                    closeUpvalues(base);
+                    frameCount--;
+
+                    // Discard the callee and its arguments and locals in one step.
+                    sp = base;
+                    stack[sp] = result;
+                    numbers[sp++] = number;
+                    if (frameCount == exitDepth) {
+                        stackTop = sp;
+                        return true;
+                    }
+
+                    frame = frames[frameCount - 1];
+                    function = frame.closure.function;
+                    code = function.chunk.code;
+                    constants = function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.slots;
+                    break;
+                }
+                case OpCode.CLASS:
+                    stack[sp++] = new Obj.Class((String) constants[code[ip++] & 0xff]);
+                    break;
+                case OpCode.INHERIT: {
+                    Object superclass = stack[sp - 2];
+                    if (!(superclass instanceof Obj.Class)) {
+                        frame.ip = ip;
+                        return runtimeError("Superclass must be a class.");
+                    }
+                    // Copy the inherited methods down; later METHODs override them.
+                    ((Obj.Class) stack[sp - 1]).methods.putAll(((Obj.Class) superclass).methods);
+                    sp--;
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[code[ip++] & 0xff];
+                    ((Obj.Class) stack[sp - 2]).methods.put(name, (Obj.Closure) stack[sp - 1]);
+                    sp--;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    // Returned by the helpers below, which report their own errors, to signal one.
+    private static final Object FAILED = new Object();
+
+    /**
+     * Returns the value in a stack slot, boxed if it is a number, for it to leave the stack.
+     */
+    private Object value(int slot) {
+        Object value = stack[slot];
+        return value == NUMBER ? (Object) numbers[slot] : value;
+    }
+
+    /**
+     * Puts a value from off the stack into a slot, unboxing it if it is a number.
+     */
+    private void put(int slot, Object value) {
+        if (value instanceof Double) {
+            stack[slot] = NUMBER;
+            numbers[slot] = (double) value;
+        } else {
+            stack[slot] = value;
+        }
+    }
+
+    /**
+     * Gets a field, or binds a method, through the site's inline cache. The shape of the
+     * instance tells both whether the name is a field and, since it is one class's shape, which
+     * method it is if not.
+     */
+    private Object getProperty(Object receiver, String name, InlineCache cache) {
+        if (!(receiver instanceof Obj.Instance)) {
+            runtimeError("Only instances have properties.");
+            return FAILED;
+        }
+
+        Obj.Instance instance = (Obj.Instance) receiver;
+        int entry = cache.find(instance.shape);
+        if (entry >= 0) {
+            caches.hits++;
+            int slot = cache.slot(entry);
+            if (slot >= 0) return instance.fields[slot];
+            return new Obj.BoundMethod(instance, (Obj.Closure) cache.target(entry));
+        }
+
+        caches.misses++;
+        int slot = instance.shape.slot(name);
+        if (slot >= 0) {
+            cache.add(instance.shape, slot, null);
+            return instance.fields[slot];
+        }
+
+        Obj.Closure method = instance.klass.methods.get(name);
+        if (method == null) {
+            runtimeError("Undefined property '" + name + "'.");
+            return FAILED;
+        }
+        cache.add(instance.shape, -1, method);
+        return new Obj.BoundMethod(instance, method);
+    }
+
+    /**
+     * Sets a field through the site's inline cache, which also remembers the shape an
+     * instance moves to when the field is new to it.
+     */
+    private void setProperty(Obj.Instance instance, String name, Object value, InlineCache cache) {
+        Shape shape = instance.shape;
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            caches.hits++;
+            instance.store(cache.slot(entry), (Shape) cache.target(entry), value);
+            return;
+        }
+
+        caches.misses++;
+        int slot = shape.slot(name);
+        Shape next = shape;
+        if (slot < 0) {
+            slot = shape.size();
+            next = shape.with(name);
+        }
+        cache.add(shape, slot, next);
+        instance.store(slot, next, value);
+    }
+
+    private Object bindMethod(Obj.Class klass, Object receiver, String name) {
+        Obj.Closure method = klass.methods.get(name);
+        if (method == null) {
+            runtimeError("Undefined property '" + name + "'.");
+            return FAILED;
+        }
+
+        return new Obj.BoundMethod(receiver, method);
+    }
+
+    /**
+     * Calls the value below the arguments on the stack. For closures this pushes a new frame;
+     * classes and natives complete immediately and leave their result on the stack.
+     */
+    private boolean callValue(Object callee, int argCount) {
+        if (callee instanceof Obj.Closure) {
+            return call((Obj.Closure) callee, argCount);
+        } else if (callee instanceof Obj.BoundMethod) {
+            Obj.BoundMethod bound = (Obj.BoundMethod) callee;
+            // The receiver takes the callee's place in slot 0, where methods expect `this`.
+            stack[stackTop - argCount - 1] = bound.receiver;
+            return call(bound.method, argCount);
+        } else if (callee instanceof Obj.Class) {
+            Obj.Class klass = (Obj.Class) callee;
+            stack[stackTop - argCount - 1] = new Obj.Instance(klass);
+            Obj.Closure initializer = klass.methods.get("init");
+            if (initializer != null) {
+                return call(initializer, argCount);
+            } else if (argCount != 0) {
+                return runtimeError("Expected 0 arguments but got " + argCount + ".");
+            }
+            return true;
+        } else if (callee instanceof Obj.Native) {
+            Obj.Native nativeFn = (Obj.Native) callee;
+            if (argCount != nativeFn.arity) {
+                return runtimeError("Expected " + nativeFn.arity + " arguments but got "
+                        + argCount + ".");
+            }
+            Object[] arguments = new Object[argCount];
+            for (int i = 0; i < argCount; i++) arguments[i] = value(stackTop - argCount + i);
+            Object result = nativeFn.function.call(Arrays.asList(arguments));
+            stackTop -= argCount + 1;
+            put(stackTop++, result);
+            return true;
+        }
+
+        return runtimeError("Can only call functions and classes.");
+    }
+
+    private boolean invoke(String name, int argCount, InlineCache cache) {
+        Object receiver = stack[stackTop - argCount - 1];
+        if (!(receiver instanceof Obj.Instance)) {
+            return runtimeError("Only instances have properties.");
+        }
+
+        Obj.Instance instance = (Obj.Instance) receiver;
+        int entry = cache.find(instance.shape);
+        int slot;
+        if (entry >= 0) {
+            caches.hits++;
+            slot = cache.slot(entry);
+            if (slot < 0) return call((Obj.Closure) cache.target(entry), argCount);
+        } else {
+            caches.misses++;
+            slot = instance.shape.slot(name);
+            if (slot < 0) {
+                Obj.Closure method = instance.klass.methods.get(name);
+                if (method == null) {
+                    return runtimeError("Undefined property '" + name + "'.");
+                }
+                cache.add(instance.shape, -1, method);
+                return call(method, argCount);
+            }
+            cache.add(instance.shape, slot, null);
+        }
+
+        // A field holding a function shadows a method of the same name.
+        Object value = instance.fields[slot];
+        put(stackTop - argCount - 1, value);
+        return callValue(value, argCount);
+    }
+
+    private boolean invokeFromClass(Obj.Class klass, String name, int argCount) {
+        Obj.Closure method = klass.methods.get(name);
+        if (method == null) {
+            return runtimeError("Undefined property '" + name + "'.");
+        }
+
+        return call(method, argCount);
+    }
+
+    private boolean call(Obj.Closure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            return runtimeError("Expected " + closure.function.arity + " arguments but got "
+                    + argCount + ".");
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            return runtimeError("Stack overflow.");
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.slots = stackTop - argCount - 1;
+
+        Obj.Function function = closure.function;
+        if (jit != null && (function.compiled != null
+                || (++function.hotness == Jit.HOT && jit.compile(function)))) {
+            // Run to completion, like a native. Deoptimized code may have popped the frame
+            // already, so the depth is restored rather than decremented.
+            int self = frameCount - 1;
+            Object result = function.compiled.run(this, stack, numbers, frame.slots, 0);
+            frameCount = self;
+            stackTop = frame.slots;
+            stack[stackTop++] = result;
+        }
+        return true;
+    }
+
+    private Obj.Upvalue captureUpvalue(int slot) {
+        Obj.Upvalue previous = null;
+        Obj.Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        // Closures capturing the same variable must share one upvalue.
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        Obj.Upvalue created = new Obj.Upvalue(slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+
+        return created;
+    }
+
+    /**
+     * Moves every variable at or above the given stack slot into its upvalue.
+     */
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Obj.Upvalue upvalue = openUpvalues;
+            upvalue.closed = value(upvalue.slot);
+            upvalue.isClosed = true;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    // Entry points for code compiled by the Jit. Each does what the dispatch loop does for its
+    // instruction; ip is the offset after the instruction, which is where the interpreter's
+    // frame would be if it reported an error there. Errors are reported as usual and then
+    // unwind the compiled code with Jit.ABORT.
+
+    /**
+     * Runs the rest of the current frame in the interpreter from ip, with the stack up to sp
+     * as the compiled code left it, after a guard failed there.
+     *
+     * @return the frame's result, which is left in its slot, so that a NUMBER is found there
+     */
+    Object deoptimize(int ip, int sp) {
+        CallFrame frame = frames[frameCount - 1];
+        jit.deoptimized(frame.closure.function, ip);
+        frame.ip = ip;
+        stackTop = sp;
+        if (!run(frameCount - 1)) throw Jit.ABORT;
+        return stack[--stackTop];
+    }
+
+    /**
+     * Calls the value in slot with the arguments above it, which compiled code has written
+     * to the stack, and returns its result. Like a frame's result, a NUMBER is left in the
+     * slot for the compiled code to read.
+     */
+    Object jitCall(int slot, int argCount, int ip) {
+        frames[frameCount - 1].ip = ip;
+        stackTop = slot + argCount + 1;
+        int depth = frameCount;
+        if (!callValue(stack[slot], argCount)) throw Jit.ABORT;
+        return finishCall(depth);
+    }
+
+    Object jitInvoke(String name, int slot, int argCount, int ip) {
+        frames[frameCount - 1].ip = ip;
+        stackTop = slot + argCount + 1;
+        int depth = frameCount;
+        if (!invoke(name, argCount, cacheAt(ip - 3))) throw Jit.ABORT;
+        return finishCall(depth);
+    }
+
+    Object jitSuperInvoke(Object superclass, String name, int slot, int argCount, int ip) {
+        frames[frameCount - 1].ip = ip;
+        stackTop = slot + argCount + 1;
+        int depth = frameCount;
+        if (!invokeFromClass((Obj.Class) superclass, name, argCount)) throw Jit.ABORT;
+        return finishCall(depth);
+    }
+
+    /**
+     * Runs an interpreted callee's frame, if the call pushed one, and pops the result.
+     */
+    private Object finishCall(int depth) {
+        if (frameCount > depth && !run(depth)) throw Jit.ABORT;
+        return stack[--stackTop];
+    }
+
+    Object jitGetGlobal(String name, int ip) {
+        Object value = globals.get(name);
+        if (value == null && !globals.containsKey(name)) {
+            throw abort(ip, "Undefined variable '" + name + "'.");
+        }
+        return value;
+    }
+
+    void jitDefineGlobal(String name, Object value) {
+        globals.put(name, value);
+    }
+
+    void jitSetGlobal(String name, Object value, int ip) {
+        if (!globals.containsKey(name)) throw abort(ip, "Undefined variable '" + name + "'.");
+        globals.put(name, value);
+    }
+
+    Object jitGetUpvalue(int index) {
+        // Open upvalues only point into interpreted frames, whose slots are on the stack.
+        Obj.Upvalue upvalue = frames[frameCount - 1].closure.upvalues[index];
+        return upvalue.isClosed ? upvalue.closed : value(upvalue.slot);
+    }
+
+    void jitSetUpvalue(int index, Object value) {
+        Obj.Upvalue upvalue = frames[frameCount - 1].closure.upvalues[index];
+        if (upvalue.isClosed) {
+            upvalue.closed = value;
+        } else {
+            put(upvalue.slot, value);
+        }
+    }
+
+    Object jitGetProperty(Object receiver, String name, int ip) {
+        frames[frameCount - 1].ip = ip;
+        Object value = getProperty(receiver, name, cacheAt(ip - 2));
+        if (value == FAILED) throw Jit.ABORT;
+        return value;
+    }
+
+    void jitSetProperty(Object receiver, String name, Object value, int ip) {
+        if (!(receiver instanceof Obj.Instance)) throw abort(ip, "Only instances have fields.");
+        setProperty((Obj.Instance) receiver, name, value, cacheAt(ip - 2));
+    }
+
+    /**
+     * The inline cache of the current frame's instruction at ip.
+     */
+    private InlineCache cacheAt(int ip) {
+        return frames[frameCount - 1].closure.function.chunk.caches[ip];
+    }
+
+    Object jitGetSuper(Object superclass, Object receiver, String name, int ip) {
+        frames[frameCount - 1].ip = ip;
+        Object method = bindMethod((Obj.Class) superclass, receiver, name);
+        if (method == FAILED) throw Jit.ABORT;
+        return method;
+    }
+
+    /**
+     * Makes the closure of the CLOSURE instruction at ip. The Jit only compiles functions whose
+     * closures capture nothing but the current closure's own upvalues.
+     */
+    Object jitClosure(int ip) {
+        Obj.Closure enclosing = frames[frameCount - 1].closure;
+        Chunk chunk = enclosing.function.chunk;
+        Obj.Closure closure = new Obj.Closure((Obj.Function) chunk.constants[chunk.code[ip + 1] & 0xff]);
+        for (int i = 0; i < closure.upvalues.length; i++) {
+            closure.upvalues[i] = enclosing.upvalues[chunk.code[ip + 3 + 2 * i] & 0xff];
+        }
+        return closure;
+    }
+
+    Object jitClass(String name) {
+        return new Obj.Class(name);
+    }
+
+    void jitInherit(Object superclass, Object klass, int ip) {
+        if (!(superclass instanceof Obj.Class)) throw abort(ip, "Superclass must be a class.");
+        ((Obj.Class) klass).methods.putAll(((Obj.Class) superclass).methods);
+    }
+
+    void jitMethod(Object klass, String name, Object method) {
+        ((Obj.Class) klass).methods.put(name, (Obj.Closure) method);
+    }
+
+    void jitPrint(Object value) {
+        out.accept(stringify(value));
+    }
+
+    private Jit.Abort abort(int ip, String message) {
+        frames[frameCount - 1].ip = ip;
+        runtimeError(message);
+        return Jit.ABORT;
+    }
+
+    /**
+     * Reports a runtime error with a trace of the active calls, innermost first, and resets
+     * the VM so it can run the next script.
+     *
+     * @return false, so callers can return its result directly
+     */
+    private boolean runtimeError(String message) {
+        StringBuilder trace = new StringBuilder();
+        int errorLine = 0;
+        for (int i = frameCount - 1; i >= 0; i--) {
+            CallFrame frame = frames[i];
+            Obj.Function function = frame.closure.function;
+            int line = function.chunk.lines[Math.max(frame.ip - 1, 0)];
+            if (i == frameCount - 1) {
+                errorLine = line;
+            } else {
+                trace.append('\n');
+            }
+            trace.append("[line ").append(line).append("] in ")
+                    .append(function.name == null ? "script" : function.name + "()");
+        }
+        errors.runtimeError(errorLine, message, trace.toString());
+
+        resetStack();
+        return false;
+    }
+
+    private void resetStack() {
+        // The dispatch loop's own stack top may be ahead of stackTop, so clear everything.
+        Arrays.fill(stack, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    /**
+     * false and nil are falsey, everything else is truthy.
+     */
+    static boolean isFalsey(Object value) {
+        return value == null || (value instanceof Boolean && !(boolean) value);
+    }
+
+    /**
+     * Compares two stack slots, given as their halves. Numbers are equal as Doubles are, so
+     * NaN equals itself and 0 and -0 differ, as in the Interpreter.
+     */
+    static boolean isEqual(Object a, double x, Object b, double y) {
+        if (a == NUMBER || b == NUMBER) {
+            return a == b && Double.doubleToLongBits(x) == Double.doubleToLongBits(y);
+        }
+        return isEqual(a, b);
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null) return b == null;
+        if (a instanceof Rope || b instanceof Rope) return Rope.textEquals(a, b);
+        return a.equals(b);
+    }
+
+    static String stringify(Object value) {
+        if (value == null) return "nil";
+
+        if (value instanceof Double) {
+            String text = value.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return value.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ErrorSinkTest {
+    @Test
+    void adjacentRepeatsMergeIntoOneRecord() {
+        List<String> batches = new ArrayList<>();
+        ErrorSink errors = new ErrorSink(batches::add);
+        new Scanner("@".repeat(1_000_000) + " 1", errors).scanTokenBuffer();
+
+        assertEquals(List.of("[line 1] Error: Unexpected character: '@'. (x1000000)"), batches);
+        assertEquals(1_000_000, errors.errorCount());
+        assertTrue(errors.hadError());
+    }
+
+    @Test
+    void recordsPastTheCapAreCountedButNotShown() {
+        List<String> batches = new ArrayList<>();
+        ErrorSink errors = new ErrorSink(batches::add, ErrorSink.Format.TEXT, 10);
+        new Scanner("@ ".repeat(50), errors).scanTokenBuffer();
+
+        String[] lines = String.join("\n", batches).split("\n");
+        assertEquals(11, lines.length);
+        assertEquals("[line 1] Error: Unexpected character: '@'.", lines[0]);
+        assertEquals("... 40 more errors not shown (limit 10).", lines[10]);
+        assertEquals(50, errors.errorCount());
+
+        // The cap starts over after a flush.
+        new Scanner("#", errors).scanTokenBuffer();
+        assertEquals("[line 1] Error: Unexpected character: '#'.", batches.get(batches.size() - 1));
+    }
+
+    @Test
+    void rendersJsonLinesWithColumnsFromTheSource() {
+        StringBuilder out = new StringBuilder();
+        ErrorSink errors = new ErrorSink(batch -> out.append(batch).append('\n'),
+                ErrorSink.Format.JSON, ErrorSink.DEFAULT_MAX_ERRORS);
+        String source = "var a = 1;\n  @@ \"x\\y\nvar = 2;";
+        errors.setSource(source);
+        new Scanner(source, errors).scanTokenBuffer();
+        errors.runtimeError(3, "Operand must be a number.", "[line 3]");
+
+        String[] lines = out.toString().split("\n");
+        assertEquals("{\"severity\":\"error\",\"code\":\"L001\",\"kind\":\"unexpected_character\","
+                + "\"line\":2,\"column\":3,\"offset\":13,\"length\":2,\"count\":2,"
+                + "\"message\":\"Unexpected character: '@'.\"}", lines[0]);
+        assertEquals("{\"severity\":\"error\",\"code\":\"L002\",\"kind\":\"unterminated_string\","
+                + "\"line\":3,\"column\":6,\"offset\":16,\"length\":13,\"count\":1,"
+                + "\"message\":\"Unterminated string.\"}", lines[1]);
+        assertEquals("{\"severity\":\"error\",\"code\":\"X001\",\"kind\":\"runtime\",\"line\":3,"
+                + "\"count\":1,\"message\":\"Operand must be a number.\",\"trace\":\"[line 3]\"}", lines[2]);
+        assertEquals(3, lines.length);
+        assertTrue(errors.hadRuntimeError());
+    }
+
+    @Test
+    void asynchronousBatchesKeepTheirOrder() {
+        StringBuilder out = new StringBuilder();
+        ErrorSink errors = new ErrorSink(batch -> out.append(batch).append('\n'));
+        StringBuilder expected = new StringBuilder();
+        for (int line = 1; line <= 500; line++) {
+            errors.unexpectedCharacter(line, -1, '$');
+            expected.append("[line ").append(line).append("] Error: Unexpected character: '$'.\n");
+        }
+        Token token = new Token(TokenType.IDENTIFIER, "x", null, 501);
+        errors.error(ErrorSink.Code.RESOLUTION, token, "Already a variable with this name in this scope.");
+        expected.append("[line 501] Error at 'x': Already a variable with this name in this scope.\n");
+        errors.flush();
+
+        assertEquals(expected.toString(), out.toString());
+
+        errors.reset();
+        assertFalse(errors.hadError());
+        assertEquals(0, errors.errorCount());
+    }
+
+    @Test
+    void aCollectingSinkKeepsRecordsAndReplaysThemAsReported() {
+        ErrorSink first = ErrorSink.collecting();
+        new Scanner("@@", first).scanTokenBuffer();
+        ErrorSink second = ErrorSink.collecting();
+        second.unexpectedCharacter(1, 2, '@');
+        second.unexpectedCharacter(1, 4, '#');
+        second.runtimeError(2, "Operand must be a number.", "[line 2]");
+
+        List<ErrorSink.Record> records = second.records();
+        assertEquals(3, records.size());
+        assertEquals(ErrorSink.Code.UNEXPECTED_CHARACTER, records.get(0).code);
+        assertEquals(2, records.get(0).offset);
+        assertEquals(1, records.get(0).length);
+        assertEquals("Unexpected character: '#'.", records.get(1).message);
+        assertEquals("[line 2]", records.get(2).detail);
+        assertEquals(2, first.records().get(0).count);
+
+        // Replayed one after the other, the '@' records merge across the two sinks.
+        List<String> batches = new ArrayList<>();
+        ErrorSink target = new ErrorSink(batches::add, ErrorSink.Format.TEXT, 2);
+        first.replayInto(target);
+        second.replayInto(target);
+        target.flush();
+
+        assertEquals(List.of("[line 1] Error: Unexpected character: '@'. (x3)\n"
+                + "[line 1] Error: Unexpected character: '#'.\n"
+                + "... 1 more errors not shown (limit 2)."), batches);
+        assertEquals(4, target.errorCount());
+        assertTrue(target.hadError(ErrorSink.Code.UNEXPECTED_CHARACTER));
+        assertTrue(target.hadRuntimeError());
+
+        second.reset();
+        assertTrue(second.records().isEmpty());
+        assertFalse(second.hadError());
+    }
+}
@@ -0,0 +1,125 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.craftinginterpreters.lox.TokenType.*;
+
+class IncrementalScannerTest {
+    private static final String[] PIECES = {
+            "var", " ", "x", "1", ".", "5", "\"", "\n", "/", "=", "!", "<", "(", ")", "{", "}",
+            "fun", "or", "ident", ";", "+", "\t", "2.25", "//", "\"text\"", "/*", "*/", "*"
+    };
+
+    @Test
+    void renamingAnIdentifierRelexesOnlyNearbyTokens() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            source.append("var a").append(i).append(" = ").append(i).append(";\n");
+        }
+        IncrementalScanner scanner = new IncrementalScanner(source.toString(), silent());
+
+        int offset = source.indexOf("a500");
+        TokenBuffer tokens = scanner.edit(offset, 4, "renamed");
+
+        assertTrue(scanner.lastRelexedCount() <= 3, "relexed " + scanner.lastRelexedCount());
+        assertSameAsFullScan(scanner.source(), tokens);
+        assertEquals("renamed", tokens.lexeme(500 * 5 + 1));
+    }
+
+    @Test
+    void openingAStringRelexesUntilItCloses() {
+        IncrementalScanner scanner = new IncrementalScanner("a b\nc \"d\ne\" f", silent());
+        TokenBuffer tokens = scanner.edit(1, 0, "\"");
+
+        assertSameAsFullScan(scanner.source(), tokens);
+        assertEquals(STRING, tokens.type(1));
+        assertEquals("\" b\nc \"", tokens.lexeme(1));
+    }
+
+    @Test
+    void unterminatedStringRelexesToTheEnd() {
+        IncrementalScanner scanner = new IncrementalScanner("print a;\nprint b;\nprint c;", silent());
+        TokenBuffer tokens = scanner.edit(6, 0, "\"");
+
+        assertSameAsFullScan(scanner.source(), tokens);
+        assertEquals(EOF, tokens.type(tokens.size() - 1));
+        assertEquals(3, tokens.line(tokens.size() - 1));
+    }
+
+    @Test
+    void insertedLinesShiftFollowingTokens() {
+        IncrementalScanner scanner = new IncrementalScanner("a\nb\nc\nd", silent());
+        TokenBuffer tokens = scanner.edit(2, 0, "x\n\n");
+
+        assertSameAsFullScan(scanner.source(), tokens);
+        assertEquals(6, tokens.line(tokens.size() - 2)); // d
+    }
+
+    @Test
+    void extendingANumberAcrossTheDotRelexesThePreviousToken() {
+        IncrementalScanner scanner = new IncrementalScanner("1.", silent());
+        TokenBuffer tokens = scanner.edit(2, 0, "5");
+
+        assertSameAsFullScan(scanner.source(), tokens);
+        assertEquals(1.5, tokens.number(0));
+    }
+
+    @Test
+    void outOfRangeEditThrows() {
+        IncrementalScanner scanner = new IncrementalScanner("abc", silent());
+        assertThrows(IndexOutOfBoundsException.class, () -> scanner.edit(2, 5, ""));
+    }
+
+    @Test
+    void randomEditsMatchAFullRescan() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            IncrementalScanner scanner = new IncrementalScanner(randomSource(random, 40), silent());
+            for (int step = 0; step < 25; step++) {
+                String source = scanner.source();
+                int offset = random.nextInt(source.length() + 1);
+                int removed = random.nextInt(Math.min(6, source.length() - offset) + 1);
+                String inserted = randomSource(random, random.nextInt(3));
+
+                TokenBuffer tokens = scanner.edit(offset, removed, inserted);
+                assertSameAsFullScan(scanner.source(), tokens);
+            }
+        }
+    }
+
+    // The fuzzed sources are full of errors; only the tokens are compared.
+    private static ErrorSink silent() {
+        return new ErrorSink(batch -> {});
+    }
+
+    private static String randomSource(Random random, int pieces) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            out.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return out.toString();
+    }
+
+    private static void assertSameAsFullScan(String source, TokenBuffer actual) {
+        TokenBuffer expected = new Scanner(source, silent()).scanTokenBuffer();
+        assertEquals(expected.size(), actual.size(), source);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.type(i), actual.type(i), source);
+            assertEquals(expected.start(i), actual.start(i), source);
+            assertEquals(expected.length(i), actual.length(i), source);
+            assertEquals(expected.line(i), actual.line(i), source);
+            assertEquals(expected.literal(i), actual.literal(i), source);
+            // IDs depend on edit history, but the same tokens must be symbols.
+            assertEquals(expected.symbol(i) == SymbolTable.NONE,
+                    actual.symbol(i) == SymbolTable.NONE, source);
+            assertEquals(expected.lexeme(i), actual.lexeme(i), source);
+            assertEquals(expected.column(i), actual.column(i), source);
+            assertEquals(expected.startLine(i), actual.startLine(i), source);
+        }
+        // The scanner's index was edited along with the source, not rebuilt.
+        assertEquals(LineIndex.of(source), actual.lineIndex(), source);
+    }
+}
@@ -0,0 +1,137 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InlineCacheTest {
+    // Programs whose property accesses go through cached sites, with output that must be the
+    // same on the tree-walker, the VM, and the VM with its JIT.
+    private static final String[] PROGRAMS = {
+        // Same fields, different orders: two shapes reach one site.
+        "class P {} fun sum(p) { return p.x + p.y; }\n"
+                + "var a = P(); a.x = 1; a.y = 2; var b = P(); b.y = 30; b.x = 40;\n"
+                + "var s = 0; for (var i = 0; i < 2000; i = i + 1) { s = s + sum(a) + sum(b); a.x = i; }\n"
+                + "print s;",
+        // A field holding a function shadows the method, on one instance only.
+        "class A { m() { return \"method\"; } }\n"
+                + "fun f() { return \"field\"; }\n"
+                + "var a = A(); var b = A(); b.m = f;\n"
+                + "for (var i = 0; i < 2; i = i + 1) { print a.m(); print b.m();"
+                + " var g = a.m; print g(); g = b.m; print g(); }",
+        // Six classes through one call site: polymorphic, then megamorphic.
+        "class C0 { m() { return 0; } } class C1 { m() { return 1; } } class C2 { m() { return 2; } }\n"
+                + "class C3 { m() { return 3; } } class C4 { m() { return 4; } } class C5 < C4 {}\n"
+                + "var all = C0(); all.next = C1(); all.next.next = C2(); all.next.next.next = C3();\n"
+                + "all.next.next.next.next = C4(); all.next.next.next.next.next = C5();\n"
+                + "var total = 0;\n"
+                + "for (var i = 0; i < 500; i = i + 1) { var o = all;"
+                + " while (o != nil) { total = total + o.m(); if (o == all.next.next.next.next.next) o = nil;"
+                + " else o = o.next; } }\n"
+                + "print total;",
+        // Many fields, past the shape's linear scan.
+        "class Wide { init() { this.a = 1; this.b = 2; this.c = 3; this.d = 4; this.e = 5;"
+                + " this.f = 6; this.g = 7; this.h = 8; this.i = 9; this.j = 10; } }\n"
+                + "var w = Wide(); w.j = w.a + w.i; print w.j; print w.e;",
+    };
+
+    @Test
+    void shapesAreSharedByInstancesThatAddFieldsInTheSameOrder() {
+        Shape root = new Shape();
+        Shape xy = root.with("x").with("y");
+        assertSame(xy, root.with("x").with("y"));
+        assertNotSame(xy, root.with("y").with("x"));
+        assertEquals(2, xy.size());
+        assertEquals(1, xy.slot("y"));
+        assertEquals("x", xy.name(0));
+        assertEquals(-1, xy.slot("z"));
+        assertEquals(0, root.size());
+
+        Shape wide = root;
+        for (int i = 0; i < 20; i++) wide = wide.with("f" + i);
+        assertEquals(17, wide.slot("f17"));
+        assertEquals(-1, wide.slot("f20"));
+    }
+
+    @Test
+    void aFullSiteStopsLearning() {
+        InlineCache cache = new InlineCache();
+        Shape root = new Shape();
+        Shape[] shapes = new Shape[InlineCache.MAX_SHAPES + 1];
+        for (int i = 0; i < shapes.length; i++) {
+            shapes[i] = root.with("f" + i);
+            cache.add(shapes[i], 0, null);
+        }
+        assertEquals(InlineCache.MAX_SHAPES, cache.size());
+        assertEquals(InlineCache.MAX_SHAPES - 1, cache.find(shapes[InlineCache.MAX_SHAPES - 1]));
+        assertEquals(-1, cache.find(shapes[InlineCache.MAX_SHAPES]));
+    }
+
+    @Test
+    void everyBackendPrintsTheSame() {
+        for (String source : PROGRAMS) {
+            String expected = treeWalker(source).output;
+            assertEquals(expected, vm(source, false).output, source);
+            assertEquals(expected, vm(source, true).output, source);
+        }
+    }
+
+    @Test
+    void aMonomorphicSiteMissesOnce() {
+        String source = "class P { init(x) { this.x = x; } }\n"
+                + "var s = 0; for (var i = 0; i < 10; i = i + 1) s = s + P(i).x; print s;";
+
+        // The set in init and the get in the loop each miss on their first instance only.
+        Run tree = treeWalker(source);
+        assertEquals("45\n", tree.output);
+        assertEquals(18, tree.caches.hits);
+        assertEquals(2, tree.caches.misses);
+
+        Run vm = vm(source, false);
+        assertEquals("45\n", vm.output);
+        assertEquals(18, vm.caches.hits);
+        assertEquals(2, vm.caches.misses);
+        assertEquals(0.9, vm.caches.hitRate(), 1e-9);
+    }
+
+    @Test
+    void compiledCodeUsesTheSameCaches() {
+        Run run = vm("class V { init() { this.n = 0; } bump() { this.n = this.n + 1; } }\n"
+                + "var v = V(); for (var i = 0; i < 5000; i = i + 1) v.bump(); print v.n;", true);
+
+        assertEquals("5000\n", run.output);
+        assertTrue(run.vm.jit.compilations > 0);
+        // One miss each for the set in init, the call, the get and set in bump, and the print.
+        assertEquals(5, run.caches.misses);
+        assertEquals(3 * 4999, run.caches.hits);
+    }
+
+    private static final class Run {
+        final StringBuilder out = new StringBuilder();
+        String output;
+        InlineCache.Counters caches;
+        VM vm;
+    }
+
+    private static Run treeWalker(String source) {
+        Run run = new Run();
+        ErrorSink errors = new ErrorSink(batch -> run.out.append(batch).append('\n'));
+        Interpreter interpreter = new Interpreter(errors, line -> run.out.append(line).append('\n'));
+        LoxEngine.execute(new Scanner(source, errors).scanTokenBuffer(), errors, interpreter);
+        errors.flush();
+        run.output = run.out.toString();
+        run.caches = interpreter.caches;
+        return run;
+    }
+
+    private static Run vm(String source, boolean jit) {
+        Run run = new Run();
+        ErrorSink errors = new ErrorSink(batch -> run.out.append(batch).append('\n'));
+        run.vm = new VM(errors, line -> run.out.append(line).append('\n'), jit);
+        LoxEngine.execute(new Scanner(source, errors).scanTokenBuffer(), errors, run.vm);
+        errors.flush();
+        run.output = run.out.toString();
+        run.caches = run.vm.caches;
+        return run;
+    }
+}
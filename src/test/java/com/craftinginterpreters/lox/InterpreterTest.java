@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InterpreterTest {
+    @Test
+    void evaluatesArithmeticWithPrecedence() {
+        assertEquals("7\n-1\n2.5\n", run("print 1 + 2 * 3; print -(3 - 2); print 5 / 2;"));
+    }
+
+    @Test
+    void concatenatesStringsAndComparesValues() {
+        assertEquals("ab\ntrue\nfalse\ntrue\n",
+                run("print \"a\" + \"b\"; print 1 == 1; print \"a\" == \"b\"; print nil == nil;"));
+    }
+
+    @Test
+    void localsShadowGlobalsAndEachOther() {
+        String source = "var a = \"global\";\n"
+                + "{ var a = \"outer\"; { var a = \"inner\"; print a; } print a; }\n"
+                + "print a;";
+        assertEquals("inner\nouter\nglobal\n", run(source));
+    }
+
+    @Test
+    void closuresCaptureTheirDeclaringScope() {
+        String source = "fun makeCounter() { var i = 0; fun count() { i = i + 1; return i; } return count; }\n"
+                + "var counter = makeCounter(); counter(); print counter();\n"
+                + "var a = \"global\";\n"
+                + "{ fun show() { print a; } show(); var a = \"block\"; show(); }";
+        // The resolver binds `a` in show() to the global, even after the block declares its own.
+        assertEquals("2\nglobal\nglobal\n", run(source));
+    }
+
+    @Test
+    void recursionAndLoops() {
+        String source = "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\n"
+                + "print fib(15);\n"
+                + "var total = 0; for (var i = 1; i <= 10; i = i + 1) total = total + i; print total;\n"
+                + "var j = 0; while (j < 3) j = j + 1; print j;";
+        assertEquals("610\n55\n3\n", run(source));
+    }
+
+    @Test
+    void classesWithInitializersInheritanceAndSuper() {
+        String source = "class A { init(name) { this.name = name; } greet() { return \"A \" + this.name; } }\n"
+                + "class B < A { greet() { return \"B \" + super.greet(); } }\n"
+                + "var b = B(\"x\"); print b.greet(); print b; print B;\n"
+                + "var m = b.greet; print m();\n"
+                + "print b.init(\"y\").name;";
+        assertEquals("B A x\nB instance\nB\nB A x\ny\n", run(source));
+    }
+
+    @Test
+    void logicalOperatorsShortCircuit() {
+        assertEquals("yes\nnil\n1\n", run("print nil or \"yes\"; print nil and 1; print 1 or undefined;"));
+    }
+
+    @Test
+    void runtimeErrorIsReportedWithItsLine() {
+        String errors = runForErrors("var a = 1;\nprint a + \"b\";");
+        assertEquals("Operands must be two numbers or two strings.\n[line 2]\n", errors);
+    }
+
+    @Test
+    void undefinedVariableIsARuntimeError() {
+        assertEquals("Undefined variable 'missing'.\n[line 1]\n", runForErrors("print missing;"));
+    }
+
+    @Test
+    void wrongArityIsARuntimeError() {
+        assertEquals("Expected 2 arguments but got 1.\n[line 1]\n",
+                runForErrors("fun f(a, b) {} f(1);"));
+    }
+
+    @Test
+    void resolverAssignsSlotsInDeclarationOrder() {
+        List<Stmt> statements = parse("{ var a = 1; var b = 2; print b; }");
+        new Resolver().resolve(statements);
+
+        Stmt.Block block = (Stmt.Block) statements.get(0);
+        assertEquals(2, block.slotCount);
+        Expr.Variable read = (Expr.Variable) ((Stmt.Print) block.statements.get(2)).expression;
+        assertEquals(0, read.depth);
+        assertEquals(1, read.slot);
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new ArrayList<>(new Scanner(source).scanTokens())).parse();
+    }
+
+    private static String run(String source) {
+        List<Stmt> statements = parse(source);
+        new Resolver().resolve(statements);
+
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            new Interpreter().interpret(statements);
+        } finally {
+            System.setOut(originalOut);
+        }
+        return out.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+
+    private static String runForErrors(String source) {
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+        try {
+            run(source);
+        } finally {
+            System.setErr(originalErr);
+        }
+        return err.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+}
@@ -0,0 +1,130 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JitTest {
+    // Programs that call or loop well past Jit.HOT, with output that must not change when hot
+    // code is compiled.
+    private static final String[] PROGRAMS = {
+        "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\n"
+                + "print fib(20);",
+        "fun loops() { var sum = 0;\n"
+                + "  for (var i = 0; i < 100; i = i + 1) for (var j = 0; j < 100; j = j + 1)"
+                + " sum = sum + i * j - j / 2;\n"
+                + "  return sum; }\n"
+                + "print loops();",
+        "fun cmp(a, b) { return (a < b) == !(a >= b) and (a > b) == !(a <= b) and a != b; }\n"
+                + "var n = 0; for (var i = 0; i < 3000; i = i + 1) if (cmp(i, 1500)) n = n + 1;\n"
+                + "print n; print cmp(0/0, 1); print -(0/0) == 0/0;",
+        "class Counter { init() { this.count = 0; }\n"
+                + "  increment(by) { this.count = this.count + by; return this; } }\n"
+                + "class Step < Counter { step() { return super.increment(1); }"
+                + " get() { var m = super.increment; return m(0).count; } }\n"
+                + "var c = Step(); for (var i = 0; i < 3000; i = i + 1) { c.step(); c.increment(2); }\n"
+                + "print c.get(); print c;",
+        "var total = 0; var names = \"\";\n"
+                + "fun visit(i) { total = total + i; if (i == 2999) names = names + \"done\"; return nil; }\n"
+                + "for (var i = 0; i < 3000; i = i + 1) visit(i);\n"
+                + "print total; print names; print visit; print clock() > 0;",
+        "fun outer() { var x = 0; fun bump() { x = x + 1; return x; } return bump; }\n"
+                + "var bump = outer(); for (var i = 0; i < 3000; i = i + 1) bump(); print bump();\n"
+                + "fun make(n) { fun id() { return n; } return id; }\n"
+                + "var sum = 0; for (var i = 0; i < 3000; i = i + 1) sum = sum + make(i)(); print sum;",
+        "fun define() { for (var i = 0; i < 2000; i = i + 1) { class A { m() { return 1; } }"
+                + " class B < A {} fun f() { return 2; } var b = B(); b.m(); } print \"defined\"; }\n"
+                + "define();",
+    };
+
+    @Test
+    void compiledCodeMatchesTheInterpreter() {
+        for (String source : PROGRAMS) {
+            Run interpreted = run(source, false);
+            Run compiled = run(source, true);
+            assertEquals(interpreted.output, compiled.output, source);
+            assertEquals("", compiled.errors, source);
+            assertTrue(compiled.vm.jit.compilations > 0, source);
+        }
+    }
+
+    @Test
+    void aLongLoopIsEnteredAtItsHeader() {
+        Run run = run("fun loops() { var sum = 0;"
+                + " for (var i = 0; i < 2000; i = i + 1) sum = sum + i; return sum; }\n"
+                + "print loops();", true);
+
+        assertEquals("1999000\n", run.output);
+        assertEquals(1, run.vm.jit.osrEntries);
+        assertEquals(1, run.vm.jit.compilations);
+        assertEquals(0, run.vm.jit.deoptimizations);
+    }
+
+    @Test
+    void aFailedGuardDeoptimizesAndTheFunctionIsRecompiledGeneric() {
+        String source = "fun add(a, b) { return a + b; }\n"
+                + "var n = 0; for (var i = 0; i < 2000; i = i + 1) n = add(n, 1);\n"
+                + "print add(\"a\", \"b\");\n"
+                + "var s = \"\"; for (var i = 0; i < 2000; i = i + 1) s = add(s, \"x\");\n"
+                + "print n;";
+        Run run = run(source, true);
+
+        assertEquals("ab\n2000\n", run.output);
+        assertEquals(run(source, false).output, run.output);
+        // add is compiled for numbers, fails its guard on strings, and is compiled again with
+        // a generic '+', which the strings no longer fail; the looping script is compiled once.
+        assertEquals(1, run.vm.jit.deoptimizations);
+        assertEquals(3, run.vm.jit.compilations);
+    }
+
+    @Test
+    void runtimeErrorsInCompiledCodeKeepTheInterpretersTrace() {
+        String source = "fun negate(x) { return -x; }\n"
+                + "fun call(x) {\n  return negate(x);\n}\n"
+                + "for (var i = 0; i < 2000; i = i + 1) call(i);\n"
+                + "call(\"a\");";
+        Run interpreted = run(source, false);
+        Run compiled = run(source, true);
+
+        assertEquals("Operand must be a number.\n[line 1] in negate()\n[line 3] in call()\n"
+                + "[line 6] in script\n", compiled.errors);
+        assertEquals(interpreted.errors, compiled.errors);
+        assertTrue(compiled.vm.jit.deoptimizations > 0);
+
+        Run overflow = run("fun deep(n) { return deep(n + 1); }\ndeep(0);", true);
+        assertEquals(run("fun deep(n) { return deep(n + 1); }\ndeep(0);", false).errors, overflow.errors);
+        assertTrue(overflow.errors.startsWith("Stack overflow.\n[line 1] in deep()\n"), overflow.errors);
+    }
+
+    @Test
+    void functionsWhoseLocalsAreCapturedStayInterpreted() {
+        Run run = run("fun outer() { var x = 1; fun get() { return x; } return get; }\n"
+                + "var n = 0; for (var i = 0; i < 2000; i = i + 1) n = n + outer()();\n"
+                + "print n;", true);
+
+        assertEquals("2000\n", run.output);
+        // outer captures x; get and the looping script are compiled.
+        assertTrue(run.vm.jit.rejected >= 1);
+    }
+
+    private static final class Run {
+        final StringBuilder out = new StringBuilder();
+        final StringBuilder errorText = new StringBuilder();
+        VM vm;
+        String output;
+        String errors;
+    }
+
+    private static Run run(String source, boolean jit) {
+        Run run = new Run();
+        ErrorSink errors = new ErrorSink(batch -> run.errorText.append(batch).append('\n'));
+        run.vm = new VM(errors, line -> run.out.append(line).append('\n'), jit);
+        Obj.Function script = new Compiler(new Scanner(source, errors).scanTokenBuffer(), errors).compile();
+        assertNotNull(script, source);
+        run.vm.interpret(script);
+        errors.flush();
+        run.output = run.out.toString();
+        run.errors = run.errorText.toString();
+        return run;
+    }
+}
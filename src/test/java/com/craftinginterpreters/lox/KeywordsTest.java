@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.craftinginterpreters.lox.TokenType.*;
+
+class KeywordsTest {
+    @Test
+    void everyKeywordTypeIsRecognizedFromItsName() {
+        for (TokenType type : EnumSet.range(AND, WHILE)) {
+            String spelling = type.name().toLowerCase(Locale.ROOT);
+            assertEquals(type, Keywords.lookup(spelling, 0, spelling.length()));
+            assertEquals(type, Keywords.lookup(spelling.toCharArray(), 0, spelling.length()));
+        }
+    }
+
+    @Test
+    void lookupRespectsTheSpanBounds() {
+        String source = "xforx fun";
+        assertEquals(FOR, Keywords.lookup(source, 1, 4));
+        assertEquals(IDENTIFIER, Keywords.lookup(source, 0, 5));
+        assertEquals(FUN, Keywords.lookup(source, 6, 9));
+    }
+
+    @Test
+    void nearMissesAreIdentifiers() {
+        for (String text : new String[] {"an", "andy", "fals", "fu", "Fun", "whiles", "_if", "z", "thisx", "nul"}) {
+            assertEquals(IDENTIFIER, Keywords.lookup(text, 0, text.length()), text);
+        }
+    }
+}
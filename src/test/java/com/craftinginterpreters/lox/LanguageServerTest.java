@@ -0,0 +1,231 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanguageServerTest {
+    private Client client;
+
+    @AfterEach
+    void stop() throws Exception {
+        if (client != null) client.close();
+    }
+
+    @Test
+    void highlightsDiagnosesAndFindsDefinitions() throws Exception {
+        client = new Client(10);
+        Map<?, ?> initialize = client.request(1, "initialize", "{}");
+        Map<?, ?> capabilities = (Map<?, ?>) ((Map<?, ?>) initialize.get("result")).get("capabilities");
+        assertEquals(true, capabilities.get("definitionProvider"));
+
+        client.notify("initialized", "{}");
+        client.notify("textDocument/didOpen", "{\"textDocument\":{\"uri\":\"file:///a.lox\","
+                + "\"languageId\":\"lox\",\"version\":1,\"text\":\"var a = 1;\\nprint a +;\"}}");
+        Map<?, ?> published = client.next();
+        assertEquals("textDocument/publishDiagnostics", published.get("method"));
+        List<?> diagnostics = (List<?>) ((Map<?, ?>) published.get("params")).get("diagnostics");
+        assertEquals(1, diagnostics.size());
+        Map<?, ?> diagnostic = (Map<?, ?>) diagnostics.get(0);
+        assertEquals("P001", diagnostic.get("code"));
+        assertEquals("{\"start\":{\"line\":1,\"character\":9},\"end\":{\"line\":1,\"character\":10}}",
+                Json.write(diagnostic.get("range")));
+
+        Map<?, ?> tokens = client.request(2, "textDocument/semanticTokens/full",
+                "{\"textDocument\":{\"uri\":\"file:///a.lox\"}}");
+        assertEquals("[0,0,3,0,0,0,4,1,1,1,0,2,1,9,0,0,2,1,8,0,1,0,5,0,0,0,6,1,1,0,0,2,1,9,0]",
+                Json.write(((Map<?, ?>) tokens.get("result")).get("data")));
+
+        Map<?, ?> definition = client.request(3, "textDocument/definition",
+                "{\"textDocument\":{\"uri\":\"file:///a.lox\"},\"position\":{\"line\":1,\"character\":6}}");
+        assertEquals("{\"uri\":\"file:///a.lox\",\"range\":{\"start\":{\"line\":0,\"character\":4},"
+                + "\"end\":{\"line\":0,\"character\":5}}}", Json.write(definition.get("result")));
+
+        assertEquals(LanguageServer.METHOD_NOT_FOUND, errorCode(client.request(4, "textDocument/hover", "{}")));
+        assertNull(client.request(5, "shutdown", null).get("result"));
+        client.notify("exit", null);
+        assertEquals(0, client.exitStatus());
+    }
+
+    @Test
+    void changesAreDebouncedIntoOnePublication() throws Exception {
+        client = new Client(300);
+        client.request(1, "initialize", "{}");
+        client.notify("textDocument/didOpen", "{\"textDocument\":{\"uri\":\"file:///b.lox\","
+                + "\"version\":1,\"text\":\"print 1;\"}}");
+        assertEquals(0, ((List<?>) ((Map<?, ?>) client.next().get("params")).get("diagnostics")).size());
+
+        // Type "@@" after the semicolon, then delete the first "@", as three changes.
+        client.notify("textDocument/didChange", change(2, 8, 8, "@"));
+        client.notify("textDocument/didChange", change(3, 9, 9, "@"));
+        client.notify("textDocument/didChange", change(4, 8, 9, ""));
+
+        Map<?, ?> params = (Map<?, ?>) client.next().get("params");
+        assertEquals(4L, params.get("version"));
+        List<?> diagnostics = (List<?>) params.get("diagnostics");
+        assertEquals(1, diagnostics.size());
+        Map<?, ?> diagnostic = (Map<?, ?>) diagnostics.get(0);
+        assertEquals("Unexpected character: '@'.", diagnostic.get("message"));
+        assertEquals("{\"start\":{\"line\":0,\"character\":8},\"end\":{\"line\":0,\"character\":9}}",
+                Json.write(diagnostic.get("range")));
+    }
+
+    @Test
+    void cancelledAndStaleRequestsAreAnsweredWithoutRunning() throws Exception {
+        client = new Client(10);
+        client.request(1, "initialize", "{}");
+        client.notify("textDocument/didOpen", "{\"textDocument\":{\"uri\":\"file:///c.lox\","
+                + "\"version\":1,\"text\":\"var c;\"}}");
+        client.next();
+
+        // Hold the worker so the requests below stay queued.
+        CountDownLatch release = new CountDownLatch(1);
+        client.server.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        String document = "{\"textDocument\":{\"uri\":\"file:///c.lox\"}}";
+        client.send(2, "textDocument/semanticTokens/full", document);
+        client.send(3, "textDocument/semanticTokens/full", document);
+        client.send(4, "textDocument/definition",
+                "{\"textDocument\":{\"uri\":\"file:///c.lox\"},\"position\":{\"line\":0,\"character\":4}}");
+        client.notify("$/cancelRequest", "{\"id\":4}");
+
+        // The newer request for the same tokens makes the older one stale.
+        Map<?, ?> stale = client.next();
+        assertEquals(2L, stale.get("id"));
+        assertEquals(LanguageServer.CONTENT_MODIFIED, errorCode(stale));
+        Map<?, ?> cancelled = client.next();
+        assertEquals(4L, cancelled.get("id"));
+        assertEquals(LanguageServer.REQUEST_CANCELLED, errorCode(cancelled));
+
+        release.countDown();
+        Map<?, ?> answered = client.next();
+        assertEquals(3L, answered.get("id"));
+        assertEquals("[0,0,3,0,0,0,4,1,1,1]", Json.write(((Map<?, ?>) answered.get("result")).get("data")));
+    }
+
+    private static String change(int version, int start, int end, String text) {
+        return "{\"textDocument\":{\"uri\":\"file:///b.lox\",\"version\":" + version + "},"
+                + "\"contentChanges\":[{\"range\":{\"start\":{\"line\":0,\"character\":" + start + "},"
+                + "\"end\":{\"line\":0,\"character\":" + end + "}},\"text\":" + Json.write(text) + "}]}";
+    }
+
+    private static long errorCode(Map<?, ?> response) {
+        return ((Number) ((Map<?, ?>) response.get("error")).get("code")).longValue();
+    }
+
+    /**
+     * A scripted client: it writes framed messages to a server running on another thread and
+     * collects what the server writes back.
+     */
+    private static final class Client {
+        final LanguageServer server;
+        private final OutputStream toServer;
+        private final CompletableFuture<Integer> status = new CompletableFuture<>();
+        private final BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+
+        Client(long debounceMillis) throws IOException {
+            PipedInputStream serverInput = new PipedInputStream(1 << 16);
+            toServer = new PipedOutputStream(serverInput);
+            PipedInputStream fromServer = new PipedInputStream(1 << 16);
+            server = new LanguageServer(serverInput, new PipedOutputStream(fromServer), debounceMillis);
+
+            Thread serverThread = new Thread(() -> {
+                try {
+                    status.complete(server.run());
+                } catch (IOException e) {
+                    status.completeExceptionally(e);
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            Thread readerThread = new Thread(() -> readAll(fromServer));
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+
+        Map<?, ?> request(int id, String method, String params) throws Exception {
+            send(id, method, params);
+            Map<?, ?> message = next();
+            assertEquals((long) id, message.get("id"), () -> "unexpected " + Json.write(message));
+            return message;
+        }
+
+        void send(int id, String method, String params) throws IOException {
+            write("{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"" + method + "\""
+                    + (params == null ? "" : ",\"params\":" + params) + "}");
+        }
+
+        void notify(String method, String params) throws IOException {
+            write("{\"jsonrpc\":\"2.0\",\"method\":\"" + method + "\""
+                    + (params == null ? "" : ",\"params\":" + params) + "}");
+        }
+
+        Map<?, ?> next() throws InterruptedException {
+            Map<?, ?> message = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(message, "no message from the server");
+            return message;
+        }
+
+        int exitStatus() throws Exception {
+            return status.get(10, TimeUnit.SECONDS);
+        }
+
+        void close() throws IOException {
+            toServer.close();
+        }
+
+        private void write(String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            toServer.write(("Content-Length: " + bytes.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            toServer.write(bytes);
+            toServer.flush();
+        }
+
+        private void readAll(InputStream in) {
+            try {
+                while (true) {
+                    int length = -1;
+                    ByteArrayOutputStream header = new ByteArrayOutputStream();
+                    while (true) {
+                        int c = in.read();
+                        if (c < 0) return;
+                        if (c != '\n') {
+                            if (c != '\r') header.write(c);
+                            continue;
+                        }
+                        String line = header.toString(StandardCharsets.US_ASCII);
+                        header.reset();
+                        if (line.isEmpty()) break;
+                        length = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+                    }
+                    String body = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+                    received.add((Map<?, ?>) Json.parse(body));
+                }
+            } catch (IOException e) {
+                // The server closed its end.
+            }
+        }
+    }
+}
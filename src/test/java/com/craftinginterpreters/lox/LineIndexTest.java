@@ -0,0 +1,40 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineIndexTest {
+    @Test
+    void mapsOffsetsToLinesAndColumns() {
+        LineIndex lines = LineIndex.of("var a;\n  print a;\n\n");
+        assertEquals(4, lines.lineCount());
+        assertEquals(7, lines.lineStart(2));
+        assertEquals(1, lines.lineOf(6)); // the newline belongs to the line it ends
+        assertEquals(2, lines.lineOf(9));
+        assertEquals(3, lines.column(9));
+        assertEquals(3, lines.column(9, 2));
+        // A wrong line hint falls back to the search.
+        assertEquals(3, lines.column(9, 1));
+        assertEquals(4, lines.lineOf(19));
+        assertThrows(IndexOutOfBoundsException.class, () -> lines.lineStart(5));
+    }
+
+    @Test
+    void randomEditsMatchARebuild() {
+        Random random = new Random(5);
+        String[] pieces = {"a", "bc", "\n", " ", "\n\n", "x\ny"};
+        String source = "";
+        LineIndex lines = LineIndex.of(source);
+        for (int step = 0; step < 2000; step++) {
+            int offset = random.nextInt(source.length() + 1);
+            int removed = random.nextInt(Math.min(4, source.length() - offset) + 1);
+            String inserted = random.nextInt(3) == 0 ? "" : pieces[random.nextInt(pieces.length)];
+            source = source.substring(0, offset) + inserted + source.substring(offset + removed);
+            lines = lines.edit(offset, removed, inserted);
+            assertEquals(LineIndex.of(source), lines, source);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoxDocumentTest {
+    @Test
+    void definitionsFollowScopesParametersAndLoops() {
+        String source = String.join("\n",
+                "var a = 1;",
+                "fun f(a) { return a + b; }",
+                "for (var i = 0; i < 1; i = i + 1) print i;",
+                "print i;",
+                "class C { m() { return this.m; } }",
+                "var b = C();");
+        LoxDocument document = new LoxDocument("file:///a.lox", 1, source);
+
+        // The parameter shadows the global, and b is a global declared later.
+        assertDeclaration(document, 1, 18, 1, 6);
+        assertDeclaration(document, 1, 22, 5, 4);
+        // The loop variable is visible in the body but not after it.
+        assertDeclaration(document, 2, 40, 2, 9);
+        assertEquals(-1, document.declarationAt(3, 6));
+        // A property links to a method of that name; a call links to the class.
+        assertDeclaration(document, 4, 28, 4, 10);
+        assertDeclaration(document, 5, 8, 4, 6);
+        // The caret just after an identifier counts as on it.
+        assertDeclaration(document, 1, 19, 1, 6);
+    }
+
+    @Test
+    void editsRelexOnlyAroundTheChangeAndKeepOtherErrors() {
+        StringBuilder source = new StringBuilder();
+        for (int line = 0; line < 50_000; line++) {
+            source.append("var v").append(line).append(" = ").append(line).append(";\n");
+        }
+        source.append("@\n");
+        LoxDocument document = new LoxDocument("file:///big.lox", 1, source.toString());
+        assertEquals(1, document.diagnostics().size());
+
+        // Three keystrokes near the top are one catch-up, which lexes a handful of tokens.
+        document.edit(2, 10, 4, 10, 6, "");
+        document.edit(3, 10, 4, 10, 4, "renamed");
+        document.edit(4, 10, 11, 10, 11, "$");
+        assertTrue(document.lastRelexedCount() < 10, "relexed " + document.lastRelexedCount());
+        assertEquals(new Scanner(document.text()).scanTokenBuffer().size(), document.tokens().size());
+
+        List<LoxDocument.Diagnostic> diagnostics = document.diagnostics();
+        assertEquals(3, diagnostics.size());
+        assertEquals("L001", diagnostics.get(0).code);
+        assertEquals(10, document.lineOf(diagnostics.get(0).offset));
+        // The stray '@' at the end was not re-lexed, only moved.
+        assertEquals('@', document.text().charAt(diagnostics.get(1).offset));
+        assertEquals(50_000, document.lineOf(diagnostics.get(1).offset));
+        assertEquals("P001", diagnostics.get(2).code);
+
+        // Asking again for the same version does not parse again.
+        int analyses = document.analyses();
+        document.diagnostics();
+        document.semanticTokens();
+        assertEquals(analyses, document.analyses());
+    }
+
+    @Test
+    void semanticTokensAreRelativeAndSplitAcrossLines() {
+        LoxDocument document = new LoxDocument("file:///s.lox", 1, "fun f(x) {\n  print \"a\nb\" + x;\n}");
+        int[] data = document.semanticTokens();
+
+        assertArrayEquals(new int[] {
+                0, 0, 3, 0, 0,   // fun
+                0, 4, 1, 3, 1,   // f, a function declaration
+                0, 2, 1, 2, 1,   // x, a parameter declaration
+                1, 2, 5, 0, 0,   // print
+                0, 6, 2, 7, 0,   // "a
+                1, 0, 2, 7, 0,   // b"
+                0, 3, 1, 9, 0,   // +
+                0, 2, 1, 2, 0,   // x
+        }, data);
+
+        // The string overlaps the range, so both of its lines are sent.
+        int[] range = document.semanticTokens(2, 0, 2, 10);
+        assertArrayEquals(new int[] {1, 8, 2, 7, 0, 1, 0, 2, 7, 0, 0, 3, 1, 9, 0, 0, 2, 1, 2, 0}, range);
+    }
+
+    private static void assertDeclaration(LoxDocument document, int line, int character,
+                                          int declarationLine, int declarationCharacter) {
+        int declaration = document.declarationAt(line, character);
+        assertTrue(declaration >= 0, "no declaration at " + line + ":" + character);
+        int offset = document.tokens().start(declaration);
+        assertEquals(declarationLine, document.lineOf(offset));
+        assertEquals(declarationCharacter, document.characterOf(offset));
+    }
+}
@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoxEngineTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void runsCaptureOutputAndErrorsSeparately() {
+        for (boolean useVm : new boolean[] {false, true}) {
+            LoxEngine engine = new LoxEngine(useVm);
+
+            LoxEngine.Result ok = engine.run("ok", "var a = 1; print a + 1;");
+            assertEquals("2\n", ok.output);
+            assertEquals("", ok.errors);
+            assertTrue(ok.success());
+
+            LoxEngine.Result syntax = engine.run("syntax", "print 1 +;\n@");
+            assertTrue(syntax.hadError);
+            assertEquals("[line 2] Error: Unexpected character: '@'.\n"
+                    + "[line 1] Error at ';': Expect expression.\n", syntax.errors);
+
+            LoxEngine.Result runtime = engine.run("runtime", "print 1; print -\"x\";");
+            assertEquals("1\n", runtime.output);
+            assertTrue(runtime.hadRuntimeError);
+            assertFalse(runtime.hadError);
+            assertTrue(runtime.errors.startsWith("Operand must be a number.\n[line 1]"), runtime.errors);
+
+            // Globals of an earlier run do not leak into the next one.
+            assertTrue(engine.run("leak", "print a;").hadRuntimeError);
+        }
+    }
+
+    @Test
+    void concurrentRunsDoNotShareState() throws Exception {
+        LoxEngine engine = new LoxEngine(false);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<LoxEngine.Result>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                // Every third program fails; the others must still succeed with their own value.
+                String source = i % 3 == 0
+                        ? "var x = " + i + "; print x; x();"
+                        : "var x = " + i + "; fun f(n) { if (n < 1) return x; return f(n - 1); } print f(50);";
+                futures.add(executor.submit(() -> engine.run("p", source)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                LoxEngine.Result result = futures.get(i).get();
+                assertEquals(i + "\n", result.output);
+                assertEquals(i % 3 != 0, result.success(), result.errors);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void batchesReturnResultsInInputOrder() throws IOException, InterruptedException {
+        Path nested = Files.createDirectories(directory.resolve("lib"));
+        write(nested.resolve("b.lox"), "print \"b\";");
+        write(nested.resolve("a.lox"), "print \"a\";");
+        write(nested.resolve("notes.txt"), "not lox");
+        Path single = write(directory.resolve("single.lox"), "print nil +;");
+
+        LoxEngine.Batch batch = new LoxEngine(true).runBatch(
+                List.of(single, nested, directory.resolve("missing.lox")), 2);
+
+        assertEquals(4, batch.results.size());
+        assertEquals(single.toString(), batch.results.get(0).name);
+        assertTrue(batch.results.get(0).hadError);
+        assertEquals("a\n", batch.results.get(1).output);
+        assertEquals("b\n", batch.results.get(2).output);
+        assertTrue(batch.results.get(3).errors.startsWith("Could not read"));
+        assertEquals(2, batch.failures());
+        assertTrue(batch.summary().startsWith("4 files (2 failed)"), batch.summary());
+    }
+
+    private static Path write(Path path, String source) throws IOException {
+        return Files.write(path, source.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,93 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NumberParserTest {
+    private static final int SAMPLES = 200_000;
+
+    @Test
+    void randomDigitStringsMatchParseDouble() {
+        Random random = new Random(42);
+        for (int n = 0; n < SAMPLES; n++) {
+            int integerDigits = 1 + random.nextInt(random.nextBoolean() ? 8 : 30);
+            int fractionDigits = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(random.nextBoolean() ? 6 : 30);
+            assertParsesLikeParseDouble(digits(random, integerDigits)
+                    + (fractionDigits == 0 ? "" : "." + digits(random, fractionDigits)));
+        }
+    }
+
+    @Test
+    void shortestRepresentationsOfRandomDoublesRoundTrip() {
+        Random random = new Random(7);
+        for (int n = 0; n < SAMPLES; n++) {
+            double value = Math.abs(Double.longBitsToDouble(random.nextLong()));
+            if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+            // Keep Double.toString's digits, but in the plain form the Lox grammar accepts.
+            String text = new BigDecimal(Double.toString(value)).toPlainString();
+            if (text.indexOf('.') < 0) text = text + ".0";
+            assertParsesLikeParseDouble(text);
+            assertEquals(Double.doubleToRawLongBits(value),
+                    Double.doubleToRawLongBits(NumberParser.parse(text, 0, text.length())), text);
+        }
+    }
+
+    @Test
+    void exactExpansionsOfRandomDoublesMatchParseDouble() {
+        // The full binary expansion is long and exercises the correctly rounded fallback.
+        Random random = new Random(11);
+        for (int n = 0; n < SAMPLES / 10; n++) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+            assertParsesLikeParseDouble(new BigDecimal(value).toPlainString());
+        }
+    }
+
+    @Test
+    void boundaryCasesMatchParseDouble() {
+        String[] cases = {
+            "0", "0.0", "00", "000.000", "1", "1.5", "0.1", "0.2", "0.3", "123.456",
+            "9007199254740992", "9007199254740993", "9007199254740995", "18014398509481985",
+            "999999999999999999", "1000000000000000000", "9223372036854775807",
+            "9223372036854775808", "99999999999999999999999", "9007199254740992.5",
+            "9007199254740.993", "0.0000000000000000000001", "0.00000000000000000000001",
+            "1.7976931348623157", "17976931348623157" + "0".repeat(292), "1" + "0".repeat(400),
+            "0." + "0".repeat(307) + "22250738585072011", "0." + "0".repeat(323) + "49",
+            "0.30000000000000004", "4.35", "1000000000000000000000000.0",
+        };
+        for (String text : cases) assertParsesLikeParseDouble(text);
+    }
+
+    @Test
+    void parseRespectsTheSpanBounds() {
+        String source = "x = 12.5;";
+        assertEquals(12.5, NumberParser.parse(source, 4, 8));
+        assertEquals(12.0, NumberParser.parse(source, 4, 6));
+        assertEquals(2.5, NumberParser.parse(source.toCharArray(), 5, 8));
+    }
+
+    @Test
+    void scannersUseTheParsedValues() {
+        String source = "0.1 9007199254740993 123456789012345678901234567890.5";
+        TokenBuffer tokens = new Scanner(source).scanTokenBuffer();
+        assertEquals(0.1, tokens.number(0));
+        assertEquals(9007199254740992.0, tokens.number(1));
+        assertEquals(Double.parseDouble("123456789012345678901234567890.5"), tokens.number(2));
+    }
+
+    private static void assertParsesLikeParseDouble(String text) {
+        long expected = Double.doubleToRawLongBits(Double.parseDouble(text));
+        assertEquals(expected, Double.doubleToRawLongBits(NumberParser.parse(text, 0, text.length())), text);
+        assertEquals(expected, Double.doubleToRawLongBits(
+                NumberParser.parse(text.toCharArray(), 0, text.length())), text);
+    }
+
+    private static String digits(Random random, int count) {
+        StringBuilder digits = new StringBuilder(count);
+        for (int i = 0; i < count; i++) digits.append((char) ('0' + random.nextInt(10)));
+        return digits.toString();
+    }
+}
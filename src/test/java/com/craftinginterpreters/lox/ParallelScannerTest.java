@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelScannerTest {
+    private static final String[] PIECES = {
+            "var x = 1.5;\n", "\"a string\"", "\"spans\nthree\nlines\"", "// comment \"quote\n",
+            "// plain comment\n", "fun f(a, b) { return a <= b; }\n", "\n", "print \"//not a comment\";\n",
+            " / ", "\"", "ident", "12", "while (!done) done = true;\n",
+            "/* block\ncomment */", "/* outer /* inner\n*/ still\n*/", "/*", "*/", " * ", "/* // \" */\n"
+    };
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void smallSourceFallsBackToSequentialScan() {
+        assertSameAsSequential("var a = \"b\";", new ParallelScanner(pool));
+    }
+
+    @Test
+    void stringSpanningManyChunksIsOneToken() {
+        StringBuilder source = new StringBuilder("print \"");
+        for (int i = 0; i < 200; i++) source.append("line ").append(i).append('\n');
+        source.append("\";\nvar after = 1;\n");
+        assertSameAsSequential(source.toString(), new ParallelScanner(pool, 16));
+    }
+
+    @Test
+    void unterminatedStringRunsToTheEnd() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100; i++) source.append("var a").append(i).append(" = ").append(i).append(";\n");
+        source.insert(source.length() / 3, '"');
+        assertSameAsSequential(source.toString(), new ParallelScanner(pool, 16));
+    }
+
+    @Test
+    void errorsAreReportedInSourceOrderUpToTheSameCap() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 300; i++) source.append("var a").append(i).append(" = @@ ").append(i % 7 == 0 ? "#" : "").append(";\n");
+        source.append("\"unterminated\n");
+        assertSameAsSequential(source.toString(), new ParallelScanner(pool, 16));
+    }
+
+    @Test
+    void randomSourcesMatchSequentialScan() {
+        Random random = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            StringBuilder source = new StringBuilder();
+            int pieces = 50 + random.nextInt(200);
+            for (int i = 0; i < pieces; i++) {
+                source.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertSameAsSequential(source.toString(), new ParallelScanner(pool, 1 + random.nextInt(64)));
+        }
+    }
+
+    private static void assertSameAsSequential(String source, ParallelScanner scanner) {
+        StringBuilder expectedErrors = new StringBuilder();
+        StringBuilder actualErrors = new StringBuilder();
+        TokenBuffer expected = new Scanner(source, errors(expectedErrors)).scanTokenBuffer();
+        TokenBuffer actual = scanner.scan(source, errors(actualErrors));
+        assertEquals(expectedErrors.toString(), actualErrors.toString(), source);
+        assertEquals(expected.size(), actual.size(), source);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.type(i), actual.type(i), source);
+            assertEquals(expected.start(i), actual.start(i), source);
+            assertEquals(expected.length(i), actual.length(i), source);
+            assertEquals(expected.line(i), actual.line(i), source);
+            assertEquals(expected.literal(i), actual.literal(i), source);
+            // Merging interns chunk symbols in chunk order, which is first-appearance order.
+            assertEquals(expected.symbol(i), actual.symbol(i), source);
+        }
+        assertEquals(LineIndex.of(source), actual.lineIndex(), source);
+    }
+
+    // JSON has every field of a record; a small cap also checks which records are dropped.
+    private static ErrorSink errors(StringBuilder out) {
+        return new ErrorSink(batch -> out.append(batch).append('\n'), ErrorSink.Format.JSON, 100);
+    }
+}
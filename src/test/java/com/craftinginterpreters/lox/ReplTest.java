@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplTest {
+    @Test
+    void sessionStateOutlivesEachEntryAndItsErrors() throws IOException {
+        StringBuilder errors = new StringBuilder();
+        String output = run(Repl.Mode.INTERPRET, false, errors, String.join("\n",
+                "var a = 1;",
+                "print a + ;",
+                "print -\"x\";",
+                "a = a + 1;",
+                "print a;"));
+
+        assertEquals("2\n", output);
+        assertEquals("[line 1] Error at ';': Expect expression.\n"
+                + "Operand must be a number.\n[line 1]\n", errors.toString());
+    }
+
+    @Test
+    void openBracesStringsAndCommentsContinueTheEntry() throws IOException {
+        StringBuilder errors = new StringBuilder();
+        String output = run(Repl.Mode.INTERPRET, false, errors, String.join("\n",
+                "fun greet(name) {",
+                "  /* a comment",
+                "     over lines */",
+                "  print \"hello,",
+                "\" + name;",
+                "}",
+                "greet(",
+                "  \"you\");",
+                "print \"unterminated"));
+
+        assertEquals("hello,\nyou\n", output);
+        // At the end of the input, the unfinished entry is run for its errors.
+        assertEquals("[line 1] Error: Unterminated string.\n"
+                + "[line 1] Error at end: Expect expression.\n", errors.toString());
+    }
+
+    @Test
+    void tokensMatchTokenToString() throws IOException {
+        String[] lines = {"var s = \"a b\";", "print 1.5 + s;", "", "nil // done"};
+        String output = run(Repl.Mode.TOKENS, false, new StringBuilder(), String.join("\n", lines));
+
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            for (Token token : new Scanner(line)) expected.append(token).append('\n');
+        }
+        assertEquals(expected.toString(), output);
+    }
+
+    @Test
+    void errorsComeAfterTheOutputPrintedBeforeThem() throws IOException {
+        for (Repl.Mode mode : new Repl.Mode[] {Repl.Mode.INTERPRET, Repl.Mode.VM}) {
+            // stdout and stderr written to one place, as with 2>&1.
+            StringWriter both = new StringWriter();
+            ErrorSink sink = new ErrorSink(batch -> both.write(batch + "\n"));
+            new Repl(new StringReader("print 1;\nprint 2;\nprint -\"x\";\nprint 3;\nprint @;\nprint 4;\n"),
+                    both, sink, mode, false).run();
+
+            String trace = mode == Repl.Mode.VM ? "[line 1] in script" : "[line 1]";
+            assertEquals("1\n2\nOperand must be a number.\n" + trace + "\n3\n"
+                    + "[line 1] Error: Unexpected character: '@'.\n"
+                    + "[line 1] Error at ';': Expect expression.\n4\n", both.toString(), mode.name());
+        }
+    }
+
+    @Test
+    void promptsOnlyWhenInteractive() throws IOException {
+        String output = run(Repl.Mode.VM, true, new StringBuilder(), "print 1;\n{\nprint 2;\n}\n");
+        assertEquals("> 1\n> ... ... 2\n> ", output);
+    }
+
+    private static String run(Repl.Mode mode, boolean interactive, StringBuilder errors, String input)
+            throws IOException {
+        ErrorSink sink = new ErrorSink(batch -> errors.append(batch).append('\n'));
+        StringWriter out = new StringWriter();
+        new Repl(new StringReader(input), out, sink, mode, interactive).run();
+        return out.toString();
+    }
+}
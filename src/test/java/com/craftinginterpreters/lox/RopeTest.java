@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RopeTest {
+    @Test
+    void randomEditsMatchAStringBuilder() {
+        Random random = new Random(17);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) expected.append(i % 7 == 0 ? '\n' : (char) ('a' + i % 26));
+        Rope rope = Rope.of(expected.toString());
+
+        for (int edit = 0; edit < 2000; edit++) {
+            int start = random.nextInt(expected.length() + 1);
+            int end = Math.min(expected.length(), start + random.nextInt(6));
+            String inserted = random.nextInt(4) == 0 ? "x\ny" : "z".repeat(random.nextInt(5));
+            expected.replace(start, end, inserted);
+            rope = rope.replace(start, end, inserted);
+        }
+
+        assertEquals(expected.toString(), rope.toString());
+        assertEquals(expected.length(), rope.length());
+        assertEquals(expected.charAt(1234), rope.charAt(1234));
+        assertEquals(expected.substring(100, 3000), rope.subSequence(100, 3000).toString());
+    }
+
+    @Test
+    void positionsBecomeOffsetsThroughTheLineCounts() {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < 3000; line++) text.append("print ").append(line).append(";\n");
+        Rope rope = Rope.of(text.toString());
+
+        assertEquals(3001, rope.lineCount());
+        assertEquals(text.indexOf("print 2500;"), rope.lineStart(2500));
+        assertEquals(text.indexOf("2500;"), rope.offsetOf(2500, 6));
+        // A character past the end of its line means the end of the line.
+        assertEquals(text.indexOf("\n", rope.lineStart(7)), rope.offsetOf(7, 100));
+        assertEquals(text.length(), rope.offsetOf(5000, 0));
+    }
+
+    @Test
+    void appendingOneCharAtATimeStaysShallowAndCompact() {
+        Rope rope = Rope.EMPTY;
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            char c = (char) ('a' + i % 26);
+            rope = rope.concat(String.valueOf(c));
+            expected.append(c);
+        }
+        assertEquals(expected.toString(), rope.toString());
+        assertEquals('c', rope.charAt(99_998));
+    }
+
+    @Test
+    void loxStringsStayFlatUntilTheyAreLong() {
+        CharSequence shortText = Rope.plus("ab", "cd");
+        assertEquals("abcd", shortText);
+
+        CharSequence text = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            String piece = i % 2 == 0 ? "xy" : String.valueOf(i % 10);
+            // Half the pieces go in front, to build on both ends of the tree.
+            text = i % 3 == 0 ? Rope.plus(piece, text) : Rope.plus(text, piece);
+            if (i % 3 == 0) expected.insert(0, piece); else expected.append(piece);
+            if (text.length() <= Rope.FLAT_LIMIT) assertTrue(text instanceof String);
+        }
+
+        assertTrue(text instanceof Rope);
+        assertEquals(expected.toString(), text.toString());
+        // Ropes are equal to, and hash as, other Ropes with the same text, however built.
+        Rope same = Rope.of(expected.toString());
+        assertEquals(same, text);
+        assertEquals(same.hashCode(), text.hashCode());
+        assertEquals(expected.toString().hashCode(), text.hashCode());
+        assertNotEquals(same, Rope.plus(text, "!"));
+        // Lox's '==' also matches a Rope with a String of its text, and nothing else.
+        assertTrue(Rope.textEquals(text, expected.toString()));
+        assertTrue(Rope.textEquals(expected.toString(), same));
+        assertFalse(Rope.textEquals(text, expected.toString() + "!"));
+        assertFalse(Rope.textEquals(text, (double) text.length()));
+        assertFalse(Rope.textEquals(null, text));
+    }
+}
@@ -2,7 +2,11 @@ package com.craftinginterpreters.lox;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -114,6 +118,35 @@ class ScannerTest {
         assertEquals(EOF, tokens.get(4).type);
     }
 
+    @Test
+    void blockCommentsNestAndCountLines() {
+        List<Token> tokens = new Scanner("a /* one /* two\n */ still\n */ b /*/ c */ d /**/ e").scanTokens();
+        assertEquals(List.of(IDENTIFIER, IDENTIFIER, IDENTIFIER, IDENTIFIER, EOF),
+                tokens.stream().map(token -> token.type).collect(Collectors.toList()));
+        assertEquals("b", tokens.get(1).lexeme);
+        assertEquals(3, tokens.get(1).line);
+        assertEquals("e", tokens.get(3).lexeme);
+    }
+
+    @Test
+    void commentDelimitersInsideStringsAndLineCommentsAreText() {
+        List<Token> tokens = new Scanner("\"/*\" // */ x\ny */").scanTokens();
+        assertEquals(STRING, tokens.get(0).type);
+        assertEquals("/*", tokens.get(0).literal);
+        assertEquals(List.of(STRING, IDENTIFIER, STAR, SLASH, EOF),
+                tokens.stream().map(token -> token.type).collect(Collectors.toList()));
+    }
+
+    @Test
+    void unterminatedBlockCommentIsReported() {
+        StringBuilder errors = new StringBuilder();
+        ErrorSink sink = new ErrorSink(errors::append);
+        TokenBuffer tokens = new Scanner("x /* one /* two */\n", sink).scanTokenBuffer();
+        assertEquals(2, tokens.size());
+        assertEquals(2, tokens.line(1));
+        assertEquals("[line 2] Error: Unterminated comment.", errors.toString());
+    }
+
     @Test
     void unterminatedCommentDoesNotCrashScanner() {
         Scanner scanner = new Scanner("/* This is an unterminated comment");
@@ -194,5 +227,95 @@ class ScannerTest {
         assertEquals(CLASS, tokens.get(4).type);
         assertEquals(IDENTIFIER, tokens.get(5).type);
     }
-}
 
+    @Test
+    void pulledTokensMatchTheEagerScan() {
+        String source = "var a = 1.5; // note\nprint \"two\nlines\" /* c */ + a;\n@ fun f() {}";
+        TokenBuffer eager = new Scanner(source).scanTokenBuffer();
+        Scanner scanner = new Scanner(source);
+
+        for (int i = 0; i < eager.size(); i++) {
+            Token token = scanner.nextToken();
+            Token expected = eager.token(i);
+            assertEquals(expected.type, token.type);
+            assertEquals(expected.lexeme, token.lexeme);
+            assertEquals(expected.literal, token.literal);
+            assertEquals(expected.line, token.line);
+            assertEquals(expected.offset, token.offset);
+        }
+        // Past the end, every call returns EOF again.
+        assertEquals(EOF, scanner.nextToken().type);
+        assertEquals(eager.size(), new Scanner(source).stream().count());
+        assertEquals(eager.size(), new Scanner(source).scanTokens().size());
+    }
+
+    @Test
+    void tableDrivenScanMatchesTokenByTokenScanning() {
+        // Every char class, operator pair, the edges of numbers and comments, and junk.
+        String[] pieces = {
+                "a", "_b9", "or", "orchid", "12", "3.", ".5", "7.25", "!", "=", "<", ">", "/", "*",
+                "(", ")", "{", "}", ",", ".", "-", "+", ";", " ", "\t", "\r", "\n", "\"", "\"str\"",
+                "// line", "/*", "*/", "@", "#", "\0", "\u00e9", "\u20ac", "\uD83D\uDE00",
+        };
+        Random random = new Random(21);
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder source = new StringBuilder();
+            // Every tenth source spans several of the eager core's windows, and some have a
+            // lexeme longer than a whole window.
+            boolean large = round % 10 == 0;
+            int count = random.nextInt(large ? 6000 : 40);
+            for (int i = 0; i < count; i++) source.append(pieces[random.nextInt(pieces.length)]);
+            if (large && random.nextBoolean()) {
+                source.insert(random.nextInt(source.length() + 1),
+                        random.nextBoolean() ? " " + "x".repeat(20_000) : " " + "9".repeat(9_000) + ".25");
+            }
+            assertEagerMatchesPulled(source.toString());
+        }
+    }
+
+    private static void assertEagerMatchesPulled(String source) {
+        StringBuilder eagerErrors = new StringBuilder();
+        TokenBuffer eager = new Scanner(source, new ErrorSink(batch -> eagerErrors.append(batch).append('\n')))
+                .scanTokenBuffer();
+        StringBuilder pulledErrors = new StringBuilder();
+        Scanner pulled = new Scanner(source, new ErrorSink(batch -> pulledErrors.append(batch).append('\n')));
+        for (int i = 0; i < eager.size(); i++) {
+            Token token = pulled.nextToken();
+            int index = i;
+            Supplier<String> where = () -> "token " + index + " at offset " + token.offset;
+            assertEquals(eager.type(i), token.type, where);
+            assertEquals(eager.start(i), token.offset, where);
+            assertEquals(eager.lexeme(i), token.lexeme, where);
+            assertEquals(eager.literal(i), token.literal, where);
+            assertEquals(eager.line(i), token.line, where);
+        }
+        assertEquals(EOF, pulled.nextToken().type);
+        assertEquals(pulledErrors.toString(), eagerErrors.toString());
+    }
+
+    @Test
+    void pullingHoldsNoTokensAndFeedsTheParserInLockstep() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) source.append("var v").append(i).append(" = \"s").append(i).append("\";\n");
+        Scanner scanner = new Scanner(source.toString());
+        Iterator<Token> tokens = scanner.iterator();
+        int[] pulled = {0};
+        Iterator<Token> counting = new Iterator<>() {
+            public boolean hasNext() {
+                return tokens.hasNext();
+            }
+
+            public Token next() {
+                // Nothing is left behind in the scanner once a token is handed out.
+                assertEquals(0, scanner.tokens().size());
+                pulled[0]++;
+                return tokens.next();
+            }
+        };
+
+        List<Stmt> statements = new Parser(counting, Lox.errorSink()).parse();
+        assertEquals(20_000, statements.size());
+        assertEquals(20_000 * 5 + 1, pulled[0]);
+        assertFalse(tokens.hasNext());
+    }
+}
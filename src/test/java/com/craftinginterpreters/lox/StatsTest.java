@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsTest {
+    @Test
+    void countsPhasesTokensAndErrors() throws Exception {
+        Stats.enable();
+        Stats.reset();
+        Lox.resetErrors();
+        String output = capture(() -> Lox.run("var a = 1; print a + 2;"));
+        assertEquals("3\n", output);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.craftinginterpreters.lox:type=Stats");
+        assertEquals(11L, server.getAttribute(name, "TokenCount"));
+        assertEquals(23L, server.getAttribute(name, "SourceBytes"));
+        assertEquals(0L, server.getAttribute(name, "ErrorCount"));
+
+        TabularData runs = (TabularData) server.getAttribute(name, "PhaseRuns");
+        assertEquals(1L, runs.get(new Object[] {"scan"}).get("value"));
+        assertEquals(1L, runs.get(new Object[] {"execute"}).get("value"));
+        assertEquals(0L, runs.get(new Object[] {"compile"}).get("value"));
+
+        TabularData tokens = (TabularData) server.getAttribute(name, "TokenCounts");
+        assertEquals(2L, tokens.get(new Object[] {"IDENTIFIER"}).get("value"));
+        assertEquals(2L, tokens.get(new Object[] {"NUMBER"}).get("value"));
+
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(0L, server.getAttribute(name, "TokenCount"));
+    }
+
+    @Test
+    void printsASummary() {
+        Stats.enable();
+        Stats.reset();
+        Lox.resetErrors();
+        capture(() -> Lox.run("print \"x\";"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Stats.print(new PrintStream(out, true, StandardCharsets.UTF_8));
+        String summary = out.toString(StandardCharsets.UTF_8);
+        assertTrue(summary.startsWith("phase"), summary);
+        assertTrue(summary.contains("\nscan "), summary);
+        assertTrue(summary.contains("scanned 10 bytes into 4 tokens"), summary);
+        assertTrue(summary.contains("tokens: SEMICOLON=1 STRING=1 PRINT=1 EOF=1"), summary);
+        assertTrue(summary.contains("inline caches: 0 hits, 0 misses"), summary);
+        assertTrue(summary.contains("errors: 0 compile, 0 runtime"), summary);
+    }
+
+    private static String capture(Runnable action) {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            action.run();
+        } finally {
+            System.setOut(originalOut);
+        }
+        return out.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+}
@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.craftinginterpreters.lox.TokenType.*;
+
+class StreamingScannerTest {
+    private static final String SOURCE = "var name = \"héllo wörld 😀\";\n"
+            + "// a comment with ümläuts that runs for a while\n"
+            + "/* a block /* nested, with \"quotes\" */\nacross lines **/ x /*/ odd */ * /\n"
+            + "fun add(a, b) { return a + b >= 12.75 and a != b; }\n"
+            + "print \"a string\nthat spans lines\";\n"
+            + "while (i <= 100) i = i / 2 - 1;\n"
+            + "variableNameThatIsMuchLongerThanTheWindow = 1234567.125;";
+
+    @Test
+    void matchesScannerForEveryChunkSize() throws IOException {
+        List<Token> expected = new Scanner(SOURCE).scanTokens();
+        for (int chunk = 4; chunk <= 40; chunk++) {
+            assertSameTokens(expected, scanChannel(SOURCE, chunk, 16));
+        }
+    }
+
+    @Test
+    void matchesScannerOverMappedFile(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("script.lox");
+        Files.writeString(file, SOURCE, StandardCharsets.UTF_8);
+
+        List<Token> expected = new Scanner(SOURCE).scanTokens();
+        for (int chunk = 1; chunk <= 9; chunk++) {
+            List<Token> tokens = new ArrayList<>();
+            StreamingScanner.scanFile(file, chunk, 16, tokens::add);
+            assertSameTokens(expected, tokens);
+        }
+    }
+
+    @Test
+    void tokenSplitAcrossChunksIsKeptWhole() throws IOException {
+        List<Token> tokens = scanChannel("identifier >= 3.25", 3, 16);
+        assertEquals(IDENTIFIER, tokens.get(0).type);
+        assertEquals("identifier", tokens.get(0).lexeme);
+        assertEquals(GREATER_EQUAL, tokens.get(1).type);
+        assertEquals(3.25, tokens.get(2).literal);
+        assertEquals(EOF, tokens.get(3).type);
+    }
+
+    @Test
+    void truncatedUtf8AtEndIsReplacedNotDropped() throws IOException {
+        byte[] bytes = {'"', 'a', (byte) 0xC3};
+        List<Token> tokens = new ArrayList<>();
+        StringBuilder errors = new StringBuilder();
+        StreamingScanner.scanChannel(Channels.newChannel(new ByteArrayInputStream(bytes)), 2, 16,
+                new ErrorSink(errors::append), tokens::add);
+        // The string is unterminated, so only EOF comes out; the point is that it does not hang.
+        assertEquals(1, tokens.size());
+        assertEquals(EOF, tokens.get(0).type);
+        assertEquals("[line 1] Error: Unterminated string.", errors.toString());
+    }
+
+    @Test
+    void errorsHaveTheScannersOffsetsForEveryChunkSize() throws IOException {
+        String[] sources = {
+            "var a = 1;\n  @@ # b ~\nprint \"é\" $ a; // ü\n" + "x".repeat(40) + " ?? \"open\nstring",
+            "/* ok */ @ 1.5 /* never /* closed */\n" + "y ".repeat(30),
+        };
+        for (String source : sources) {
+            String expected = jsonErrors(errors -> new Scanner(source, errors).scanTokenBuffer());
+            for (int chunk = 4; chunk <= 24; chunk++) {
+                int chunkBytes = chunk;
+                String actual = jsonErrors(errors -> StreamingScanner.scanChannel(
+                        Channels.newChannel(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8))),
+                        chunkBytes, 16, errors, token -> {}));
+                assertEquals(expected, actual, "chunk " + chunk);
+            }
+        }
+    }
+
+    private interface Scan {
+        void run(ErrorSink errors) throws IOException;
+    }
+
+    private static String jsonErrors(Scan scan) throws IOException {
+        StringBuilder out = new StringBuilder();
+        ErrorSink errors = new ErrorSink(batch -> out.append(batch).append('\n'),
+                ErrorSink.Format.JSON, ErrorSink.DEFAULT_MAX_ERRORS);
+        scan.run(errors);
+        errors.flush();
+        return out.toString();
+    }
+
+    @Test
+    void emptyInputProducesOnlyEOFToken() throws IOException {
+        List<Token> tokens = scanChannel("", 8, 16);
+        assertEquals(1, tokens.size());
+        assertEquals(EOF, tokens.get(0).type);
+    }
+
+    private static List<Token> scanChannel(String source, int chunkBytes, int windowChars) throws IOException {
+        List<Token> tokens = new ArrayList<>();
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        StreamingScanner.scanChannel(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                chunkBytes, windowChars, tokens::add);
+        return tokens;
+    }
+
+    private static void assertSameTokens(List<Token> expected, List<Token> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).type, actual.get(i).type);
+            assertEquals(expected.get(i).lexeme, actual.get(i).lexeme);
+            assertEquals(expected.get(i).literal, actual.get(i).literal);
+            assertEquals(expected.get(i).line, actual.get(i).line);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest {
+    @Test
+    void repeatedTextGetsTheSameIdAndInstance() {
+        SymbolTable symbols = new SymbolTable();
+        String source = "count = count + counter;";
+        int first = symbols.intern(source, 0, 5);
+        int second = symbols.intern(source, 8, 13);
+        int other = symbols.intern(source, 16, 23);
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals("count", symbols.name(first));
+        assertSame(symbols.name(first), symbols.name(second));
+        assertEquals(2, symbols.size());
+    }
+
+    @Test
+    void stringAndCharArrayLookupsAgree() {
+        SymbolTable symbols = new SymbolTable();
+        int fromString = symbols.intern("fun name()", 4, 8);
+        int fromChars = symbols.intern("name".toCharArray(), 0, 4);
+        assertEquals(fromString, fromChars);
+        assertEquals(fromString, symbols.intern("name"));
+    }
+
+    @Test
+    void idsSurviveGrowth() {
+        SymbolTable symbols = new SymbolTable();
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            String name = "v" + i;
+            ids.put(name, symbols.intern(name));
+        }
+        // Includes the empty string and texts whose String hashes collide ("Aa" and "BB").
+        ids.put("", symbols.intern(""));
+        ids.put("Aa", symbols.intern("Aa"));
+        ids.put("BB", symbols.intern("BB"));
+
+        assertEquals(ids.size(), symbols.size());
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            assertEquals(entry.getValue(), symbols.intern(entry.getKey()));
+            assertEquals(entry.getKey(), symbols.name(entry.getValue()));
+        }
+    }
+
+    @Test
+    void scannerSharesLexemesAndLiteralsAcrossOccurrences() {
+        List<Token> tokens = new Scanner("var a = \"x\"; a = a + \"x\";").scanTokens();
+        Token declared = tokens.get(1);
+        Token assigned = tokens.get(5);
+        Token read = tokens.get(7);
+        Token firstString = tokens.get(3);
+        Token secondString = tokens.get(9);
+
+        assertEquals(declared.symbol, read.symbol);
+        assertSame(declared.lexeme, assigned.lexeme);
+        assertSame(declared.lexeme, read.lexeme);
+        assertSame(firstString.literal, secondString.literal);
+        assertEquals("x", firstString.literal);
+        assertEquals("\"x\"", firstString.lexeme);
+
+        assertEquals(SymbolTable.NONE, tokens.get(0).symbol);  // var
+        assertEquals(SymbolTable.NONE, tokens.get(2).symbol);  // =
+    }
+
+    @Test
+    void appendingAnotherBufferTranslatesItsSymbols() {
+        String source = "b a b";
+        TokenBuffer target = new Scanner(source, 0, 2, 1).scanTokenBuffer();
+        target.truncate(target.size() - 1); // drop EOF
+        TokenBuffer other = new Scanner(source, 2, source.length(), 1).scanTokenBuffer();
+
+        target.addAll(other);
+
+        assertEquals(target.symbol(0), target.symbol(2));
+        assertNotEquals(target.symbol(0), target.symbol(1));
+        assertEquals("a", target.symbolTable().name(target.symbol(1)));
+    }
+}
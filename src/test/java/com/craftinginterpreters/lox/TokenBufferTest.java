@@ -0,0 +1,112 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.craftinginterpreters.lox.TokenType.*;
+
+class TokenBufferTest {
+    @Test
+    void bufferStoresTypesSpansAndLines() {
+        TokenBuffer buffer = new Scanner("var x = 1;\nprint x;").scanTokenBuffer();
+        assertEquals(9, buffer.size()); // 8 tokens + EOF
+        assertEquals(VAR, buffer.type(0));
+        assertEquals(0, buffer.start(0));
+        assertEquals(3, buffer.length(0));
+        assertEquals(IDENTIFIER, buffer.type(1));
+        assertEquals(4, buffer.start(1));
+        assertEquals("x", buffer.lexeme(1));
+        assertEquals(PRINT, buffer.type(5));
+        assertEquals(2, buffer.line(5));
+        assertEquals(EOF, buffer.type(8));
+    }
+
+    @Test
+    void spansHaveColumnsAndLinesAtBothEnds() {
+        TokenBuffer buffer = new Scanner("var s =\n  \"one\ntwo\";\tx").scanTokenBuffer();
+        // The string starts on line 2, column 3, and ends on line 3 after "two\"".
+        assertEquals(STRING, buffer.type(3));
+        assertEquals(2, buffer.startLine(3));
+        assertEquals(3, buffer.column(3));
+        assertEquals(3, buffer.endLine(3));
+        assertEquals(3, buffer.line(3));
+        assertEquals(5, buffer.endColumn(3));
+        // Columns count chars, so a tab is one.
+        assertEquals(IDENTIFIER, buffer.type(5));
+        assertEquals(7, buffer.column(5));
+        assertEquals(LineIndex.of(buffer.source()), buffer.lineIndex());
+    }
+
+    @Test
+    void numberLiteralsAreStoredUnboxed() {
+        TokenBuffer buffer = new Scanner("12.5 7").scanTokenBuffer();
+        assertEquals(12.5, buffer.number(0));
+        assertEquals(7.0, buffer.number(1));
+        assertThrows(IllegalStateException.class, () -> buffer.number(2));
+    }
+
+    @Test
+    void numberValuesSurviveEditsAndAreRepacked() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100; i++) source.append(i).append(" x ");
+        IncrementalScanner scanner = new IncrementalScanner(source.toString(), new ErrorSink(batch -> {}));
+
+        // Each edit replaces one number, leaving its old value behind until they are repacked.
+        for (int edit = 0; edit < 500; edit++) {
+            int token = (edit * 7 % 100) * 2;
+            TokenBuffer tokens = scanner.tokens();
+            scanner.edit(tokens.start(token), tokens.length(token), Integer.toString(edit + 1000));
+        }
+
+        TokenBuffer tokens = scanner.tokens();
+        TokenBuffer expected = new Scanner(scanner.source()).scanTokenBuffer();
+        assertEquals(expected.size(), tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(expected.type(i), tokens.type(i));
+            if (tokens.type(i) == NUMBER) assertEquals(expected.number(i), tokens.number(i));
+            assertEquals(expected.literal(i), tokens.literal(i));
+            assertEquals(SymbolTable.NONE == expected.symbol(i), SymbolTable.NONE == tokens.symbol(i));
+        }
+    }
+
+    @Test
+    void stringLiteralIsMaterializedFromTheSpan() {
+        TokenBuffer buffer = new Scanner("\"hello\"").scanTokenBuffer();
+        assertEquals("\"hello\"", buffer.lexeme(0));
+        assertEquals("hello", buffer.literal(0));
+    }
+
+    @Test
+    void listViewMatchesBufferContents() {
+        TokenBuffer buffer = new Scanner("if (a >= 2) \"s\";").scanTokenBuffer();
+        List<Token> tokens = buffer.asList();
+        assertEquals(buffer.size(), tokens.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            Token token = tokens.get(i);
+            assertEquals(buffer.type(i), token.type);
+            assertEquals(buffer.lexeme(i), token.lexeme);
+            assertEquals(buffer.literal(i), token.literal);
+            assertEquals(buffer.line(i), token.line);
+            assertEquals(buffer.start(i), token.offset);
+        }
+    }
+
+    @Test
+    void bufferGrowsPastInitialCapacity() {
+        TokenBuffer buffer = new TokenBuffer("", 1);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(DOT, i, 1, 1);
+        }
+        assertEquals(100, buffer.size());
+        assertEquals(99, buffer.start(99));
+    }
+
+    @Test
+    void outOfRangeIndexThrows() {
+        TokenBuffer buffer = new Scanner("").scanTokenBuffer();
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.type(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.asList().get(-1));
+    }
+}
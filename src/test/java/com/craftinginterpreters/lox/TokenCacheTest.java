@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenCacheTest {
+    private static final String SOURCE = "var x = 1.5;\nfun f(a) { return a + \"s\" + x; }\nprint f(2); // done";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storedTokensLoadBackEqual() {
+        TokenCache cache = new TokenCache(directory, TokenCache.DEFAULT_MAX_BYTES);
+        String key = key(SOURCE);
+        assertNull(cache.load(key, SOURCE));
+
+        TokenBuffer scanned = new Scanner(SOURCE).scanTokenBuffer();
+        cache.store(key, scanned);
+        TokenBuffer loaded = cache.load(key, SOURCE);
+
+        assertNotNull(loaded);
+        assertEquals(scanned.size(), loaded.size());
+        for (int i = 0; i < scanned.size(); i++) {
+            assertEquals(scanned.type(i), loaded.type(i));
+            assertEquals(scanned.start(i), loaded.start(i));
+            assertEquals(scanned.length(i), loaded.length(i));
+            assertEquals(scanned.line(i), loaded.line(i));
+            assertEquals(scanned.lexeme(i), loaded.lexeme(i));
+            assertEquals(scanned.literal(i), loaded.literal(i));
+        }
+    }
+
+    @Test
+    void corruptEntriesAreMissesAndDeleted() throws IOException {
+        TokenCache cache = new TokenCache(directory, TokenCache.DEFAULT_MAX_BYTES);
+        String key = key(SOURCE);
+        cache.store(key, new Scanner(SOURCE).scanTokenBuffer());
+
+        Path file = directory.resolve(key + ".tokens");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 3] ^= 0x40;
+        Files.write(file, bytes);
+
+        assertNull(cache.load(key, SOURCE));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void truncatedAndStaleEntriesAreMisses() throws IOException {
+        TokenCache cache = new TokenCache(directory, TokenCache.DEFAULT_MAX_BYTES);
+        String key = key(SOURCE);
+        Path file = directory.resolve(key + ".tokens");
+
+        cache.store(key, new Scanner(SOURCE).scanTokenBuffer());
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertNull(cache.load(key, SOURCE));
+
+        cache.store(key, new Scanner(SOURCE).scanTokenBuffer());
+        bytes = Files.readAllBytes(file);
+        bytes[4] = (byte) (TokenCache.VERSION + 1);
+        Files.write(file, bytes);
+        assertNull(cache.load(key, SOURCE));
+
+        // A source of a different length never matches, whatever the key says.
+        cache.store(key, new Scanner(SOURCE).scanTokenBuffer());
+        assertNull(cache.load(key, SOURCE + " "));
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        String[] sources = {"print 1;", "print 2;", "print 3;"};
+        TokenCache unbounded = new TokenCache(directory, TokenCache.DEFAULT_MAX_BYTES);
+        unbounded.store(key(sources[0]), new Scanner(sources[0]).scanTokenBuffer());
+        long entryBytes = Files.size(directory.resolve(key(sources[0]) + ".tokens"));
+
+        // Room for two entries: storing a third evicts whichever was used least recently.
+        TokenCache cache = new TokenCache(directory, 2 * entryBytes);
+        cache.store(key(sources[1]), new Scanner(sources[1]).scanTokenBuffer());
+        Files.setLastModifiedTime(directory.resolve(key(sources[0]) + ".tokens"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(directory.resolve(key(sources[1]) + ".tokens"), FileTime.fromMillis(2000));
+        assertNotNull(cache.load(key(sources[0]), sources[0]));
+
+        cache.store(key(sources[2]), new Scanner(sources[2]).scanTokenBuffer());
+        assertNotNull(cache.load(key(sources[0]), sources[0]));
+        assertNull(cache.load(key(sources[1]), sources[1]));
+        assertNotNull(cache.load(key(sources[2]), sources[2]));
+    }
+
+    @Test
+    void keysDependOnContent() {
+        assertEquals(32, key(SOURCE).length());
+        assertEquals(key(SOURCE), key(new String(SOURCE)));
+        assertNotEquals(key(SOURCE), key(SOURCE.replace('1', '2')));
+    }
+
+    private static String key(String source) {
+        return TokenCache.key(source.getBytes(StandardCharsets.UTF_8));
+    }
+}
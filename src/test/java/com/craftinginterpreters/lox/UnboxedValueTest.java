@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class UnboxedValueTest {
+    // Numbers going on and off the VM stack through every path, with output that must be the
+    // same on the tree-walker, the VM, and the VM with its JIT. Each loops past Jit.HOT.
+    private static final String[] PROGRAMS = {
+        // Globals, fields and natives hold boxed numbers.
+        "var g = 0; class Box { init() { this.n = 0; } }\n"
+                + "fun step(box, i) { g = g + i; box.n = box.n + g / 1000; return box.n; }\n"
+                + "var box = Box(); var last; for (var i = 0; i < 2000; i = i + 1) last = step(box, i);\n"
+                + "print g; print box.n == last; print clock() > 0 and clock() + 1 > 1;",
+        // Open and closed upvalues.
+        "fun counter() { var n = 0; fun inc(by) { n = n + by; return n; } return inc; }\n"
+                + "var inc = counter(); var sum = 0;\n"
+                + "fun loop() { for (var i = 0; i < 2000; i = i + 1) sum = sum + inc(i / 2); }\n"
+                + "loop(); print sum; print inc(0);\n"
+                + "{ var local = 1; fun add(x) { local = local + x; return local; }"
+                + " for (var i = 0; i < 2000; i = i + 1) add(i); print local; }",
+        // Equality keeps Double.equals: NaN equals itself and 0 is not -0.
+        "fun eq(a, b) { return a == b; }\n"
+                + "var n = 0; for (var i = 0; i < 2000; i = i + 1) if (eq(i, i) and !eq(i, \"i\")) n = n + 1;\n"
+                + "var nan = 0 / 0; print n; print eq(nan, nan); print eq(0, -0); print eq(1, true);\n"
+                + "print eq(nil, false); print eq(nil, nil); print eq(true, 1 < 2); print nan != nan;",
+        // Numbers as results of methods, initializers and mixed '+'.
+        "class V { init(x) { this.x = x; } len() { return this.x * this.x; } }\n"
+                + "fun join(a, b) { return a + b; }\n"
+                + "var total = 0; for (var i = 0; i < 2000; i = i + 1) total = join(total, V(i).len());\n"
+                + "print total; print join(\"a\", \"b\"); print join(-total, total);",
+    };
+
+    @Test
+    void everyBackendPrintsTheSame() {
+        for (String source : PROGRAMS) {
+            String expected = run(source, null);
+            assertEquals(expected, run(source, false), source);
+            assertEquals(expected, run(source, true), source);
+        }
+    }
+
+    @Test
+    void numericLoopsDoNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        for (boolean jit : new boolean[] {false, true}) {
+            ErrorSink errors = new ErrorSink(batch -> fail(batch));
+            VM vm = new VM(errors, line -> {}, jit);
+            vm.interpret(compile("fun loop(n) { var sum = 0; var flag = nil;\n"
+                    + "  for (var i = 0; i < n; i = i + 1) { sum = sum + i * 2 - i / 4;"
+                    + " if (sum > 10 == !flag) flag = sum != i; }\n"
+                    + "  return sum; }", errors));
+            Obj.Function call = compile("loop(100000);", errors);
+            // Once to compile, then measured.
+            vm.interpret(call);
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            vm.interpret(call);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            // Boxing would take over 16 bytes an operation; what is left is the call itself.
+            assertTrue(allocated < 10_000, (jit ? "jit: " : "vm: ") + allocated + " bytes");
+        }
+    }
+
+    private static Obj.Function compile(String source, ErrorSink errors) {
+        Obj.Function function = new Compiler(new Scanner(source, errors).scanTokenBuffer(), errors).compile();
+        assertNotNull(function, source);
+        return function;
+    }
+
+    /**
+     * Runs the source on the tree-walker when jit is null, and on the VM otherwise.
+     */
+    private static String run(String source, Boolean jit) {
+        StringBuilder out = new StringBuilder();
+        ErrorSink errors = new ErrorSink(batch -> out.append(batch).append('\n'));
+        TokenBuffer tokens = new Scanner(source, errors).scanTokenBuffer();
+        if (jit == null) {
+            LoxEngine.execute(tokens, errors, new Interpreter(errors, line -> out.append(line).append('\n')));
+        } else {
+            LoxEngine.execute(tokens, errors, new VM(errors, line -> out.append(line).append('\n'), jit));
+        }
+        errors.flush();
+        return out.toString();
+    }
+}
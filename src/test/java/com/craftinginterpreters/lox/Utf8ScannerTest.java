@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8ScannerTest {
+    private static final String[] PIECES = {
+            "var x = 1.5;\n", "\"a string\"", "\"héllo wörld\"", "\"日本語\n二行\"", "\"emoji 😀!\"",
+            "// comment with ümlauts\n", "/* Grüße /* nested € */ */", "fun f(a) { return a <= 2; }\n",
+            "é", "€", "😀", "@", " ", "ident", "_x9", "12", " ", "\t", "\n", "\"", "/*", "*/",
+            "print \"// not a comment\";\n", "class C < D {}\n", "\"\"", "!= == >= <",
+    };
+
+    @Test
+    void randomSourcesMatchTheCharScanner() {
+        Random random = new Random(20);
+        for (int round = 0; round < 500; round++) {
+            StringBuilder source = new StringBuilder();
+            int pieces = 1 + random.nextInt(60);
+            for (int i = 0; i < pieces; i++) source.append(PIECES[random.nextInt(PIECES.length)]);
+            assertSameAsCharScanner(source.toString());
+        }
+    }
+
+    @Test
+    void pulledTokensMatchToo() {
+        String text = "print \"naïve\" + \"😀\";\nvar ß = 1;";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        List<String> expected = new ArrayList<>();
+        for (Token token : new Scanner(text, quiet())) expected.add(token + " @" + token.line);
+        List<String> actual = new ArrayList<>();
+        for (Token token : Scanner.utf8(ByteBuffer.wrap(bytes), quiet())) actual.add(token + " @" + token.line);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void malformedBytesAreReportedWithTheirOffsets() {
+        byte[] bytes = {
+                'p', 'r', 'i', 'n', 't', ' ', '"', 'a', (byte) 0xE2, (byte) 0x82, '"', ';', '\n',
+                (byte) 0xFF, (byte) 0xFF, ' ', (byte) 0xC3, '(', ' ', (byte) 0xED, (byte) 0xA0, (byte) 0x80,
+        };
+        StringBuilder text = new StringBuilder();
+        ErrorSink errors = new ErrorSink(batch -> text.append(batch).append('\n'), ErrorSink.Format.JSON, 100);
+        String source = Utf8.wrap(bytes);
+        errors.setSource(source);
+        TokenBuffer tokens = Scanner.utf8(source, errors).scanTokenBuffer();
+
+        // The truncated sequence is one error, and the string is still a token, as decoded text.
+        assertEquals(TokenType.STRING, tokens.type(1));
+        assertEquals("a�", tokens.literal(1));
+        String[] reports = text.toString().split("\n");
+        assertEquals(6, reports.length);
+        assertTrue(reports[0].contains("\"code\":\"L004\""));
+        assertTrue(reports[0].contains("\"line\":1,\"column\":9,\"offset\":8,\"length\":2"));
+        assertTrue(reports[0].contains("Invalid UTF-8 sequence 0xE2 0x82."));
+        assertTrue(reports[1].contains("\"line\":2,\"column\":1,\"offset\":13,\"length\":2,\"count\":2"));
+        assertTrue(reports[2].contains("\"offset\":16,\"length\":1,"));
+        assertTrue(reports[2].contains("0xC3."));
+        // An encoded surrogate is malformed, and a decoder replaces each of its bytes.
+        assertTrue(reports[3].contains("\"offset\":19,\"length\":1,"));
+        assertTrue(reports[4].contains("\"offset\":20,\"length\":1,\"count\":1,"
+                + "\"message\":\"Invalid UTF-8 sequence 0xA0.\""));
+        assertTrue(reports[5].contains("0x80."));
+    }
+
+    private static void assertSameAsCharScanner(String text) {
+        StringBuilder expectedErrors = new StringBuilder();
+        TokenBuffer expected = new Scanner(text, collect(expectedErrors)).scanTokenBuffer();
+        StringBuilder actualErrors = new StringBuilder();
+        TokenBuffer actual = Scanner.utf8(text.getBytes(StandardCharsets.UTF_8), collect(actualErrors))
+                .scanTokenBuffer();
+
+        assertEquals(expectedErrors.toString(), actualErrors.toString(), text);
+        assertEquals(expected.size(), actual.size(), text);
+        StringBuilder expectedText = new StringBuilder();
+        StringBuilder actualText = new StringBuilder();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.token(i).toString(), actual.token(i).toString(), text);
+            assertEquals(expected.line(i), actual.line(i), text);
+            assertEquals(expected.symbol(i) == SymbolTable.NONE, actual.symbol(i) == SymbolTable.NONE);
+            expected.format(i, expectedText);
+            actual.format(i, actualText);
+        }
+        assertEquals(expectedText.toString(), actualText.toString(), text);
+    }
+
+    private static ErrorSink collect(StringBuilder text) {
+        return new ErrorSink(batch -> text.append(batch).append('\n'));
+    }
+
+    private static ErrorSink quiet() {
+        return new ErrorSink(batch -> {});
+    }
+}
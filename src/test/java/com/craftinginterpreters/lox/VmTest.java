@@ -0,0 +1,167 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VmTest {
+    // Programs whose output must be the same on the VM and the tree-walking Interpreter.
+    private static final String[] PROGRAMS = {
+        "print 1 + 2 * 3; print -(3 - 2); print 5 / 2; print !nil; print 1 <= 1; print 2 >= 3;",
+        "print \"a\" + \"b\"; print 1 == 1; print \"a\" == \"b\"; print nil == nil; print 1 != 2;",
+        "print nil or \"yes\"; print nil and 1; print 1 or undefined; print false or false;",
+        "var a = \"global\";\n"
+                + "{ var a = \"outer\"; { var a = \"inner\"; print a; } print a; }\n"
+                + "print a;",
+        "fun makeCounter() { var i = 0; fun count() { i = i + 1; return i; } return count; }\n"
+                + "var counter = makeCounter(); counter(); print counter();\n"
+                + "var a = \"global\";\n"
+                + "{ fun show() { print a; } show(); var a = \"block\"; show(); }",
+        "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\n"
+                + "print fib(15);\n"
+                + "var total = 0; for (var i = 1; i <= 10; i = i + 1) total = total + i; print total;\n"
+                + "var j = 0; while (j < 3) j = j + 1; print j;",
+        "class A { init(name) { this.name = name; } greet() { return \"A \" + this.name; } }\n"
+                + "class B < A { greet() { return \"B \" + super.greet(); } }\n"
+                + "var b = B(\"x\"); print b.greet(); print b; print B;\n"
+                + "var m = b.greet; print m();\n"
+                + "print b.init(\"y\").name;",
+        "fun outer() { var x = 1; fun middle() { fun inner() { x = x + 1; return x; } return inner; }"
+                + " return middle(); }\n"
+                + "var f = outer(); f(); print f(); print outer; print clock;",
+        "class Counter { init() { this.n = 0; } add() { this.n = this.n + 1; return this; } }\n"
+                + "var c = Counter(); c.add().add().add(); print c.n;\n"
+                + "fun twice() { return 2; } c.f = twice; print c.f();\n"
+                + "class Base { get() { return \"base\"; } }\n"
+                + "class Derived < Base { get() { var s = super.get; return s() + \"!\"; } }\n"
+                + "print Derived().get();",
+        "if (1 < 2) print \"then\"; else print \"else\";\n"
+                + "if (nil) print \"then\"; else print \"else\";\n"
+                + "for (var i = 0; i < 3; i = i + 1) { var sq = i * i; print sq; }\n"
+                + "var s = \"\"; while (s != \"xxx\") s = s + \"x\"; print s;",
+        "var s = \"\"; var t = \"\"; for (var i = 0; i < 3000; i = i + 1) { s = s + \"ab\"; t = \"ab\" + t; }\n"
+                + "print s == t; print s == t + \"a\"; print s + \"!\" == t + \"!\"; print (s + t) == (t + s);\n"
+                + "var short = \"ab\" + \"ab\"; print short == \"abab\"; print s; print \"<\" + s + \">\";",
+    };
+
+    @Test
+    void matchesTheTreeWalkingInterpreter() {
+        for (String source : PROGRAMS) {
+            assertEquals(runTreeWalker(source), runVm(source), source);
+        }
+    }
+
+    @Test
+    void closuresShareCapturedVariables() {
+        String source = "var get; var set;\n"
+                + "fun make() { var v = \"before\"; fun g() { return v; } fun s(x) { v = x; }"
+                + " get = g; set = s; }\n"
+                + "make(); set(\"after\"); print get();\n"
+                + "{ var loop = 1; fun f() { return loop; } loop = 2; print f(); }";
+        assertEquals("after\n2\n", runVm(source));
+    }
+
+    @Test
+    void runtimeErrorsPrintACallTrace() {
+        String source = "fun inner() { return 1 + \"a\"; }\n"
+                + "fun outer() {\n  return inner();\n}\n"
+                + "outer();";
+        assertEquals("Operands must be two numbers or two strings.\n"
+                + "[line 1] in inner()\n"
+                + "[line 3] in outer()\n"
+                + "[line 5] in script\n", runVmForErrors(source));
+    }
+
+    @Test
+    void deepRecursionOverflowsTheFrameStack() {
+        String errors = runVmForErrors("fun f(n) { return f(n + 1); } f(0);");
+        assertTrue(errors.startsWith("Stack overflow.\n"), errors);
+    }
+
+    @Test
+    void vmRecoversAfterARuntimeError() {
+        VM vm = new VM();
+        PrintStream originalErr = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        try {
+            assertFalse(vm.interpret(compile("var a = 1; print -\"x\";")));
+        } finally {
+            System.setErr(originalErr);
+        }
+
+        assertEquals("2\n", capture(() -> assertTrue(vm.interpret(compile("print a + 1;")))));
+    }
+
+    @Test
+    void compileErrorsUseTheParserMessages() {
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+        Obj.Function script;
+        try {
+            script = compile("var = 1;\nprint a +;\nreturn 1;\n1 = 2;");
+        } finally {
+            System.setErr(originalErr);
+        }
+
+        assertNull(script);
+        assertEquals("[line 1] Error at '=': Expect variable name.\n"
+                + "[line 2] Error at ';': Expect expression.\n"
+                + "[line 3] Error at 'return': Can't return from top-level code.\n"
+                + "[line 4] Error at '=': Invalid assignment target.\n",
+                err.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"));
+    }
+
+    @Test
+    void equalConstantsShareOneSlot() {
+        Obj.Function script = compile("print 1 + 1; var x = \"a\"; x = \"a\" + x;");
+        // 1, "x" and "a": the repeated literals and the repeated name are pooled.
+        assertEquals(3, script.chunk.constants.length);
+    }
+
+    private static Obj.Function compile(String source) {
+        return new Compiler(new Scanner(source).scanTokenBuffer()).compile();
+    }
+
+    private static String runVm(String source) {
+        Obj.Function script = compile(source);
+        assertNotNull(script, source);
+        return capture(() -> new VM().interpret(script));
+    }
+
+    private static String runTreeWalker(String source) {
+        List<Stmt> statements = new Parser(new ArrayList<>(new Scanner(source).scanTokens())).parse();
+        new Resolver().resolve(statements);
+        return capture(() -> new Interpreter().interpret(statements));
+    }
+
+    private static String runVmForErrors(String source) {
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+        try {
+            runVm(source);
+        } finally {
+            System.setErr(originalErr);
+        }
+        return err.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+
+    private static String capture(Runnable action) {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            action.run();
+        } finally {
+            System.setOut(originalOut);
+        }
+        return out.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+}